@@ -0,0 +1,104 @@
+package it.unimi.di.big.mg4j.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.util.XorShift128PlusRandom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Measures the latency of fetching a page of results from a {@link SimpleCompressedDocumentCollection} one document at a time 
+ * and with {@link AbstractDocumentCollection#documents(long[], DocumentCollection[], java.util.concurrent.Executor)}, 
+ * checking that both return the same documents. 
+ * 
+ * <p>The collection is small enough to sit in the page cache, so the timings logged
+ * measure the effect of decoding and parsing documents concurrently, not of concurrent disk reads. */
+
+public class DocumentBatchSlowTest {
+	private final static Logger LOGGER = LoggerFactory.getLogger( DocumentBatchSlowTest.class );
+	private final static int NUMBER_OF_DOCUMENTS = 100000;
+	private final static int WORDS_PER_DOCUMENT = 500;
+	private final static int PAGE_SIZE = 10;
+	private final static int PAGES = 2000;
+	private final static int THREADS = AbstractDocumentCollection.DEFAULT_FETCH_THREADS;
+	private static String basename;
+	private static AbstractDocumentCollection collection;
+
+	@BeforeClass
+	public static void setUp() throws ConfigurationException, IOException, ClassNotFoundException {
+		basename = File.createTempFile( DocumentBatchSlowTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		final XorShift128PlusRandom random = new XorShift128PlusRandom( 0 );
+		final String[] document = new String[ NUMBER_OF_DOCUMENTS ];
+		final MutableString s = new MutableString();
+		for( int d = 0; d < NUMBER_OF_DOCUMENTS; d++ ) {
+			s.length( 0 );
+			for( int w = 0; w < WORDS_PER_DOCUMENT; w++ ) s.append( 'w' ).append( random.nextInt( 20000 ) ).append( ' ' );
+			document[ d ] = s.toString();
+		}
+		final StringArrayDocumentCollection stringArrayDocumentCollection = new StringArrayDocumentCollection( document );
+		new SimpleCompressedDocumentCollectionBuilder( basename, stringArrayDocumentCollection.factory(), true ).build( stringArrayDocumentCollection );
+		collection = (AbstractDocumentCollection)AbstractDocumentSequence.load( basename + DocumentCollection.DEFAULT_EXTENSION );
+	}
+
+	@AfterClass
+	public static void tearDown() throws IOException {
+		collection.close();
+		for ( Object f : FileUtils.listFiles( new File( basename ).getParentFile(), FileFilterUtils.prefixFileFilter( DocumentBatchSlowTest.class.getSimpleName() ), null ) )
+			( (File)f ).delete();
+	}
+
+	/** Reads all words of all documents returned by an iterator, and checks that there are exactly <code>n</code> of them. */
+	private static MutableString readAll( final DocumentIterator documentIterator, final int n ) throws IOException {
+		final MutableString result = new MutableString(), word = new MutableString(), nonWord = new MutableString();
+		for( int i = 0; i < n; i++ ) {
+			final Document document = documentIterator.nextDocument();
+			final WordReader wordReader = document.wordReader( 0 ).setReader( (Reader)document.content( 0 ) );
+			while( wordReader.next( word, nonWord ) ) result.append( word ).append( ' ' );
+			result.append( '\n' );
+		}
+		assertNull( documentIterator.nextDocument() );
+		documentIterator.close();
+		return result;
+	}
+
+	@Test
+	public void testPageLatency() throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+		final DocumentCollection[] copy = new DocumentCollection[ THREADS ];
+		for( int t = 0; t < THREADS; t++ ) copy[ t ] = collection.copy();
+		final XorShift128PlusRandom random = new XorShift128PlusRandom( 1 );
+		final long[] page = new long[ PAGE_SIZE ];
+
+		for( int r = 0; r < 3; r++ ) { // We repeat to warm up
+			long sequential = 0, batch = 0;
+			for( int p = 0; p < PAGES; p++ ) {
+				for( int i = 0; i < PAGE_SIZE; i++ ) page[ i ] = random.nextInt( NUMBER_OF_DOCUMENTS );
+				sequential -= System.nanoTime();
+				final MutableString expected = readAll( collection.documents( page, 1 ), PAGE_SIZE );
+				sequential += System.nanoTime();
+				batch -= System.nanoTime();
+				final MutableString result = readAll( collection.documents( page, copy, executor ), PAGE_SIZE );
+				batch += System.nanoTime();
+				assertEquals( expected, result );
+			}
+			LOGGER.info( "Mean latency for a page of " + PAGE_SIZE + " documents: sequential " + sequential / 1E3 / PAGES + " us, " + THREADS + " threads " + batch / 1E3 / PAGES + " us" );
+		}
+
+		executor.shutdown();
+		for( DocumentCollection c: copy ) c.close();
+	}
+}
@@ -0,0 +1,105 @@
+package it.unimi.di.big.mg4j.document;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.fastutil.chars.CharArrays;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Compares the memory allocated per document by {@link HtmlDocumentFactory#decode(java.io.InputStream, Charset)} 
+ * and by the previous decoding path, which wrapped each document in a new {@link InputStreamReader}. 
+ * 
+ * <p>Allocation is measured using {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}; 
+ * the test is skipped on virtual machines that do not support it. */
+
+public class HtmlDecodingSlowTest {
+	private final static Logger LOGGER = LoggerFactory.getLogger( HtmlDecodingSlowTest.class );
+	private final static int NUMBER_OF_DOCUMENTS = 1000;
+	private final static int DOCUMENT_LENGTH = 8000;
+	private final static int PASSES = 20;
+
+	private char[] text = new char[ HtmlDocumentFactory.DEFAULT_BUFFER_SIZE ];
+
+	/** Decodes a document as {@link HtmlDocumentFactory} did before decoding into reusable buffers. */
+	private int readerDecode( final FastByteArrayInputStream rawContent, final Charset charset ) throws IOException {
+		int offset = 0, l;
+		final Reader r = new InputStreamReader( rawContent, charset );
+		while( ( l = r.read( text, offset, text.length - offset ) ) > 0 ) {
+			offset += l;
+			text = CharArrays.grow( text, offset + 1 );
+		}
+		return offset;
+	}
+
+	private static FastByteArrayInputStream[] documents( final Charset charset ) {
+		final Random random = new Random( 0 );
+		final FastByteArrayInputStream[] document = new FastByteArrayInputStream[ NUMBER_OF_DOCUMENTS ];
+		final StringBuilder s = new StringBuilder();
+		for( int d = 0; d < NUMBER_OF_DOCUMENTS; d++ ) {
+			s.setLength( 0 );
+			s.append( "<html><body>" );
+			while( s.length() < DOCUMENT_LENGTH ) s.append( "caff\u00e8 citt\u00e0 " ).append( random.nextInt() ).append( ' ' );
+			s.append( "</body></html>" );
+			document[ d ] = new FastByteArrayInputStream( s.toString().getBytes( charset ) );
+		}
+		return document;
+	}
+
+	@Test
+	public void testAllocation() throws IOException, ConfigurationException {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue( bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported() );
+		final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)bean;
+		threadMXBean.setThreadAllocatedMemoryEnabled( true );
+		final long threadId = Thread.currentThread().getId();
+		final HtmlDocumentFactory factory = new HtmlDocumentFactory();
+
+		for( String charsetName: new String[] { "ISO-8859-1", "UTF-8" } ) {
+			final Charset charset = Charset.forName( charsetName );
+			final FastByteArrayInputStream[] document = documents( charset );
+
+			// Check that both paths decode the same characters, and warm up.
+			for( FastByteArrayInputStream d: document ) {
+				d.position( 0 );
+				final int length = readerDecode( d, charset );
+				final char[] expected = Arrays.copyOf( text, length );
+				d.position( 0 );
+				assertArrayEquals( expected, Arrays.copyOf( factory.text, factory.decode( d, charset ) ) );
+			}
+
+			long reader = 0, decode = 0;
+			for( int p = 0; p < PASSES; p++ ) {
+				reader -= threadMXBean.getThreadAllocatedBytes( threadId );
+				for( FastByteArrayInputStream d: document ) {
+					d.position( 0 );
+					readerDecode( d, charset );
+				}
+				reader += threadMXBean.getThreadAllocatedBytes( threadId );
+
+				decode -= threadMXBean.getThreadAllocatedBytes( threadId );
+				for( FastByteArrayInputStream d: document ) {
+					d.position( 0 );
+					factory.decode( d, charset );
+				}
+				decode += threadMXBean.getThreadAllocatedBytes( threadId );
+			}
+
+			final long documents = (long)PASSES * NUMBER_OF_DOCUMENTS;
+			LOGGER.info( charset + ": allocated bytes per document: InputStreamReader " + reader / documents + ", decode() " + decode / documents );
+			assertTrue( charset + ": " + decode / documents + " >= " + reader / documents, decode < reader );
+		}
+	}
+}
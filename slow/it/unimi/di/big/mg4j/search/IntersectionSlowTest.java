@@ -0,0 +1,97 @@
+package it.unimi.di.big.mg4j.search;
+
+import static it.unimi.di.big.mg4j.search.DocumentIterator.END_OF_LIST;
+import static org.junit.Assert.assertEquals;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Checks {@link AndDocumentIterator} against a skip-only intersection on terms of varying density, 
+ * logging timings that show the crossover between merging and skipping. */
+
+public class IntersectionSlowTest {
+	private final static Logger LOGGER = LoggerFactory.getLogger( IntersectionSlowTest.class );
+	private final static int NUMBER_OF_DOCUMENTS = 4000000;
+	/** Term <code>t<var>k</var></code> appears in document <var>d</var> if <var>d</var> is a multiple of <var>k</var>. */
+	private final static int[] MODULUS = { 1, 2, 3, 4, 8, 16, 64, 1024, 65536 };
+	private static String basename;
+	private static Index index;
+
+	@BeforeClass
+	public static void setUp() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		basename = File.createTempFile( IntersectionSlowTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		final String[] document = new String[ NUMBER_OF_DOCUMENTS ];
+		final MutableString s = new MutableString();
+		for( int d = 0; d < NUMBER_OF_DOCUMENTS; d++ ) {
+			s.length( 0 );
+			for( int k: MODULUS ) if ( d % k == 0 ) s.append( 't' ).append( k ).append( ' ' );
+			document[ d ] = s.toString();
+		}
+		new IndexBuilder( basename, new StringArrayDocumentCollection( document ) ).run();
+		index = Index.getInstance( basename + "-text?mapped=1", true, true );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for ( Object f : FileUtils.listFiles( new File( basename ).getParentFile(), FileFilterUtils.prefixFileFilter( IntersectionSlowTest.class.getSimpleName() ), null ) )
+			( (File)f ).delete();
+	}
+
+	private static long skipOnly( final IndexIterator rare, final IndexIterator frequent ) throws IOException {
+		long c = 0;
+		for( long d = rare.nextDocument(); d != END_OF_LIST; ) {
+			final long res = frequent.skipTo( d );
+			if ( res == END_OF_LIST ) break;
+			if ( res == d ) {
+				c++;
+				d = rare.nextDocument();
+			}
+			else d = rare.skipTo( res );
+		}
+		return c;
+	}
+
+	@Test
+	public void testCrossover() throws IOException {
+		for( int i = 0; i < MODULUS.length; i++ ) 
+			for( int j = 0; j < i; j++ ) {
+				final int rare = MODULUS[ i ], frequent = MODULUS[ j ];
+				final long expected = ( NUMBER_OF_DOCUMENTS + rare - 1 ) / rare;
+				
+				for( int r = 0; r < 3; r++ ) { // We repeat to warm up
+					long start = - System.nanoTime();
+					final DocumentIterator and = AndDocumentIterator.getInstance( index.documents( "t" + rare ), index.documents( "t" + frequent ) );
+					long count = 0;
+					while( and.nextDocument() != END_OF_LIST ) count++;
+					and.dispose();
+					start += System.nanoTime();
+					assertEquals( expected, count );
+					
+					long skip = - System.nanoTime();
+					final IndexIterator rareIterator = index.documents( "t" + rare ), frequentIterator = index.documents( "t" + frequent );
+					assertEquals( expected, skipOnly( rareIterator, frequentIterator ) );
+					rareIterator.dispose();
+					frequentIterator.dispose();
+					skip += System.nanoTime();
+					
+					if ( r == 2 ) LOGGER.info( "t" + rare + " & t" + frequent + " (ratio " + ( rare / frequent ) + "): adaptive " + start / 1E6 + " ms, skipping " + skip / 1E6 + " ms" );
+				}
+			}
+	}
+}
@@ -21,13 +21,22 @@ package it.unimi.di.big.mg4j.document;
  */
 
 import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.io.SafelyCloseable;
 import it.unimi.dsi.io.WordReader;
 import it.unimi.dsi.lang.MutableString;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 /** An abstract, {@link it.unimi.dsi.io.SafelyCloseable safely closeable} implementation of a document collection. 
  * 
@@ -38,6 +47,10 @@ import java.io.Reader;
  * to implement the iterator, creating two iterators concurrently will usually lead
  * to unpredictable results.
  * 
+ * <p>The implementation of {@link #documents(long[])} provided by this class fetches documents
+ * concurrently using {@linkplain #copy() flyweight copies} (see {@link #documents(long[], int)} and
+ * {@link #documents(long[], DocumentCollection[], Executor)}).
+ * 
  * <p>As a commodity, the {@link #ensureDocumentIndex(long)} method can be called
  * whenever it is necessary to check that a document index is not
  * out of range.
@@ -80,6 +93,238 @@ public abstract class AbstractDocumentCollection extends AbstractDocumentSequenc
 		};
 	}
 	
+	/** The default number of threads used by {@link #documents(long[])}. */
+	public static final int DEFAULT_FETCH_THREADS = 4;
+
+	/** The executor running the fetching tasks of {@link #documents(long[], int)}; idle threads are reclaimed after a minute. */
+	private static final ExecutorService FETCH_EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory() {
+		public Thread newThread( final Runnable runnable ) {
+			final Thread thread = new Thread( runnable, "Document fetcher" );
+			thread.setDaemon( true );
+			return thread;
+		}
+	} );
+
+	/** Returns an iterator over a batch of documents, such as those displayed in a page of results.
+	 *
+	 * <p>The documents are returned in the order specified by <code>index</code>, but implementations are free to
+	 * read them in a different order, or concurrently, to reduce latency. As for {@link DocumentSequence#iterator()},
+	 * each returned document is valid until the next call to {@link DocumentIterator#nextDocument()}. The
+	 * resources used by the iterator are disjoint from those used by this collection.
+	 * 
+	 * <p>This implementation uses {@link #DEFAULT_FETCH_THREADS} threads.
+	 * 
+	 * @param index an array of indices between 0 (inclusive) and {@link #size()} (exclusive).
+	 * @return an iterator returning the documents with the given indices, in the same order.
+	 * @see #documents(long[], int)
+	 * @since 5.4.4
+	 */
+	public DocumentIterator documents( final long[] index ) throws IOException {
+		return documents( index, DEFAULT_FETCH_THREADS );
+	}
+
+	/** Returns an iterator over a batch of documents, fetching them concurrently.
+	 * 
+	 * <p>This method creates the necessary {@linkplain #copy() flyweight copies}, which are closed when fetching ends, and
+	 * runs the fetching tasks on an executor shared by all collections. Callers that fetch many batches (e.g., a query server) should 
+	 * rather keep their own pool of copies and their own executor, and use {@link #documents(long[], DocumentCollection[], Executor)}.
+	 * 
+	 * @param index an array of indices between 0 (inclusive) and {@link #size()} (exclusive).
+	 * @param threads the maximum number of concurrent fetching tasks; if it is one, or if there is at most one index, 
+	 * documents are fetched sequentially in the calling thread using a single flyweight copy.
+	 * @return an iterator returning the documents with the given indices, in the same order.
+	 * @see #documents(long[], DocumentCollection[], Executor)
+	 */
+	public DocumentIterator documents( final long[] index, final int threads ) throws IOException {
+		for( long i: index ) ensureDocumentIndex( i );
+		if ( threads <= 1 || index.length <= 1 ) {
+			// We fetch using a copy anyway, so that the resources of this collection are left alone.
+			final DocumentCollection copy = copy();
+			return new AbstractDocumentIterator() {
+				private int next;
+				private Document last;
+
+				public Document nextDocument() throws IOException {
+					if ( last != null ) last.close();
+					return last = next < index.length ? copy.document( index[ next++ ] ) : null;
+				}
+
+				public void close() throws IOException {
+					if ( last != null ) last.close();
+					copy.close();
+					super.close();
+				}
+			};
+		}
+
+		// Copies are created here, as copy() is not required to be thread safe.
+		final DocumentCollection[] copy = new DocumentCollection[ Math.min( threads, index.length ) ];
+		for( int t = 0; t < copy.length; t++ ) copy[ t ] = copy();
+		return new BatchIterator( index, copy, true, FETCH_EXECUTOR );
+	}
+
+	/** Returns an iterator over a batch of documents, fetching them concurrently using the given copies and executor.
+	 * 
+	 * <p>Indices are sorted and split into contiguous ranges, one for each copy. For each range, a task submitted to <code>executor</code>
+	 * fetches the documents in the range in increasing order using the associated copy, 
+	 * so reads from the same file are issued in increasing offset order for all collections whose documents
+	 * are stored in index order (e.g., {@link SimpleCompressedDocumentCollection}, {@link ZipDocumentCollection}
+	 * or {@link TRECDocumentCollection}), and reads in different ranges are issued concurrently. Documents are
+	 * completely parsed (i.e., text fields are broken into words and nonwords) by the fetching tasks, so the returned documents are valid independently
+	 * of the state of the copies; this approach is thus meant for batches of limited size (e.g., a page of results).
+	 * 
+	 * <p>The copies are not closed, but they are in use until the returned iterator has been {@linkplain DocumentIterator#close() closed}:
+	 * closing the iterator stops fetching and waits for the pending tasks to end, after which the copies can be reused. 
+	 * 
+	 * @param index an array of indices between 0 (inclusive) and {@link #size()} (exclusive).
+	 * @param copy an array of flyweight copies of this collection, not used by anybody else; only the first <code>index.length</code> copies will be used. 
+	 * @param executor the executor that will run the fetching tasks.
+	 * @return an iterator returning the documents with the given indices, in the same order.
+	 */
+	public DocumentIterator documents( final long[] index, final DocumentCollection[] copy, final Executor executor ) throws IOException {
+		for( long i: index ) ensureDocumentIndex( i );
+		if ( copy.length == 0 && index.length != 0 ) throw new IllegalArgumentException( "No copies to fetch documents with" );
+		return new BatchIterator( index, copy.length > index.length ? Arrays.copyOf( copy, index.length ) : copy, false, executor );
+	}
+
+	/** An iterator returning documents fetched by {@link Fetcher} tasks. */
+	private static final class BatchIterator extends AbstractDocumentIterator {
+		/** The documents fetched so far, indexed by position in the batch; positions already returned are {@code null}. */
+		private final Document[] document;
+		/** Whether fetchers must close their copy when they end. */
+		private final boolean closeCopies;
+		/** The exception that stopped a fetcher, if any. */
+		private Throwable failure;
+		/** The number of fetchers that have not ended yet. */
+		private int running;
+		/** Whether this iterator has been closed. */
+		private volatile boolean stopped;
+		/** The position in the batch of the next document to be returned. */
+		private int next;
+		/** The last returned document. */
+		private Document last;
+
+		public BatchIterator( final long[] index, final DocumentCollection[] copy, final boolean closeCopies, final Executor executor ) throws IOException {
+			final int n = index.length;
+			final int tasks = copy.length;
+			this.closeCopies = closeCopies;
+			document = new Document[ n ];
+			// Sorting positions by index sorts reads by offset.
+			final int[] position = new int[ n ];
+			for( int i = n; i-- != 0; ) position[ i ] = i;
+			IntArrays.quickSort( position, new AbstractIntComparator() {
+				public int compare( final int x, final int y ) {
+					return index[ x ] < index[ y ] ? -1 : index[ x ] == index[ y ] ? 0 : 1;
+				}
+			} );
+
+			for( int t = 0; t < tasks; t++ ) {
+				synchronized( this ) { running++; }
+				try {
+					executor.execute( new Fetcher( this, copy[ t ], index, position, (int)( (long)n * t / tasks ), (int)( (long)n * ( t + 1 ) / tasks ) ) );
+				}
+				catch( RejectedExecutionException e ) {
+					done();
+					if ( closeCopies ) for( int u = t; u < tasks; u++ ) copy[ u ].close();
+					close();
+					throw e;
+				}
+			}
+		}
+
+		/** Stores a document fetched by a {@link Fetcher}. */
+		private synchronized void put( final int position, final Document document ) {
+			this.document[ position ] = document;
+			notifyAll();
+		}
+
+		/** Records the exception that stopped a {@link Fetcher}. */
+		private synchronized void fail( final Throwable t ) {
+			if ( failure == null ) failure = t;
+			notifyAll();
+		}
+
+		/** Records that a {@link Fetcher} has ended. */
+		private synchronized void done() {
+			running--;
+			notifyAll();
+		}
+
+		public synchronized Document nextDocument() throws IOException {
+			if ( last != null ) {
+				last.close();
+				last = null;
+			}
+			if ( next == document.length ) return null;
+			try {
+				while( document[ next ] == null && failure == null ) wait();
+			}
+			catch( InterruptedException e ) {
+				throw new InterruptedIOException();
+			}
+			if ( failure != null ) throw failure instanceof IOException ? (IOException)failure : new IOException( failure );
+			last = document[ next ];
+			document[ next++ ] = null;
+			return last;
+		}
+
+		public synchronized void close() throws IOException {
+			if ( last != null ) last.close();
+			stopped = true;
+			// Copies are not free until all fetchers have ended.
+			try {
+				while( running != 0 ) wait();
+			}
+			catch( InterruptedException e ) {
+				throw new InterruptedIOException();
+			}
+			super.close();
+		}
+	}
+
+	/** A task fetching and parsing a range of documents, sorted by index, using a flyweight copy. */
+	private static final class Fetcher implements Runnable {
+		private final BatchIterator batchIterator;
+		private final DocumentCollection collection;
+		private final long[] index;
+		private final int[] position;
+		private final int from;
+		private final int to;
+
+		public Fetcher( final BatchIterator batchIterator, final DocumentCollection collection, final long[] index, final int[] position, final int from, final int to ) {
+			this.batchIterator = batchIterator;
+			this.collection = collection;
+			this.index = index;
+			this.position = position;
+			this.from = from;
+			this.to = to;
+		}
+
+		public void run() {
+			try {
+				try {
+					final DocumentFactory factory = collection.factory();
+					final WordReader[] virtualWordReader = new WordReader[ factory.numberOfFields() ];
+					for( int i = from; i < to && ! batchIterator.stopped; i++ ) {
+						final Document document = collection.document( index[ position[ i ] ] );
+						final Document parsedDocument = new ParsedDocument( document, factory, virtualWordReader );
+						document.close();
+						batchIterator.put( position[ i ], parsedDocument );
+					}
+				}
+				finally {
+					if ( batchIterator.closeCopies ) collection.close();
+				}
+			}
+			catch( Throwable t ) {
+				if ( ! batchIterator.stopped ) batchIterator.fail( t );
+			}
+			finally {
+				batchIterator.done();
+			}
+		}
+	}
+
 	public String toString() {
 		return this.getClass().getName() + "[size: " + size() + " factory: " + factory() + "]";
 	}
@@ -0,0 +1,263 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.document.PropertyBasedDocumentFactory.MetadataKeys;
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectArrayMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** A {@linkplain DocumentCollection document collection} stored in compressed blocks of documents.
+ * 
+ * <p>Documents are written one after the other in the same format of a {@link ZipDocumentCollection} entry, preceded by the
+ * title in {@linkplain MutableString#writeSelfDelimUTF8(java.io.OutputStream) self-delimiting UTF-8} format. Thus, 
+ * all field types are supported, and the collection can be exact (i.e., it stores nonwords) or approximated.
+ * Consecutive documents are gathered in blocks of approximately {@linkplain BlockCompressedDocumentCollectionBuilder#DEFAULT_BLOCK_SIZE fixed size},
+ * which are then {@linkplain Inflater deflated} and stored one after the other in a single file with extension {@link #BLOCKS_EXTENSION}.
+ * Each block is preceded by its uncompressed length (a 32-bit integer), and starts with the ending position of each of its documents (a 32-bit integer each).
+ * 
+ * <p>The offset of each block in the file and the index of its first document are kept in two {@linkplain EliasFanoMonotoneLongBigList Elias&ndash;Fano lists}
+ * that are serialised with the collection, so locating a document requires a binary search on a list with one element per block.
+ * Contrarily to a {@link ZipDocumentCollection}, there is no per-document structure, so this collection scales to a very large number of documents.
+ * 
+ * <p>Each instance (in particular, each {@linkplain #copy() flyweight copy}, and thus each thread using one) 
+ * caches the last decompressed block, so documents that are close in the collection (e.g., when the collection is {@linkplain #iterator() scanned sequentially}) 
+ * are decompressed just once. Blocks are read using positional reads on a {@link FileChannel}.
+ *
+ * <p>Please use {@link AbstractDocumentSequence#load(CharSequence)} to load instances of this collection.
+ * 
+ * @since 5.4.4
+ */
+
+public class BlockCompressedDocumentCollection extends AbstractDocumentCollection implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** The extension of the file containing the blocks. */
+	public final static String BLOCKS_EXTENSION = ".blocks";
+
+	/** The name of the file containing the blocks. */
+	private String blocksFilename;
+	/** The factory used for the original document sequence. */
+	private final DocumentFactory underlyingFactory;
+	/** The factory used for this document collection. */
+	private final DocumentFactory factory;
+	/** The number of documents. */
+	private final long numberOfDocuments;
+	/** <code>true</code> iff this is an exact reproduction of the original sequence (i.e., if also non-words are preserved). */
+	private final boolean exact;
+	/** The offset of each block in the file of blocks, followed by the length of the file. */
+	private final EliasFanoMonotoneLongBigList blockOffset;
+	/** The index of the first document of each block, followed by the number of documents. */
+	private final EliasFanoMonotoneLongBigList blockFirstDocument;
+
+	/** The channel of the file of blocks, or {@code null} if the file could not be opened. */
+	private transient FileChannel channel;
+	/** The inflater used to decompress blocks. */
+	private transient Inflater inflater;
+	/** A buffer for a compressed block. */
+	private transient byte[] compressed;
+	/** The last decompressed block. */
+	private transient byte[] block;
+	/** The index of the block in {@link #block}, or -1. */
+	private transient long cachedBlock;
+	/** The length of the header of the block in {@link #block}. */
+	private transient int headerLength;
+
+	/** Creates a block-compressed document collection.
+	 * 
+	 * @param blocksFilename the name of the file containing the blocks.
+	 * @param underlyingFactory the underlying document factory.
+	 * @param numberOfDocuments the number of documents.
+	 * @param exact <code>true</code> iff this is an exact reproduction of the original sequence.
+	 * @param blockOffset the offset of each block in the file of blocks, followed by the length of the file.
+	 * @param blockFirstDocument the index of the first document of each block, followed by <code>numberOfDocuments</code>.
+	 */
+	public BlockCompressedDocumentCollection( final String blocksFilename, final DocumentFactory underlyingFactory, final long numberOfDocuments, final boolean exact,
+			final EliasFanoMonotoneLongBigList blockOffset, final EliasFanoMonotoneLongBigList blockFirstDocument ) {
+		this.blocksFilename = blocksFilename;
+		this.underlyingFactory = underlyingFactory;
+		this.numberOfDocuments = numberOfDocuments;
+		this.exact = exact;
+		this.blockOffset = blockOffset;
+		this.blockFirstDocument = blockFirstDocument;
+		factory = new ZipDocumentCollection.ZipFactory( underlyingFactory, exact );
+		initFile();
+	}
+
+	private void initFile() {
+		inflater = new Inflater();
+		compressed = block = ByteArrays.EMPTY_ARRAY;
+		cachedBlock = -1;
+		try {
+			channel = new RandomAccessFile( blocksFilename, "r" ).getChannel();
+		}
+		// We leave the possibility for a filename() to fix the problem and load the right file.
+		catch( IOException e ) {}
+	}
+
+	private void ensureFile() {
+		if ( channel == null ) throw new IllegalStateException( "The " + BLOCKS_EXTENSION + " file used by this " + BlockCompressedDocumentCollection.class.getSimpleName() + " has not been loaded correctly; please use " + AbstractDocumentSequence.class.getName() + ".load() or call filename() after deserialising this instance" );
+	}
+
+	@Override
+	public void filename( final CharSequence filename ) throws IOException {
+		/* If we don't have a file, we try to get it relatively to the basename.
+		 * We also store the resulting filename, so copy() should work. */
+		if ( channel == null ) {
+			blocksFilename = new File( new File( filename.toString() ).getParentFile(), blocksFilename ).toString();
+			channel = new RandomAccessFile( blocksFilename, "r" ).getChannel();
+		}
+	}
+
+	private void readObject( final ObjectInputStream s ) throws IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		initFile();
+	}
+
+	public BlockCompressedDocumentCollection copy() {
+		return new BlockCompressedDocumentCollection( blocksFilename, underlyingFactory, numberOfDocuments, exact, blockOffset, blockFirstDocument );
+	}
+
+	public DocumentFactory factory() {
+		return factory;
+	}
+
+	public long size() {
+		return numberOfDocuments;
+	}
+
+	/** Returns the number of blocks of this collection.
+	 * 
+	 * @return the number of blocks of this collection.
+	 */
+	public long blocks() {
+		return blockOffset.size64() - 1;
+	}
+
+	/** Decompresses the block containing a document into {@link #block}, unless it is already there.
+	 * 
+	 * @param index a document index.
+	 * @return the position in {@link #block} of the document.
+	 */
+	private int loadBlock( final long index ) throws IOException {
+		ensureDocumentIndex( index );
+		ensureFile();
+		// We look for the last block starting at or before index.
+		long lo = 0, hi = blocks() - 1;
+		while( lo < hi ) {
+			final long mid = ( lo + hi + 1 ) >>> 1;
+			if ( blockFirstDocument.getLong( mid ) <= index ) lo = mid;
+			else hi = mid - 1;
+		}
+
+		if ( lo != cachedBlock ) {
+			cachedBlock = -1;
+			final long start = blockOffset.getLong( lo );
+			final int length = (int)( blockOffset.getLong( lo + 1 ) - start );
+			compressed = ByteArrays.grow( compressed, length );
+			final ByteBuffer byteBuffer = ByteBuffer.wrap( compressed, 0, length );
+			while( byteBuffer.hasRemaining() ) if ( channel.read( byteBuffer, start + byteBuffer.position() ) == -1 ) throw new EOFException();
+
+			final int uncompressedLength = ( compressed[ 0 ] & 0xFF ) << 24 | ( compressed[ 1 ] & 0xFF ) << 16 | ( compressed[ 2 ] & 0xFF ) << 8 | compressed[ 3 ] & 0xFF;
+			block = ByteArrays.grow( block, uncompressedLength );
+			inflater.reset();
+			inflater.setInput( compressed, 4, length - 4 );
+			try {
+				for( int n = 0; n < uncompressedLength; ) {
+					final int r = inflater.inflate( block, n, uncompressedLength - n );
+					if ( r == 0 && ( inflater.finished() || inflater.needsInput() ) ) throw new EOFException( "Truncated block " + lo );
+					n += r;
+				}
+			}
+			catch( DataFormatException e ) {
+				throw new IOException( "Corrupted block " + lo, e );
+			}
+			headerLength = 4 * (int)( blockFirstDocument.getLong( lo + 1 ) - blockFirstDocument.getLong( lo ) );
+			cachedBlock = lo;
+		}
+
+		return (int)( index - blockFirstDocument.getLong( lo ) );
+	}
+
+	/** Returns the ending position of a document in the current block.
+	 * 
+	 * @param k the position of a document in the current block, or -1.
+	 * @return the ending position of the document in {@link #block}, or the length of the header if <code>k</code> is -1.
+	 */
+	private int end( final int k ) {
+		if ( k < 0 ) return headerLength;
+		final int p = 4 * k;
+		return headerLength + ( ( block[ p ] & 0xFF ) << 24 | ( block[ p + 1 ] & 0xFF ) << 16 | ( block[ p + 2 ] & 0xFF ) << 8 | block[ p + 3 ] & 0xFF );
+	}
+
+	/** Returns a stream over the record of a document (i.e., the title followed by the content) in the current block.
+	 * 
+	 * @param index a document index.
+	 * @return a stream over the record of the document.
+	 */
+	private InputStream record( final long index ) throws IOException {
+		final int k = loadBlock( index );
+		final int start = end( k - 1 );
+		return new FastByteArrayInputStream( block, start, end( k ) - start );
+	}
+
+	private static Reference2ObjectMap<Enum<?>,Object> metadata( final InputStream record ) throws IOException {
+		final Reference2ObjectArrayMap<Enum<?>,Object> metadata = new Reference2ObjectArrayMap<Enum<?>,Object>( 1 );
+		metadata.put( MetadataKeys.TITLE, new MutableString().readSelfDelimUTF8( record ).compact() );
+		return metadata;
+	}
+
+	public Document document( final long index ) throws IOException {
+		final InputStream record = record( index );
+		return factory.getDocument( record, metadata( record ) );
+	}
+
+	public Reference2ObjectMap<Enum<?>,Object> metadata( final long index ) throws IOException {
+		return metadata( record( index ) );
+	}
+
+	public InputStream stream( final long index ) throws IOException {
+		final InputStream record = record( index );
+		MutableString.skipSelfDelimUTF8( record ); // Just skip title
+		return record;
+	}
+
+	public void close() throws IOException {
+		super.close();
+		if ( channel != null ) channel.close();
+		inflater.end();
+	}
+}
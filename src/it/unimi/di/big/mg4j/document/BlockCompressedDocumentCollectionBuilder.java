@@ -0,0 +1,257 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
+import it.unimi.di.big.mg4j.io.IOFactories;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.tool.Scan.VirtualDocumentFragment;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/** A builder for {@linkplain BlockCompressedDocumentCollection block-compressed document collections}.
+ * 
+ * <p>Documents are accumulated in memory until their overall size exceeds the block size
+ * provided at construction time; then, the block is compressed and written to disk. 
+ * 
+ * @since 5.4.4
+ */
+
+public class BlockCompressedDocumentCollectionBuilder implements DocumentCollectionBuilder {
+	/** The default (uncompressed) block size. */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	/** The I/O factory that will be used to create files. */
+	private final IOFactory ioFactory;
+	/** The basename of the builder. */
+	private final String basename;
+	/** The factory of the base document sequence. */
+	private final DocumentFactory factory;
+	/** True iff also non-words should be reproduced. */
+	private final boolean exact;
+	/** The (uncompressed) size after which a block is compressed and written. */
+	private final int blockSize;
+	/** The deflater used to compress blocks. */
+	private final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+	/** A buffer for compressed data. */
+	private final byte[] buffer = new byte[ 64 * 1024 ];
+	/** The basename of the current collection. */
+	private String basenameSuffix;
+	/** The output stream for blocks. */
+	private OutputStream blocksOutputStream;
+	/** The documents of the current block. */
+	private FastByteArrayOutputStream blockStream;
+	/** {@link #blockStream} wrapped in a {@link DataOutputStream}. */
+	private DataOutputStream blockDataOutputStream;
+	/** The header of the current block. */
+	private FastByteArrayOutputStream headerStream;
+	/** The ending position of each document in the current block. */
+	private final IntArrayList ends = new IntArrayList();
+	/** The offset of each block written so far, followed by the current length of the file of blocks. */
+	private LongArrayList blockOffset;
+	/** The index of the first document of each block written so far. */
+	private LongArrayList blockFirstDocument;
+	/** The number of documents written so far. */
+	private long numberOfDocuments;
+	/** Whether a text field has started but not yet ended. */
+	private boolean inTextField;
+
+	public BlockCompressedDocumentCollectionBuilder( final String basename, final DocumentFactory factory, final boolean exact ) {
+		this( IOFactory.FILESYSTEM_FACTORY, basename, factory, exact );
+	}
+
+	public BlockCompressedDocumentCollectionBuilder( final IOFactory ioFactory, final String basename, final DocumentFactory factory, final boolean exact ) {
+		this( ioFactory, basename, factory, exact, DEFAULT_BLOCK_SIZE );
+	}
+
+	/** Creates a new builder.
+	 * 
+	 * @param ioFactory the I/O factory that will be used to create files.
+	 * @param basename the basename of the builder.
+	 * @param factory the factory of the base document sequence.
+	 * @param exact true iff also non-words should be preserved.
+	 * @param blockSize the (uncompressed) size after which a block is compressed and written.
+	 */
+	public BlockCompressedDocumentCollectionBuilder( final IOFactory ioFactory, final String basename, final DocumentFactory factory, final boolean exact, final int blockSize ) {
+		if ( blockSize <= 0 ) throw new IllegalArgumentException( "Nonpositive block size: " + blockSize );
+		this.ioFactory = ioFactory;
+		this.basename = basename;
+		this.factory = factory;
+		this.exact = exact;
+		this.blockSize = blockSize;
+	}
+
+	public String basename() {
+		return basename;
+	}
+
+	public void open( final CharSequence suffix ) throws IOException {
+		basenameSuffix = basename + suffix;
+		blocksOutputStream = new FastBufferedOutputStream( ioFactory.getOutputStream( basenameSuffix + BlockCompressedDocumentCollection.BLOCKS_EXTENSION ) );
+		blockDataOutputStream = new DataOutputStream( blockStream = new FastByteArrayOutputStream() );
+		headerStream = new FastByteArrayOutputStream();
+		ends.clear();
+		blockOffset = new LongArrayList();
+		blockOffset.add( 0 );
+		blockFirstDocument = new LongArrayList();
+		numberOfDocuments = 0;
+	}
+
+	public void startDocument( final CharSequence title, final CharSequence uri ) throws IOException {
+		if ( ends.isEmpty() ) blockFirstDocument.add( numberOfDocuments );
+		new MutableString( title != null ? title : "" ).writeSelfDelimUTF8( blockStream );
+		new MutableString( uri != null ? uri : "" ).writeSelfDelimUTF8( blockStream );
+	}
+
+	public void endDocument() throws IOException {
+		ends.add( (int)blockStream.length );
+		numberOfDocuments++;
+		if ( blockStream.length >= blockSize ) writeBlock();
+	}
+
+	/** Compresses and writes the current block. */
+	private void writeBlock() throws IOException {
+		headerStream.reset();
+		final DataOutputStream header = new DataOutputStream( headerStream );
+		for( int i = 0; i < ends.size(); i++ ) header.writeInt( ends.getInt( i ) );
+		final int uncompressedLength = (int)( headerStream.length + blockStream.length );
+		blocksOutputStream.write( uncompressedLength >>> 24 );
+		blocksOutputStream.write( uncompressedLength >>> 16 );
+		blocksOutputStream.write( uncompressedLength >>> 8 );
+		blocksOutputStream.write( uncompressedLength );
+
+		deflater.reset();
+		deflater.setInput( headerStream.array, 0, (int)headerStream.length );
+		long length = 4 + deflate( false );
+		deflater.setInput( blockStream.array, 0, (int)blockStream.length );
+		deflater.finish();
+		length += deflate( true );
+
+		blockOffset.add( blockOffset.getLong( blockOffset.size() - 1 ) + length );
+		blockStream.reset();
+		ends.clear();
+	}
+
+	/** Compresses the current input of {@link #deflater} and writes the compressed data.
+	 * 
+	 * @param finish whether the input has been {@linkplain Deflater#finish() finished}.
+	 * @return the number of compressed bytes written.
+	 */
+	private long deflate( final boolean finish ) throws IOException {
+		long length = 0;
+		while( finish ? ! deflater.finished() : ! deflater.needsInput() ) {
+			final int n = deflater.deflate( buffer );
+			blocksOutputStream.write( buffer, 0, n );
+			length += n;
+		}
+		return length;
+	}
+
+	public void startTextField() {
+		inTextField = true;
+	}
+
+	public void add( final MutableString word, final MutableString nonWord ) throws IOException {
+		if ( ! inTextField ) return;
+		if ( exact || word.length() > 0 ) word.writeSelfDelimUTF8( blockStream );
+		if ( exact ) nonWord.writeSelfDelimUTF8( blockStream );
+	}
+
+	public void endTextField() throws IOException {
+		if ( ! inTextField ) throw new IllegalStateException();
+		inTextField = false;
+		// Writing a 0 is like writing an empty string.
+		blockStream.write( 0 );
+		if ( exact ) blockStream.write( 0 );
+	}
+
+	public void nonTextField( final Object o ) throws IOException {
+		final ObjectOutputStream oos = new ObjectOutputStream( blockStream );
+		oos.writeObject( o );
+		oos.flush();
+	}
+
+	public void virtualField( final List<VirtualDocumentFragment> fragments ) throws IOException {
+		blockDataOutputStream.writeInt( fragments.size() );
+		for ( VirtualDocumentFragment fragment: fragments ) {
+			fragment.documentSpecifier().writeSelfDelimUTF8( blockStream );
+			fragment.text().writeSelfDelimUTF8( blockStream );
+		}
+	}
+
+	public void close() throws IOException {
+		if ( ! ends.isEmpty() ) writeBlock();
+		blocksOutputStream.close();
+		blockFirstDocument.add( numberOfDocuments );
+
+		final BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection( basenameSuffix + BlockCompressedDocumentCollection.BLOCKS_EXTENSION, factory, numberOfDocuments, exact, 
+				new EliasFanoMonotoneLongBigList( blockOffset ), new EliasFanoMonotoneLongBigList( blockFirstDocument ) );
+		IOFactories.storeObject( ioFactory, collection, basenameSuffix + DocumentCollection.DEFAULT_EXTENSION );
+		collection.close();
+		blockStream = headerStream = null;
+		blockDataOutputStream = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void build( final DocumentSequence inputSequence ) throws IOException {
+		final DocumentIterator docIt = inputSequence.iterator();
+		final int numberOfFields = factory.numberOfFields();
+		WordReader wordReader;
+		MutableString word = new MutableString();
+		MutableString nonWord = new MutableString();
+		open( "" );
+		for (;;) {
+			Document document = docIt.nextDocument();
+			if ( document == null ) break;
+			startDocument( document.title(), document.uri() );
+
+			for ( int field = 0; field < numberOfFields; field++ ) {
+				Object content = document.content( field );
+				if ( factory.fieldType( field ) == FieldType.TEXT ) {
+					startTextField();
+					wordReader = document.wordReader( field );
+					wordReader.setReader( (Reader)content );
+					while ( wordReader.next( word, nonWord ) ) add( word, nonWord );
+					endTextField();
+				}
+				else if ( factory.fieldType( field ) == FieldType.VIRTUAL ) virtualField( (List<VirtualDocumentFragment>)content );
+				else nonTextField( content );
+			}
+			document.close();
+			endDocument();
+		}
+		docIt.close();
+		close();
+	}
+}
@@ -0,0 +1,53 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.dsi.io.WordReader;
+
+import java.io.IOException;
+
+/** A positional forward index, that is, a structure providing direct access to the sequence of words and nonwords of the text fields of a document,
+ * exactly as they were returned by the word reader at indexing time.
+ * 
+ * <p>Since nonempty words are numbered consecutively starting from zero, the word reader returned by {@link #wordReader(long, int)} 
+ * enumerates words at the same positions recorded in an index, and can be passed directly to
+ * {@link it.unimi.di.big.mg4j.query.MarkingMutableString#appendAndMark(WordReader)} to build snippets, with no need to retrieve
+ * and parse again the original document. Moreover, since snippet building stops after the last interval to be marked, typically
+ * only a prefix of the field will be decoded.
+ * 
+ * <p>Implementations are usually {@linkplain DocumentCollection document collections} built at indexing time: the word readers they 
+ * return are subject to the same restrictions of the documents returned by {@link DocumentCollection#document(long)} (in particular,
+ * they are invalidated by further accesses to the collection).
+ * 
+ * @since 5.4.4
+ */
+
+public interface ForwardIndex {
+	/** Returns a word reader enumerating the words and nonwords of a text field of a document.
+	 * 
+	 * <p>The word reader is already positioned at the start of the field: {@link WordReader#setReader(java.io.Reader)} must not be called.
+	 * 
+	 * @param document a document.
+	 * @param field a text field.
+	 * @return a word reader enumerating the words and nonwords of <code>field</code> in <code>document</code>.
+	 */
+	public WordReader wordReader( long document, int field ) throws IOException;
+}
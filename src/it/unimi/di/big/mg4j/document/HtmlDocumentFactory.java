@@ -34,10 +34,12 @@ import it.unimi.dsi.util.Properties;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
-import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
 import org.apache.commons.configuration.ConfigurationException;
 
@@ -54,6 +56,10 @@ import com.google.common.base.Charsets;
  * {@link it.unimi.di.big.mg4j.document.PropertyBasedDocumentFactory.MetadataKeys#WORDREADER}.
  * 
  * <p>Additional {@linkplain MetadataKeys keys} make it possible to tune the underlying {@link AnchorExtractor}.
+ * 
+ * <p>Raw content is decoded directly into a character buffer that is reused for all documents, together with
+ * the byte buffer and the decoder, so no buffer is allocated per document (ISO-8859-1 content is not even passed
+ * through a decoder). Since buffers are not shared across {@linkplain #copy() copies}, concurrent threads must use distinct copies.
  */
 
 public class HtmlDocumentFactory extends PropertyBasedDocumentFactory {
@@ -96,6 +102,14 @@ public class HtmlDocumentFactory extends PropertyBasedDocumentFactory {
 	protected String delimiter;
 	/** The buffer holding text. */
 	protected transient char[] text;
+	/** The buffer holding raw content during decoding. */
+	protected transient byte[] buffer;
+	/** A byte buffer wrapping {@link #buffer}. */
+	private transient ByteBuffer byteBuffer;
+	/** A char buffer wrapping {@link #text}. */
+	private transient CharBuffer charBuffer;
+	/** The decoder used for the last document not in ISO-8859-1, or {@code null}. */
+	private transient CharsetDecoder decoder;
 
 	protected boolean parseProperty( final String key, final String[] values, final Reference2ObjectMap<Enum<?>,Object> metadata ) throws ConfigurationException {
 		if ( sameKey( PropertyBasedDocumentFactory.MetadataKeys.MIMETYPE, key ) ) {
@@ -159,6 +173,53 @@ public class HtmlDocumentFactory extends PropertyBasedDocumentFactory {
 			throw new RuntimeException( e );
 		}
 		text = new char[ DEFAULT_BUFFER_SIZE ];
+		buffer = new byte[ DEFAULT_BUFFER_SIZE ];
+		byteBuffer = ByteBuffer.wrap( buffer );
+		charBuffer = CharBuffer.wrap( text );
+	}
+
+	/** Decodes raw content into {@link #text}, which is enlarged if necessary.
+	 * 
+	 * <p>Malformed input and unmappable characters are replaced by the replacement character of the decoder.
+	 * 
+	 * @param rawContent the raw content of a document.
+	 * @param charset the encoding of <code>rawContent</code>.
+	 * @return the number of characters decoded into {@link #text}.
+	 */
+	protected int decode( final InputStream rawContent, final Charset charset ) throws IOException {
+		int length = 0;
+		if ( charset.equals( Charsets.ISO_8859_1 ) ) {
+			for( int r; ( r = rawContent.read( buffer ) ) != -1; ) {
+				text = CharArrays.grow( text, length + r );
+				for( int i = 0; i < r; i++ ) text[ length++ ] = (char)( buffer[ i ] & 0xFF );
+			}
+			return length;
+		}
+		
+		if ( decoder == null || ! decoder.charset().equals( charset ) ) decoder = charset.newDecoder().onMalformedInput( CodingErrorAction.REPLACE ).onUnmappableCharacter( CodingErrorAction.REPLACE );
+		else decoder.reset();
+		if ( charBuffer.array() != text ) charBuffer = CharBuffer.wrap( text );
+		charBuffer.clear();
+		byteBuffer.clear();
+
+		for( boolean eof = false; ! eof; ) {
+			final int r = rawContent.read( buffer, byteBuffer.position(), byteBuffer.remaining() );
+			if ( r == -1 ) eof = true;
+			else byteBuffer.position( byteBuffer.position() + r );
+			byteBuffer.flip();
+			while( decoder.decode( byteBuffer, charBuffer, eof ).isOverflow() ) growCharBuffer();
+			byteBuffer.compact();
+		}
+		while( decoder.flush( charBuffer ).isOverflow() ) growCharBuffer();
+		return charBuffer.position();
+	}
+
+	/** Enlarges {@link #text}, and makes {@link #charBuffer} wrap it, preserving the position. */
+	private void growCharBuffer() {
+		final int position = charBuffer.position();
+		text = CharArrays.grow( text, text.length + 1 );
+		charBuffer = CharBuffer.wrap( text );
+		charBuffer.position( position );
 	}
 
 	@SuppressWarnings("boxing")
@@ -249,18 +310,12 @@ public class HtmlDocumentFactory extends PropertyBasedDocumentFactory {
 		protected void ensureParsed() throws IOException {
 			if ( parsed ) return;
 
-			int offset = 0, l;
 			Charset charset = Charsets.ISO_8859_1;
 			try {
 				charset = Charset.forName( (String)resolveNotNull( PropertyBasedDocumentFactory.MetadataKeys.ENCODING, metadata ) );
 			}
 			catch( RuntimeException keepDefaut ) {}
-			Reader r = new InputStreamReader( rawContent, charset );
-			while( ( l = r.read( text, offset, text.length - offset ) ) > 0 ) {
-				offset += l;
-				text = CharArrays.grow( text, offset + 1 );
-			}
-			parser.parse( text, 0, offset );
+			parser.parse( text, 0, decode( rawContent, charset ) );
 			textExtractor.title.trim();
 
 			parsed = true;
@@ -22,10 +22,14 @@ package it.unimi.di.big.mg4j.document;
 
 import it.unimi.di.big.mg4j.document.PropertyBasedDocumentFactory.MetadataKeys;
 import it.unimi.di.big.mg4j.util.MG4JClassParser;
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectArrayMap;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
 import it.unimi.dsi.io.MultipleInputStream;
@@ -43,6 +47,9 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+
+import org.apache.commons.io.IOUtils;
 
 import com.martiansoftware.jsap.FlaggedOption;
 import com.martiansoftware.jsap.JSAP;
@@ -69,12 +76,26 @@ import com.martiansoftware.jsap.UnflaggedOption;
  * methods {@link #id2doc(int)} and {@link #doc2id(int)}. The class tolerates
  * additions to the database (and they will be skipped), but deletions will cause errors.
  * 
+ * <p>The {@linkplain #iterator() iterator} scans the database in pages using a forward-only
+ * result set with a configurable fetch size, so that very large tables can be indexed without
+ * materialising the whole result set in memory. {@link #documents(long[])} fetches a batch of documents 
+ * using a small number of queries with an <samp>IN</samp> list, and {@linkplain #copy() copies} share 
+ * with the original collection a small {@linkplain ConnectionPool pool of connections}.
+ * 
  * <P>This class provides a main method with a flexible syntax that serialises
  * a query into a document collection.
  */
 public class JdbcDocumentCollection extends AbstractDocumentCollection implements Serializable {
 
 	private static final long serialVersionUID = 1L;
+	/** The default fetch size passed to the JDBC driver by streaming queries. */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	/** The default number of rows in a page of a streaming query. */
+	public static final int DEFAULT_PAGE_SIZE = 100000;
+	/** The maximum number of identifiers in the <samp>IN</samp> list of a query issued by {@link #documents(long[])}. */
+	public static final int BATCH_SIZE = 256;
+	/** The maximum number of idle connections kept by the pool shared by a collection and its copies. */
+	public static final int MAX_IDLE_CONNECTIONS = DEFAULT_FETCH_THREADS;
 	/** The map from database identifiers to documents. */
 	final protected Int2IntMap id2doc;
 	/** The map (as an array) from documents to database identifiers. */
@@ -94,8 +115,73 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 	/** The <samp>WHERE</samp> part of the query generating 
 	 * the collection (without the <samp>WHERE</samp> keyword), or <code>null</code>. */
 	final protected String where;
+	/** The fetch size passed to the JDBC driver by streaming queries. */
+	protected int fetchSize;
+	/** The number of rows in a page of a streaming query. */
+	protected int pageSize;
 	/** The currently open connection, if any. */
 	protected transient Connection connection;
+	/** The pool of connections shared by this collection and its copies, or <code>null</code> if this collection has been closed. */
+	protected transient ConnectionPool pool;
+	/** The statement used by the last call to {@link #stream(long)}, if any. */
+	private transient Statement statement;
+	
+	/** A small pool of connections shared by a collection and its {@linkplain JdbcDocumentCollection#copy() copies}.
+	 * 
+	 * <p>Connections are created on demand, and at most a given number of idle connections are kept open.
+	 * The pool keeps track of the number of collections using it; when the last collection is closed, 
+	 * all idle connections are closed, and connections released afterwards are closed immediately.
+	 */
+	protected static final class ConnectionPool {
+		/** The URI pointing at the database. */
+		private final String dbUri;
+		/** The maximum number of idle connections. */
+		private final int maxIdle;
+		/** The idle connections. */
+		private final ArrayList<Connection> idle;
+		/** The number of collections using this pool. */
+		private int users;
+		
+		public ConnectionPool( final String dbUri, final int maxIdle ) {
+			this.dbUri = dbUri;
+			this.maxIdle = maxIdle;
+			this.idle = new ArrayList<Connection>( maxIdle );
+		}
+
+		/** Registers a new collection using this pool. */
+		public synchronized void enter() {
+			users++;
+		}
+		
+		/** Unregisters a collection using this pool, closing all idle connections if it was the last one. */
+		public synchronized void leave() throws SQLException {
+			if ( --users == 0 ) {
+				for( Connection connection: idle ) connection.close();
+				idle.clear();
+			}
+		}
+		
+		/** Returns an idle connection, or a new connection if no idle connection is available.
+		 * 
+		 * @return a connection to the database.
+		 */
+		public synchronized Connection get() throws SQLException {
+			while( ! idle.isEmpty() ) {
+				final Connection connection = idle.remove( idle.size() - 1 );
+				if ( ! connection.isClosed() ) return connection;
+			}
+			return DriverManager.getConnection( dbUri );
+		}
+		
+		/** Returns a connection to the pool, closing it if there are already too many idle connections.
+		 * 
+		 * @param connection a connection obtained from {@link #get()}.
+		 */
+		public synchronized void release( final Connection connection ) throws SQLException {
+			if ( users > 0 && idle.size() < maxIdle ) idle.add( connection );
+			else connection.close();
+		}
+	}
 	
 	/** Creates a document collection based on the result set of an SQL query using <samp>id</samp> as id specifier.
 	 * 
@@ -112,7 +198,7 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 		this( dbUri, jdbcDriverName, select, "id", where, factory );
 	}
 
-	/** Creates a document collection based on the result set of an SQL query.
+	/** Creates a document collection based on the result set of an SQL query using default fetch and page sizes.
 	 * 
 	 * <p><strong>Beware.</strong> This class is not guaranteed to work if the database is
 	 * deleted or modified after creation!
@@ -125,58 +211,120 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 	 * @param factory the factory that will be used to create documents.
 	 */
 	public JdbcDocumentCollection( final String dbUri, final String jdbcDriverName, final String select, final String idSpec, final String where, final DocumentFactory factory ) throws SQLException, ClassNotFoundException {
+		this( dbUri, jdbcDriverName, select, idSpec, where, factory, DEFAULT_FETCH_SIZE, DEFAULT_PAGE_SIZE );
+	}
+	
+	/** Creates a document collection based on the result set of an SQL query.
+	 * 
+	 * <p>Sequential scans of the result set (including the one performed by this constructor) use
+	 * <em>keyset pagination</em>: the result set is read in pages of at most <code>pageSize</code> rows, each
+	 * page being selected by a condition on the identifiers. In this way, the memory used by the JDBC driver is bounded
+	 * even if it materialises result sets completely. Within a page, rows are fetched from the
+	 * database <code>fetchSize</code> at a time, if the driver supports cursors (some drivers need additional 
+	 * options in the URI to do so, e.g., <samp>useCursorFetch=true</samp> for MySQL).
+	 * 
+	 * <p><strong>Beware.</strong> This class is not guaranteed to work if the database is
+	 * deleted or modified after creation!
+	 * 
+	 * @param dbUri a JDBC URI pointing at the database.
+	 * @param jdbcDriverName the name of a JDBC driver, or <code>null</code> if you do not want to load a driver.
+	 * @param select the SQL query generating the collection (without the <samp>SELECT</samp> keyword), except for the <samp>WHERE</samp> part.
+	 * @param idSpec the complete SQL spec for the <samp>id</samp> (necessary for complex queries with multiple tables).
+	 * @param where the <samp>WHERE</samp> part (without the <samp>WHERE</samp> keyword) of the SQL query generating the collection, or <code>null</code>.
+	 * @param factory the factory that will be used to create documents.
+	 * @param fetchSize the fetch size passed to the JDBC driver by streaming queries.
+	 * @param pageSize the number of rows in a page of a streaming query.
+	 */
+	public JdbcDocumentCollection( final String dbUri, final String jdbcDriverName, final String select, final String idSpec, final String where, final DocumentFactory factory, final int fetchSize, final int pageSize ) throws SQLException, ClassNotFoundException {
+		if ( fetchSize <= 0 ) throw new IllegalArgumentException( "Illegal fetch size: " + fetchSize );
+		if ( pageSize <= 0 ) throw new IllegalArgumentException( "Illegal page size: " + pageSize );
 		this.dbUri = dbUri;
 		this.jdbcDriverName = jdbcDriverName;
 		this.select = select;
 		this.idSpec = idSpec;
 		this.where = where;
 		this.factory = factory;
+		this.fetchSize = fetchSize;
+		this.pageSize = pageSize;
 		
 		initDriver();
-		Connection connection = DriverManager.getConnection( dbUri );
-		Statement s = connection.createStatement();
-		ResultSet rs = s.executeQuery( buildQuery( null ) );
-		
+		pool = new ConnectionPool( dbUri, MAX_IDLE_CONNECTIONS );
+		pool.enter();
+		final Connection connection = pool.get();
+		final Statement s = createStreamingStatement( connection );
+		s.setMaxRows( pageSize );
+
 		id2doc = new Int2IntOpenHashMap();
 		id2doc.defaultReturnValue( -1 );
 		final IntArrayList ids = new IntArrayList();
-		int id;
-		for( int i = 0; rs.next(); i++ ) {
-			id = rs.getInt( 1 );
-			ids.add( id );
-			id2doc.put( i, id );
-		}
+		int id, rows;
+		do {
+			final ResultSet rs = s.executeQuery( buildQuery( ids.isEmpty() ? null : idSpec + ">" + ids.getInt( ids.size() - 1 ) ) );
+			for( rows = 0; rs.next(); rows++ ) {
+				id = rs.getInt( 1 );
+				id2doc.put( id, ids.size() );
+				ids.add( id );
+			}
+			rs.close();
+		} while( rows == pageSize );
 		
 		doc2id = ids.toIntArray();
-		rs.close();
 		s.close();
-		connection.close();
+		pool.release( connection );
 	}
 
+	/** Creates a flyweight copy of a collection sharing its connection pool.
+	 * 
+	 * @param collection a collection.
+	 * @param factory the factory that will be used to create documents.
+	 */
+	protected JdbcDocumentCollection( final JdbcDocumentCollection collection, final DocumentFactory factory ) {
+		this.id2doc = collection.id2doc;
+		this.doc2id = collection.doc2id;
+		this.dbUri = collection.dbUri;
+		this.jdbcDriver = collection.jdbcDriver;
+		this.jdbcDriverName = collection.jdbcDriverName;
+		this.select = collection.select;
+		this.idSpec = collection.idSpec;
+		this.where = collection.where;
+		this.factory = factory;
+		this.fetchSize = collection.fetchSize;
+		this.pageSize = collection.pageSize;
+		this.pool = collection.pool;
+		pool.enter();
+	}
+	
 	protected void ensureConnection() throws SQLException {
-		if ( connection == null ) connection = DriverManager.getConnection( dbUri ); 
+		if ( connection == null ) connection = pool.get(); 
 	}
 	
 	public void close() throws IOException {
 		super.close();
-		if ( connection != null ) {
-			try {
-				connection.close();
-				connection = null;
+		if ( pool == null ) return;
+		try {
+			if ( statement != null ) {
+				statement.close();
+				statement = null;
 			}
-			catch ( SQLException e ) {
-				throw new IOException( e.toString() );
+			if ( connection != null ) {
+				pool.release( connection );
+				connection = null;
 			}
+			pool.leave();
+			pool = null;
+		}
+		catch ( SQLException e ) {
+			throw new IOException( e.toString() );
 		}
 	}
 	
+	/** Returns a flyweight copy of this collection, sharing with this collection 
+	 * the map between identifiers and documents and a pool of connections.
+	 * 
+	 * @return a flyweight copy of this collection.
+	 */
 	public JdbcDocumentCollection copy() {
-		try {
-			return new JdbcDocumentCollection( dbUri, jdbcDriverName, select, idSpec, where, factory.copy() );
-		}
-		catch ( Exception e ) {
-			throw new RuntimeException( e );
-		}
+		return new JdbcDocumentCollection( this, factory.copy() );
 	}
 	
 	/** Creates a complete query using instance data and possibly an additional <samp>WHERE</samp> clause.
@@ -195,6 +343,17 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 		return query.toString();
 	}
 	
+	/** Creates a forward-only, read-only statement using the fetch size of this collection.
+	 * 
+	 * @param connection a connection.
+	 * @return a statement suitable for streaming queries.
+	 */
+	private Statement createStreamingStatement( final Connection connection ) throws SQLException {
+		final Statement s = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+		s.setFetchSize( fetchSize );
+		return s;
+	}
+	
 	private void initDriver() throws ClassNotFoundException {
 		jdbcDriver = jdbcDriverName != null ? Class.forName( jdbcDriverName ) : null;
 	}
@@ -279,15 +438,16 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 		return MultipleInputStream.getStream( a );
 	}
 
-	
+	/** Returns the raw content of a document; the returned stream is valid until the next call to this method. */
 	private InputStream stream( final long index, final MutableString title ) throws IOException {
 		ensureDocumentIndex( index );
 		try {
 			ensureConnection();
-			Statement s = connection.createStatement();
+			if ( statement != null ) statement.close();
+			statement = connection.createStatement();
 			
 			// TODO: we might want at some point support >2^32 records.
-			ResultSet rs = s.executeQuery( buildQuery( idSpec + "=" + doc2id[ (int)index ] ) );
+			ResultSet rs = statement.executeQuery( buildQuery( idSpec + "=" + doc2id[ (int)index ] ) );
 			if ( ! rs.next() ) throw new IllegalStateException( "Id " + doc2id[ (int)index ] + " is no longer in the database" );
 			return getStreamFromResultSet( rs, title );
 		}
@@ -296,25 +456,129 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 		}
 	}
 
-	/** An iterator over the whole collection that performs a single DBMS transaction. */
+	/** The content of a row fetched by {@link JdbcDocumentCollection#documents(long[])}. */
+	private static final class Row {
+		/** The title. */
+		private final String title;
+		/** The content of each indexed column. */
+		private final byte[][] content;
+		
+		private Row( final String title, final byte[][] content ) {
+			this.title = title;
+			this.content = content;
+		}
+	}
+	
+	/** Returns an iterator over a batch of documents, fetching them using queries with an <samp>IN</samp> list.
+	 * 
+	 * <p>The identifiers of the documents are sorted and split into lists of at most {@link #BATCH_SIZE}
+	 * elements, and the rows of each list are fetched using a single query on a connection from the pool
+	 * shared by this collection and its copies. Since the content of the rows is loaded in memory,
+	 * this method is meant for batches of limited size (e.g., a page of results).
+	 * 
+	 * @param index an array of indices between 0 (inclusive) and {@link #size()} (exclusive).
+	 * @return an iterator returning the documents with the given indices, in the same order.
+	 */
+	public DocumentIterator documents( final long[] index ) throws IOException {
+		for( long i: index ) ensureDocumentIndex( i );
+		int[] id = new int[ index.length ];
+		for( int i = id.length; i-- != 0; ) id[ i ] = doc2id[ (int)index[ i ] ];
+		IntArrays.quickSort( id );
+		// We remove duplicates, so that no IN list is empty or contains repeated identifiers
+		int distinct = 0;
+		for( int i = 0; i < id.length; i++ ) if ( i == 0 || id[ i ] != id[ i - 1 ] ) id[ distinct++ ] = id[ i ];
+		id = IntArrays.trim( id, distinct );
+		
+		final Int2ObjectOpenHashMap<Row> row = new Int2ObjectOpenHashMap<Row>( id.length );
+		try {
+			final Connection connection = pool.get();
+			try {
+				final Statement s = connection.createStatement();
+				final MutableString in = new MutableString();
+				for( int i = 0; i < id.length; ) {
+					in.length( 0 );
+					for( int j = 0; j < BATCH_SIZE && i < id.length; i++, j++ ) {
+						if ( j != 0 ) in.append( ',' );
+						in.append( id[ i ] );
+					}
+					final ResultSet rs = s.executeQuery( buildQuery( idSpec + " IN (" + in + ")" ) );
+					final int columns = rs.getMetaData().getColumnCount() - 2; // -2 for id and title
+					while( rs.next() ) {
+						final byte[][] content = new byte[ columns ][];
+						for( int c = 0; c < columns; c++ ) {
+							final InputStream is = rs.getBinaryStream( c + 3 );
+							content[ c ] = is == null ? ByteArrays.EMPTY_ARRAY : IOUtils.toByteArray( is );
+						}
+						final String title = rs.getString( 2 );
+						row.put( rs.getInt( 1 ), new Row( title == null ? "" : title, content ) );
+					}
+					rs.close();
+				}
+				s.close();
+			}
+			finally {
+				pool.release( connection );
+			}
+		}
+		catch ( SQLException e ) {
+			throw new IOException( e.toString() );
+		}
+
+		final DocumentFactory factory = this.factory.copy();
+		return new AbstractDocumentIterator() {
+			private int next;
+			private Document last;
+
+			public Document nextDocument() throws IOException {
+				if ( last != null ) last.close();
+				if ( next == index.length ) return last = null;
+				final int doc = (int)index[ next++ ];
+				final Row r = row.get( doc2id[ doc ] );
+				if ( r == null ) throw new IllegalStateException( "Id " + doc2id[ doc ] + " is no longer in the database" );
+				final InputStream[] a = new InputStream[ r.content.length ];
+				for( int i = a.length; i-- != 0; ) a[ i ] = new FastByteArrayInputStream( r.content[ i ] );
+				return last = factory.getDocument( MultipleInputStream.getStream( a ), metadata( doc, r.title ) );
+			}
+
+			public void close() throws IOException {
+				if ( last != null ) last.close();
+				super.close();
+			}
+		};
+	}
+	
+	/** An iterator over the whole collection that scans the collection in pages using a dedicated connection. 
+	 * 
+	 * <p>Each page contains the rows whose identifiers lie between those of two documents at distance equal to the page size; 
+	 * rows added to the database after the creation of the collection are skipped. */
 	
-	// ALERT: this is actually VERY inefficient, as metadata() makes a query.
 	protected class JdbcDocumentIterator extends AbstractDocumentIterator {
+		/** The pool from which {@link #connection} was obtained. */
+		private final ConnectionPool pool = JdbcDocumentCollection.this.pool;
+		private final Connection connection;
 		private final Statement s;
-		private final ResultSet rs;
+		private ResultSet rs;
 		private final MutableString title = new MutableString();
+		/** The next document to be returned. */
 		private int index = 0;
+		/** The first document after the current page. */
+		private int pageEnd = 0;
 
 		private JdbcDocumentIterator() throws SQLException {
-			ensureConnection();
-			s = connection.createStatement();
-			rs = s.executeQuery( buildQuery( null ) );
+			connection = pool.get();
+			s = createStreamingStatement( connection );
 		}
 
 		public Document nextDocument() throws IOException {
+			if ( index == doc2id.length ) return null;
 			try {
-				if ( ! rs.next() ) return null;
-				while( rs.getInt( 1 ) < doc2id[ index ] ) rs.next();
+				if ( index == pageEnd ) {
+					if ( rs != null ) rs.close();
+					pageEnd = Math.min( doc2id.length, index + pageSize );
+					rs = s.executeQuery( buildQuery( idSpec + ">=" + doc2id[ index ] + " AND " + idSpec + "<=" + doc2id[ pageEnd - 1 ] ) );
+				}
+				do if ( ! rs.next() ) throw new IllegalStateException( "Row with id " + doc2id[ index ] + " is missing" ); 
+				while( rs.getInt( 1 ) < doc2id[ index ] );
 				if ( rs.getInt( 1 ) > doc2id[ index ] ) throw new IllegalStateException( "Row with id " + doc2id[ index ] + " is missing" );
 				return factory.getDocument( getStreamFromResultSet( rs, title ), metadata( index++, title ) );
 			}
@@ -326,8 +590,9 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 		public void close() throws IOException {
 			super.close();
 			try {
-				rs.close();
+				if ( rs != null ) rs.close();
 				s.close();
+				pool.release( connection );
 			}
 			catch ( SQLException e ) {
 				throw new IOException( e.toString() );
@@ -347,7 +612,12 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 
 	private void readObject( final ObjectInputStream s ) throws IOException, ClassNotFoundException {
 		s.defaultReadObject();
+		// Collections serialised before fetch and page sizes were introduced
+		if ( fetchSize == 0 ) fetchSize = DEFAULT_FETCH_SIZE;
+		if ( pageSize == 0 ) pageSize = DEFAULT_PAGE_SIZE;
 		initDriver();
+		pool = new ConnectionPool( dbUri, MAX_IDLE_CONNECTIONS );
+		pool.enter();
 	}
 	
 	public static void main( final String[] arg ) throws JSAPException, InvocationTargetException, NoSuchMethodException, IllegalAccessException, IOException, SQLException, ClassNotFoundException, InstantiationException {
@@ -362,7 +632,9 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 					new UnflaggedOption( "dburi", JSAP.STRING_PARSER, JSAP.REQUIRED, "The JDBC URI defining the database." ),
 					new UnflaggedOption( "select", JSAP.STRING_PARSER, JSAP.REQUIRED, "A SQL query generating the collection, except for the WHERE part." ),
 					new FlaggedOption( "idSpec", JSAP.STRING_PARSER, "id", JSAP.NOT_REQUIRED, 'i', "id-spec", "An optional, more precise specification for the id field (the first column)." ),
-					new FlaggedOption( "where", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'w', "where", "The the WHERE part (without the WHERE keyword) of the SQL query generating the collection." )				
+					new FlaggedOption( "where", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'w', "where", "The the WHERE part (without the WHERE keyword) of the SQL query generating the collection." ),
+					new FlaggedOption( "fetchSize", JSAP.INTEGER_PARSER, Integer.toString( DEFAULT_FETCH_SIZE ), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "fetch-size", "The fetch size passed to the JDBC driver by streaming queries." ),
+					new FlaggedOption( "pageSize", JSAP.INTEGER_PARSER, Integer.toString( DEFAULT_PAGE_SIZE ), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "page-size", "The number of rows in a page of a streaming query." )
 
 				}
 		);
@@ -398,7 +670,9 @@ public class JdbcDocumentCollection extends AbstractDocumentCollection implement
 								jsapResult.getString( "select" ),
 								jsapResult.getString( "idSpec" ),
 								jsapResult.getString( "where" ),
-								CompositeDocumentFactory.getFactory( factory, column )
+								CompositeDocumentFactory.getFactory( factory, column ),
+								jsapResult.getInt( "fetchSize" ),
+								jsapResult.getInt( "pageSize" )
 							), jsapResult.getString( "collection" ) );
 	}
 }
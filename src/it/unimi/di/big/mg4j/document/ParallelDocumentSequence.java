@@ -0,0 +1,241 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.io.ReadAheadInputStream;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.ObjectParser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** A document sequence parsing concurrently the {@linkplain SegmentedDocumentSequence segments} of an underlying sequence.
+ * 
+ * <p>Indexing collections made of many compressed files (e.g., {@linkplain WarcDocumentSequence WARC} or 
+ * {@linkplain TRECDocumentCollection TREC} files) is usually bound by decompression and parsing, which 
+ * are carried out in a single thread. An instance of this class parses up to a given number of segments at the same time,
+ * each with its own {@linkplain DocumentFactory#copy() copy} of the factory; documents are fully parsed (i.e., 
+ * text fields are broken into words and nonwords) in the parsing threads, and handed off to the caller through bounded 
+ * queues, one per segment, that are read in segment order. As a result, this sequence returns exactly the same documents, in the same order,
+ * of the underlying sequence, and a slow consumer slows down the parsing threads.
+ * 
+ * <p>The two stages of the pipeline can be configured separately: the number of segments parsed concurrently
+ * and the size of the queues determine the parsing stage, whereas a positive read-ahead
+ * moves decompression to further threads, one per segment, using a {@link ReadAheadInputStream}.
+ * 
+ * <p>Documents returned by this sequence have text fields whose {@linkplain Document#wordReader(int) word reader}
+ * replays the words and nonwords computed in the parsing thread, independently of the reader passed to
+ * {@link WordReader#setReader(Reader)}; {@linkplain Document#content(int) content} for text fields
+ * is the concatenation of such words and nonwords. Virtual fields use a copy of the word reader of the underlying document.
+ * All other contents are passed along as they are, so they must not depend on the state of the factory. 
+ * 
+ * <p>For instance, to index a set of WARC files using eight threads with a read-ahead of one megabyte you can use
+ * <pre>
+ * java it.unimi.di.big.mg4j.tool.IndexBuilder -o "it.unimi.di.big.mg4j.document.ParallelDocumentSequence(warc.sequence,8,1048576,64)" ...
+ * </pre>
+ * 
+ * @since 5.4.4
+ */
+
+public class ParallelDocumentSequence extends AbstractDocumentSequence {
+	/** The default number of documents in the queue of each segment. */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+	/** A marker for the end of a segment. */
+	private static final Object END = new Object();
+
+	/** The underlying sequence. */
+	private final SegmentedDocumentSequence sequence;
+	/** The number of segments parsed concurrently. */
+	private final int threads;
+	/** The read-ahead passed to {@link SegmentedDocumentSequence#iterator(int, DocumentFactory, int)}. */
+	private final int readAhead;
+	/** The number of parsed documents in the queue of each segment. */
+	private final int queueSize;
+
+	/** Creates a new parallel document sequence.
+	 * 
+	 * @param sequence the underlying sequence.
+	 * @param threads the number of segments parsed concurrently.
+	 * @param readAhead if positive, decompression will be carried out by separate threads reading ahead at most this number of bytes.
+	 * @param queueSize the maximum number of parsed documents in the queue of each segment.
+	 */
+	public ParallelDocumentSequence( final SegmentedDocumentSequence sequence, final int threads, final int readAhead, final int queueSize ) {
+		if ( threads <= 0 ) throw new IllegalArgumentException( "Nonpositive number of threads: " + threads );
+		if ( queueSize <= 0 ) throw new IllegalArgumentException( "Nonpositive queue size: " + queueSize );
+		this.sequence = sequence;
+		this.threads = threads;
+		this.readAhead = readAhead;
+		this.queueSize = queueSize;
+	}
+
+	/** Creates a new parallel document sequence with default queue size and no read-ahead, using as many threads as available processors.
+	 * 
+	 * @param sequence the underlying sequence.
+	 */
+	public ParallelDocumentSequence( final SegmentedDocumentSequence sequence ) {
+		this( sequence, Runtime.getRuntime().availableProcessors(), 0, DEFAULT_QUEUE_SIZE );
+	}
+
+	/** A string-based constructor to be used with an {@link ObjectParser}.
+	 * 
+	 * @param sequenceName the filename of a serialised {@link SegmentedDocumentSequence}.
+	 * @param threads the number of segments parsed concurrently.
+	 * @param readAhead if positive, decompression will be carried out by separate threads reading ahead at most this number of bytes.
+	 * @param queueSize the maximum number of parsed documents in the queue of each segment.
+	 */
+	public ParallelDocumentSequence( final String sequenceName, final String threads, final String readAhead, final String queueSize ) throws IOException, ClassNotFoundException {
+		this( loadSegmented( sequenceName ), Integer.parseInt( threads ), Integer.parseInt( readAhead ), Integer.parseInt( queueSize ) );
+	}
+
+	private static SegmentedDocumentSequence loadSegmented( final String sequenceName ) throws IOException, ClassNotFoundException {
+		final DocumentSequence sequence = AbstractDocumentSequence.load( sequenceName );
+		if ( ! ( sequence instanceof SegmentedDocumentSequence ) ) throw new IllegalArgumentException( "The sequence " + sequenceName + " (" + sequence.getClass().getName() + ") is not segmented" );
+		return (SegmentedDocumentSequence)sequence;
+	}
+
+	@Override
+	public DocumentFactory factory() {
+		return sequence.factory();
+	}
+
+	@Override
+	public DocumentIterator iterator() throws IOException {
+		return new ParallelDocumentIterator();
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		sequence.close();
+	}
+
+	/** A thread parsing a segment and enqueueing the parsed documents, followed by {@link ParallelDocumentSequence#END}
+	 * or by the exception that stopped the parsing. */
+	private final class SegmentParser extends Thread {
+		/** The parsed documents. */
+		private final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<Object>( queueSize );
+		/** The segment to be parsed. */
+		private final int segment;
+		/** Whether the consumer is no longer interested in the output of this thread. */
+		private volatile boolean stopped;
+
+		public SegmentParser( final int segment ) {
+			super( "ParallelDocumentSequence parser for segment " + segment );
+			this.segment = segment;
+			setDaemon( true );
+		}
+
+		@Override
+		public void run() {
+			try {
+				try {
+					final DocumentFactory factory = sequence.factory().copy();
+					final WordReader[] virtualWordReader = new WordReader[ factory.numberOfFields() ];
+					final DocumentIterator documentIterator = sequence.iterator( segment, factory, readAhead );
+					try {
+						for( Document document; ! stopped && ( document = documentIterator.nextDocument() ) != null; ) {
+							final ParsedDocument parsedDocument = new ParsedDocument( document, factory, virtualWordReader );
+							document.close();
+							queue.put( parsedDocument );
+						}
+					}
+					finally {
+						documentIterator.close();
+					}
+					queue.put( END );
+				}
+				catch( InterruptedException e ) {
+					// The consumer has been closed.
+				}
+				catch( Throwable t ) {
+					if ( ! stopped ) queue.put( t );
+				}
+			}
+			catch( InterruptedException e ) {}
+		}
+
+		/** Stops this thread, discarding parsed documents. */
+		public void terminate() {
+			stopped = true;
+			interrupt();
+			queue.clear();
+		}
+	}
+
+	/** An iterator returning the documents parsed by {@link SegmentParser} threads. Segment <var>s</var> is
+	 * parsed by the thread in position <var>s</var> modulo {@link ParallelDocumentSequence#threads}, which is started when
+	 * all documents of segment <var>s</var> &minus; {@link ParallelDocumentSequence#threads} have been returned. */
+	private final class ParallelDocumentIterator extends AbstractDocumentIterator {
+		/** The number of segments. */
+		private final int segments = sequence.segments();
+		/** The parsing threads. */
+		private final SegmentParser[] parser = new SegmentParser[ threads ];
+		/** The segment we are currently returning documents from. */
+		private int currSegment;
+		/** The last returned document. */
+		private Document last;
+		/** The exception that stopped a parsing thread, if any. */
+		private IOException failure;
+
+		public ParallelDocumentIterator() {
+			for( int s = 0; s < Math.min( threads, segments ); s++ ) ( parser[ s ] = new SegmentParser( s ) ).start();
+		}
+
+		@Override
+		public Document nextDocument() throws IOException {
+			if ( last != null ) {
+				last.close();
+				last = null;
+			}
+			if ( failure != null ) throw failure;
+
+			while( currSegment < segments ) {
+				final Object o;
+				try {
+					o = parser[ currSegment % threads ].queue.take();
+				}
+				catch ( InterruptedException e ) {
+					throw new InterruptedIOException();
+				}
+				if ( o == END ) {
+					if ( currSegment + threads < segments ) ( parser[ currSegment % threads ] = new SegmentParser( currSegment + threads ) ).start();
+					currSegment++;
+				}
+				else if ( o instanceof Throwable ) {
+					final Throwable t = (Throwable)o;
+					throw failure = t instanceof IOException ? (IOException)t : new IOException( "Exception while parsing segment " + currSegment, t );
+				}
+				else return last = (Document)o;
+			}
+
+			return null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if ( last != null ) last.close();
+			for( SegmentParser p: parser ) if ( p != null ) p.terminate();
+			super.close();
+		}
+	}
+}
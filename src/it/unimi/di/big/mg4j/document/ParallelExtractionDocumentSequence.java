@@ -0,0 +1,423 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
+import it.unimi.di.big.mg4j.document.PropertyBasedDocumentFactory.MetadataKeys;
+import it.unimi.di.big.mg4j.tool.Scan.VirtualDocumentFragment;
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.io.FastBufferedReader;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.lang.ObjectParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A document sequence extracting concurrently, with a timeout, the documents of an underlying collection.
+ * 
+ * <p>Factories based on external parsers, such as the {@linkplain it.unimi.di.big.mg4j.document.tika Tika-based factories}, 
+ * can spend a very long time (or even hang) on a single malformed document, and
+ * since documents are parsed in the indexing thread a single slow document stalls the whole indexing process.
+ * An instance of this class reads the raw content and the metadata of the documents of an underlying {@link DocumentCollection}
+ * ahead of the consumer, and extracts them using a pool of threads, each with its own {@linkplain DocumentFactory#copy() copy} 
+ * of the factory of the collection; documents are fully parsed (i.e., text fields are broken into words and nonwords) in the extracting threads,
+ * and returned in the same order of the collection. 
+ * 
+ * <p>Extraction failures do not stop the sequence. If the raw content of a document is longer than a given
+ * maximum length, if extraction throws an exception, or if it takes more than a given timeout, the failure is logged, the index of the document 
+ * is {@linkplain #failures() recorded} and a document with the same title and URI, but with empty text and virtual fields,
+ * is returned in its place, so that document indices remain aligned with the collection. Since integer and date fields
+ * cannot be empty, such a document contains {@link #EMPTY_INT} in all {@linkplain FieldType#INT integer} fields 
+ * and a date equal to {@link #EMPTY_DATE} milliseconds from the epoch (i.e., the epoch) in all {@linkplain FieldType#DATE date} fields.
+ * Threads whose extraction timed out are interrupted and abandoned: they are replaced by new threads so that the number of
+ * working threads remains constant, and they are discarded as soon as they complete the extraction.
+ * 
+ * <p>For instance, to index a set of office documents using eight threads, a timeout of one minute and a maximum length of
+ * 64&nbsp;MiB you can use
+ * <pre>
+ * java it.unimi.di.big.mg4j.tool.IndexBuilder -o "it.unimi.di.big.mg4j.document.ParallelExtractionDocumentSequence(office.collection,8,60000,67108864,64)" ...
+ * </pre>
+ * 
+ * @since 5.4.4
+ */
+
+public class ParallelExtractionDocumentSequence extends AbstractDocumentSequence {
+	private static final Logger LOGGER = LoggerFactory.getLogger( ParallelExtractionDocumentSequence.class );
+
+	/** The default timeout for the extraction of a document, in milliseconds. */
+	public static final long DEFAULT_TIMEOUT = 60000;
+	/** The default maximum length of the raw content of a document. */
+	public static final int DEFAULT_MAX_LENGTH = 64 * 1024 * 1024;
+	/** The default maximum number of documents read ahead of the consumer. */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+	/** The content of integer fields of documents whose extraction failed. */
+	public static final int EMPTY_INT = 0;
+	/** The content, in milliseconds from the epoch, of date fields of documents whose extraction failed. */
+	public static final long EMPTY_DATE = 0;
+
+	/** The underlying collection. */
+	private final DocumentCollection collection;
+	/** The number of extracting threads. */
+	private final int threads;
+	/** The timeout for the extraction of a document, in milliseconds. */
+	private final long timeout;
+	/** The maximum length of the raw content of a document. */
+	private final int maxLength;
+	/** The maximum number of documents read ahead of the consumer. */
+	private final int queueSize;
+	/** The indices of the documents whose extraction failed during the last iteration. */
+	private final LongArrayList failures = new LongArrayList();
+
+	/** Creates a new parallel extraction document sequence.
+	 * 
+	 * @param collection the underlying collection.
+	 * @param threads the number of extracting threads.
+	 * @param timeout the timeout for the extraction of a document, in milliseconds.
+	 * @param maxLength the maximum length of the raw content of a document; longer documents are not extracted.
+	 * @param queueSize the maximum number of documents read ahead of the consumer; it should be larger than <code>threads</code>.
+	 */
+	public ParallelExtractionDocumentSequence( final DocumentCollection collection, final int threads, final long timeout, final int maxLength, final int queueSize ) {
+		if ( threads <= 0 ) throw new IllegalArgumentException( "Nonpositive number of threads: " + threads );
+		if ( timeout <= 0 ) throw new IllegalArgumentException( "Nonpositive timeout: " + timeout );
+		if ( maxLength < 0 ) throw new IllegalArgumentException( "Negative maximum length: " + maxLength );
+		if ( queueSize <= 0 ) throw new IllegalArgumentException( "Nonpositive queue size: " + queueSize );
+		this.collection = collection;
+		this.threads = threads;
+		this.timeout = timeout;
+		this.maxLength = maxLength;
+		this.queueSize = queueSize;
+	}
+
+	/** Creates a new parallel extraction document sequence with default timeout, maximum length and queue size, using as many threads as available processors.
+	 * 
+	 * @param collection the underlying collection.
+	 */
+	public ParallelExtractionDocumentSequence( final DocumentCollection collection ) {
+		this( collection, Runtime.getRuntime().availableProcessors(), DEFAULT_TIMEOUT, DEFAULT_MAX_LENGTH, DEFAULT_QUEUE_SIZE );
+	}
+
+	/** A string-based constructor to be used with an {@link ObjectParser}.
+	 * 
+	 * @param collectionName the filename of a serialised {@link DocumentCollection}.
+	 * @param threads the number of extracting threads.
+	 * @param timeout the timeout for the extraction of a document, in milliseconds.
+	 * @param maxLength the maximum length of the raw content of a document; longer documents are not extracted.
+	 * @param queueSize the maximum number of documents read ahead of the consumer.
+	 */
+	public ParallelExtractionDocumentSequence( final String collectionName, final String threads, final String timeout, final String maxLength, final String queueSize ) throws IOException, ClassNotFoundException {
+		this( loadCollection( collectionName ), Integer.parseInt( threads ), Long.parseLong( timeout ), Integer.parseInt( maxLength ), Integer.parseInt( queueSize ) );
+	}
+
+	private static DocumentCollection loadCollection( final String collectionName ) throws IOException, ClassNotFoundException {
+		final DocumentSequence sequence = AbstractDocumentSequence.load( collectionName );
+		if ( ! ( sequence instanceof DocumentCollection ) ) throw new IllegalArgumentException( "The sequence " + collectionName + " (" + sequence.getClass().getName() + ") is not a collection" );
+		return (DocumentCollection)sequence;
+	}
+
+	@Override
+	public DocumentFactory factory() {
+		return collection.factory();
+	}
+
+	@Override
+	public DocumentIterator iterator() throws IOException {
+		synchronized( failures ) {
+			failures.clear();
+		}
+		return new ParallelExtractionIterator();
+	}
+
+	/** Returns the indices of the documents whose extraction failed during the last iteration, in increasing order.
+	 * 
+	 * @return the indices of the documents whose extraction failed during the last iteration.
+	 */
+	public long[] failures() {
+		final long[] result;
+		synchronized( failures ) {
+			result = failures.toLongArray();
+		}
+		LongArrays.quickSort( result );
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		collection.close();
+	}
+
+	/** Reads the raw content of a document, up to {@link #maxLength} bytes.
+	 * 
+	 * @param rawContent the raw content of a document.
+	 * @return the raw content, or <code>null</code> if it is longer than {@link #maxLength} bytes.
+	 */
+	private byte[] load( final InputStream rawContent ) throws IOException {
+		byte[] content = new byte[ Math.min( 4096, maxLength + 1 ) ];
+		int length = 0;
+		for( int r; ( r = rawContent.read( content, length, content.length - length ) ) != -1; ) {
+			length += r;
+			if ( length > maxLength ) return null;
+			if ( length == content.length ) content = ByteArrays.grow( content, Math.min( maxLength + 1, length + 1 ) );
+		}
+		return ByteArrays.trim( content, length );
+	}
+
+	/** A document with the given title and URI, empty text and virtual fields, and placeholder values in integer and date fields, 
+	 * returned in place of a document whose extraction failed. */
+	private static final class EmptyDocument extends AbstractDocument {
+		private final DocumentFactory factory;
+		private final CharSequence title;
+		private final CharSequence uri;
+
+		public EmptyDocument( final DocumentFactory factory, final Reference2ObjectMap<Enum<?>,Object> metadata ) {
+			this.factory = factory;
+			this.title = (CharSequence)metadata.get( MetadataKeys.TITLE );
+			this.uri = (CharSequence)metadata.get( MetadataKeys.URI );
+		}
+
+		@Override
+		public CharSequence title() {
+			return title;
+		}
+
+		@Override
+		public CharSequence uri() {
+			return uri;
+		}
+
+		@Override
+		public Object content( final int field ) {
+			switch( factory.fieldType( field ) ) {
+				case TEXT: return new FastBufferedReader( new MutableString() );
+				case VIRTUAL: return new ObjectArrayList<VirtualDocumentFragment>();
+				case INT: return Integer.valueOf( EMPTY_INT );
+				case DATE: return new Date( EMPTY_DATE );
+				default: throw new IllegalArgumentException( "Unsupported field type: " + factory.fieldType( field ) );
+			}
+		}
+
+		@Override
+		public WordReader wordReader( final int field ) {
+			return new FastBufferedReader();
+		}
+	}
+
+	/** An iterator returning documents extracted by a pool of threads. Extractions are submitted in document order, and at most
+	 * {@link ParallelExtractionDocumentSequence#queueSize} extractions are pending at any time. */
+	private final class ParallelExtractionIterator extends AbstractDocumentIterator {
+		/** The extracting threads. */
+		private final ThreadPoolExecutor executor;
+		/** The pending extractions, in document order. */
+		private final ArrayDeque<Extraction> pending = new ArrayDeque<Extraction>();
+		/** A copy of the factory for each extracting thread. */
+		private final ThreadLocal<DocumentFactory> factory = new ThreadLocal<DocumentFactory>() {
+			protected DocumentFactory initialValue() {
+				return collection.factory().copy();
+			}
+		};
+		/** A cache of word readers for virtual fields for each extracting thread. */
+		private final ThreadLocal<WordReader[]> virtualWordReader = new ThreadLocal<WordReader[]>() {
+			protected WordReader[] initialValue() {
+				return new WordReader[ collection.factory().numberOfFields() ];
+			}
+		};
+		/** The number of threads in {@link #executor}, including abandoned ones. */
+		private int poolSize = threads;
+		/** The index of the next document to be submitted for extraction. */
+		private long next;
+		/** The last returned document. */
+		private Document last;
+
+		public ParallelExtractionIterator() {
+			executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private int count;
+				public Thread newThread( final Runnable runnable ) {
+					final Thread thread = new Thread( runnable, "ParallelExtractionDocumentSequence extractor " + count++ );
+					thread.setDaemon( true );
+					return thread;
+				}
+			} );
+		}
+
+		/** Changes the number of threads of {@link #executor}.
+		 * 
+		 * @param delta the number of threads to be added (or removed, if negative).
+		 */
+		private synchronized void resize( final int delta ) {
+			poolSize += delta;
+			if ( delta > 0 ) {
+				executor.setMaximumPoolSize( poolSize );
+				executor.setCorePoolSize( poolSize );
+			}
+			else {
+				executor.setCorePoolSize( poolSize );
+				executor.setMaximumPoolSize( poolSize );
+			}
+		}
+
+		/** Logs and records a failure.
+		 * 
+		 * @param index the index of the document whose extraction failed.
+		 * @param metadata the metadata of the document.
+		 * @param reason the reason of the failure.
+		 * @param t the exception that caused the failure, or <code>null</code>.
+		 */
+		private void fail( final long index, final Reference2ObjectMap<Enum<?>,Object> metadata, final String reason, final Throwable t ) {
+			LOGGER.warn( "Extraction of document " + index + " (" + metadata.get( MetadataKeys.URI ) + ") failed: " + reason, t );
+			synchronized( failures ) {
+				failures.add( index );
+			}
+		}
+
+		/** The extraction of a document. */
+		private final class Extraction implements Runnable {
+			/** The index of the document. */
+			private final long index;
+			/** The raw content of the document, or <code>null</code> if it could not be loaded. */
+			private final byte[] content;
+			/** The metadata of the document. */
+			private final Reference2ObjectMap<Enum<?>,Object> metadata;
+			/** The thread performing the extraction, if it is running. */
+			private Thread thread;
+			/** The time at which the extraction started, or zero if it has not started yet. */
+			private long start;
+			/** The extracted document, or the exception that stopped the extraction, or <code>null</code>. */
+			private Object result;
+			/** Whether the consumer gave up waiting for this extraction. */
+			private boolean abandoned;
+
+			public Extraction( final long index, final byte[] content, final Reference2ObjectMap<Enum<?>,Object> metadata ) {
+				this.index = index;
+				this.content = content;
+				this.metadata = metadata;
+			}
+
+			public void run() {
+				synchronized( this ) {
+					thread = Thread.currentThread();
+					start = System.currentTimeMillis();
+					notifyAll();
+				}
+				Object result;
+				try {
+					final DocumentFactory factory = ParallelExtractionIterator.this.factory.get();
+					final Document document = factory.getDocument( new FastByteArrayInputStream( content ), metadata );
+					try {
+						result = new ParsedDocument( document, factory, virtualWordReader.get() );
+					}
+					finally {
+						document.close();
+					}
+				}
+				catch( Throwable t ) {
+					result = t;
+				}
+				synchronized( this ) {
+					this.result = result;
+					thread = null;
+					notifyAll();
+					if ( abandoned ) resize( -1 );
+				}
+			}
+
+			/** Waits for the end of the extraction, or for the timeout.
+			 * 
+			 * @return the extracted document, or an empty document if the extraction failed. 
+			 */
+			public synchronized Document await() throws InterruptedException {
+				for( long remaining;; ) {
+					if ( result instanceof Document ) return (Document)result;
+					if ( result != null ) {
+						fail( index, metadata, result.toString(), (Throwable)result );
+						return new EmptyDocument( collection.factory(), metadata );
+					}
+					if ( start == 0 ) wait();
+					else if ( ( remaining = start + timeout - System.currentTimeMillis() ) > 0 ) wait( remaining );
+					else {
+						abandoned = true;
+						thread.interrupt();
+						resize( 1 );
+						fail( index, metadata, "timeout after " + timeout + " ms", null );
+						return new EmptyDocument( collection.factory(), metadata );
+					}
+				}
+			}
+		}
+
+		@Override
+		public Document nextDocument() throws IOException {
+			if ( last != null ) {
+				last.close();
+				last = null;
+			}
+
+			final long size = collection.size();
+			while( pending.size() < queueSize && next < size ) {
+				final Reference2ObjectMap<Enum<?>,Object> metadata = collection.metadata( next );
+				byte[] content = null;
+				try {
+					final InputStream rawContent = collection.stream( next );
+					content = load( rawContent );
+					rawContent.close();
+					if ( content == null ) fail( next, metadata, "raw content longer than " + maxLength + " bytes", null );
+				}
+				catch( IOException e ) {
+					fail( next, metadata, e.toString(), e );
+				}
+				final Extraction extraction = new Extraction( next++, content, metadata );
+				pending.add( extraction );
+				if ( content != null ) executor.execute( extraction );
+			}
+
+			if ( pending.isEmpty() ) return null;
+			final Extraction extraction = pending.remove();
+			if ( extraction.content == null ) return last = new EmptyDocument( collection.factory(), extraction.metadata );
+			try {
+				return last = extraction.await();
+			}
+			catch ( InterruptedException e ) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if ( last != null ) last.close();
+			executor.shutdownNow();
+			super.close();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.io.FastBufferedReader;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/** A document whose fields have been completely parsed, and that remains valid after the document it was 
+ * built from has been closed.
+ * 
+ * <p>Text fields are broken into words and nonwords at construction time; their {@linkplain #wordReader(int) word reader}
+ * replays the words and nonwords, independently of the reader passed to {@link WordReader#setReader(Reader)}, and their
+ * {@linkplain #content(int) content} is the concatenation of such words and nonwords. 
+ * All other contents are passed along as they are.
+ * 
+ * @since 5.4.4
+ */
+
+final class ParsedDocument extends AbstractDocument {
+	private final DocumentFactory factory;
+	private final MutableString title;
+	private final MutableString uri;
+	/** The content of each field; for text fields, the concatenation of words and nonwords. */
+	private final Object[] content;
+	/** For text fields, the ending positions of words and nonwords in {@link #content}. */
+	private final int[][] end;
+	/** For virtual fields, a word reader for the fragments. */
+	private final WordReader[] wordReader;
+
+	/** Parses a document.
+	 * 
+	 * @param document the document to be parsed.
+	 * @param factory the factory of {@code document}.
+	 * @param virtualWordReader a cache of word readers for virtual fields, private to the caller.
+	 */
+	public ParsedDocument( final Document document, final DocumentFactory factory, final WordReader[] virtualWordReader ) throws IOException {
+		this.factory = factory;
+		final int numberOfFields = factory.numberOfFields();
+		title = document.title() == null ? null : new MutableString( document.title() );
+		uri = document.uri() == null ? null : new MutableString( document.uri() );
+		content = new Object[ numberOfFields ];
+		end = new int[ numberOfFields ][];
+		wordReader = new WordReader[ numberOfFields ];
+		final MutableString word = new MutableString(), nonWord = new MutableString();
+		final IntArrayList ends = new IntArrayList();
+
+		for( int field = 0; field < numberOfFields; field++ ) {
+			final Object o = document.content( field );
+			if ( factory.fieldType( field ) == FieldType.TEXT ) {
+				final WordReader wordReader = document.wordReader( field );
+				wordReader.setReader( (Reader)o );
+				final MutableString text = new MutableString();
+				ends.clear();
+				while( wordReader.next( word, nonWord ) ) {
+					ends.add( text.append( word ).length() );
+					ends.add( text.append( nonWord ).length() );
+				}
+				content[ field ] = text.compact();
+				end[ field ] = ends.toIntArray();
+			}
+			else {
+				if ( factory.fieldType( field ) == FieldType.VIRTUAL ) {
+					if ( virtualWordReader[ field ] == null ) virtualWordReader[ field ] = document.wordReader( field ).copy();
+					wordReader[ field ] = virtualWordReader[ field ];
+				}
+				content[ field ] = o;
+			}
+		}
+	}
+
+	@Override
+	public CharSequence title() {
+		return title;
+	}
+
+	@Override
+	public CharSequence uri() {
+		return uri;
+	}
+
+	@Override
+	public Object content( final int field ) {
+		if ( factory.fieldType( field ) == FieldType.TEXT ) return new FastBufferedReader( (MutableString)content[ field ] );
+		return content[ field ];
+	}
+
+	@Override
+	public WordReader wordReader( final int field ) {
+		if ( factory.fieldType( field ) == FieldType.TEXT ) return new ReplayingWordReader( (MutableString)content[ field ], end[ field ] );
+		return wordReader[ field ];
+	}
+
+	/** A word reader replaying a sequence of words and nonwords stored in a string. */
+	private static final class ReplayingWordReader implements WordReader {
+		private static final long serialVersionUID = 1L;
+		/** The concatenation of words and nonwords. */
+		private final MutableString text;
+		/** The ending positions in {@link #text} of each word and nonword. */
+		private final int[] end;
+		/** The index in {@link #end} of the next word. */
+		private int next;
+
+		public ReplayingWordReader( final MutableString text, final int[] end ) {
+			this.text = text;
+			this.end = end;
+		}
+
+		@Override
+		public boolean next( final MutableString word, final MutableString nonWord ) {
+			if ( next == end.length ) return false;
+			final int start = next == 0 ? 0 : end[ next - 1 ];
+			word.length( 0 ).append( text.array(), start, end[ next ] - start );
+			nonWord.length( 0 ).append( text.array(), end[ next ], end[ next + 1 ] - end[ next ] );
+			next += 2;
+			return true;
+		}
+
+		/** Rewinds this word reader, ignoring the provided reader. */
+		@Override
+		public WordReader setReader( final Reader reader ) {
+			next = 0;
+			return this;
+		}
+
+		@Override
+		public WordReader copy() {
+			return new ReplayingWordReader( text, end );
+		}
+	}
+}
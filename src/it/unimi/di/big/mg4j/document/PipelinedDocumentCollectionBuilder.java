@@ -0,0 +1,294 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.tool.Scan;
+import it.unimi.di.big.mg4j.tool.Scan.VirtualDocumentFragment;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** A document-collection builder that delegates the actual work to an underlying builder running in a separate thread.
+ * 
+ * <p>Builders such as {@link SimpleCompressedDocumentCollectionBuilder} do a nontrivial amount of work for
+ * each word (e.g., term lookup and frequency-based coding), and when used by {@link Scan} such work is
+ * carried out in the indexing loop. An instance of this class just records the calls
+ * for each document: words and nonwords are appended to a buffer, and the whole document is handed off 
+ * at {@link #endDocument()} through a bounded queue to a writer thread that replays the calls on the underlying builder. 
+ * As a result, building a collection alongside an index costs very little wall-clock time, provided that a core is available.
+ * 
+ * <p>{@link #open(CharSequence)} and {@link #close()} are synchronous: the latter waits for all pending documents
+ * to be written, and then closes the underlying builder, so the collection is complete when it returns. An exception thrown by the 
+ * underlying builder is rethrown (wrapped in an {@link IOException}, if necessary) by the first subsequent call to {@link #endDocument()} or {@link #close()}.
+ * 
+ * <p>Non-text fields and the fragments of virtual fields are passed along as they are, so they must not be
+ * modified by the caller after being passed to this builder (the lists containing the fragments are copied, though). 
+ * Both conditions are satisfied by the documents returned by the factories in this package.
+ * 
+ * @since 5.4.4
+ */
+
+public class PipelinedDocumentCollectionBuilder implements DocumentCollectionBuilder {
+	/** The default number of documents in the queue. */
+	public static final int DEFAULT_QUEUE_SIZE = 256;
+	/** A marker for the end of the current collection. */
+	private static final DocumentRecord END = new DocumentRecord();
+
+	/** The underlying builder. */
+	private final DocumentCollectionBuilder builder;
+	/** The documents waiting to be written. */
+	private final ArrayBlockingQueue<DocumentRecord> queue;
+	/** Written documents that can be reused. */
+	private final ArrayBlockingQueue<DocumentRecord> free;
+	/** The writer thread, or {@code null} if no collection is open. */
+	private Writer writer;
+	/** The document being recorded, or {@code null}. */
+	private DocumentRecord current;
+	/** Whether we are recording a text field. */
+	private boolean inTextField;
+
+	/** The calls for a document. */
+	private static final class DocumentRecord {
+		/** The type of a text field. */
+		private static final byte TEXT = 0;
+		/** The type of a non-text field. */
+		private static final byte NON_TEXT = 1;
+		/** The type of a virtual field. */
+		private static final byte VIRTUAL = 2;
+
+		/** The document title. */
+		private final MutableString title = new MutableString();
+		/** The document URI. */
+		private final MutableString uri = new MutableString();
+		/** Whether the title is {@code null}. */
+		private boolean nullTitle;
+		/** Whether the URI is {@code null}. */
+		private boolean nullUri;
+		/** The type of each field. */
+		private byte[] type = new byte[ 16 ];
+		/** The content of non-text and virtual fields, or {@code null} for text fields. */
+		private final ObjectArrayList<Object> content = new ObjectArrayList<Object>();
+		/** The concatenation of all words and nonwords. */
+		private final MutableString text = new MutableString();
+		/** The end of each word and nonword in {@link #text}. */
+		private final IntArrayList ends = new IntArrayList();
+		/** For each text field, the end of its part of {@link #ends}. */
+		private final IntArrayList fieldEnds = new IntArrayList();
+
+		/** Prepares this record for a new document. */
+		private void clear( final CharSequence title, final CharSequence uri ) {
+			if ( nullTitle = title == null ) this.title.length( 0 );
+			else this.title.replace( title );
+			if ( nullUri = uri == null ) this.uri.length( 0 );
+			else this.uri.replace( uri );
+			content.clear();
+			text.length( 0 );
+			ends.clear();
+			fieldEnds.clear();
+		}
+
+		private void addField( final byte type, final Object content ) {
+			final int field = this.content.size();
+			if ( field == this.type.length ) this.type = Arrays.copyOf( this.type, 2 * field );
+			this.type[ field ] = type;
+			this.content.add( content );
+		}
+
+		/** Replays the recorded calls on a builder.
+		 * 
+		 * @param builder a builder.
+		 * @param word a temporary string for words.
+		 * @param nonWord a temporary string for nonwords.
+		 */
+		@SuppressWarnings("unchecked")
+		private void replay( final DocumentCollectionBuilder builder, final MutableString word, final MutableString nonWord ) throws IOException {
+			builder.startDocument( nullTitle ? null : title, nullUri ? null : uri );
+			final char[] a = text.array();
+			int textField = 0, e = 0, start = 0;
+			for( int field = 0; field < content.size(); field++ ) {
+				switch( type[ field ] ) {
+				case TEXT:
+					builder.startTextField();
+					for( final int fieldEnd = fieldEnds.getInt( textField++ ); e < fieldEnd; e += 2 ) {
+						final int wordEnd = ends.getInt( e ), nonWordEnd = ends.getInt( e + 1 );
+						word.length( 0 ).append( a, start, wordEnd - start );
+						nonWord.length( 0 ).append( a, wordEnd, nonWordEnd - wordEnd );
+						builder.add( word, nonWord );
+						start = nonWordEnd;
+					}
+					builder.endTextField();
+					break;
+				case VIRTUAL:
+					builder.virtualField( (List<VirtualDocumentFragment>)content.get( field ) );
+					break;
+				default:
+					builder.nonTextField( content.get( field ) );
+				}
+			}
+			builder.endDocument();
+		}
+	}
+
+	/** A thread replaying documents on the underlying builder until it finds {@link PipelinedDocumentCollectionBuilder#END}. */
+	private final class Writer extends Thread {
+		/** The exception thrown by the underlying builder, if any. */
+		private volatile Throwable failure;
+
+		public Writer() {
+			super( "PipelinedDocumentCollectionBuilder writer" );
+			setDaemon( true );
+		}
+
+		@Override
+		public void run() {
+			final MutableString word = new MutableString(), nonWord = new MutableString();
+			try {
+				for( DocumentRecord record; ( record = queue.take() ) != END; ) {
+					// After a failure we just drain the queue, so the caller does not block.
+					if ( failure == null ) {
+						try {
+							record.replay( builder, word, nonWord );
+						}
+						catch( Throwable t ) {
+							failure = t;
+						}
+					}
+					free.offer( record );
+				}
+			}
+			catch( InterruptedException e ) {
+				failure = e;
+			}
+		}
+
+		/** Throws the exception thrown by the underlying builder, if any. */
+		private void check() throws IOException {
+			final Throwable t = failure;
+			if ( t == null ) return;
+			if ( t instanceof IOException ) throw (IOException)t;
+			if ( t instanceof RuntimeException ) throw (RuntimeException)t;
+			if ( t instanceof Error ) throw (Error)t;
+			throw new IOException( t );
+		}
+	}
+
+	/** Creates a new pipelined builder.
+	 * 
+	 * @param builder the underlying builder.
+	 * @param queueSize the maximum number of documents waiting to be written.
+	 */
+	public PipelinedDocumentCollectionBuilder( final DocumentCollectionBuilder builder, final int queueSize ) {
+		if ( queueSize <= 0 ) throw new IllegalArgumentException( "Nonpositive queue size: " + queueSize );
+		this.builder = builder;
+		this.queue = new ArrayBlockingQueue<DocumentRecord>( queueSize );
+		// Records are in the queue, in the writer thread, being recorded or free.
+		this.free = new ArrayBlockingQueue<DocumentRecord>( queueSize + 2 );
+	}
+
+	/** Creates a new pipelined builder with a queue of {@linkplain #DEFAULT_QUEUE_SIZE default size}.
+	 * 
+	 * @param builder the underlying builder.
+	 */
+	public PipelinedDocumentCollectionBuilder( final DocumentCollectionBuilder builder ) {
+		this( builder, DEFAULT_QUEUE_SIZE );
+	}
+
+	/** Returns the underlying builder.
+	 * 
+	 * @return the underlying builder.
+	 */
+	public DocumentCollectionBuilder builder() {
+		return builder;
+	}
+
+	public String basename() {
+		return builder.basename();
+	}
+
+	public void open( final CharSequence suffix ) throws IOException {
+		if ( writer != null ) throw new IllegalStateException( "The previous collection has not been closed" );
+		builder.open( suffix );
+		( writer = new Writer() ).start();
+	}
+
+	public void startDocument( final CharSequence title, final CharSequence uri ) throws IOException {
+		current = free.poll();
+		if ( current == null ) current = new DocumentRecord();
+		current.clear( title, uri );
+	}
+
+	public void startTextField() {
+		inTextField = true;
+	}
+
+	public void add( final MutableString word, final MutableString nonWord ) throws IOException {
+		if ( ! inTextField ) return;
+		final DocumentRecord current = this.current;
+		current.ends.add( current.text.append( word ).length() );
+		current.ends.add( current.text.append( nonWord ).length() );
+	}
+
+	public void endTextField() throws IOException {
+		inTextField = false;
+		current.fieldEnds.add( current.ends.size() );
+		current.addField( DocumentRecord.TEXT, null );
+	}
+
+	public void nonTextField( final Object o ) throws IOException {
+		current.addField( DocumentRecord.NON_TEXT, o );
+	}
+
+	public void virtualField( final List<VirtualDocumentFragment> fragments ) throws IOException {
+		current.addField( DocumentRecord.VIRTUAL, new ObjectArrayList<VirtualDocumentFragment>( fragments ) );
+	}
+
+	public void endDocument() throws IOException {
+		writer.check();
+		try {
+			queue.put( current );
+		}
+		catch ( InterruptedException e ) {
+			throw new InterruptedIOException();
+		}
+		current = null;
+	}
+
+	public void close() throws IOException {
+		if ( writer == null ) return;
+		try {
+			queue.put( END );
+			writer.join();
+		}
+		catch ( InterruptedException e ) {
+			throw new InterruptedIOException();
+		}
+		final Writer writer = this.writer;
+		this.writer = null;
+		writer.check();
+		builder.close();
+	}
+}
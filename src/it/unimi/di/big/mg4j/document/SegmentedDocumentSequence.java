@@ -0,0 +1,56 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.io.ReadAheadInputStream;
+
+import java.io.IOException;
+
+/** A document sequence whose documents are partitioned in <em>segments</em> (usually, files) that can be
+ * iterated upon independently and concurrently.
+ * 
+ * <p>The concatenation of the documents returned by the {@linkplain #iterator(int, DocumentFactory, int) segment iterators}, in 
+ * segment order, must be identical to the sequence returned by {@link #iterator()}. Segment iterators
+ * use the factory provided by the caller, so that several segments can be parsed at the same time
+ * (see {@link ParallelDocumentSequence}).
+ * 
+ * @since 5.4.4
+ */
+
+public interface SegmentedDocumentSequence extends DocumentSequence {
+
+	/** Returns the number of segments of this sequence.
+	 * 
+	 * @return the number of segments of this sequence.
+	 */
+	public int segments();
+
+	/** Returns an iterator over the documents of a segment.
+	 * 
+	 * @param segment a segment.
+	 * @param factory the factory that will be used to build documents; it must be a {@linkplain DocumentFactory#copy() copy}
+	 * of the {@linkplain #factory() factory of this sequence} that is not used elsewhere.
+	 * @param readAhead if positive, the input of the segment will be decompressed and read in a separate thread
+	 * by a {@link ReadAheadInputStream} with this read-ahead.
+	 * @return an iterator over the documents of {@code segment}.
+	 */
+	public DocumentIterator iterator( int segment, DocumentFactory factory, int readAhead ) throws IOException;
+}
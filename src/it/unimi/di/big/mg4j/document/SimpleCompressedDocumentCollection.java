@@ -50,6 +50,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.Reader;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.channels.FileChannel.MapMode;
@@ -83,11 +84,15 @@ import com.martiansoftware.jsap.UnflaggedOption;
  * 
  * <p>This class suffers the same scalability problem of {@link ZipDocumentCollection} if you compress non-text or virtual fields. Text
  * compression, on the other hand, is extremely efficient and scalable.
+ * 
+ * <p>Since words and nonwords are recorded exactly as they were returned by the word reader at indexing time, this class
+ * is also a {@linkplain ForwardIndex positional forward index}: {@link #wordReader(long, int)} decodes directly the words of a field,
+ * avoiding the reconstruction of its content and a second tokenisation.
  *  
  * @author Sebastiano Vigna
  */
 
-public class SimpleCompressedDocumentCollection extends AbstractDocumentCollection implements Serializable {
+public class SimpleCompressedDocumentCollection extends AbstractDocumentCollection implements ForwardIndex, Serializable {
 	private static final long serialVersionUID = 1L;
 	
 	private static final boolean DEBUG = false;
@@ -529,6 +534,61 @@ public class SimpleCompressedDocumentCollection extends AbstractDocumentCollecti
 	}
 
 	
+	/** A word reader decoding directly the words and nonwords of a text field. */
+	private final class FieldWordReader implements WordReader {
+		private static final long serialVersionUID = 1L;
+		/** The number of word/nonword pairs still to be decoded. */
+		private int remaining;
+
+		public FieldWordReader( final int length ) {
+			remaining = length;
+		}
+
+		public boolean next( final MutableString word, final MutableString nonWord ) throws IOException {
+			if ( remaining == 0 ) return false;
+			remaining--;
+			termsInputStream.position( termOffsets.getLong( termsFrequencyKeeper.decode( documentsInputBitStream.readDelta() ) ) );
+			word.readSelfDelimUTF8( termsInputStream );
+			if ( exact ) {
+				nonTermsInputStream.position( nonTermOffsets.getLong( nonTermsFrequencyKeeper.decode( documentsInputBitStream.readDelta() ) ) );
+				nonWord.readSelfDelimUTF8( nonTermsInputStream );
+			}
+			else nonWord.length( 0 ).append( ' ' );
+			return true;
+		}
+
+		public WordReader setReader( final Reader reader ) {
+			throw new UnsupportedOperationException();
+		}
+
+		public WordReader copy() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public WordReader wordReader( final long index, final int field ) throws IOException {
+		ensureDocumentIndex( index );
+		ensureFiles();
+		if ( factory.fieldType( field ) != FieldType.TEXT ) throw new IllegalArgumentException( "Field " + factory.fieldName( field ) + " is not a text field" );
+		documentsInputBitStream.position( docOffsets.getLong( index ) );
+		// Skip URI and title
+		final MutableString s = new MutableString();
+		readSelfDelimitedUtf8String( documentsInputBitStream, s );
+		readSelfDelimitedUtf8String( documentsInputBitStream, s );
+		// Skip previous text fields (other fields are stored separately)
+		for( int i = 0; i < field; i++ ) 
+			if ( factory.fieldType( i ) == FieldType.TEXT ) {
+				int len = documentsInputBitStream.readDelta();
+				if ( exact ) len *= 2;
+				documentsInputBitStream.skipDeltas( len );
+			}
+
+		final int length = documentsInputBitStream.readDelta();
+		termsFrequencyKeeper.reset();
+		if ( exact ) nonTermsFrequencyKeeper.reset();
+		return new FieldWordReader( length );
+	}
+
 	public Reference2ObjectMap<Enum<?>,Object> metadata( long index ) throws IOException {
 		throw new UnsupportedOperationException();
 	}
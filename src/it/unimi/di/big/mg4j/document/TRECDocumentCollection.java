@@ -21,17 +21,20 @@ package it.unimi.di.big.mg4j.document;
  */
 
 import it.unimi.di.big.mg4j.document.PropertyBasedDocumentFactory.MetadataKeys;
+import it.unimi.di.big.mg4j.io.MultiMemberGZIPInputStream;
+import it.unimi.di.big.mg4j.io.ReadAheadInputStream;
 import it.unimi.di.big.mg4j.util.MG4JClassParser;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.longs.LongBigArrayBigList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrays;
-import it.unimi.dsi.fastutil.objects.ObjectBigArrayBigList;
-import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectArrayMap;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
 import it.unimi.dsi.io.SegmentedInputStream;
 import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -64,7 +67,10 @@ import com.martiansoftware.jsap.UnflaggedOption;
  * 
  * <p>The documents are stored as a set of descriptors, representing the (possibly gzipped) file
  * they are contained in and the start and stop position in that file. To manage
- * descriptors later we rely on {@link SegmentedInputStream}.
+ * descriptors later we rely on {@link SegmentedInputStream}. Descriptors are not stored as objects:
+ * the three markers of each document (see below), shifted by a per-file offset so that they form a monotone sequence,
+ * are stored in an {@link EliasFanoMonotoneLongBigList}, which uses a few bytes per document
+ * and is serialised as a handful of arrays.
  * 
  * <p>To interpret a file, we read up to <samp>&lt;DOC&gt;</samp> and place a start
  * marker there, we advance to the header and store the URI. An intermediate
@@ -82,10 +88,19 @@ import com.martiansoftware.jsap.UnflaggedOption;
  * are performed very differently as the sequential operation is much more
  * efficient than calling {@link #document(long)} repeatedly.
  * 
+ * <p>When parsing gzipped files, the collection records {@linkplain MultiMemberGZIPInputStream checkpoints} at the start
+ * of <code>gzip</code> members, and {@link #document(long)} starts decompressing from the last checkpoint preceding 
+ * the document. Files compressed with <code>bgzip</code>, or made of separately compressed chunks, can thus be accessed randomly
+ * decompressing at most {@value MultiMemberGZIPInputStream#DEFAULT_CHECKPOINT_SPACING} bytes plus a member; standard 
+ * (single-member) <code>gzip</code> files must instead be decompressed from the start.
+ * 
+ * <p>Each file is a {@linkplain SegmentedDocumentSequence segment}, so several files can be
+ * decompressed and parsed at the same time by wrapping this collection in a {@link ParallelDocumentSequence}.
+ * 
  * @author Alessio Orlandi
  * @author Luca Natali
  */
-public class TRECDocumentCollection extends AbstractDocumentCollection implements Serializable {
+public class TRECDocumentCollection extends AbstractDocumentCollection implements SegmentedDocumentSequence, Serializable {
 	private static final Logger LOGGER = LoggerFactory.getLogger( TRECDocumentCollection.class );
 	private static final long serialVersionUID = -4251461013312968454L;
 	
@@ -99,12 +114,23 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 	protected final boolean useGzip;
 	/** The document factory. */
 	protected DocumentFactory factory;
-	/** The list of document descriptors.  We assume that descriptors within the same file are contiguous */
-	protected transient ObjectBigArrayBigList<TRECDocumentDescriptor> descriptors;
+	/** The start, intermediate and stop markers of each document, in this order, increased by the {@linkplain #fileOffset offset} 
+	 * of the file containing the document. */
+	protected transient EliasFanoMonotoneLongBigList markers;
+	/** For each file, the index of its first document, followed by the number of documents. */
+	protected transient long[] fileStart;
+	/** For each file, the offset added to the markers of its documents, followed by the last marker. */
+	protected transient long[] fileOffset;
+	/** The shifted markers accumulated by {@link #parseContent(int, InputStream)} during construction. */
+	private transient LongBigArrayBigList markerList;
 	/** The buffer size. */
 	private final int bufferSize;
 	/** The last returned stream. */
 	protected SegmentedInputStream lastStream;
+	/** For each gzipped file, the uncompressed offsets of its checkpoints, or {@code null} (e.g., if this collection was serialised by a previous version). */
+	protected long[][] uncompressedCheckpoint;
+	/** For each gzipped file, the compressed offsets of its checkpoints, or {@code null}. */
+	protected long[][] compressedCheckpoint;
 
 	/** A compact description of the location and of the internal segmentation of
 	 * a TREC document inside a file. 
@@ -181,6 +207,10 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 
 		LOGGER.debug( "Processing file " + fileIndex + " (" + file[ fileIndex ] + ")" );
 
+		// Markers are shifted so that they are larger than or equal to all markers of previous files.
+		final long base = fileOffset[ fileIndex ];
+		fileStart[ fileIndex ] = markerList.size64() / 3;
+
 		FastBufferedInputStream fbis = new FastBufferedInputStream( is, bufferSize );
 
 		currStart = 0; // make java compiler happy.
@@ -202,7 +232,10 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 				else if ( startedBlock && equals( buffer, l, DOC_CLOSE ) ) {
 					currStop = oldPos;
 					if ( DEBUG ) LOGGER.debug( "Setting markers <" + currStart + "," + currInter + ", " + currStop + ">" );
-					descriptors.add( new TRECDocumentDescriptor( fileIndex, currStart, currInter, currStop ) );
+					markerList.add( base + currStart );
+					// A document without header would have a stale intermediate marker.
+					markerList.add( base + Math.max( currStart, currInter ) );
+					markerList.add( base + currStop );
 					startedBlock = pastHeader = false;
 				}
 				else if ( startedBlock && !pastHeader && equals( buffer, l, DOCHDR_CLOSE ) ) {
@@ -214,22 +247,28 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 		}
 
 		fbis.close();
+		fileOffset[ fileIndex + 1 ] = markerList.size64() == 0 ? 0 : markerList.getLong( markerList.size64() - 1 );
 	}
 
 	/**
 	 * Copy constructor (that is, the one used by {@link #copy()}. Just
 	 * initializes final fields
 	 */
-	protected TRECDocumentCollection( String[] file, DocumentFactory factory, ObjectBigArrayBigList<TRECDocumentDescriptor> descriptors, int bufferSize, boolean useGzip ) {
+	protected TRECDocumentCollection( String[] file, DocumentFactory factory, EliasFanoMonotoneLongBigList markers, long[] fileStart, long[] fileOffset, int bufferSize, boolean useGzip ) {
 		this.useGzip = useGzip;
 		this.file = file;
 		this.bufferSize = bufferSize;
 		this.factory = factory;
-		this.descriptors = descriptors;
+		this.markers = markers;
+		this.fileStart = fileStart;
+		this.fileOffset = fileOffset;
 	}
 
 	public TRECDocumentCollection copy() {
-		return new TRECDocumentCollection( file, factory.copy(), descriptors, bufferSize, useGzip );
+		final TRECDocumentCollection copy = new TRECDocumentCollection( file, factory.copy(), markers, fileStart, fileOffset, bufferSize, useGzip );
+		copy.uncompressedCheckpoint = uncompressedCheckpoint;
+		copy.compressedCheckpoint = compressedCheckpoint;
+		return copy;
 	}
 
 	private final InputStream openFileStream( String fileName ) throws IOException {
@@ -249,8 +288,10 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 		this.file = file;
 		this.factory = factory;
 		this.bufferSize = bufferSize;
-		this.descriptors = new ObjectBigArrayBigList<TRECDocumentDescriptor>();
 		this.useGzip = useGzip;
+		this.fileStart = new long[ file.length + 1 ];
+		this.fileOffset = new long[ file.length + 1 ];
+		this.markerList = new LongBigArrayBigList();
 
 		final ProgressLogger progressLogger = new ProgressLogger( LOGGER );
 		progressLogger.expectedUpdates = file.length;
@@ -258,16 +299,70 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 
 		progressLogger.start( "Parsing " + ( useGzip ? "GZip" : "plain" ) + " files" );
 
+		if ( useGzip ) {
+			uncompressedCheckpoint = new long[ file.length ][];
+			compressedCheckpoint = new long[ file.length ][];
+		}
+
 		for ( int i = 0; i < file.length; i++ ) {
-			parseContent( i, openFileStream( file[ i ] ) );
+			if ( useGzip ) {
+				final MultiMemberGZIPInputStream gzipStream = new MultiMemberGZIPInputStream( new FileInputStream( file[ i ] ) );
+				parseContent( i, gzipStream );
+				uncompressedCheckpoint[ i ] = gzipStream.uncompressedCheckpoints();
+				compressedCheckpoint[ i ] = gzipStream.compressedCheckpoints();
+			}
+			else parseContent( i, openFileStream( file[ i ] ) );
 			progressLogger.update();
 		}
 
 		progressLogger.done();
+
+		fileStart[ file.length ] = markerList.size64() / 3;
+		markers = new EliasFanoMonotoneLongBigList( markerList );
+		markerList = null;
 	}
 
 	public long size() {
-		return descriptors.size64();
+		return fileStart[ file.length ];
+	}
+
+	/** Returns the index of the file containing a document.
+	 * 
+	 * @param index a document index.
+	 * @return the index of the file containing the document.
+	 */
+	protected int fileIndex( final long index ) {
+		// We look for the last file starting at or before index (it cannot be empty).
+		int lo = 0, hi = file.length - 1;
+		while( lo < hi ) {
+			final int mid = ( lo + hi + 1 ) >>> 1;
+			if ( fileStart[ mid ] <= index ) lo = mid;
+			else hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/** Returns the segments of a document in its file.
+	 * 
+	 * @param fileIndex the index of the file containing the document.
+	 * @param index a document index.
+	 * @return the start, intermediate and stop markers of the document.
+	 */
+	private long[] segments( final int fileIndex, final long index ) {
+		final long offset = fileOffset[ fileIndex ];
+		return new long[] { markers.getLong( 3 * index ) - offset, markers.getLong( 3 * index + 1 ) - offset, markers.getLong( 3 * index + 2 ) - offset };
+	}
+
+	/** Returns a descriptor for a document.
+	 * 
+	 * @param index a document index.
+	 * @return a descriptor for the document.
+	 */
+	protected TRECDocumentDescriptor descriptor( final long index ) {
+		ensureDocumentIndex( index );
+		final int fileIndex = fileIndex( index );
+		final long[] segments = segments( fileIndex, index );
+		return new TRECDocumentDescriptor( fileIndex, segments[ 0 ], segments[ 1 ], segments[ 2 ] );
 	}
 
 	public Document document( long n ) throws IOException {
@@ -279,8 +374,21 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 		// Creates a Segmented Input Stream with only one segment in (the requested one).
 		ensureDocumentIndex( n );
 		IOUtils.closeQuietly( lastStream );
-		final TRECDocumentDescriptor descr = descriptors.get( n );
-		return lastStream = new SegmentedInputStream( openFileStream( file[ descr.fileIndex ] ), descr.toSegments() );
+		final TRECDocumentDescriptor descr = descriptor( n );
+		final long[] segments = descr.toSegments();
+		if ( uncompressedCheckpoint != null ) {
+			// Start decompressing from the last checkpoint preceding the document.
+			final long[] checkpoint = uncompressedCheckpoint[ descr.fileIndex ];
+			int c = Arrays.binarySearch( checkpoint, descr.startMarker );
+			if ( c < 0 ) c = -c - 2;
+			if ( c > 0 ) {
+				final FileInputStream fileStream = new FileInputStream( file[ descr.fileIndex ] );
+				fileStream.getChannel().position( compressedCheckpoint[ descr.fileIndex ][ c ] );
+				for( int i = segments.length; i-- != 0; ) segments[ i ] -= checkpoint[ c ];
+				return lastStream = new SegmentedInputStream( new GZIPInputStream( fileStream ), segments );
+			}
+		}
+		return lastStream = new SegmentedInputStream( openFileStream( file[ descr.fileIndex ] ), segments );
 	}
 
 	public Reference2ObjectMap<Enum<?>,Object> metadata( final long index ) {
@@ -298,7 +406,7 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 	public void close() throws IOException {
 		super.close();
 		if ( lastStream != null ) lastStream.close();
-		descriptors = null;
+		markers = null;
 	}
 
 	/**
@@ -315,84 +423,95 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 		this.file = ObjectArrays.ensureCapacity( this.file, this.file.length + other.file.length );
 		System.arraycopy( other.file, 0, this.file, oldLength, other.file.length );
 
-		ObjectIterator<TRECDocumentDescriptor> iter = other.descriptors.iterator();
-		while ( iter.hasNext() ) {
-			final TRECDocumentDescriptor tdd = (TRECDocumentDescriptor)iter.next().clone();
-			tdd.fileIndex += oldLength;
-			this.descriptors.add( tdd );
+		// The markers of the other collection are shifted after our last marker.
+		final long size = size(), shift = fileOffset[ oldLength ];
+		final LongBigArrayBigList markerList = new LongBigArrayBigList( markers.iterator() );
+		for( LongIterator i = other.markers.iterator(); i.hasNext(); ) markerList.add( i.nextLong() + shift );
+		markers = new EliasFanoMonotoneLongBigList( markerList );
+
+		final long[] fileStart = Arrays.copyOf( this.fileStart, file.length + 1 );
+		final long[] fileOffset = Arrays.copyOf( this.fileOffset, file.length + 1 );
+		for( int i = 0; i <= other.file.length; i++ ) {
+			fileStart[ oldLength + i ] = other.fileStart[ i ] + size;
+			fileOffset[ oldLength + i ] = other.fileOffset[ i ] + shift;
 		}
+		this.fileStart = fileStart;
+		this.fileOffset = fileOffset;
+
+		if ( uncompressedCheckpoint != null && other.uncompressedCheckpoint != null ) {
+			uncompressedCheckpoint = ObjectArrays.ensureCapacity( uncompressedCheckpoint, file.length );
+			compressedCheckpoint = ObjectArrays.ensureCapacity( compressedCheckpoint, file.length );
+			System.arraycopy( other.uncompressedCheckpoint, 0, uncompressedCheckpoint, oldLength, other.file.length );
+			System.arraycopy( other.compressedCheckpoint, 0, compressedCheckpoint, oldLength, other.file.length );
+		}
+		else uncompressedCheckpoint = compressedCheckpoint = null;
 	}
 
-	public DocumentIterator iterator() throws IOException {
+	public int segments() {
+		return file.length;
+	}
+
+	public DocumentIterator iterator( final int segment, final DocumentFactory factory, final int readAhead ) throws IOException {
+		final long from = fileStart[ segment ], to = fileStart[ segment + 1 ];
 		return new AbstractDocumentIterator() {
-			/**
-			 * An iterator returning the descriptors of the documents in the
-			 * enveloping collection.
-			 */
-			private final ObjectIterator<TRECDocumentDescriptor> descriptorIterator = descriptors.iterator();
-			/** The current stream. */
+			/** The stream of the file, or {@code null} if no document has been returned yet. */
 			private SegmentedInputStream siStream;
-			/** The current document. */
-			private int currentDocument = 0;
+			/** The index of the next document. */
+			private long currentDocument = from;
 			/** The last returned document. */
 			private Document last;
-			/** The first descriptor of the next file, if any, or <code>null</code> if nextFile() has never been called. */
-			private TRECDocumentDescriptor firstNextDescriptor;
-			
-			private boolean nextFile() throws FileNotFoundException, IOException {
-				if ( size() == 0 ) return false;
-				IOUtils.closeQuietly( siStream );
-				if ( ! descriptorIterator.hasNext() ) return false;
-
-				/*
-				 * We assume documents contained in the same gzip file are
-				 * contiguous so we collect all of them until we find a different
-				 * file index.
-				 */
-				TRECDocumentDescriptor currentDescriptor = firstNextDescriptor != null ? firstNextDescriptor : descriptorIterator.next();
-				int currentFileIndex = currentDescriptor.fileIndex;
-
-				if ( DEBUG ) LOGGER.debug( "Skipping to contents file " + currentFileIndex + " (" + file[ currentFileIndex ] + ")" );
-
-				/*
-				 * We create the segmented input stream with all just collected
-				 * descriptors
-				 */
-				siStream = new SegmentedInputStream( openFileStream( file[ currentFileIndex ] ) );
-
-				do {
-					siStream.addBlock( currentDescriptor.toSegments() );
-					if ( ! descriptorIterator.hasNext() ) break;
-					currentDescriptor = descriptorIterator.next();
-				} while ( currentDescriptor.fileIndex == currentFileIndex );
-
-				firstNextDescriptor = currentDescriptor; // The last assignment will be meaningless, but it won't be used anyway
-				return true;
-			}
 
 			public Document nextDocument() throws IOException {
-				/* If necessary, skip to the next segment, else, try skipping to the next gzip file. */
-				if ( DEBUG ) LOGGER.debug( "nextDocument() has been called " );
-				
 				if ( last != null ) {
 					last.close();
-					if ( ! siStream.hasMoreBlocks() ) {
-						if ( ! nextFile() ) return last = null;
-					}
-					else siStream.nextBlock();
+					last = null;
+				}
+				if ( currentDocument == to ) return null;
+				if ( siStream == null ) {
+					InputStream in = openFileStream( file[ segment ] );
+					if ( readAhead > 0 ) in = new ReadAheadInputStream( in, readAhead );
+					siStream = new SegmentedInputStream( in );
+					for( long i = from; i < to; i++ ) siStream.addBlock( segments( segment, i ) );
 				}
-				else if ( ! nextFile() ) return null; // First call
-				
+				else siStream.nextBlock();
+
 				return last = factory.getDocument( siStream, metadata( currentDocument++ ) );
 			}
 
 			public void close() throws IOException {
-				if ( siStream != null ) {
-					if ( last != null ) last.close();
-					super.close();
-					siStream.close();
-					siStream = null;
+				if ( last != null ) last.close();
+				if ( siStream != null ) siStream.close();
+				super.close();
+			}
+		};
+	}
+
+	public DocumentIterator iterator() throws IOException {
+		return new AbstractDocumentIterator() {
+			/** The current segment. */
+			private int segment = -1;
+			/** An iterator on the current segment, or {@code null}. */
+			private DocumentIterator segmentIterator;
+
+			public Document nextDocument() throws IOException {
+				for( ;; ) {
+					if ( segmentIterator != null ) {
+						final Document document = segmentIterator.nextDocument();
+						if ( document != null ) return document;
+						segmentIterator.close();
+						segmentIterator = null;
+					}
+					if ( segment >= file.length - 1 ) return null;
+					segmentIterator = iterator( ++segment, factory, 0 );
+				}
+			}
+
+			public void close() throws IOException {
+				if ( segmentIterator != null ) {
+					segmentIterator.close();
+					segmentIterator = null;
 				}
+				super.close();
 			}
 		};
 	}
@@ -401,23 +520,45 @@ public class TRECDocumentCollection extends AbstractDocumentCollection implement
 		s.defaultReadObject();
 
 		final long size = s.readLong();
-		final ObjectBigArrayBigList<TRECDocumentDescriptor> descriptors = new ObjectBigArrayBigList<TRECDocumentDescriptor>();
-		descriptors.ensureCapacity( size );
-		for ( int i = 0; i < size; i++ )
-			descriptors.add( new TRECDocumentDescriptor( s.readInt(), s.readLong(), s.readInt(), s.readInt() ) );
-		this.descriptors = descriptors;
+		if ( size < 0 ) {
+			markers = (EliasFanoMonotoneLongBigList)s.readObject();
+			fileStart = (long[])s.readObject();
+			fileOffset = (long[])s.readObject();
+			return;
+		}
+
+		// Old format: a list of descriptors
+		fileStart = new long[ file.length + 1 ];
+		fileOffset = new long[ file.length + 1 ];
+		final LongBigArrayBigList markerList = new LongBigArrayBigList( 3 * size );
+		int lastFileIndex = -1;
+		long base = 0;
+		for ( long i = 0; i < size; i++ ) {
+			final int fileIndex = s.readInt();
+			final long start = s.readLong();
+			final int intermediateMarkerDiff = s.readInt(), stopMarkerDiff = s.readInt();
+			while( lastFileIndex < fileIndex ) {
+				fileStart[ ++lastFileIndex ] = i;
+				fileOffset[ lastFileIndex ] = base = markerList.size64() == 0 ? 0 : markerList.getLong( markerList.size64() - 1 );
+			}
+			markerList.add( base + start );
+			markerList.add( base + start + Math.max( 0, intermediateMarkerDiff ) );
+			markerList.add( base + start + stopMarkerDiff );
+		}
+		while( lastFileIndex < file.length ) {
+			fileStart[ ++lastFileIndex ] = size;
+			fileOffset[ lastFileIndex ] = markerList.size64() == 0 ? 0 : markerList.getLong( markerList.size64() - 1 );
+		}
+		markers = new EliasFanoMonotoneLongBigList( markerList );
 	}
 
 	private void writeObject(final ObjectOutputStream s) throws IOException {
 		s.defaultWriteObject();
-		s.writeLong(descriptors.size64());
-
-		for (TRECDocumentDescriptor descriptor : descriptors) {
-			s.writeInt(descriptor.fileIndex);
-			s.writeLong(descriptor.startMarker);
-			s.writeInt(descriptor.intermediateMarkerDiff);
-			s.writeInt(descriptor.stopMarkerDiff);
-		}
+		// A negative size marks the compact format
+		s.writeLong( -1 );
+		s.writeObject( markers );
+		s.writeObject( fileStart );
+		s.writeObject( fileOffset );
 	}
 
 	public static void main( final String[] arg ) throws IOException, JSAPException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
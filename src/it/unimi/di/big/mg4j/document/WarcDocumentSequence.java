@@ -20,6 +20,7 @@ package it.unimi.di.big.mg4j.document;
  *
  */
 
+import it.unimi.di.big.mg4j.io.ReadAheadInputStream;
 import it.unimi.di.law.bubing.parser.HTMLParser;
 import it.unimi.di.law.warc.io.UncompressedWarcReader;
 import it.unimi.di.law.warc.io.WarcReader;
@@ -64,11 +65,14 @@ import com.martiansoftware.jsap.UnflaggedOption;
  * 
  * <p>This class will also fetch and use the {@linkplain Name#BUBING_GUESSED_CHARSET BUbiNG guessed charset}, if present.
  * 
+ * <p>Each Warc file is a {@linkplain SegmentedDocumentSequence segment}, so several files can be
+ * decompressed and parsed at the same time by wrapping this sequence in a {@link ParallelDocumentSequence}.
+ * 
  * <p>As a commodity, this class provides a main method for the creation of a serialized version
  * of the document sequence.
  */
 
-public class WarcDocumentSequence extends AbstractDocumentSequence implements Serializable {
+public class WarcDocumentSequence extends AbstractDocumentSequence implements SegmentedDocumentSequence, Serializable {
 	private static final long serialVersionUID = 0L;
 	private static final Logger LOGGER = LoggerFactory.getLogger( WarcDocumentSequence.class );
 	
@@ -95,6 +99,16 @@ public class WarcDocumentSequence extends AbstractDocumentSequence implements Se
 	}
 
 	protected Document getCurrentDocument( WarcRecord record ) throws IOException {
+		return getCurrentDocument( record, factory );
+	}
+
+	/** Builds a document from a response record using a given factory.
+	 * 
+	 * @param record a response record.
+	 * @param factory the factory that will be used to build the document.
+	 * @return the document contained in {@code record}.
+	 */
+	protected Document getCurrentDocument( final WarcRecord record, final DocumentFactory factory ) throws IOException {
 		HttpResponseWarcRecord httpResponse = (HttpResponseWarcRecord)record;
 		String guessedCharset = "ISO-8859-1";
 		
@@ -136,20 +150,62 @@ public class WarcDocumentSequence extends AbstractDocumentSequence implements Se
 		return factory.getDocument( entity.getContent(), metadata );
 	}
 
+	/** Opens a Warc file.
+	 * 
+	 * @param n the index of the file.
+	 * @param readAhead if positive, the file will be decompressed in a separate thread reading ahead at most this number of bytes.
+	 * @return an input stream returning the uncompressed content of the file.
+	 */
+	@SuppressWarnings("resource")
+	protected InputStream open( final int n, final int readAhead ) throws IOException {
+		if ( readAhead > 0 ) {
+			final InputStream in = new FileInputStream( warcFile[ n ] );
+			return new ReadAheadInputStream( useGzip ? new GZIPInputStream( in, bufferSize ) : in, readAhead );
+		}
+		return useGzip ? new GZIPInputStream( new FileInputStream( warcFile[ n ] ), bufferSize )
+				: new FastBufferedInputStream( new FileInputStream( warcFile[ n ] ), bufferSize );
+	}
+
+	public int segments() {
+		return warcFile.length;
+	}
+
+	public DocumentIterator iterator( final int segment, final DocumentFactory factory, final int readAhead ) throws IOException {
+		final InputStream stream = open( segment, readAhead );
+		final WarcReader reader = new UncompressedWarcReader( stream );
+		return new AbstractDocumentIterator() {
+			public Document nextDocument() throws IOException {
+				for(;;) {
+					WarcRecord record = null;
+					try {
+						record = reader.read();
+					}
+					catch( Exception ignore ) {
+						LOGGER.error( "Unexpected exception reading WARC file", ignore );
+					}
+					if ( record == null ) return null;
+					if ( record.getWarcType() == WarcRecord.Type.RESPONSE ) return getCurrentDocument( record, factory );
+				}
+			}
+
+			public void close() throws IOException {
+				stream.close();
+				super.close();
+			}
+		};
+	}
+
 	public DocumentIterator iterator() throws IOException {
 		return new AbstractDocumentIterator() {
 			private InputStream currentStream;
 			private int n;
 			private WarcReader reader;
-			@SuppressWarnings("resource")
 			public Document nextDocument() throws IOException {
 				for(;;) {
 					if ( currentStream == null ) {
 						if ( n == warcFile.length ) return null;
-						currentStream = 
-								useGzip ? new GZIPInputStream( new FileInputStream( warcFile[ n++ ] ), bufferSize )
-						: new FastBufferedInputStream( new FileInputStream( warcFile[ n++ ] ), bufferSize );
-								reader = new UncompressedWarcReader( currentStream );
+						currentStream = open( n++, 0 );
+						reader = new UncompressedWarcReader( currentStream );
 					}
 
 					for(;;) {
@@ -35,8 +35,10 @@ import it.unimi.dsi.big.util.StringMap;
 import it.unimi.dsi.big.webgraph.ImmutableGraph;
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.bits.TransformationStrategy;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2LongFunction;
@@ -55,10 +57,14 @@ import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.mph.GOV3Function;
 import it.unimi.dsi.util.TextPattern;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -174,6 +180,25 @@ import com.martiansoftware.jsap.UnflaggedOption;
  *   enwiki
  * </pre>
  * 
+ * <h3>Multistream dumps</h3>
+ * 
+ * <p>Decompressing <code>bzip2</code> is inherently slow and sequential. Wikipedia, however, distributes also <em>multistream</em> dumps
+ * (e.g., <code>enwiki-latest-pages-articles-multistream.xml.bz2</code>), which are the concatenation of independent 
+ * <code>bzip2</code> streams (a first stream containing the header, followed by streams containing a hundred pages each), and
+ * an index file (e.g., <code>enwiki-latest-pages-articles-multistream-index.txt.bz2</code>) whose lines have the form
+ * <samp><var>offset</var>:<var>id</var>:<var>title</var></samp>, where <var>offset</var> is the starting
+ * offset of the stream containing the page. If you {@linkplain #WikipediaDocumentSequence(String, boolean, String, boolean, boolean, boolean, int, int, int, String, String, int) specify the index}, 
+ * a number of threads will decompress, parse and render independent streams in parallel, and their output will be 
+ * reordered so that documents are returned exactly in the same order of a sequential scan: 
+ * <pre>
+ * java it.unimi.di.big.mg4j.tool.IndexBuilder \
+ *   -o "it.unimi.di.big.mg4j.document.WikipediaDocumentSequence(enwiki-multistream.xml.bz2,true,http://en.wikipedia.org/wiki/,true,false,false,32,512,16,,enwiki-multistream-index.txt.bz2,0)" \ 
+ *   --all-fields -v enwikired.vdr -t EnglishStemmer enwiki
+ * </pre>
+ * 
+ * <p>Redirect anchors are always associated with the first indexed page following the redirects in the dump, whereas
+ * when reading sequentially the association depends on the relative speed of the parsing thread and of the indexer.
+ * 
  * <h2>Additional fields</h2>
  * 
  * <p>The additional fields generated by this class (some of which are a bit hacky) are:
@@ -213,6 +238,12 @@ public class WikipediaDocumentSequence extends AbstractDocumentSequence implemen
 	
 	/** A marker used to denote end of input. */
 	private static final DocumentAndFactory END = new DocumentAndFactory( null,  null );
+	/** The number of streams per decoding thread that can be rendered but not yet returned when reading a multistream dump. */
+	public static final int MULTISTREAM_WINDOW = 4;
+	/** The opening tag used to wrap the pages of a stream of a multistream dump. */
+	private static final byte[] ROOT_START = "<mediawiki>".getBytes( Charsets.US_ASCII );
+	/** The closing tag used to wrap the pages of a stream of a multistream dump. */
+	private static final byte[] ROOT_END = "</mediawiki>".getBytes( Charsets.US_ASCII );
 	/** The prototype {@link CompositeDocumentFactory} used to parse Wikipedia pages. */
 	private final DocumentFactory factory;
 	/** Whether the input is compressed with <code>bzip2</code>. */
@@ -221,6 +252,12 @@ public class WikipediaDocumentSequence extends AbstractDocumentSequence implemen
 	private final boolean parseText;
 	/** Whether to keep in the index namespace pages. */
 	private final boolean keepNamespaced;
+	/** Whether to keep templates. */
+	private final boolean keepTemplates;
+	/** The index of a multistream dump, or {@code null} if the dump must be read sequentially. */
+	private final String multistreamIndex;
+	/** The number of threads decoding a multistream dump. */
+	private final int threads;
 	/** The Wikipedia XML dump. */
 	private final String wikipediaXmlDump;
 	/** The base URL for pages (e.g., <code>http://en.wikipedi.org/wiki/</code>). */
@@ -237,7 +274,7 @@ public class WikipediaDocumentSequence extends AbstractDocumentSequence implemen
 	 * pages that are not followed by any indexed page the anchors of those redirects won't be processed at all. 
 	 * If this is a problem, just add a fake empty page at the end. */
 	private final ObjectArrayList<Anchor> redirectAnchors = new ObjectArrayList<Anchor>();
-	/** The Bliki model used to parse pages. */
+	/** The Bliki model used to parse pages (by sequential iterators). */
 	private final MyWikiModel wikiModel;
 	
 	public static enum MetadataKeys {
@@ -405,11 +442,38 @@ public class WikipediaDocumentSequence extends AbstractDocumentSequence implemen
 	 * @param delimiter a token that will be inserted to delimit the anchor text, or {@code null} for no delimiter.
 	 */
 	public WikipediaDocumentSequence( final String file, final boolean bzipped, final String baseURL, final boolean parseText, final boolean keepNamespaced, final boolean keepTemplates, final int maxPreAnchor, final int maxAnchor, final int maxPostAnchor, final String delimiter ) {
+		this( file, bzipped, baseURL, parseText, keepNamespaced, keepTemplates, maxPreAnchor, maxAnchor, maxPostAnchor, delimiter, null, 0 );
+	}
+
+	/** Builds a new Wikipedia document sequence, possibly reading a multistream dump in parallel.
+	 * 
+	 * @param file the file containing the Wikipedia dump.
+	 * @param bzipped whether {@code file} is compressed with <code>bzip2</code>.
+	 * @param baseURL a base URL for links (e.g., for the English Wikipedia, <code>http://en.wikipedia.org/wiki/</code>);
+	 * note that if it is nonempty this string <strong>must</strong> terminate with a slash.
+	 * @param parseText whether to parse the text (this parameter is only set to false during metadata-scanning
+	 * phases to speed up the scanning process).
+	 * @param keepNamespaced whether to keep namespaced pages (e.g., <code>Template:<var>something</var></code> pages).
+	 * @param keepTemplates whether to keep templates (e.g., infoboxes, taxoboxes, etc.); we suggest to pass false if you're building a Wikipedia graph.
+	 * @param maxPreAnchor maximum number of character before an anchor.
+	 * @param maxAnchor maximum number of character in an anchor.
+	 * @param maxPostAnchor maximum number of characters after an anchor.
+	 * @param delimiter a token that will be inserted to delimit the anchor text, or {@code null} for no delimiter.
+	 * @param multistreamIndex the index of a multistream dump (possibly compressed with <code>bzip2</code>), or {@code null}
+	 * to read the dump sequentially; if not {@code null}, {@code bzipped} must be true.
+	 * @param threads the number of threads decoding the streams of a multistream dump (0 for the number of available processors).
+	 */
+	public WikipediaDocumentSequence( final String file, final boolean bzipped, final String baseURL, final boolean parseText, final boolean keepNamespaced, final boolean keepTemplates, final int maxPreAnchor, final int maxAnchor, final int maxPostAnchor, final String delimiter, final String multistreamIndex, final int threads ) {
+		if ( multistreamIndex != null && ! bzipped ) throw new IllegalArgumentException( "A multistream dump must be compressed with bzip2" );
+		if ( threads < 0 ) throw new IllegalArgumentException( "Negative number of threads: " + threads );
 		this.wikipediaXmlDump = file;
 		this.bzipped = bzipped;
 		this.baseURL = baseURL;
 		this.parseText = parseText;
 		this.keepNamespaced = keepNamespaced;
+		this.keepTemplates = keepTemplates;
+		this.multistreamIndex = multistreamIndex;
+		this.threads = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
 		Reference2ObjectOpenHashMap<Enum<?>, Object> defaultMetadata =
 				new Reference2ObjectOpenHashMap<Enum<?>, Object>(
 						new Enum[] { HtmlDocumentFactory.MetadataKeys.MAXPREANCHOR, HtmlDocumentFactory.MetadataKeys.MAXANCHOR, HtmlDocumentFactory.MetadataKeys.MAXPOSTANCHOR },
@@ -456,223 +520,260 @@ public class WikipediaDocumentSequence extends AbstractDocumentSequence implemen
 		this( file, Boolean.parseBoolean( bzipped ), baseURL, Boolean.parseBoolean( parseText ), Boolean.parseBoolean( keepNamespaced ), Boolean.parseBoolean( keepTemplates ), Integer.parseInt( maxBeforeAnchor ), Integer.parseInt(  maxAnchor ), Integer.parseInt( maxPostAnchor ), delimiter );
 	}
 
-	private static final class DocumentAndFactory {
-		public final Document document;
-		public final DocumentFactory factory;
-
-		public DocumentAndFactory( final Document document, final DocumentFactory documentFactory ) {
-			this.document = document;
-			this.factory = documentFactory;
-		}
+	/** A string-based constructor to be used with an {@link ObjectParser}; an empty {@code delimiter} means no delimiter.
+	 *
+	 * @see #WikipediaDocumentSequence(String, boolean, String, boolean, boolean, boolean, int, int, int, String, String, int)
+	 */
+	public WikipediaDocumentSequence( final String file, final String bzipped, final String baseURL, final String parseText, final String keepNamespaced, final String keepTemplates, final String maxBeforeAnchor, final String maxAnchor, final String maxPostAnchor, final String delimiter, final String multistreamIndex, final String threads ) {
+		this( file, Boolean.parseBoolean( bzipped ), baseURL, Boolean.parseBoolean( parseText ), Boolean.parseBoolean( keepNamespaced ), Boolean.parseBoolean( keepTemplates ), Integer.parseInt( maxBeforeAnchor ), Integer.parseInt(  maxAnchor ), Integer.parseInt( maxPostAnchor ), delimiter.length() == 0 ? null : delimiter, multistreamIndex, Integer.parseInt( threads ) );
 	}
 
-	@Override
-	public DocumentIterator iterator() throws IOException {
-		final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-		saxParserFactory.setNamespaceAware( true );
-		final MutableString nameSpaceAccumulator = new MutableString();
-		final ObjectOpenHashSet<MutableString> nameSpacesAccumulator = new ObjectOpenHashSet<MutableString>();
-		final ArrayBlockingQueue<DocumentFactory> freeFactories = new ArrayBlockingQueue<DocumentFactory>( 16 );
-		for( int i = freeFactories.remainingCapacity(); i-- != 0; ) freeFactories.add( this.factory.copy() );
-		final ArrayBlockingQueue<DocumentAndFactory> readyDocumentsAndFactories = new ArrayBlockingQueue<DocumentAndFactory>( freeFactories.size() );
-		
-	    final SAXParser parser;
-		try {
-			parser = saxParserFactory.newSAXParser();
+	/** A SAX handler parsing the pages of a Wikipedia XML dump and passing them, rendered in HTML, to {@link #page(Reference2ObjectMap, MutableString)}.
+	 * As a side effect, it sets {@link WikipediaDocumentSequence#nameSpaces} when it meets the namespace definitions. */
+	private abstract class PageHandler extends DefaultHandler {
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		private boolean inText;
+		private boolean inTitle;
+		private boolean inId;
+		private boolean inTimestamp;
+		private boolean inNamespaceDef;
+		private boolean redirect;
+		private MutableString text = new MutableString();
+		private MutableString title = new MutableString();
+		private MutableString id = new MutableString();
+		private MutableString timestamp = new MutableString();
+		private final Reference2ObjectMap<Enum<?>, Object> metadata = new Reference2ObjectOpenHashMap<Enum<?>, Object>();
+		private final MutableString nameSpaceAccumulator = new MutableString();
+		private final ObjectOpenHashSet<MutableString> nameSpacesAccumulator = new ObjectOpenHashSet<MutableString>();
+		/** The Bliki model used to parse pages. */
+		private final MyWikiModel wikiModel;
+		/** The list accumulating the anchors generated by redirects. */
+		private final ObjectArrayList<Anchor> redirectAnchors;
+
+		/** Creates a new page handler.
+		 * 
+		 * @param wikiModel the Bliki model that will be used to render pages (models cannot be shared among threads).
+		 * @param redirectAnchors a list accumulating the anchors generated by redirect pages; it will
+		 * be associated with {@link MetadataKeys#REDIRECT} in the metadata of each page.
+		 */
+		public PageHandler( final MyWikiModel wikiModel, final ObjectArrayList<Anchor> redirectAnchors ) {
+			this.wikiModel = wikiModel;
+			this.redirectAnchors = redirectAnchors;
+			metadata.put( PropertyBasedDocumentFactory.MetadataKeys.ENCODING, "UTF-8" );
+			metadata.put( MetadataKeys.REDIRECT, redirectAnchors );
 		}
-		catch ( Exception e ) {
-			throw new RuntimeException( e.getMessage(), e );
+
+		/** Processes a rendered page.
+		 * 
+		 * @param metadata the metadata of the page (a private copy).
+		 * @param html the HTML rendering of the page (empty if text is not parsed).
+		 */
+		protected abstract void page( final Reference2ObjectMap<Enum<?>, Object> metadata, final MutableString html ) throws IOException, InterruptedException;
+
+		@Override
+		public void startElement( String uri, String localName, String qName, Attributes attributes ) throws SAXException {
+			if ( "page".equals( localName ) ) {
+				redirect = inText = inTitle = inId = inTimestamp = false;
+				text.length( 0 );
+				title.length( 0 );
+				id.length( 0 );
+				timestamp.length( 0 );
+			}
+			else if ( "text".equals( localName ) ) inText = true;
+			else if ( "title".equals( localName ) && title.length() == 0 ) inTitle = true; // We catch only the first id/title elements.
+			else if ( "id".equals( localName ) && id.length() ==0  ) inId = true;
+			else if ( "timestamp".equals( localName ) && timestamp.length() ==0  ) inTimestamp = true;
+			else if ( "redirect".equals( localName ) ) {
+				redirect = true;
+				if ( attributes.getValue( "title" ) != null )
+					// Accumulate the title of the page as virtual text of the redirect page.
+					synchronized ( redirectAnchors ) {
+						final String link = Encoder.encodeTitleToUrl( attributes.getValue( "title" ), true );
+						redirectAnchors.add( new AnchorExtractor.Anchor( new MutableString( baseURL.length() + link.length() ).append( baseURL ).append( link ), title.copy() ) );
+					}
+			}
+			else if ( "namespace".equals( localName ) ) {
+				// Found a new namespace
+				inNamespaceDef = true;
+				nameSpaceAccumulator.length( 0 );
+			}
 		}
-	    final DefaultHandler handler = new DefaultHandler() {
-			private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-			private boolean inText;
-			private boolean inTitle;
-			private boolean inId;
-			private boolean inTimestamp;
-			private boolean inNamespaceDef;
-			private boolean redirect;
-			private MutableString text = new MutableString();
-			private MutableString title = new MutableString();
-			private MutableString id = new MutableString();
-			private MutableString timestamp = new MutableString();
-			private final Reference2ObjectMap<Enum<?>, Object> metadata = new Reference2ObjectOpenHashMap<Enum<?>, Object>();
-			{
-				metadata.put( PropertyBasedDocumentFactory.MetadataKeys.ENCODING, "UTF-8" );
-				metadata.put( MetadataKeys.REDIRECT, redirectAnchors );
+
+		@Override
+		public void endElement( String uri, String localName, String qName ) throws SAXException {
+			if ( "namespace".equals( localName ) ) { // Collecting a namespace
+				if ( nameSpaceAccumulator.length() != 0 ) nameSpacesAccumulator.add( nameSpaceAccumulator.copy().toLowerCase() );
+				return;
 			}
 
-			@Override
-			public void startElement( String uri, String localName, String qName, Attributes attributes ) throws SAXException {
-				if ( "page".equals( localName ) ) {
-					redirect = inText = inTitle = inId = inTimestamp = false;
-					text.length( 0 );
-					title.length( 0 );
-					id.length( 0 );
-					timestamp.length( 0 );
-				}
-				else if ( "text".equals( localName ) ) inText = true;
-				else if ( "title".equals( localName ) && title.length() == 0 ) inTitle = true; // We catch only the first id/title elements.
-				else if ( "id".equals( localName ) && id.length() ==0  ) inId = true;
-				else if ( "timestamp".equals( localName ) && timestamp.length() ==0  ) inTimestamp = true;
-				else if ( "redirect".equals( localName ) ) {
-					redirect = true;
-					if ( attributes.getValue( "title" ) != null )
-						// Accumulate the title of the page as virtual text of the redirect page.
-						synchronized ( redirectAnchors ) {
-							final String link = Encoder.encodeTitleToUrl( attributes.getValue( "title" ), true );
-							redirectAnchors.add( new AnchorExtractor.Anchor( new MutableString( baseURL.length() + link.length() ).append( baseURL ).append( link ), title.copy() ) );
-						}
-				}
-				else if ( "namespace".equals( localName ) ) {
-					// Found a new namespace
-					inNamespaceDef = true;
-					nameSpaceAccumulator.length( 0 );
-				}
+			if ( "namespaces".equals( localName ) ) { // All namespaces collected
+				nameSpaces = ImmutableSet.copyOf( nameSpacesAccumulator );
+				return;
 			}
 
-			@Override
-			public void endElement( String uri, String localName, String qName ) throws SAXException {
-				if ( "namespace".equals( localName ) ) { // Collecting a namespace
-					if ( nameSpaceAccumulator.length() != 0 ) nameSpacesAccumulator.add( nameSpaceAccumulator.copy().toLowerCase() );
-					return;
+			if ( ! redirect ) {
+				if ( "title".equals( localName ) ) {
+					// Set basic metadata for the page
+					metadata.put( PropertyBasedDocumentFactory.MetadataKeys.TITLE, title.copy() );
+					String link = Encoder.encodeTitleToUrl( title.toString(), true );
+					metadata.put( PropertyBasedDocumentFactory.MetadataKeys.URI, new MutableString( baseURL.length() + link.length() ).append( baseURL ).append( link ) );
+					inTitle = false;
 				}
-
-				if ( "namespaces".equals( localName ) ) { // All namespaces collected
-					nameSpaces = ImmutableSet.copyOf( nameSpacesAccumulator );
-					return;
+				else if ( "id".equals( localName ) ) {
+					metadata.put( MetadataKeys.ID, Long.valueOf( id.toString() ) );
+					inId = false;
 				}
-
-				if ( ! redirect ) {
-					if ( "title".equals( localName ) ) {
-						// Set basic metadata for the page
-						metadata.put( PropertyBasedDocumentFactory.MetadataKeys.TITLE, title.copy() );
-						String link = Encoder.encodeTitleToUrl( title.toString(), true );
-						metadata.put( PropertyBasedDocumentFactory.MetadataKeys.URI, new MutableString( baseURL.length() + link.length() ).append( baseURL ).append( link ) );
-						inTitle = false;
+				else if ( "timestamp".equals( localName ) ) {
+					try {
+						metadata.put( MetadataKeys.LASTEDIT, dateFormat.parse( timestamp.toString() ) );
 					}
-					else if ( "id".equals( localName ) ) {
-						metadata.put( MetadataKeys.ID, Long.valueOf( id.toString() ) );
-						inId = false;
+					catch ( ParseException e ) {
+						throw new RuntimeException( e.getMessage(), e );
 					}
-					else if ( "timestamp".equals( localName ) ) {
-						try {
-							metadata.put( MetadataKeys.LASTEDIT, dateFormat.parse( timestamp.toString() ) );
-						}
-						catch ( ParseException e ) {
-							throw new RuntimeException( e.getMessage(), e );
-						}
-						inTimestamp = false;
+					inTimestamp = false;
+				}
+				else if ( "text".equals( localName ) ) {
+					inText = false;
+					if ( ! keepNamespaced )  {
+						// Namespaces are case-insensitive and language-dependent
+						final int pos = title.indexOf( ':' );
+						if ( pos != -1 && nameSpaces.contains( title.substring( 0, pos ).toLowerCase() ) ) return;
 					}
-					else if ( "text".equals( localName ) ) {
-						inText = false;
-						if ( ! keepNamespaced )  {
-							// Namespaces are case-insensitive and language-dependent
-							final int pos = title.indexOf( ':' );
-							if ( pos != -1 && nameSpaces.contains( title.substring( 0, pos ).toLowerCase() ) ) return;
-						}
-						try {
-							final MutableString html = new MutableString();
-							DocumentFactory freeFactory;
-							try {
-								freeFactory = freeFactories.take();
-							}
-							catch ( InterruptedException e ) {
-								throw new RuntimeException( e.getMessage(), e );
-							}
-							if ( parseText ) {
-								if ( DISAMBIGUATION.search( text ) != -1 ) { // It's a disambiguation page.
-									/* Roi's hack: duplicate links using the page title, so the generic name will end up as anchor text. */
-									final MutableString newLinks = new MutableString();
-									for( int start = 0, end; ( start = BRACKETS_OPEN.search( text, start ) ) != -1; start = end ) {
-										end = start;
-										final int endOfLink = text.indexOfAnyOf( END_OF_DISAMBIGUATION_LINK, start );
-										// Note that we don't escape title because we are working at the Wikipedia raw text level.
-										if ( endOfLink != -1 ) {
-											newLinks.append( text.array(), start, endOfLink - start ).append( '|' ).append( title ).append( "]]\n" );
-											end = endOfLink;
-										}
-										end++;
+					try {
+						final MutableString html = new MutableString();
+						if ( parseText ) {
+							if ( DISAMBIGUATION.search( text ) != -1 ) { // It's a disambiguation page.
+								/* Roi's hack: duplicate links using the page title, so the generic name will end up as anchor text. */
+								final MutableString newLinks = new MutableString();
+								for( int start = 0, end; ( start = BRACKETS_OPEN.search( text, start ) ) != -1; start = end ) {
+									end = start;
+									final int endOfLink = text.indexOfAnyOf( END_OF_DISAMBIGUATION_LINK, start );
+									// Note that we don't escape title because we are working at the Wikipedia raw text level.
+									if ( endOfLink != -1 ) {
+										newLinks.append( text.array(), start, endOfLink - start ).append( '|' ).append( title ).append( "]]\n" );
+										end = endOfLink;
 									}
-									
-									text.append( newLinks );
-								}
-								// We separate categories by OXOXO, so we don't get overflowing phrases.
-								final MutableString category = new MutableString();
-								for( int start = 0, end; ( start = CATEGORY_START.search( text, start ) ) != -1; start = end ) {
-									end = BRACKETS_CLOSED.search( text, start += CATEGORY_START.length() );
-									if ( end != -1 ) category.append( text.subSequence( start,  end ) ).append( " OXOXO " );
-									else break;
+									end++;
 								}
-								metadata.put( MetadataKeys.CATEGORY, category );
 								
-								// Heuristics to get the first paragraph
-								metadata.put( MetadataKeys.FIRSTPAR, new MutableString() );
-								String plainText = wikiModel.render( new PlainTextConverter( true ), text.toString() );
-								for( int start = 0; start < plainText.length(); start++ ) {
-									//System.err.println("Examining " + plainText.charAt( start )  );
-									if ( Character.isWhitespace( plainText.charAt( start ) ) ) continue;
-									if ( plainText.charAt( start ) == '{' ) {
-										//System.err.print( "Braces " + start + " text: \"" + plainText.subSequence( start, start + 10 )  + "\" -> " );
-										start = BRACES_CLOSED.search( plainText, start );
-										//System.err.println( start + " text: \"" + plainText.subSequence( start, start + 10 ) + "\"" );
-										if ( start == -1 ) break;
-										start++;
-									}
-									else if ( plainText.charAt( start ) == '[' ) {
-										start = BRACKETS_CLOSED.search( plainText, start );
-										if ( start == -1 ) break;
-										start++;
-									}
-									else {
-										final int end = plainText.indexOf( '\n', start );
-										if ( end != -1 ) metadata.put( MetadataKeys.FIRSTPAR, new MutableString( plainText.substring( start, end ) ) );
-										break;
-									}
+								text.append( newLinks );
+							}
+							// We separate categories by OXOXO, so we don't get overflowing phrases.
+							final MutableString category = new MutableString();
+							for( int start = 0, end; ( start = CATEGORY_START.search( text, start ) ) != -1; start = end ) {
+								end = BRACKETS_CLOSED.search( text, start += CATEGORY_START.length() );
+								if ( end != -1 ) category.append( text.subSequence( start,  end ) ).append( " OXOXO " );
+								else break;
+							}
+							metadata.put( MetadataKeys.CATEGORY, category );
+							
+							// Heuristics to get the first paragraph
+							metadata.put( MetadataKeys.FIRSTPAR, new MutableString() );
+							String plainText = wikiModel.render( new PlainTextConverter( true ), text.toString() );
+							for( int start = 0; start < plainText.length(); start++ ) {
+								//System.err.println("Examining " + plainText.charAt( start )  );
+								if ( Character.isWhitespace( plainText.charAt( start ) ) ) continue;
+								if ( plainText.charAt( start ) == '{' ) {
+									//System.err.print( "Braces " + start + " text: \"" + plainText.subSequence( start, start + 10 )  + "\" -> " );
+									start = BRACES_CLOSED.search( plainText, start );
+									//System.err.println( start + " text: \"" + plainText.subSequence( start, start + 10 ) + "\"" );
+									if ( start == -1 ) break;
+									start++;
 								}
-								
-								try {
-									wikiModel.render( new HTMLConverter(), text.toString(), html, false, true );
-									final Map<String, String> categories = wikiModel.getCategories();
-									// Put back category links in the page (they have been parsed by bliki and to not appear anymore in the HTML rendering)
-									for( Entry<String, String> entry: categories.entrySet() ) {
-										final String key = entry.getKey();
-										final String value = entry.getValue().trim();
-										if ( value.length() != 0 ) // There are empty such things
-											html.append( "\n<a href=\"" ).append( baseURL ).append( "Category:" ).append( Encoder.encodeTitleToUrl( key, true ) ).append(  "\">" ).append( HtmlEscapers.htmlEscaper().escape( key ) ).append( "</a>\n" );
-									}
+								else if ( plainText.charAt( start ) == '[' ) {
+									start = BRACKETS_CLOSED.search( plainText, start );
+									if ( start == -1 ) break;
+									start++;
 								}
-								catch( Exception e ) {
-									LOGGER.error( "Unexpected exception while parsing " + title, e );
+								else {
+									final int end = plainText.indexOf( '\n', start );
+									if ( end != -1 ) metadata.put( MetadataKeys.FIRSTPAR, new MutableString( plainText.substring( start, end ) ) );
+									break;
 								}
 							}
-							readyDocumentsAndFactories.put( new DocumentAndFactory( freeFactory.getDocument( IOUtils.toInputStream( html, Charsets.UTF_8 ), new Reference2ObjectOpenHashMap<Enum<?>, Object>( metadata ) ), freeFactory ) );
-						}
-						catch ( InterruptedException e ) {
-							throw new RuntimeException( e.getMessage(), e );
-						}
-						catch ( IOException e ) {
-							throw new RuntimeException( e.getMessage(), e );
+							
+							try {
+								wikiModel.render( new HTMLConverter(), text.toString(), html, false, true );
+								final Map<String, String> categories = wikiModel.getCategories();
+								// Put back category links in the page (they have been parsed by bliki and to not appear anymore in the HTML rendering)
+								for( Entry<String, String> entry: categories.entrySet() ) {
+									final String key = entry.getKey();
+									final String value = entry.getValue().trim();
+									if ( value.length() != 0 ) // There are empty such things
+										html.append( "\n<a href=\"" ).append( baseURL ).append( "Category:" ).append( Encoder.encodeTitleToUrl( key, true ) ).append(  "\">" ).append( HtmlEscapers.htmlEscaper().escape( key ) ).append( "</a>\n" );
+								}
+							}
+							catch( Exception e ) {
+								LOGGER.error( "Unexpected exception while parsing " + title, e );
+							}
 						}
+						page( new Reference2ObjectOpenHashMap<Enum<?>, Object>( metadata ), html );
+					}
+					catch ( InterruptedException e ) {
+						throw new RuntimeException( e.getMessage(), e );
+					}
+					catch ( IOException e ) {
+						throw new RuntimeException( e.getMessage(), e );
 					}
 				}
 			}
+		}
 
-			@Override
-			public void characters( char[] ch, int start, int length ) throws SAXException {
-				if ( inText && parseText ) text.append( ch, start, length );
-				if ( inTitle ) title.append( ch, start, length );
-				if ( inId ) id.append( ch, start, length );
-				if ( inTimestamp ) timestamp.append( ch, start, length );
-				if ( inNamespaceDef ) {
-					nameSpaceAccumulator.append( ch, start, length );
-					inNamespaceDef = false; // Dirty, but it works
-				}
+		@Override
+		public void characters( char[] ch, int start, int length ) throws SAXException {
+			if ( inText && parseText ) text.append( ch, start, length );
+			if ( inTitle ) title.append( ch, start, length );
+			if ( inId ) id.append( ch, start, length );
+			if ( inTimestamp ) timestamp.append( ch, start, length );
+			if ( inNamespaceDef ) {
+				nameSpaceAccumulator.append( ch, start, length );
+				inNamespaceDef = false; // Dirty, but it works
 			}
+		}
+
+		@Override
+		public void ignorableWhitespace( char[] ch, int start, int length ) throws SAXException {
+			if ( inText && parseText ) text.append( ch, start, length );
+			if ( inTitle ) title.append( ch, start, length );
+		}
+	}
+
+	private static final class DocumentAndFactory {
+		public final Document document;
+		public final DocumentFactory factory;
+
+		public DocumentAndFactory( final Document document, final DocumentFactory documentFactory ) {
+			this.document = document;
+			this.factory = documentFactory;
+		}
+	}
+
+	/** Returns a new SAX parser. */
+	private static SAXParser newSAXParser() {
+		final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+		saxParserFactory.setNamespaceAware( true );
+		try {
+			return saxParserFactory.newSAXParser();
+		}
+		catch ( Exception e ) {
+			throw new RuntimeException( e.getMessage(), e );
+		}
+	}
+
+	@Override
+	public DocumentIterator iterator() throws IOException {
+		if ( multistreamIndex != null ) return new MultistreamDocumentIterator();
 
+		final ArrayBlockingQueue<DocumentFactory> freeFactories = new ArrayBlockingQueue<DocumentFactory>( 16 );
+		for( int i = freeFactories.remainingCapacity(); i-- != 0; ) freeFactories.add( this.factory.copy() );
+		final ArrayBlockingQueue<DocumentAndFactory> readyDocumentsAndFactories = new ArrayBlockingQueue<DocumentAndFactory>( freeFactories.size() );
+		
+	    final SAXParser parser = newSAXParser();
+	    final PageHandler handler = new PageHandler( wikiModel, redirectAnchors ) {
 			@Override
-			public void ignorableWhitespace( char[] ch, int start, int length ) throws SAXException {
-				if ( inText && parseText ) text.append( ch, start, length );
-				if ( inTitle ) title.append( ch, start, length );
+			protected void page( final Reference2ObjectMap<Enum<?>, Object> metadata, final MutableString html ) throws IOException, InterruptedException {
+				final DocumentFactory freeFactory = freeFactories.take();
+				readyDocumentsAndFactories.put( new DocumentAndFactory( freeFactory.getDocument( IOUtils.toInputStream( html, Charsets.UTF_8 ), metadata ), freeFactory ) );
 			}
 	    };
 
@@ -680,7 +781,7 @@ public class WikipediaDocumentSequence extends AbstractDocumentSequence implemen
 	    	public void run() {
 	    		try {
 					InputStream in = new FileInputStream( wikipediaXmlDump );
-					if ( bzipped ) in = new BZip2CompressorInputStream( in );
+					if ( bzipped ) in = new BZip2CompressorInputStream( in, true );
 					parser.parse( new InputSource( new InputStreamReader( new FastBufferedInputStream( in ), Charsets.UTF_8  ) ), handler );
 					readyDocumentsAndFactories.put( END );
 				}
@@ -710,6 +811,221 @@ public class WikipediaDocumentSequence extends AbstractDocumentSequence implemen
 		};
 	}
 
+	/** Reads the index of a multistream dump.
+	 * 
+	 * @param index the name of the index file (if it ends with <code>.bz2</code>, it will be decompressed on the fly).
+	 * @param length the length of the dump.
+	 * @return the distinct starting offsets of the streams containing pages, followed by {@code length}.
+	 */
+	private static long[] readOffsets( final String index, final long length ) throws IOException {
+		InputStream in = new FileInputStream( index );
+		if ( index.endsWith( ".bz2" ) ) in = new BZip2CompressorInputStream( in, true );
+		final FastBufferedReader reader = new FastBufferedReader( new InputStreamReader( in, Charsets.UTF_8 ) );
+		final LongArrayList offsets = new LongArrayList();
+		final MutableString line = new MutableString();
+		while( reader.readLine( line ) != null ) {
+			// Lines have the form offset:id:title, and titles may contain colons.
+			final int colon = line.indexOf( ':' );
+			if ( colon == -1 ) continue;
+			final long offset = Long.parseLong( line.substring( 0, colon ).toString() );
+			if ( offsets.isEmpty() || offsets.topLong() != offset ) {
+				if ( ! offsets.isEmpty() && offsets.topLong() > offset || offset >= length ) throw new IOException( "Offset " + offset + " in " + index + " is out of order or beyond the end of the dump" );
+				offsets.add( offset );
+			}
+		}
+		reader.close();
+		if ( offsets.isEmpty() ) throw new IOException( "The multistream index " + index + " is empty" );
+		offsets.add( length );
+		return offsets.toLongArray();
+	}
+
+	/** Decompresses a single <code>bzip2</code> stream of a multistream dump, wrapping its content
+	 * so that it becomes a well-formed XML document.
+	 * 
+	 * @param dump the dump.
+	 * @param from the starting offset of the stream.
+	 * @param to the starting offset of the next stream (or the length of the dump).
+	 * @param header whether this is the stream containing the header (which contains the opening tag of the root element).
+	 * @return an input stream returning the decompressed content of the stream, wrapped in a root element.
+	 */
+	private static InputStream decode( final RandomAccessFile dump, final long from, final long to, final boolean header ) throws IOException {
+		final byte[] compressed = new byte[ (int)( to - from ) ];
+		dump.seek( from );
+		dump.readFully( compressed );
+		// The stream decoder stops at the end of the first stream, so trailing streams (e.g., the closing tag) are ignored.
+		InputStream in = new BZip2CompressorInputStream( new ByteArrayInputStream( compressed ) );
+		if ( ! header ) in = new SequenceInputStream( new ByteArrayInputStream( ROOT_START ), in );
+		return new SequenceInputStream( in, new ByteArrayInputStream( ROOT_END ) );
+	}
+
+	/** A page parsed and rendered by a {@linkplain MultistreamDocumentIterator.DecodingThread decoding thread}. */
+	private static final class RenderedPage {
+		/** The metadata of the page. */
+		public final Reference2ObjectMap<Enum<?>, Object> metadata;
+		/** The HTML rendering of the page. */
+		public final MutableString html;
+		/** The anchors generated by the redirect pages preceding this page in its stream. */
+		public final ObjectArrayList<Anchor> redirectAnchors;
+
+		public RenderedPage( final Reference2ObjectMap<Enum<?>, Object> metadata, final MutableString html, final ObjectArrayList<Anchor> redirectAnchors ) {
+			this.metadata = metadata;
+			this.html = html;
+			this.redirectAnchors = redirectAnchors;
+		}
+	}
+
+	/** The pages of a stream of a multistream dump. */
+	private static final class RenderedStream {
+		/** The rendered pages, in dump order. */
+		public final ObjectArrayList<RenderedPage> pages = new ObjectArrayList<RenderedPage>();
+		/** The anchors generated by redirect pages not followed by any page in the stream. */
+		public final ObjectArrayList<Anchor> redirectAnchors = new ObjectArrayList<Anchor>();
+	}
+
+	/** A document iterator over a multistream dump. A number of {@linkplain DecodingThread decoding threads}
+	 * take independent <code>bzip2</code> streams, parse and render their pages, and leave the result
+	 * in a reordering buffer, from which streams are consumed in dump order; in this way, documents are numbered 
+	 * exactly as in a sequential scan, and redirect anchors are always attached to the first page following the redirects. 
+	 * At most {@link WikipediaDocumentSequence#MULTISTREAM_WINDOW} streams per thread can be rendered but not yet returned. */
+	private final class MultistreamDocumentIterator extends AbstractDocumentIterator {
+		/** The starting offsets of the streams containing pages, followed by the length of the dump. */
+		private final long[] offset;
+		/** The rendered streams that have not been returned yet, indexed by stream; all state shared with the decoding threads is guarded by this map. */
+		private final Int2ObjectOpenHashMap<RenderedStream> rendered = new Int2ObjectOpenHashMap<RenderedStream>();
+		/** The maximum number of streams that can be handed out to decoding threads but not returned yet. */
+		private final int window;
+		/** The next stream to be handed out to a decoding thread. */
+		private int nextStream;
+		/** The stream we are currently returning pages from. */
+		private int currStream = -1;
+		/** The first exception thrown by a decoding thread, or {@code null}. */
+		private Throwable failure;
+		/** Whether this iterator has been closed. */
+		private boolean stopped;
+		/** The stream we are returning pages from, or {@code null}. */
+		private RenderedStream stream;
+		/** The next page of {@link #stream} to be returned. */
+		private int page;
+		/** The factory used to build documents. */
+		private final DocumentFactory factory = WikipediaDocumentSequence.this.factory.copy();
+		/** The list accumulating the redirect anchors that will be returned by the next page. */
+		private final ObjectArrayList<Anchor> redirectAnchors = new ObjectArrayList<Anchor>();
+
+		/** A thread decoding, parsing and rendering streams. */
+		private final class DecodingThread extends Thread {
+			public DecodingThread( final int index ) {
+				super( "WikipediaDocumentSequence decoder #" + index );
+				setDaemon( true );
+			}
+
+			@Override
+			public void run() {
+				try {
+					final RandomAccessFile dump = new RandomAccessFile( wikipediaXmlDump, "r" );
+					try {
+						final SAXParser parser = newSAXParser();
+						final MyWikiModel wikiModel = new MyWikiModel( imageBaseURL, linkBaseURL, keepTemplates );
+						for( ;; ) {
+							final int s;
+							synchronized( rendered ) {
+								while( failure == null && ! stopped && nextStream < offset.length - 1 && nextStream - currStream > window ) rendered.wait();
+								if ( failure != null || stopped || nextStream == offset.length - 1 ) return;
+								s = nextStream++;
+							}
+
+							final RenderedStream renderedStream = new RenderedStream();
+							parser.reset();
+							parser.parse( new InputSource( new InputStreamReader( decode( dump, offset[ s ], offset[ s + 1 ], false ), Charsets.UTF_8 ) ), new PageHandler( wikiModel, renderedStream.redirectAnchors ) {
+								@Override
+								protected void page( final Reference2ObjectMap<Enum<?>, Object> metadata, final MutableString html ) {
+									renderedStream.pages.add( new RenderedPage( metadata, html, new ObjectArrayList<Anchor>( renderedStream.redirectAnchors ) ) );
+									renderedStream.redirectAnchors.clear();
+								}
+							} );
+
+							synchronized( rendered ) {
+								rendered.put( s, renderedStream );
+								rendered.notifyAll();
+							}
+						}
+					}
+					finally {
+						dump.close();
+					}
+				}
+				catch( Throwable t ) {
+					synchronized( rendered ) {
+						if ( failure == null ) failure = t;
+						rendered.notifyAll();
+					}
+				}
+			}
+		}
+
+		public MultistreamDocumentIterator() throws IOException {
+			offset = readOffsets( multistreamIndex, new File( wikipediaXmlDump ).length() );
+			window = MULTISTREAM_WINDOW * threads;
+			// The first stream contains just the header: we parse it to collect namespaces.
+			final RandomAccessFile dump = new RandomAccessFile( wikipediaXmlDump, "r" );
+			try {
+				newSAXParser().parse( new InputSource( new InputStreamReader( decode( dump, 0, offset[ 0 ], true ), Charsets.UTF_8 ) ), new PageHandler( wikiModel, redirectAnchors ) {
+					@Override
+					protected void page( final Reference2ObjectMap<Enum<?>, Object> metadata, final MutableString html ) {}
+				} );
+			}
+			catch ( SAXException e ) {
+				throw new IOException( e );
+			}
+			finally {
+				dump.close();
+			}
+
+			for( int i = 0; i < threads; i++ ) new DecodingThread( i ).start();
+		}
+
+		@Override
+		public Document nextDocument() throws IOException {
+			for( ;; ) {
+				if ( stream != null ) {
+					if ( page < stream.pages.size() ) break;
+					// Redirects at the end of a stream are attached to the first page of the following streams.
+					redirectAnchors.addAll( stream.redirectAnchors );
+					stream = null;
+				}
+				if ( currStream == offset.length - 2 ) return null;
+				
+				synchronized( rendered ) {
+					currStream++;
+					rendered.notifyAll();
+					try {
+						while( failure == null && ( stream = rendered.remove( currStream ) ) == null ) rendered.wait();
+					}
+					catch ( InterruptedException e ) {
+						throw new RuntimeException( e.getMessage(), e );
+					}
+					if ( failure != null ) throw new IOException( "A decoding thread failed", failure );
+				}
+				page = 0;
+			}
+
+			final RenderedPage renderedPage = stream.pages.set( page++, null );
+			synchronized( redirectAnchors ) {
+				redirectAnchors.addAll( renderedPage.redirectAnchors );
+			}
+			renderedPage.metadata.put( MetadataKeys.REDIRECT, redirectAnchors );
+			return factory.getDocument( IOUtils.toInputStream( renderedPage.html, Charsets.UTF_8 ), renderedPage.metadata );
+		}
+
+		@Override
+		public void close() throws IOException {
+			synchronized( rendered ) {
+				stopped = true;
+				rendered.notifyAll();
+			}
+			super.close();
+		}
+	}
+
 	@Override
 	public DocumentFactory factory() {
 		return factory;
@@ -827,7 +1143,7 @@ public class WikipediaDocumentSequence extends AbstractDocumentSequence implemen
 	    };
 		
 		InputStream in = new FileInputStream( jsapResult.getString( "file" ) );
-		if ( jsapResult.userSpecified( "bzip2" ) ) in = new BZip2CompressorInputStream( in );
+		if ( jsapResult.userSpecified( "bzip2" ) ) in = new BZip2CompressorInputStream( in, true );
 		parser.parse( new InputSource( new InputStreamReader( new FastBufferedInputStream( in ), Charsets.UTF_8  ) ), handler );
 		progressLogger.done();
 
@@ -84,7 +84,8 @@ import org.slf4j.LoggerFactory;
  * 
  * <p>Note that the zip format is not designed for a large number of files. This class is mainly a useful example,
  * and a handy way to build quickly a collection containing all fields at indexing time. For a more efficient
- * kind of collection, see {@link SimpleCompressedDocumentCollection}. 
+ * kind of collection, see {@link SimpleCompressedDocumentCollection} or, if you need a collection scaling to a large
+ * number of documents with the same features of this class, {@link BlockCompressedDocumentCollection}. 
  * 
  * <p><strong>Warning:</strong> the {@link java.io.Reader} returned by {@link it.unimi.di.big.mg4j.document.Document#content(int)}
  * for documents produced by this factory is just obtained as the concatenation of words and non-words returned by
@@ -21,6 +21,7 @@ package it.unimi.di.big.mg4j.index;
  */
 
 import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.QueryBudget;
 import it.unimi.di.big.mg4j.search.visitor.DocumentIteratorVisitor;
 
 import java.io.IOException;
@@ -29,6 +30,10 @@ import java.io.IOException;
  * providing an obvious implementation of {@link IndexIterator#term()}, {@link IndexIterator#id()}, {@link DocumentIterator#weight()}
  * and of the {@linkplain #accept(DocumentIteratorVisitor) visiting methods}.
  * 
+ * <p>Additionally, this class can hold a {@linkplain #budget(QueryBudget) query budget}: concrete implementations
+ * must {@linkplain QueryBudget#consume() charge} it (if not <code>null</code>) at each call to {@link #nextDocument()}, and
+ * {@linkplain QueryBudget#skip() charge a skip} at each call to {@link #skipTo(long)}.
+ * 
  */
 
 public abstract class AbstractIndexIterator implements IndexIterator {
@@ -38,6 +43,8 @@ public abstract class AbstractIndexIterator implements IndexIterator {
 	protected int id;
 	/** The weight associated with this index iterator. */
 	protected double weight = 1;	
+	/** The budget of the query this index iterator belongs to, or <code>null</code>. */
+	protected QueryBudget budget;
 
 	public String term() { 
 		return term;
@@ -48,6 +55,16 @@ public abstract class AbstractIndexIterator implements IndexIterator {
 		return this;
 	}
 
+	/** Sets the budget of the query this index iterator belongs to.
+	 * 
+	 * @param budget a query budget, or <code>null</code> for no budget.
+	 * @return this index iterator.
+	 */
+	public IndexIterator budget( final QueryBudget budget ) {
+		this.budget = budget;
+		return this;
+	}
+
 	public int id() {
 		return id;
 	}
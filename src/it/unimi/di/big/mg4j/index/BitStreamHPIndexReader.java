@@ -617,6 +617,7 @@ public class BitStreamHPIndexReader extends AbstractIndexReader {
 
   public long nextDocument() throws IOException {
    if ( DEBUG ) System.err.println( "{" + this + "} nextDocument()" );
+   if ( budget != null ) budget.consume();
    if ( state != BEFORE_POINTER ) {
     if ( state == BEFORE_TOWER ) readTower();
     if ( state == BEFORE_COUNT ) {
@@ -885,6 +886,7 @@ public class BitStreamHPIndexReader extends AbstractIndexReader {
 
   public long skipTo( final long p ) throws IOException {
    if ( DEBUG ) System.err.println( this + ".skipTo(" + p + ") [currentDocument=" + currentDocument + ", numberOfDocumentRecord=" + numberOfDocumentRecord + ", positionsBitsOffset=" + positionsBitsOffset + "]" );
+   if ( budget != null ) budget.skip();
    // If we are just at the start of a list, let us read the first pointer.
    if ( numberOfDocumentRecord == -1 ) nextDocument(); // TODO: shouldn't we just read the
                 // tower?
@@ -686,6 +686,7 @@ public class CLASSNAME extends AbstractIndexReader {
 
 		public long nextDocument() throws IOException {
 			if ( DEBUG ) System.err.println( "{" + this + "} nextDocument()" );
+			if ( budget != null ) budget.consume();
 
 #if GENERIC || PAYLOADS || ! COUNTS_NONE
 			if ( state != BEFORE_POINTER ) {
@@ -1095,6 +1096,7 @@ public class CLASSNAME extends AbstractIndexReader {
 		
 		public long skipTo( final long p ) throws IOException {
 			if ( DEBUG ) System.err.println( this + ".skipTo(" + p + ") [currentDocument=" + currentDocument + ", numberOfDocumentRecord=" + numberOfDocumentRecord );
+			if ( budget != null ) budget.skip();
 			
 			// If we are just at the start of a list, let us read the first pointer.
 			if ( numberOfDocumentRecord == -1 ) nextDocument(); // TODO: shouldn't we just read the tower?
@@ -0,0 +1,50 @@
+package it.unimi.di.big.mg4j.index;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/** An index iterator whose pointer list is stored as a bitmap, that is, as the characteristic function
+ * of the set of documents containing the term.
+ * 
+ * <p>Such iterators are returned, for instance, by {@linkplain QuasiSuccinctIndex quasi-succinct indices} for dense terms,
+ * as {@link QuasiSuccinctIndexWriter} stores automatically a pointer list as a ranked characteristic function
+ * whenever this representation is smaller than the Elias&ndash;Fano one.
+ * 
+ * <p>The additional method {@link #bitmapWord(long)} gives direct access to the words of the bitmap, 
+ * making it possible to compute intersections and unions of bitmap-based lists 64 documents at a time 
+ * (see, e.g., {@link it.unimi.di.big.mg4j.search.AndDocumentIterator} and
+ * {@link it.unimi.di.big.mg4j.search.DocumentIterators#count(it.unimi.di.big.mg4j.search.DocumentIterator)}).
+ * Access to words is random and does not change the state of the iterator.
+ */
+
+public interface BitmapIndexIterator extends IndexIterator {
+
+	/** Returns a word of the bitmap representing the pointer list of this iterator.
+	 * 
+	 * <p>Bit <var>b</var> (in little-endian order) of word <var>w</var> is set if document 
+	 * <var>w</var>&nbsp;&middot;&nbsp;{@link Long#SIZE}&nbsp;+&nbsp;<var>b</var> contains the term. 
+	 * Bits corresponding to document pointers larger than or equal to the number of documents
+	 * are always zero.
+	 * 
+	 * @param word the index of a word, strictly smaller than the number of documents divided by {@link Long#SIZE}, rounded up.
+	 * @return the specified word of the bitmap.
+	 */
+	public long bitmapWord( long word );
+}
@@ -25,6 +25,7 @@ import it.unimi.di.big.mg4j.index.CompressionFlags.Component;
 import it.unimi.di.big.mg4j.index.Index.UriKeys;
 import it.unimi.di.big.mg4j.index.QuasiSuccinctIndex.PropertyKeys;
 import it.unimi.di.big.mg4j.index.payload.Payload;
+import it.unimi.di.big.mg4j.index.payload.PayloadRangeIndex;
 import it.unimi.di.big.mg4j.io.IOFactories;
 import it.unimi.di.big.mg4j.io.IOFactory;
 import it.unimi.di.big.mg4j.util.SemiExternalOffsetBigList;
@@ -152,6 +153,16 @@ public class DiskBasedIndex {
 	public static final String COUNTS_EXTENSION = ".counts";
 	/** The postfix to be added to {@link #POINTERS_EXTENSIONS}, {@link #COUNTS_EXTENSION} and {@link #POSITIONS_EXTENSION} for offsets. */
 	public static final String OFFSETS_POSTFIX = "offsets";
+	/** Standard extension for the {@linkplain TermNGramIndex n-gram index} of the terms. */
+	public static final String TERM_NGRAMS_EXTENSION = ".termngrams";
+	/** The suffix to be added to the basename of an index to obtain the basename of its {@linkplain Index#prefixIndex index of materialised prefixes}. */
+	public static final String PREFIX_INDEX_SUFFIX = "-prefixes";
+	/** Standard extension for the {@linkplain PayloadRangeIndex per-block payload ranges} of a payload-based index. */
+	public static final String PAYLOAD_RANGES_EXTENSION = ".payloadranges";
+	/** Standard extension for the data of a {@linkplain DocValues column of per-document values}. */
+	public static final String DOC_VALUES_EXTENSION = ".docvalues";
+	/** Standard extension for the properties of a {@linkplain DocValues column of per-document values}. */
+	public static final String DOC_VALUES_PROPERTIES_EXTENSION = ".docvalues-properties";
 	/** The size of the buffer used by {@link #loadLongBigList(ReadableByteChannel, long, ByteOrder)}. */
 	public static final int BUFFER_SIZE = 64 * 1024;
 	
@@ -206,6 +217,35 @@ public class DiskBasedIndex {
 		return readOffsets( IOFactory.FILESYSTEM_FACTORY, filename, T );
 	}
 	
+	/** Utility method to load a compressed frequency file into a list.
+	 *
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param filename the file containing the &gamma;-coded frequencies (see {@link BitStreamIndexWriter}).
+	 * @param T the number of terms indexed.
+	 * @return a list of longs backed by an array.
+	 */
+
+	public static LongBigArrayBigList readFrequencies( final IOFactory ioFactory, final CharSequence filename, final long T ) throws IOException {
+		final long[][] frequency = LongBigArrays.newBigArray( T );
+		final InputBitStream in = new InputBitStream( ioFactory.getInputStream( filename.toString() ), false );
+		LOGGER.debug( "Loading frequencies..." );
+		for( long i = 0; i < T; i++ ) LongBigArrays.set( frequency, i, in.readLongGamma() );
+		LOGGER.debug( "Completed." );
+		in.close();
+		return LongBigArrayBigList.wrap( frequency );
+	}
+
+	/** Utility method to load a compressed frequency file into a list using the {@link IOFactory#FILESYSTEM_FACTORY}.
+	 *
+	 * @param filename the file containing the &gamma;-coded frequencies (see {@link BitStreamIndexWriter}).
+	 * @param T the number of terms indexed.
+	 * @return a list of longs backed by an array.
+	 */
+
+	public static LongBigArrayBigList readFrequencies( final CharSequence filename, final long T ) throws IOException {
+		return readFrequencies( IOFactory.FILESYSTEM_FACTORY, filename, T );
+	}
+
 	/** Utility method to load a compressed size file into a list.
 	 *
 	 * @param ioFactory the factory that will be used to perform I/O.
@@ -649,12 +689,47 @@ public class DiskBasedIndex {
 		PrefixMap<? extends CharSequence> prefixMap = null;
 		if ( maps ) {
 			termMap = DiskBasedIndex.loadStringMap( ioFactory, basename + DiskBasedIndex.TERMMAP_EXTENSION );
-			if ( termMap != null && termMap instanceof PrefixMap ) return getInstance( ioFactory, basename, properties, termMap, (PrefixMap<?>)termMap, randomAccess, documentSizes, queryProperties );
-			prefixMap = DiskBasedIndex.loadPrefixMap( ioFactory, basename + DiskBasedIndex.PREFIXMAP_EXTENSION );
-			if ( termMap != null ) return getInstance( ioFactory, basename, properties, termMap, prefixMap, randomAccess, documentSizes, queryProperties );
-			if ( prefixMap != null ) return getInstance( ioFactory, basename, properties, prefixMap, prefixMap, randomAccess, documentSizes, queryProperties );
+			if ( termMap != null && termMap instanceof PrefixMap ) prefixMap = (PrefixMap<?>)termMap;
+			else {
+				prefixMap = DiskBasedIndex.loadPrefixMap( ioFactory, basename + DiskBasedIndex.PREFIXMAP_EXTENSION );
+				if ( termMap == null ) termMap = prefixMap;
+			}
+		}
+		final Index index = getInstance( ioFactory, basename, properties, termMap, prefixMap, randomAccess, documentSizes, queryProperties );
+		
+		if ( maps && ioFactory.exists( basename + TERM_NGRAMS_EXTENSION ) ) {
+			LOGGER.debug( "Loading term n-grams from " + basename + TERM_NGRAMS_EXTENSION + "..." );
+			final TermNGramIndex termNGramIndex = (TermNGramIndex)IOFactories.loadObject( ioFactory, basename + TERM_NGRAMS_EXTENSION );
+			if ( termNGramIndex.size64() != index.numberOfTerms ) throw new IllegalArgumentException( "The size of the n-gram index (" + termNGramIndex.size64() + ") is not equal to the number of terms (" + index.numberOfTerms + ")" );
+			index.termNGramIndex = termNGramIndex;
+		}
+
+		if ( index.hasPayloads && ioFactory.exists( basename + PAYLOAD_RANGES_EXTENSION ) ) {
+			LOGGER.debug( "Loading payload ranges from " + basename + PAYLOAD_RANGES_EXTENSION + "..." );
+			index.payloadRangeIndex = (PayloadRangeIndex)IOFactories.loadObject( ioFactory, basename + PAYLOAD_RANGES_EXTENSION );
+		}
+
+		if ( ioFactory.exists( basename + DOC_VALUES_PROPERTIES_EXTENSION ) ) {
+			LOGGER.debug( "Loading document values from " + basename + DOC_VALUES_EXTENSION + "..." );
+			try {
+				index.docValues = DocValues.load( ioFactory, basename, ioFactory != IOFactory.FILESYSTEM_FACTORY || queryProperties != null && queryProperties.containsKey( UriKeys.INMEMORY ) );
+			}
+			catch ( ConfigurationException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+
+		final String prefixBasename = basename + PREFIX_INDEX_SUFFIX;
+		if ( maps && ioFactory.exists( prefixBasename + PROPERTIES_EXTENSION ) ) {
+			LOGGER.debug( "Loading materialised prefixes from " + prefixBasename + "..." );
+			try {
+				index.prefixIndex( getInstance( ioFactory, prefixBasename, IOFactories.loadProperties( ioFactory, prefixBasename + PROPERTIES_EXTENSION ), randomAccess, false, true, queryProperties ) );
+			}
+			catch ( ConfigurationException e ) {
+				throw new RuntimeException( e );
+			}
 		}
-		return getInstance( ioFactory, basename, properties, null, prefixMap, randomAccess, documentSizes, queryProperties );
+		return index;
 	}
 
 	/** Returns a new disk-based index, using preloaded {@link Properties} and possibly guessing reasonable term and prefix maps from the basename.
@@ -0,0 +1,271 @@
+package it.unimi.di.big.mg4j.index;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.io.IOFactories;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+import it.unimi.dsi.util.Properties;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+/** A column of per-document values, providing constant-time random access by document pointer.
+ * 
+ * <p>A column of document values stores a long for each document of a collection (e.g., the value of an integer field, 
+ * or the time of a date field); documents without a value are associated with {@link #MISSING}. Columns are
+ * generated by {@link DocValuesWriter} (in particular, {@link it.unimi.di.big.mg4j.tool.Scan} generates a column
+ * for each non-textual field, using the basename of the associated payload-based index). 
+ * When present, a column is loaded together with the associated index (see {@link Index#docValues}),
+ * and it can be used by {@linkplain it.unimi.di.big.mg4j.search.score.DocValuesScorer scorers},
+ * {@linkplain it.unimi.di.big.mg4j.search.DocValuesDocumentIterator filters} and aggregators without
+ * accessing the document collection.
+ * 
+ * <p>Values are stored in one of three {@linkplain Coding codings}:
+ * <ul>
+ * <li>{@link Coding#FIXED}: each value is stored in a long;
+ * <li>{@link Coding#BIT_PACKED}: each value is stored as the difference with the minimum value, using the minimum possible number of bits;
+ * <li>{@link Coding#DICTIONARY}: the distinct values are stored in a sorted dictionary, and for each
+ * document we store (using the minimum possible number of bits) its {@linkplain #code(long) code}, that is,
+ * the position of its value in the dictionary. In this case, {@link #MISSING} is just one of the values of the dictionary.
+ * </ul>
+ * 
+ * <p>A column is described by a property file with extension {@link DiskBasedIndex#DOC_VALUES_PROPERTIES_EXTENSION},
+ * whose {@linkplain PropertyKeys keys} describe the coding, and the data is stored in a file with extension 
+ * {@link DiskBasedIndex#DOC_VALUES_EXTENSION} as a sequence of big-endian longs containing the dictionary, if any, followed
+ * by the bit-packed values (the value of document <var>d</var> occupies the bits starting from <var>d</var> times the width,
+ * with the least significant bits of a value in the least significant bits of a long). The data file 
+ * is memory-mapped, unless the column is loaded in core memory. 
+ * 
+ * <p>Instances of this class are thread safe.
+ * 
+ * @since 5.4.4
+ */
+
+public class DocValues {
+	/** The value associated with documents without a value. */
+	public final static long MISSING = Long.MIN_VALUE;
+	
+	/** The possible codings of a column. */
+	public static enum Coding {
+		/** Each value is stored in a long. */
+		FIXED,
+		/** Each value is stored as a difference with the minimum value, using the minimum possible number of bits. */
+		BIT_PACKED,
+		/** Each value is stored as its position in a sorted dictionary of the values, using the minimum possible number of bits. */
+		DICTIONARY
+	}
+
+	/** Symbolic names for the properties describing a column. */
+	public static enum PropertyKeys {
+		/** The {@linkplain Coding coding} of the column. */
+		CODING,
+		/** The number of documents. */
+		DOCUMENTS,
+		/** The number of bits used to store each value. */
+		WIDTH,
+		/** The base value (i.e., the minimum value) of a {@link Coding#BIT_PACKED} column. */
+		BASE,
+		/** Whether a {@link Coding#BIT_PACKED} column contains {@linkplain DocValues#MISSING missing values}, in which case
+		 * code 0 is reserved to denote them. */
+		HASMISSING,
+		/** The size of the dictionary of a {@link Coding#DICTIONARY} column. */
+		DICTIONARYSIZE,
+		/** The field whose values are stored in the column, if available. */
+		FIELD
+	}
+	
+	/** The coding of this column. */
+	public final Coding coding;
+	/** The number of documents of this column. */
+	public final long numberOfDocuments;
+	/** The number of bits used to store each value. */
+	public final int width;
+	/** The field whose values are stored in this column, or <code>null</code>. */
+	public final String field;
+	/** The longs containing the dictionary, if any, followed by the bit-packed values. */
+	private final LongBigList words;
+	/** The index in {@link #words} of the first word of bit-packed values. */
+	private final long offset;
+	/** The base value (for {@link Coding#BIT_PACKED} columns only). */
+	private final long base;
+	/** Whether code 0 denotes missing values (for {@link Coding#BIT_PACKED} columns only). */
+	private final boolean hasMissing;
+	/** The dictionary (for {@link Coding#DICTIONARY} columns only). */
+	private final long[] dictionary;
+	/** A mask with {@link #width} lowest bits set. */
+	private final long mask;
+
+	/** Creates a new column.
+	 * 
+	 * @param properties the properties describing the column.
+	 * @param words the longs containing the dictionary, if any, followed by the bit-packed values.
+	 */
+	public DocValues( final Properties properties, final LongBigList words ) {
+		this.coding = Coding.valueOf( properties.getString( PropertyKeys.CODING ) );
+		this.numberOfDocuments = properties.getLong( PropertyKeys.DOCUMENTS );
+		this.width = properties.getInt( PropertyKeys.WIDTH );
+		this.field = properties.getString( PropertyKeys.FIELD, null );
+		this.base = properties.getLong( PropertyKeys.BASE, 0 );
+		this.hasMissing = properties.getBoolean( PropertyKeys.HASMISSING, false );
+		this.words = words;
+		if ( width < 0 || width > Long.SIZE || coding == Coding.FIXED && width != Long.SIZE ) throw new IllegalArgumentException( "Illegal width for a column with coding " + coding + ": " + width );
+		mask = width == Long.SIZE ? -1L : ( 1L << width ) - 1;
+		
+		if ( coding == Coding.DICTIONARY ) {
+			final int dictionarySize = properties.getInt( PropertyKeys.DICTIONARYSIZE );
+			dictionary = new long[ dictionarySize ];
+			for( int i = 0; i < dictionarySize; i++ ) dictionary[ i ] = words.getLong( i );
+			offset = dictionarySize;
+		}
+		else {
+			dictionary = null;
+			offset = 0;
+		}
+		
+		final long expectedWords = offset + ( numberOfDocuments * width + Long.SIZE - 1 ) / Long.SIZE;
+		if ( words.size64() != expectedWords ) throw new IllegalArgumentException( "The number of longs in the column (" + words.size64() + ") is not equal to the expected number (" + expectedWords + ")" );
+	}
+
+	/** Loads a column.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the column.
+	 * @param inMemory if true, the data file will be loaded in core memory; otherwise, it will be memory-mapped 
+	 * (this requires the {@linkplain IOFactory#FILESYSTEM_FACTORY file system I/O factory}).
+	 * @return the column.
+	 */
+	@SuppressWarnings("resource")
+	public static DocValues load( final IOFactory ioFactory, final CharSequence basename, final boolean inMemory ) throws IOException, ConfigurationException {
+		if ( ioFactory != IOFactory.FILESYSTEM_FACTORY && ! inMemory ) throw new IllegalArgumentException( "Memory-mapped document values require the file system I/O factory." );
+		final Properties properties = IOFactories.loadProperties( ioFactory, basename + DiskBasedIndex.DOC_VALUES_PROPERTIES_EXTENSION );
+		final String filename = basename + DiskBasedIndex.DOC_VALUES_EXTENSION;
+		return new DocValues( properties, inMemory 
+				? DiskBasedIndex.loadLongBigList( ioFactory, filename, ByteOrder.BIG_ENDIAN ) 
+				: ByteBufferLongBigList.map( new FileInputStream( filename ).getChannel(), ByteOrder.BIG_ENDIAN, MapMode.READ_ONLY ) );
+	}
+
+	/** Loads a column from the file system, memory-mapping its data.
+	 * 
+	 * @param basename the basename of the column.
+	 * @return the column.
+	 */
+	public static DocValues load( final CharSequence basename ) throws IOException, ConfigurationException {
+		return load( IOFactory.FILESYSTEM_FACTORY, basename, false );
+	}
+
+	/** Returns the raw bits stored for a document.
+	 * 
+	 * @param document a document pointer.
+	 * @return the {@link #width} bits stored for <code>document</code>.
+	 */
+	private long bits( final long document ) {
+		if ( width == 0 ) return 0;
+		if ( width == Long.SIZE ) return words.getLong( offset + document );
+		final long position = document * width;
+		final long word = offset + ( position >>> 6 );
+		final int bit = (int)( position & 63 );
+		if ( bit + width <= Long.SIZE ) return words.getLong( word ) >>> bit & mask;
+		return ( words.getLong( word ) >>> bit | words.getLong( word + 1 ) << Long.SIZE - bit ) & mask;
+	}
+
+	/** Returns the value associated with a document.
+	 * 
+	 * @param document a document pointer.
+	 * @return the value associated with <code>document</code>, or {@link #MISSING}.
+	 */
+	public long get( final long document ) {
+		if ( document < 0 || document >= numberOfDocuments ) throw new IndexOutOfBoundsException( "Document index " + document + " is not in [0.." + numberOfDocuments + ")" );
+		final long bits = bits( document );
+		switch( coding ) {
+		case FIXED: return bits;
+		case BIT_PACKED: return hasMissing ? ( bits == 0 ? MISSING : base + bits - 1 ) : base + bits;
+		default: return dictionary[ (int)bits ];
+		}
+	}
+
+	/** Returns whether a document has an associated value.
+	 * 
+	 * @param document a document pointer.
+	 * @return whether <code>document</code> has an associated value (i.e., whether {@link #get(long)} does not return {@link #MISSING}).
+	 */
+	public boolean has( final long document ) {
+		return get( document ) != MISSING;
+	}
+	
+	/** Returns the size of the dictionary of a {@link Coding#DICTIONARY} column.
+	 * 
+	 * @return the size of the dictionary.
+	 * @throws IllegalStateException if this column has not a dictionary.
+	 */
+	public int dictionarySize() {
+		if ( dictionary == null ) throw new IllegalStateException( "Column has coding " + coding );
+		return dictionary.length;
+	}
+
+	/** Returns the code associated with a document in a {@link Coding#DICTIONARY} column.
+	 * 
+	 * <p>Codes are positions in the dictionary, and are thus smaller than {@link #dictionarySize()}; they can be
+	 * used as indices into arrays of counters. Since the dictionary is sorted, codes are monotone in the values.
+	 * 
+	 * @param document a document pointer.
+	 * @return the code of the value associated with <code>document</code>.
+	 * @throws IllegalStateException if this column has not a dictionary.
+	 */
+	public int code( final long document ) {
+		if ( dictionary == null ) throw new IllegalStateException( "Column has coding " + coding );
+		if ( document < 0 || document >= numberOfDocuments ) throw new IndexOutOfBoundsException( "Document index " + document + " is not in [0.." + numberOfDocuments + ")" );
+		return (int)bits( document );
+	}
+
+	/** Returns the value associated with a code in a {@link Coding#DICTIONARY} column.
+	 * 
+	 * @param code a code.
+	 * @return the value associated with <code>code</code>.
+	 * @throws IllegalStateException if this column has not a dictionary.
+	 */
+	public long value( final int code ) {
+		if ( dictionary == null ) throw new IllegalStateException( "Column has coding " + coding );
+		return dictionary[ code ];
+	}
+
+	/** Returns the code of a value in a {@link Coding#DICTIONARY} column.
+	 * 
+	 * @param value a value.
+	 * @return the code of <code>value</code>, if <code>value</code> is in the dictionary; otherwise, 
+	 * &minus;(<var>insertion point</var>&nbsp;&minus;&nbsp;1), as in {@link LongArrays#binarySearch(long[], long)}.
+	 * @throws IllegalStateException if this column has not a dictionary.
+	 */
+	public int codeOf( final long value ) {
+		if ( dictionary == null ) throw new IllegalStateException( "Column has coding " + coding );
+		return LongArrays.binarySearch( dictionary, value );
+	}
+	
+	public String toString() {
+		return getClass().getSimpleName() + "[" + ( field != null ? field + ", " : "" ) + coding + ", " + numberOfDocuments + " documents, " + width + " bits]";
+	}
+}
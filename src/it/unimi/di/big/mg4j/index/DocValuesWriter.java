@@ -0,0 +1,231 @@
+package it.unimi.di.big.mg4j.index;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.DocValues.Coding;
+import it.unimi.di.big.mg4j.index.DocValues.PropertyKeys;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.util.Properties;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+/** A writer for {@linkplain DocValues columns of per-document values}.
+ * 
+ * <p>Values can be {@linkplain #add(long, long) added} in any order (e.g., during remapped indexing), and are
+ * accumulated in core memory (a long per document). At {@linkplain #close() closing time}, unless the coding has been
+ * specified at construction time, the writer chooses the coding that minimises space: {@link Coding#DICTIONARY}, if
+ * there are at most {@link #MAX_DICTIONARY_SIZE} distinct values and the dictionary codes are shorter than
+ * bit-packed values; otherwise, {@link Coding#BIT_PACKED}, unless the range of values requires 64 bits, in which case {@link Coding#FIXED} is used.
+ * 
+ * @since 5.4.4
+ */
+
+public class DocValuesWriter implements Closeable {
+	/** The maximum size of a dictionary. */
+	public final static int MAX_DICTIONARY_SIZE = 1 << 16;
+
+	/** The factory that will be used to perform I/O. */
+	private final IOFactory ioFactory;
+	/** The basename of the column. */
+	private final String basename;
+	/** The field whose values will be stored, or <code>null</code>. */
+	private final String field;
+	/** The coding of the column, or <code>null</code> for automatic choice. */
+	private final Coding coding;
+	/** The values accumulated so far ({@link DocValues#MISSING} for documents without a value). */
+	private long[][] value;
+	/** The number of documents, that is, one plus the maximum document pointer seen so far. */
+	private long numberOfDocuments;
+	/** Whether this writer has been closed. */
+	private boolean closed;
+
+	/** Creates a new writer.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the column.
+	 * @param field the field whose values will be stored, or <code>null</code>.
+	 * @param coding the coding of the column, or <code>null</code> to choose the coding minimising space.
+	 */
+	public DocValuesWriter( final IOFactory ioFactory, final CharSequence basename, final String field, final Coding coding ) {
+		this.ioFactory = ioFactory;
+		this.basename = basename.toString();
+		this.field = field;
+		this.coding = coding;
+		this.value = LongBigArrays.EMPTY_BIG_ARRAY;
+	}
+
+	/** Creates a new writer that will choose the coding minimising space.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the column.
+	 * @param field the field whose values will be stored, or <code>null</code>.
+	 */
+	public DocValuesWriter( final IOFactory ioFactory, final CharSequence basename, final String field ) {
+		this( ioFactory, basename, field, null );
+	}
+	
+	/** Sets the value associated with a document.
+	 * 
+	 * @param document a document pointer.
+	 * @param v the value associated with <code>document</code>; {@link DocValues#MISSING} is equivalent to not setting the value.
+	 */
+	public void add( final long document, final long v ) {
+		if ( closed ) throw new IllegalStateException( "This writer has been closed" );
+		if ( document < 0 ) throw new IllegalArgumentException( "Negative document pointer: " + document );
+		if ( document >= numberOfDocuments ) {
+			final long oldLength = LongBigArrays.length( value );
+			value = LongBigArrays.grow( value, document + 1 );
+			final long newLength = LongBigArrays.length( value );
+			if ( newLength > oldLength ) LongBigArrays.fill( value, oldLength, newLength, DocValues.MISSING );
+			numberOfDocuments = document + 1;
+		}
+		LongBigArrays.set( value, document, v );
+	}
+
+	/** Sets the value associated with a document using an object returned by a non-textual field.
+	 * 
+	 * @param document a document pointer.
+	 * @param content the content of a non-textual field: a {@link Date}, a {@link Number}, or <code>null</code> (i.e., no value).
+	 */
+	public void add( final long document, final Object content ) {
+		if ( content == null ) add( document, DocValues.MISSING );
+		else if ( content instanceof Date ) add( document, ( (Date)content ).getTime() );
+		else if ( content instanceof Number ) add( document, ( (Number)content ).longValue() );
+		else throw new IllegalArgumentException( "Unsupported content type: " + content.getClass().getName() );
+	}
+
+	/** Returns the number of bits necessary to represent a nonnegative long.
+	 * 
+	 * @param x a nonnegative long.
+	 * @return the number of bits necessary to represent <code>x</code>.
+	 */
+	private static int width( final long x ) {
+		return Long.SIZE - Long.numberOfLeadingZeros( x );
+	}
+	
+	/** Writes the column, releasing all memory. 
+	 * 
+	 * @param numberOfDocuments the number of documents of the column; documents beyond the last one for which a value was set will be missing.
+	 */
+	public void close( final long numberOfDocuments ) throws IOException {
+		if ( closed ) return;
+		if ( numberOfDocuments < this.numberOfDocuments ) throw new IllegalArgumentException( "The number of documents (" + numberOfDocuments + ") is smaller than one plus the largest document pointer (" + this.numberOfDocuments + ")" );
+		// Documents beyond the last one are missing
+		if ( numberOfDocuments > this.numberOfDocuments ) add( numberOfDocuments - 1, DocValues.MISSING );
+		closed = true;
+
+		long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+		boolean hasMissing = false;
+		LongOpenHashSet distinct = new LongOpenHashSet();
+		for( long i = 0; i < numberOfDocuments; i++ ) {
+			final long v = LongBigArrays.get( value, i );
+			if ( distinct != null ) {
+				distinct.add( v );
+				if ( distinct.size() > MAX_DICTIONARY_SIZE ) distinct = null;
+			}
+			if ( v == DocValues.MISSING ) hasMissing = true;
+			else {
+				if ( v < min ) min = v;
+				if ( v > max ) max = v;
+			}
+		}
+
+		if ( min > max ) min = max = 0; // Only missing values
+		// The range of values, plus one if we need to reserve code 0 for missing values; it is negative on overflow
+		final long range = max - min + ( hasMissing ? 1 : 0 );
+		final int bitPackedWidth = range < 0 ? Long.SIZE : width( range );
+		final int dictionaryWidth = distinct == null ? Long.SIZE : width( distinct.size() - 1 );
+
+		Coding coding = this.coding;
+		if ( coding == null ) {
+			if ( distinct != null && dictionaryWidth * numberOfDocuments + (long)Long.SIZE * distinct.size() < bitPackedWidth * numberOfDocuments ) coding = Coding.DICTIONARY;
+			else coding = bitPackedWidth < Long.SIZE ? Coding.BIT_PACKED : Coding.FIXED;
+		}
+		else if ( coding == Coding.DICTIONARY && distinct == null ) throw new IllegalStateException( "More than " + MAX_DICTIONARY_SIZE + " distinct values in a dictionary-coded column" );
+		else if ( coding == Coding.BIT_PACKED && bitPackedWidth == Long.SIZE ) coding = Coding.FIXED;
+		
+		final int width = coding == Coding.FIXED ? Long.SIZE : coding == Coding.DICTIONARY ? dictionaryWidth : bitPackedWidth;
+		final long[] dictionary = coding == Coding.DICTIONARY ? distinct.toLongArray() : null;
+		if ( dictionary != null ) LongArrays.quickSort( dictionary );
+
+		final DataOutputStream dos = new DataOutputStream( new FastBufferedOutputStream( ioFactory.getOutputStream( basename + DiskBasedIndex.DOC_VALUES_EXTENSION ) ) );
+		if ( dictionary != null ) for( long v : dictionary ) dos.writeLong( v );
+
+		long word = 0;
+		int filled = 0;
+		for( long i = 0; i < numberOfDocuments; i++ ) {
+			final long v = LongBigArrays.get( value, i );
+			final long bits;
+			switch( coding ) {
+			case FIXED: bits = v; break;
+			case BIT_PACKED: bits = v == DocValues.MISSING ? 0 : v - min + ( hasMissing ? 1 : 0 ); break;
+			default: bits = LongArrays.binarySearch( dictionary, v );
+			}
+			
+			if ( width == 0 ) continue;
+			word |= bits << filled;
+			if ( filled + width >= Long.SIZE ) {
+				dos.writeLong( word );
+				final int written = Long.SIZE - filled;
+				word = written == Long.SIZE ? 0 : bits >>> written;
+				filled += width - Long.SIZE;
+			}
+			else filled += width;
+		}
+		if ( filled != 0 ) dos.writeLong( word );
+		dos.close();
+		value = null;
+
+		final Properties properties = new Properties();
+		properties.setProperty( PropertyKeys.CODING, coding.toString() );
+		properties.setProperty( PropertyKeys.DOCUMENTS, numberOfDocuments );
+		properties.setProperty( PropertyKeys.WIDTH, width );
+		if ( coding == Coding.BIT_PACKED ) {
+			properties.setProperty( PropertyKeys.BASE, min );
+			properties.setProperty( PropertyKeys.HASMISSING, hasMissing );
+		}
+		if ( dictionary != null ) properties.setProperty( PropertyKeys.DICTIONARYSIZE, dictionary.length );
+		if ( field != null ) properties.setProperty( PropertyKeys.FIELD, field );
+		final OutputStream propertiesOutputStream = ioFactory.getOutputStream( basename + DiskBasedIndex.DOC_VALUES_PROPERTIES_EXTENSION );
+		try {
+			properties.save( propertiesOutputStream );
+		}
+		catch ( ConfigurationException e ) {
+			throw new IOException( e );
+		}
+		propertiesOutputStream.close();
+	}
+
+	/** Writes the column, releasing all memory; the number of documents is one plus the largest document pointer for which a value was set. */
+	public void close() throws IOException {
+		close( numberOfDocuments );
+	}
+}
@@ -23,6 +23,7 @@ package it.unimi.di.big.mg4j.index;
 import it.unimi.di.big.mg4j.document.PropertyBasedDocumentFactory;
 import it.unimi.di.big.mg4j.index.cluster.IndexCluster;
 import it.unimi.di.big.mg4j.index.payload.Payload;
+import it.unimi.di.big.mg4j.index.payload.PayloadRangeIndex;
 import it.unimi.di.big.mg4j.io.IOFactories;
 import it.unimi.di.big.mg4j.io.IOFactory;
 import it.unimi.di.big.mg4j.search.DocumentIterator;
@@ -33,6 +34,7 @@ import it.unimi.dsi.big.util.PrefixMap;
 import it.unimi.dsi.big.util.StringMap;
 import it.unimi.dsi.big.util.StringMaps;
 import it.unimi.dsi.fastutil.ints.IntBigList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
 import it.unimi.dsi.fastutil.objects.ReferenceSet;
@@ -213,6 +215,15 @@ public abstract class Index implements Serializable {
 	public final PrefixMap<? extends CharSequence> prefixMap;
 	/** The size of each document, or <code>null</code> if sizes are not necessary or not loaded in this index. */
 	public final IntBigList sizes;
+	/** An index whose terms are prefixes of terms of this index, and whose posting lists are the union of the posting lists of the terms
+	 * starting with the prefix, or <code>null</code>; it is {@linkplain #prefixIndex(Index) settable}. */
+	public Index prefixIndex;
+	/** An n-gram index of the terms of this index, used to resolve infix and fuzzy term queries, or <code>null</code>. */
+	public TermNGramIndex termNGramIndex;
+	/** The minimum and maximum payload of each block of postings of this payload-based index, used to speed up range queries, or <code>null</code>. */
+	public PayloadRangeIndex payloadRangeIndex;
+	/** The per-document values of the field of this index, or <code>null</code>. */
+	public DocValues docValues;
 
 	/** Creates a new instance, initialising all fields. */
 	protected Index( final long numberOfDocuments, final long numberOfTerms, final long numberOfPostings,
@@ -494,6 +505,9 @@ public abstract class Index implements Serializable {
 	 *  {@linkplain PrefixMap prefix map}, an {@link UnsupportedOperationException}
 	 *  will be thrown. 
 	 *
+	 * <p>If the prefix appears in the {@linkplain #prefixIndex prefix index}, the materialised posting list
+	 * of the prefix is returned instead, independently of <code>limit</code>. 
+	 *
 	 * @param prefix a prefix.
 	 * @param limit a limit on the number of terms that will be used to resolve
 	 * the prefix query; if the terms starting with <code>prefix</code> are more than
@@ -502,6 +516,10 @@ public abstract class Index implements Serializable {
 	 * @throws TooManyTermsException if there are more than <code>limit</code> terms starting with <code>prefix</code>.
 	 */
 	public IndexIterator documents( final CharSequence prefix, final int limit ) throws IOException, TooManyTermsException {
+		if ( prefixIndex != null ) {
+			final long prefixNumber = prefixIndex.termMap.getLong( prefix );
+			if ( prefixNumber != -1 ) return prefixIndex.documents( prefixNumber ).term( prefix + "*" );
+		}
 		if ( prefixMap != null ) {
 			final LongInterval interval = prefixMap.rangeMap().get( prefix );
 			if ( interval == LongIntervals.EMPTY_INTERVAL ) return new Index.EmptyIndexIterator();
@@ -523,6 +541,59 @@ public abstract class Index implements Serializable {
 		else throw new UnsupportedOperationException( "Index " + this + " has no prefix map" );
 	}
 
+	/** Returns an index iterator over the union of the posting lists of a list of terms.
+	 * 
+	 * @param termNumber a list of term numbers.
+	 * @param term the name of the returned iterator.
+	 * @return an index iterator over the union of the posting lists of the terms in <code>termNumber</code>.
+	 */
+	private IndexIterator documents( final LongArrayList termNumber, final CharSequence term ) throws IOException {
+		if ( termNumber.isEmpty() ) return getEmptyIndexIterator( term );
+		final IndexIterator result;
+		if ( termNumber.size() == 1 ) result = documents( termNumber.getLong( 0 ) );
+		else {
+			final IndexIterator[] baseIterator = new IndexIterator[ termNumber.size() ];
+			for( int i = 0; i < baseIterator.length; i++ ) baseIterator[ i ] = documents( termNumber.getLong( i ) );
+			result = MultiTermIndexIterator.getInstance( this, baseIterator );
+		}
+		result.term( term );
+		return result;
+	}
+
+	/** Creates a number of instances of {@link IndexReader} for this index and uses them to return 
+	 * a {@link MultiTermIndexIterator} over the documents containing any term containing a given string. Unless 
+	 * the index has a {@linkplain #termNGramIndex n-gram index}, an {@link UnsupportedOperationException} will be thrown. 
+	 *
+	 * @param infix a string.
+	 * @param limit a limit on the number of terms that will be used to resolve
+	 * the infix query; if the terms containing <code>infix</code> are more than
+	 * <code>limit</code>, a {@link TooManyTermsException} will be thrown. 
+	 * @throws UnsupportedOperationException if this index cannot resolve infixes.
+	 * @throws TooManyTermsException if there are more than <code>limit</code> terms containing <code>infix</code>.
+	 * @see TermNGramIndex#infix(CharSequence, int)
+	 */
+	public IndexIterator documentsInfix( final CharSequence infix, final int limit ) throws IOException, TooManyTermsException {
+		if ( termNGramIndex == null ) throw new UnsupportedOperationException( "Index " + this + " has no n-gram index" );
+		return documents( termNGramIndex.infix( infix, limit ), "*" + infix + "*" );
+	}
+
+	/** Creates a number of instances of {@link IndexReader} for this index and uses them to return 
+	 * a {@link MultiTermIndexIterator} over the documents containing any term within a given edit distance from
+	 * a given term. Unless the index has a {@linkplain #termNGramIndex n-gram index}, an {@link UnsupportedOperationException} will be thrown. 
+	 *
+	 * @param term a term.
+	 * @param maxDistance the maximum edit distance.
+	 * @param limit a limit on the number of terms that will be used to resolve
+	 * the fuzzy query; if the terms within edit distance <code>maxDistance</code> from <code>term</code> are more than
+	 * <code>limit</code>, a {@link TooManyTermsException} will be thrown. 
+	 * @throws UnsupportedOperationException if this index cannot resolve fuzzy terms.
+	 * @throws TooManyTermsException if there are more than <code>limit</code> terms within edit distance <code>maxDistance</code> from <code>term</code>.
+	 * @see TermNGramIndex#fuzzy(CharSequence, int, int)
+	 */
+	public IndexIterator documentsFuzzy( final CharSequence term, final int maxDistance, final int limit ) throws IOException, TooManyTermsException {
+		if ( termNGramIndex == null ) throw new UnsupportedOperationException( "Index " + this + " has no n-gram index" );
+		return documents( termNGramIndex.fuzzy( term, maxDistance, limit ), term + "~" + maxDistance );
+	}
 	
 	/** Sets the index used as a key to retrieve intervals from iterators generated from this index.
 	 * 
@@ -545,6 +616,30 @@ public abstract class Index implements Serializable {
 	public void keyIndex( Index newKeyIndex ) {
 		keyIndex = newKeyIndex;
 		singletonSet = ReferenceSets.singleton( keyIndex );
+		if ( prefixIndex != null ) prefixIndex.keyIndex( newKeyIndex );
+	}
+
+	/** Sets the index of materialised prefixes for this index.
+	 * 
+	 * <p>The terms of the given index must be prefixes of terms of this index, and the posting list
+	 * of each prefix must be the union of the posting lists of the terms starting with the prefix
+	 * (see {@link it.unimi.di.big.mg4j.tool.MaterializePrefixes}). Such prefixes will be
+	 * resolved by {@link #documents(CharSequence, int)} using a single posting list. The
+	 * {@linkplain #keyIndex(Index) key index} of the given index will be set to the key index of this index.
+	 * 
+	 * <P>Note that index iterators returned for materialised prefixes will return the key index of this index
+	 * as {@link IndexIterator#index()} (so, for instance, scorers will use the document sizes of this index),
+	 * but a prefix number as {@link IndexIterator#termNumber()}.
+	 * 
+	 * @param prefixIndex an index of materialised prefixes, or <code>null</code>.
+	 */
+	public void prefixIndex( final Index prefixIndex ) {
+		if ( prefixIndex != null ) {
+			if ( prefixIndex.termMap == null ) throw new IllegalArgumentException( "Index " + prefixIndex + " has no term map" );
+			if ( prefixIndex.numberOfDocuments != numberOfDocuments ) throw new IllegalArgumentException( "Index " + prefixIndex + " has " + prefixIndex.numberOfDocuments + " documents, but this index has " + numberOfDocuments + " documents" );
+			prefixIndex.keyIndex( keyIndex );
+		}
+		this.prefixIndex = prefixIndex;
 	}
 
 }
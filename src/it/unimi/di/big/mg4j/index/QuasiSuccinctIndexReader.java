@@ -734,7 +734,7 @@ public class QuasiSuccinctIndexReader extends AbstractIndexReader implements Ind
 
 		@Override
 		public Index index() {
-			return index;
+			return keyIndex;
 		}
 
 		@Override
@@ -857,6 +857,7 @@ public class QuasiSuccinctIndexReader extends AbstractIndexReader implements Ind
 		public long nextDocument() throws IOException {
 			assert currentDocument != END_OF_LIST;
 			if ( DEBUG ) System.err.println( this + ".nextDocument() [currentDocument = " + currentDocument + ", currentIndex = " + pointers.currentIndex + ", frequency = " + frequency + "]" );
+			if ( budget != null ) budget.consume();
 			count = nextPosition = 0;
 			final long nextDocument = pointers.getNextPrefixSum();
 			if ( DEBUG ) System.err.println( this + ".nextDocument() => " + currentDocument );
@@ -868,6 +869,7 @@ public class QuasiSuccinctIndexReader extends AbstractIndexReader implements Ind
 			if ( n == END_OF_LIST ) return currentDocument = END_OF_LIST;
 			assert n < numberOfDocuments : n + " >= " + numberOfDocuments;
 			if ( currentDocument >= n ) return currentDocument;
+			if ( budget != null ) budget.skip();
 			count = nextPosition = 0;
 			final long nextDocument = pointers.skipTo( n );
 			return currentDocument = nextDocument == numberOfDocuments ? END_OF_LIST : nextDocument;
@@ -887,7 +889,7 @@ public class QuasiSuccinctIndexReader extends AbstractIndexReader implements Ind
 		}
 	}
 	
-	protected final static class RankedIndexIterator extends AbstractQuasiSuccinctIndexIterator {
+	protected final static class RankedIndexIterator extends AbstractQuasiSuccinctIndexIterator implements BitmapIndexIterator {
 		private static final boolean DEBUG = false;
 		/** The pointer reader for the current term. */
 		protected RankedPointerReader pointers;
@@ -937,6 +939,7 @@ public class QuasiSuccinctIndexReader extends AbstractIndexReader implements Ind
 		public long nextDocument() throws IOException {
 			assert currentDocument != END_OF_LIST;
 			if ( DEBUG ) System.err.println( this + ".nextDocument() [currentDocument = " + currentDocument + ", currentIndex = " + pointers.currentIndex + ", frequency = " + frequency + "]" );
+			if ( budget != null ) budget.consume();
 			count = nextPosition = 0;
 			final long nextDocument = pointers.getNextPrefixSum();
 			if ( DEBUG ) System.err.println( this + ".nextDocument() => " + currentDocument );
@@ -948,6 +951,7 @@ public class QuasiSuccinctIndexReader extends AbstractIndexReader implements Ind
 			if ( n == END_OF_LIST ) return currentDocument = END_OF_LIST;
 			assert n < numberOfDocuments : n + " >= " + numberOfDocuments;
 			if ( currentDocument >= n ) return currentDocument;
+			if ( budget != null ) budget.skip();
 			count = nextPosition = 0;
 			final long nextDocument = pointers.skipTo( n );
 			return currentDocument = nextDocument == numberOfDocuments ? END_OF_LIST : nextDocument;
@@ -958,6 +962,18 @@ public class QuasiSuccinctIndexReader extends AbstractIndexReader implements Ind
 			return currentDocument != END_OF_LIST;
 		}
 
+		@Override
+		public long bitmapWord( final long word ) {
+			assert word >= 0 && word * Long.SIZE < numberOfDocuments : word;
+			// The bitmap starts at bit pointers.upperBitsStart; note that bit numberOfDocuments is always set, as a sentinel.
+			final long position = pointers.upperBitsStart + word * Long.SIZE;
+			final int bitPosition = (int)( position % Long.SIZE );
+			final int valid = (int)Math.min( Long.SIZE, numberOfDocuments - word * Long.SIZE );
+			long result = pointersList.getLong( position / Long.SIZE ) >>> bitPosition;
+			if ( bitPosition + valid > Long.SIZE ) result |= pointersList.getLong( position / Long.SIZE + 1 ) << -bitPosition;
+			return valid == Long.SIZE ? result : result & ( 1L << valid ) - 1;
+		}
+
 		@Override
 		public int count() throws IOException {
 			assert currentDocument != -1;
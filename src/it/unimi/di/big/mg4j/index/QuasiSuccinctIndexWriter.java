@@ -706,6 +706,23 @@ public class QuasiSuccinctIndexWriter implements IndexWriter {
 		return pointersStats.total() + ( counts != null ? countsStats.total() : 0 ) + ( positions != null ? positionsStats.total() : 0 );
 	}
 
+	/** Returns the number of bits written for a component, including skips.
+	 * 
+	 * <p>Note that bits are accounted for only when the inverted list of a term is completed, so the result
+	 * is exact only after {@link #close()}.
+	 * 
+	 * @param component {@link Component#POINTERS}, {@link Component#COUNTS} or {@link Component#POSITIONS}.
+	 * @return the number of bits written for <code>component</code>, or zero if this writer does not write <code>component</code>.
+	 */
+	public long writtenBits( final Component component ) {
+		switch( component ) {
+		case POINTERS: return pointersStats.total();
+		case COUNTS: return counts != null ? countsStats.total() : 0;
+		case POSITIONS: return positions != null ? positionsStats.total() : 0;
+		default: return 0;
+		}
+	}
+
 	@Override
 	public Properties properties() {
 		Properties properties = new Properties();
@@ -0,0 +1,431 @@
+package it.unimi.di.big.mg4j.index;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.io.IOFactories;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.dsi.big.util.FrontCodedStringBigList;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.AbstractLongIterator;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongIterable;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+/** An index of the character n-grams of the terms of an index, supporting infix and approximate term enumeration.
+ * 
+ * <p>Each term is padded with <var>n</var> &minus; 1 special characters on both sides, and for each 
+ * n-gram of the padded terms this class stores the list of the numbers of the terms containing it. 
+ * The terms themselves are stored in a {@link FrontCodedStringBigList} so to verify candidates.
+ * All lists are concatenated (the term numbers of the <var>g</var>-th n-gram being offset by <var>g</var> times the number of terms, so
+ * that the concatenation is monotone) in a single {@link EliasFanoMonotoneLongBigList}, which provides constant-time
+ * random access, so there is no limit on the overall size of the lists. The terms are similarly listed by length.
+ * 
+ * <p>The method {@link #infix(CharSequence, int)} enumerates the terms containing a given string 
+ * by scanning the list of its rarest n-gram and probing the lists of the other n-grams by binary search
+ * (or, if the string is shorter than <var>n</var>, by merging the lists of the
+ * n-grams containing it), and the method {@link #fuzzy(CharSequence, int, int)} enumerates the terms within a given 
+ * edit (Levenshtein) distance from a given string using the <em>count filter</em>: a term within distance <var>k</var> must contain
+ * at least <var>t</var> = <var>g</var> &minus; <var>kn</var> of the <var>g</var> distinct n-grams of the string. Such a term must
+ * contain one of the <var>g</var> &minus; <var>t</var> + 1 rarest n-grams (<em>prefix filter</em>), so only the lists of
+ * the latter are scanned, whereas the remaining lists are probed by binary search. Candidates passing the
+ * filter are verified using a bounded dynamic-programming computation of the edit distance. When
+ * <var>g</var> &le; <var>kn</var> (e.g., for very short strings) the count filter is useless, and we fall back to the terms whose
+ * length differs by at most <var>k</var> from the length of the string; if they are more than {@link #MAX_LENGTH_CANDIDATES}, 
+ * the query is refused.
+ * 
+ * <p>An instance of this class is stored by {@link #main(String[])} in a file with basename of the index
+ * and extension {@link DiskBasedIndex#TERM_NGRAMS_EXTENSION}, and it is loaded automatically
+ * (as {@link Index#termNGramIndex}) when the index is loaded with its maps. Note that it must be rebuilt whenever the index is rebuilt.
+ * 
+ * <p>Instances of this class are thread safe.
+ * 
+ * @since 5.4.4
+ */
+
+public class TermNGramIndex implements Serializable {
+	private static final long serialVersionUID = 2L;
+
+	/** The default length of n-grams. */
+	public final static int DEFAULT_N = 3;
+	/** The maximum number of candidates that {@link #fuzzy(CharSequence, int, int)} will verify when the count filter is useless. */
+	public final static int MAX_LENGTH_CANDIDATES = 1 << 16;
+	/** The character used to pad terms. */
+	private final static char PAD = '\u0000';
+
+	/** The length of n-grams. */
+	public final int n;
+	/** The terms, in the order of the underlying index. */
+	private final FrontCodedStringBigList terms;
+	/** The number of terms. */
+	private final long numberOfTerms;
+	/** A map from n-grams to their index. */
+	private final Object2IntOpenHashMap<String> gram2Index;
+	/** For each n-gram, the position in {@link #lists} of the first element of its list, followed by the overall number of elements. */
+	private final EliasFanoMonotoneLongBigList pointers;
+	/** The increasing lists of term numbers of each n-gram, concatenated; the elements of the <var>g</var>-th list are offset by <var>g</var> times {@link #numberOfTerms}. */
+	private final EliasFanoMonotoneLongBigList lists;
+	/** For each length, the position in {@link #lengthLists} of the first term of that length, followed by the number of terms. */
+	private final EliasFanoMonotoneLongBigList lengthPointers;
+	/** The increasing lists of numbers of the terms of each length, concatenated; the elements of the <var>l</var>-th list are offset by <var>l</var> times {@link #numberOfTerms}. */
+	private final EliasFanoMonotoneLongBigList lengthLists;
+
+	/** Creates a new n-gram index.
+	 * 
+	 * @param terms the terms of an index, in the order of the index (the iterable will be scanned twice).
+	 * @param n the length of n-grams.
+	 */
+	public TermNGramIndex( final Iterable<? extends CharSequence> terms, final int n ) throws IOException {
+		if ( n < 1 ) throw new IllegalArgumentException( "Illegal n-gram length: " + n );
+		this.n = n;
+		this.terms = new FrontCodedStringBigList( terms.iterator(), 8, true );
+		numberOfTerms = this.terms.size64();
+
+		final Object2ObjectOpenHashMap<String, LongArrayList> gram2Terms = new Object2ObjectOpenHashMap<String, LongArrayList>();
+		final ObjectArrayList<LongArrayList> length2Terms = new ObjectArrayList<LongArrayList>();
+		final ObjectOpenHashSet<String> grams = new ObjectOpenHashSet<String>();
+		long termNumber = 0;
+		for( CharSequence term: terms ) {
+			grams.clear();
+			grams( term, grams );
+			for( String gram: grams ) {
+				LongArrayList list = gram2Terms.get( gram );
+				if ( list == null ) gram2Terms.put( gram, list = new LongArrayList() );
+				list.add( termNumber );
+			}
+			while( length2Terms.size() <= term.length() ) length2Terms.add( new LongArrayList() );
+			length2Terms.get( term.length() ).add( termNumber );
+			termNumber++;
+		}
+
+		gram2Index = new Object2IntOpenHashMap<String>( gram2Terms.size() );
+		gram2Index.defaultReturnValue( -1 );
+		final LongArrayList[] list = new LongArrayList[ gram2Terms.size() ];
+		int g = 0;
+		for( Map.Entry<String, LongArrayList> e: gram2Terms.entrySet() ) {
+			gram2Index.put( e.getKey(), g );
+			list[ g++ ] = e.getValue();
+		}
+		gram2Terms.clear();
+		pointers = pointers( list );
+		lists = concatenate( list, numberOfTerms );
+
+		final LongArrayList[] lengthList = length2Terms.toArray( new LongArrayList[ length2Terms.size() ] );
+		lengthPointers = pointers( lengthList );
+		lengthLists = concatenate( lengthList, numberOfTerms );
+	}
+
+	/** Returns the positions of the first element of each of a sequence of lists in their concatenation, followed by the overall number of elements.
+	 * 
+	 * @param list an array of lists.
+	 * @return the starting positions of the lists in their concatenation, followed by the overall number of elements.
+	 */
+	private static EliasFanoMonotoneLongBigList pointers( final LongArrayList[] list ) {
+		final LongArrayList pointer = new LongArrayList( list.length + 1 );
+		long p = 0;
+		pointer.add( p );
+		for( LongArrayList l: list ) pointer.add( p += l.size() );
+		return new EliasFanoMonotoneLongBigList( pointer );
+	}
+
+	/** Returns the concatenation of a sequence of increasing lists of numbers smaller than a given bound, each offset so that the concatenation is monotone.
+	 * 
+	 * @param list an array of increasing lists of numbers smaller than <code>bound</code>.
+	 * @param bound a strict upper bound on the elements of the lists.
+	 * @return the concatenation of the lists, where the elements of the <var>i</var>-th list are increased by <var>i</var> &middot; <code>bound</code>,
+	 * followed by a sentinel equal to <code>list.length</code> &middot; <code>bound</code>.
+	 */
+	private static EliasFanoMonotoneLongBigList concatenate( final LongArrayList[] list, final long bound ) {
+		return new EliasFanoMonotoneLongBigList( new LongIterable() {
+			public LongIterator iterator() {
+				return new AbstractLongIterator() {
+					private int i, j;
+					private boolean sentinel = true;
+
+					public boolean hasNext() {
+						while( i < list.length && j == list[ i ].size() ) {
+							i++;
+							j = 0;
+						}
+						return i < list.length || sentinel;
+					}
+
+					public long nextLong() {
+						if ( ! hasNext() ) throw new NoSuchElementException();
+						if ( i == list.length ) {
+							sentinel = false;
+							return list.length * bound;
+						}
+						return i * bound + list[ i ].getLong( j++ );
+					}
+				};
+			}
+		} );
+	}
+
+	/** Returns the number of terms in this index.
+	 * 
+	 * @return the number of terms in this index.
+	 */
+	public long size64() {
+		return numberOfTerms;
+	}
+
+	/** Adds the n-grams of a padded term to a set.
+	 * 
+	 * @param term a term.
+	 * @param grams a set where the n-grams of <code>term</code> (padded) will be added.
+	 */
+	private void grams( final CharSequence term, final Set<String> grams ) {
+		final MutableString padded = new MutableString( term.length() + 2 * ( n - 1 ) );
+		for( int i = n - 1; i-- != 0; ) padded.append( PAD );
+		padded.append( term );
+		for( int i = n - 1; i-- != 0; ) padded.append( PAD );
+		for( int i = 0; i + n <= padded.length(); i++ ) grams.add( padded.substring( i, i + n ).toString() );
+	}
+
+	/** Returns the number of terms containing an n-gram.
+	 * 
+	 * @param gram the index of an n-gram.
+	 * @return the number of terms containing the n-gram.
+	 */
+	private long frequency( final int gram ) {
+		return pointers.getLong( gram + 1 ) - pointers.getLong( gram );
+	}
+
+	/** Returns whether a term contains an n-gram, using a binary search on the list of the n-gram.
+	 * 
+	 * @param gram the index of an n-gram.
+	 * @param term a term number.
+	 * @return true if <code>term</code> contains the n-gram.
+	 */
+	private boolean contains( final int gram, final long term ) {
+		final long key = gram * numberOfTerms + term;
+		long from = pointers.getLong( gram ), to = pointers.getLong( gram + 1 ) - 1;
+		while( from <= to ) {
+			final long mid = ( from + to ) >>> 1;
+			final long v = lists.getLong( mid );
+			if ( v < key ) from = mid + 1;
+			else if ( v > key ) to = mid - 1;
+			else return true;
+		}
+		return false;
+	}
+
+	/** Sorts n-grams by increasing frequency.
+	 * 
+	 * @param gram an array of n-gram indices.
+	 * @param length the number of valid elements of <code>gram</code>.
+	 */
+	private void sortByFrequency( final int[] gram, final int length ) {
+		IntArrays.quickSort( gram, 0, length, new AbstractIntComparator() {
+			private static final long serialVersionUID = 1L;
+			public int compare( final int g0, final int g1 ) {
+				return Long.signum( frequency( g0 ) - frequency( g1 ) );
+			}
+		} );
+	}
+
+	/** Returns the numbers of the terms containing a given string.
+	 * 
+	 * @param infix a string.
+	 * @param limit the maximum number of terms to be returned.
+	 * @return the increasing list of the numbers of the terms containing <code>infix</code>.
+	 * @throws TooManyTermsException if more than <code>limit</code> terms contain <code>infix</code> (the
+	 * number of terms reported by the exception is a lower bound).
+	 */
+	public LongArrayList infix( final CharSequence infix, final int limit ) throws TooManyTermsException {
+		final LongArrayList result = new LongArrayList();
+
+		if ( infix.length() < n ) {
+			if ( infix.length() == 0 ) {
+				if ( numberOfTerms > limit ) throw new TooManyTermsException( numberOfTerms );
+				for( long t = 0; t < numberOfTerms; t++ ) result.add( t );
+				return result;
+			}
+			// A term contains the infix if and only if one of its (padded) n-grams contains the infix.
+			final String s = infix.toString();
+			final LongOpenHashSet matches = new LongOpenHashSet();
+			for( Object2IntMap.Entry<String> e: gram2Index.object2IntEntrySet() ) {
+				if ( e.getKey().indexOf( s ) == -1 ) continue;
+				final int g = e.getIntValue();
+				for( long p = pointers.getLong( g ), end = pointers.getLong( g + 1 ); p < end; p++ ) 
+					if ( matches.add( lists.getLong( p ) - g * numberOfTerms ) && matches.size() > limit ) throw new TooManyTermsException( matches.size() );
+			}
+			result.addAll( matches );
+			LongArrays.quickSort( result.elements(), 0, result.size() );
+			return result;
+		}
+
+		// A term contains the infix only if it contains all n-grams of the infix; we scan the rarest and probe the others. 
+		final ObjectOpenHashSet<String> grams = new ObjectOpenHashSet<String>();
+		for( int i = 0; i + n <= infix.length(); i++ ) grams.add( infix.subSequence( i, i + n ).toString() );
+		final int[] gram = new int[ grams.size() ];
+		int k = 0;
+		for( String s: grams ) if ( ( gram[ k++ ] = gram2Index.getInt( s ) ) == -1 ) return result;
+		sortByFrequency( gram, gram.length );
+
+		final MutableString pattern = new MutableString( infix );
+		for( long p = pointers.getLong( gram[ 0 ] ), end = pointers.getLong( gram[ 0 ] + 1 ); p < end; p++ ) {
+			final long t = lists.getLong( p ) - gram[ 0 ] * numberOfTerms;
+			int i = 1;
+			while( i < gram.length && contains( gram[ i ], t ) ) i++;
+			if ( i == gram.length && terms.get( t ).indexOf( pattern ) != -1 ) {
+				result.add( t );
+				if ( result.size() > limit ) throw new TooManyTermsException( result.size() );
+			}
+		}
+		return result;
+	}
+
+	/** Returns the edit distance between two strings, or a value larger than a given maximum distance if the edit distance is larger than the maximum distance.
+	 * 
+	 * @param a a string.
+	 * @param b another string.
+	 * @param maxDistance a maximum distance.
+	 * @return the edit distance between <code>a</code> and <code>b</code>, if it is at most <code>maxDistance</code>; a value
+	 * larger than <code>maxDistance</code>, otherwise.
+	 */
+	public static int editDistance( final CharSequence a, final CharSequence b, final int maxDistance ) {
+		final int m = a.length(), l = b.length();
+		if ( Math.abs( m - l ) > maxDistance ) return Math.abs( m - l );
+		int[] prev = new int[ l + 1 ], curr = new int[ l + 1 ], t;
+		for( int j = 0; j <= l; j++ ) prev[ j ] = j;
+		for( int i = 1; i <= m; i++ ) {
+			final char c = a.charAt( i - 1 );
+			int min = curr[ 0 ] = i;
+			for( int j = 1; j <= l; j++ ) {
+				curr[ j ] = Math.min( Math.min( prev[ j ], curr[ j - 1 ] ) + 1, prev[ j - 1 ] + ( c == b.charAt( j - 1 ) ? 0 : 1 ) );
+				if ( curr[ j ] < min ) min = curr[ j ];
+			}
+			// The minimum of a row never decreases, so we can stop as soon as it exceeds the maximum distance.
+			if ( min > maxDistance ) return min;
+			t = prev;
+			prev = curr;
+			curr = t;
+		}
+		return prev[ l ];
+	}
+
+	/** Returns the numbers of the terms within a given edit distance from a given string.
+	 * 
+	 * @param term a string.
+	 * @param maxDistance the maximum edit distance.
+	 * @param limit the maximum number of terms to be returned.
+	 * @return the increasing list of the numbers of the terms within edit distance <code>maxDistance</code> from <code>term</code>.
+	 * @throws TooManyTermsException if more than <code>limit</code> terms are within edit distance <code>maxDistance</code> from <code>term</code> (the
+	 * number of terms reported by the exception is a lower bound), or if the count filter is useless and more than {@link #MAX_LENGTH_CANDIDATES}
+	 * terms have a suitable length (the number of terms reported by the exception is the number of such terms).
+	 */
+	public LongArrayList fuzzy( final CharSequence term, final int maxDistance, final int limit ) throws TooManyTermsException {
+		if ( maxDistance < 0 ) throw new IllegalArgumentException( "Illegal maximum distance: " + maxDistance );
+		final LongArrayList result = new LongArrayList();
+		final ObjectOpenHashSet<String> grams = new ObjectOpenHashSet<String>();
+		grams( term, grams );
+		final int threshold = grams.size() - maxDistance * n;
+		
+		final LongArrayList candidate = new LongArrayList();
+		if ( threshold <= 0 ) {
+			// Length filter: a term within distance maxDistance has length within maxDistance from the length of term.
+			final long maxLength = lengthPointers.size64() - 2;
+			final int minLength = Math.max( 0, term.length() - maxDistance );
+			final long from = lengthPointers.getLong( Math.min( minLength, maxLength + 1 ) ), to = lengthPointers.getLong( Math.min( (long)term.length() + maxDistance + 1, maxLength + 1 ) );
+			if ( to - from > MAX_LENGTH_CANDIDATES ) throw new TooManyTermsException( to - from );
+			for( long p = from; p < to; p++ ) candidate.add( lengthLists.getLong( p ) % numberOfTerms );
+		}
+		else {
+			final int[] gram = new int[ grams.size() ];
+			int known = 0;
+			for( String s: grams ) {
+				final int g = gram2Index.getInt( s );
+				if ( g != -1 ) gram[ known++ ] = g;
+			}
+			if ( known < threshold ) return result;
+			sortByFrequency( gram, known );
+			
+			/* Prefix filter: a candidate contains at least threshold of the n-grams of term, so it must contain one
+			 * of the grams.size() - threshold + 1 rarest ones. The n-grams that do not appear in any term are the rarest, so
+			 * the prefix is made by the known - threshold + 1 rarest known n-grams. We count occurrences in the prefix by scanning. */
+			final int prefix = known - threshold + 1;
+			final Long2IntOpenHashMap count = new Long2IntOpenHashMap();
+			for( int i = 0; i < prefix; i++ ) 
+				for( long p = pointers.getLong( gram[ i ] ), end = pointers.getLong( gram[ i ] + 1 ); p < end; p++ ) count.addTo( lists.getLong( p ) - gram[ i ] * numberOfTerms, 1 );
+			
+			// The remaining n-grams are probed by binary search, stopping as soon as the outcome is known.
+			for( Long2IntMap.Entry e: count.long2IntEntrySet() ) {
+				final long t = e.getLongKey();
+				int c = e.getIntValue();
+				for( int i = prefix; i < known && c < threshold && c + known - i >= threshold; i++ ) if ( contains( gram[ i ], t ) ) c++;
+				if ( c >= threshold ) candidate.add( t );
+			}
+		}
+		LongArrays.quickSort( candidate.elements(), 0, candidate.size() );
+
+		for( int i = 0; i < candidate.size(); i++ ) {
+			final long t = candidate.getLong( i );
+			if ( editDistance( term, terms.get( t ), maxDistance ) <= maxDistance ) {
+				result.add( t );
+				if ( result.size() > limit ) throw new TooManyTermsException( result.size() );
+			}
+		}
+		return result;
+	}
+
+	public static void main( final String[] arg ) throws JSAPException, IOException {
+		final SimpleJSAP jsap = new SimpleJSAP( TermNGramIndex.class.getName(), "Builds an n-gram index over the terms of an index, supporting infix and fuzzy term enumeration. The n-gram index is stored using the basename of the index and extension " + DiskBasedIndex.TERM_NGRAMS_EXTENSION + ", and it is loaded automatically with the index.",
+			new Parameter[] {
+				new FlaggedOption( "n", JSAP.INTEGER_PARSER, Integer.toString( DEFAULT_N ), JSAP.NOT_REQUIRED, 'n', "n", "The length of n-grams." ),
+				new UnflaggedOption( "basename", JSAP.STRING_PARSER, JSAP.REQUIRED, "The basename of the index." ),
+		});
+
+		final JSAPResult jsapResult = jsap.parse( arg );
+		if ( jsap.messagePrinted() ) return;
+		
+		final String basename = jsapResult.getString( "basename" );
+		final IOFactory ioFactory = IOFactory.FILESYSTEM_FACTORY;
+		IOFactories.storeObject( ioFactory, new TermNGramIndex( IOFactories.fileLinesCollection( ioFactory, basename + DiskBasedIndex.TERMS_EXTENSION, "UTF-8" ), jsapResult.getInt( "n" ) ), basename + DiskBasedIndex.TERM_NGRAMS_EXTENSION );
+	}
+}
@@ -20,7 +20,7 @@ package it.unimi.di.big.mg4j.index;
  *
  */
 
-/** Thrown to indicate that a prefix query generated too many terms.
+/** Thrown to indicate that a prefix (or infix, or fuzzy) query generated too many terms.
  *
  * @author Sebastiano Vigna
  */
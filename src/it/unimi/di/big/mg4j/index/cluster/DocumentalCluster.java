@@ -78,6 +78,14 @@ public abstract class DocumentalCluster extends IndexCluster {
 		for( int i = allIndices.length; i-- != 0; ) allIndices[ i ] = i;
 	}
 
+	/** Returns the clustering strategy of this cluster.
+	 * 
+	 * @return the clustering strategy of this cluster.
+	 */
+	public DocumentalClusteringStrategy strategy() {
+		return strategy;
+	}
+
 	@Override
 	public DocumentalClusterIndexReader getReader( final int bufferSize ) throws IOException {
 		return new DocumentalClusterIndexReader( this, bufferSize == -1 ? DEFAULT_BUFFER_SIZE : bufferSize );
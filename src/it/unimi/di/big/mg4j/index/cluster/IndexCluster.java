@@ -118,6 +118,14 @@ public abstract class IndexCluster extends Index {
 		for( int i = 0; i< localIndex.length ; i++ ) localIndex[ i ].keyIndex( this );
 	}
 
+	/** Returns the local indices of this cluster.
+	 * 
+	 * @return the local indices of this cluster (the array must not be modified).
+	 */
+	public Index[] localIndex() {
+		return localIndex;
+	}
+
 	/** Returns a new index cluster.
 	 * 
 	 * <p>This method uses the <samp>LOCALINDEX</samp> property to locate the local indices,
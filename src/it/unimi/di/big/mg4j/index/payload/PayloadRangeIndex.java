@@ -0,0 +1,205 @@
+package it.unimi.di.big.mg4j.index.payload;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.io.IOFactories;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.logging.ProgressLogger;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+/** Per-block minimum and maximum payloads of a payload-based index.
+ * 
+ * <p>The posting list of a payload-based index is divided into blocks of a fixed number of postings,
+ * and for each block this class stores the first document of the block and the minimum and maximum payload
+ * appearing in the block. In this way, a {@link it.unimi.di.big.mg4j.search.PayloadRangeDocumentIterator}
+ * evaluating a range query can skip blocks whose payloads are all out of range, and avoid
+ * testing payloads in blocks whose payloads are all within range.
+ * 
+ * <p>An instance of this class is stored by {@link #main(String[])} in a file with the basename of the index
+ * and extension {@link DiskBasedIndex#PAYLOAD_RANGES_EXTENSION}, and it is loaded automatically
+ * (as {@link Index#payloadRangeIndex}) when the index is loaded. Note that it must be rebuilt whenever the index is rebuilt.
+ * 
+ * @since 5.4.4
+ */
+
+public class PayloadRangeIndex implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final static Logger LOGGER = LoggerFactory.getLogger( PayloadRangeIndex.class );
+
+	/** The default number of postings in a block. */
+	public final static int DEFAULT_BLOCK_SIZE = 1024;
+	
+	/** The number of postings in a block. */
+	public final int blockSize;
+	/** The first document of each block. */
+	private final long[] firstDocument;
+	/** The minimum payload of each block. */
+	private final Payload[] min;
+	/** The maximum payload of each block. */
+	private final Payload[] max;
+
+	/** Creates a new payload-range index by scanning the posting list of a payload-based index.
+	 * 
+	 * @param index a payload-based index.
+	 * @param blockSize the number of postings in a block.
+	 */
+	public PayloadRangeIndex( final Index index, final int blockSize ) throws IOException {
+		if ( ! index.hasPayloads ) throw new IllegalArgumentException( "Index " + index + " does not have payloads" );
+		if ( blockSize < 1 ) throw new IllegalArgumentException( "Illegal block size: " + blockSize );
+		this.blockSize = blockSize;
+
+		final LongArrayList firstDocument = new LongArrayList();
+		final ObjectArrayList<Payload> min = new ObjectArrayList<Payload>(), max = new ObjectArrayList<Payload>();
+		final ProgressLogger pl = new ProgressLogger( LOGGER );
+		pl.itemsName = "postings";
+		pl.start( "Scanning payloads..." );
+		
+		final IndexIterator indexIterator = index.documents( 0 );
+		Payload blockMin = null, blockMax = null;
+		long postings = 0;
+		for( long document; ( document = indexIterator.nextDocument() ) != DocumentIterator.END_OF_LIST; postings++ ) {
+			final Payload payload = indexIterator.payload();
+			if ( postings % blockSize == 0 ) {
+				if ( blockMin != null ) {
+					min.add( blockMin );
+					max.add( blockMax );
+				}
+				firstDocument.add( document );
+				blockMin = payload.copy();
+				blockMax = payload.copy();
+			}
+			else {
+				if ( payload.compareTo( blockMin ) < 0 ) blockMin = payload.copy();
+				if ( payload.compareTo( blockMax ) > 0 ) blockMax = payload.copy();
+			}
+			pl.lightUpdate();
+		}
+		if ( blockMin != null ) {
+			min.add( blockMin );
+			max.add( blockMax );
+		}
+		indexIterator.dispose();
+		pl.done();
+
+		this.firstDocument = firstDocument.toLongArray();
+		this.min = min.toArray( new Payload[ min.size() ] );
+		this.max = max.toArray( new Payload[ max.size() ] );
+	}
+
+	/** Returns the number of blocks.
+	 * 
+	 * @return the number of blocks.
+	 */
+	public int numberOfBlocks() {
+		return firstDocument.length;
+	}
+
+	/** Returns the first document of a block.
+	 * 
+	 * @param block a block.
+	 * @return the first document of <code>block</code>, or {@link DocumentIterator#END_OF_LIST} if <code>block</code> is the number of blocks.
+	 */
+	public long firstDocument( final int block ) {
+		return block == firstDocument.length ? DocumentIterator.END_OF_LIST : firstDocument[ block ];
+	}
+
+	/** Returns the block that contains a given document, if the document appears in the posting list.
+	 * 
+	 * @param document a document.
+	 * @return the last block whose first document is smaller than or equal to <code>document</code>, or 0 if there is no such block.
+	 */
+	public int block( final long document ) {
+		final int pos = LongArrays.binarySearch( firstDocument, document );
+		return pos >= 0 ? pos : Math.max( 0, -pos - 2 );
+	}
+
+	/** Returns whether the payloads of a block might be within a range.
+	 * 
+	 * @param block a block.
+	 * @param left the left extreme of the range (inclusive), or <code>null</code>.
+	 * @param right the right extreme of the range (inclusive), or <code>null</code>.
+	 * @return true if some payload of <code>block</code> might be within the range. 
+	 */
+	public boolean intersects( final int block, final Payload left, final Payload right ) {
+		return ( left == null || max[ block ].compareTo( left ) >= 0 ) && ( right == null || min[ block ].compareTo( right ) <= 0 );
+	}
+
+	/** Returns whether all payloads of a block are within a range.
+	 * 
+	 * @param block a block.
+	 * @param left the left extreme of the range (inclusive), or <code>null</code>.
+	 * @param right the right extreme of the range (inclusive), or <code>null</code>.
+	 * @return true if all payloads of <code>block</code> are within the range. 
+	 */
+	public boolean contained( final int block, final Payload left, final Payload right ) {
+		return ( left == null || min[ block ].compareTo( left ) >= 0 ) && ( right == null || max[ block ].compareTo( right ) <= 0 );
+	}
+
+	/** Returns the first block, starting from a given one, whose payloads might be within a range.
+	 * 
+	 * @param block a block.
+	 * @param left the left extreme of the range (inclusive), or <code>null</code>.
+	 * @param right the right extreme of the range (inclusive), or <code>null</code>.
+	 * @return the first block greater than or equal to <code>block</code> whose payloads might be within the range, or the number of blocks if no such block exists. 
+	 */
+	public int nextCandidate( int block, final Payload left, final Payload right ) {
+		while( block < firstDocument.length && ! intersects( block, left, right ) ) block++;
+		return block;
+	}
+
+	public static void main( final String[] arg ) throws JSAPException, IOException, ConfigurationException, URISyntaxException, ClassNotFoundException, SecurityException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final SimpleJSAP jsap = new SimpleJSAP( PayloadRangeIndex.class.getName(), "Computes the minimum and maximum payload of each block of postings of a payload-based index, so that range queries can skip blocks. The result is stored using the basename of the index and extension " + DiskBasedIndex.PAYLOAD_RANGES_EXTENSION + ", and it is loaded automatically with the index.",
+			new Parameter[] {
+				new FlaggedOption( "blockSize", JSAP.INTSIZE_PARSER, Integer.toString( DEFAULT_BLOCK_SIZE ), JSAP.NOT_REQUIRED, 'b', "block-size", "The number of postings in a block." ),
+				new UnflaggedOption( "basename", JSAP.STRING_PARSER, JSAP.REQUIRED, "The basename of the index." ),
+		});
+
+		final JSAPResult jsapResult = jsap.parse( arg );
+		if ( jsap.messagePrinted() ) return;
+		
+		final String basename = jsapResult.getString( "basename" );
+		final IOFactory ioFactory = IOFactory.FILESYSTEM_FACTORY;
+		IOFactories.storeObject( ioFactory, new PayloadRangeIndex( Index.getInstance( ioFactory, basename, true, false, false ), jsapResult.getInt( "blockSize" ) ), basename + DiskBasedIndex.PAYLOAD_RANGES_EXTENSION );
+	}
+}
@@ -0,0 +1,233 @@
+package it.unimi.di.big.mg4j.io;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/** An input stream decompressing a <code>gzip</code> stream made of several members, keeping track of the 
+ * compressed and uncompressed offsets at which each member starts.
+ * 
+ * <p>The <code>gzip</code> format allows the concatenation of several independent <em>members</em>; 
+ * a decompressor can start from the beginning of any member. Many large collections are stored in this
+ * form (e.g., <a href="http://samtools.github.io/hts-specs/SAMv1.pdf">BGZF</a> files, produced by <code>bgzip</code>, are made
+ * of members of at most 64&nbsp;KiB, and some crawl archives compress each record separately). This class 
+ * decompresses such streams exactly like a {@link java.util.zip.GZIPInputStream}, but records
+ * {@linkplain #uncompressedCheckpoints() checkpoints} that make it possible to start decompressing
+ * from the member containing a given uncompressed offset. Note that a standard single-member file has just one checkpoint (its start). 
+ * 
+ * <p>To avoid excessive memory usage with very small members, a new checkpoint is recorded only
+ * if the member starts at least a given number of uncompressed bytes after the previous checkpoint.
+ * 
+ * @since 5.4.4
+ */
+
+public class MultiMemberGZIPInputStream extends InputStream {
+	/** The default minimum distance in uncompressed bytes between two checkpoints. */
+	public static final int DEFAULT_CHECKPOINT_SPACING = 64 * 1024;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	/** The underlying (compressed) stream. */
+	private final InputStream in;
+	/** The minimum distance in uncompressed bytes between two checkpoints. */
+	private final int checkpointSpacing;
+	/** The inflater, in raw mode. */
+	private final Inflater inflater = new Inflater( true );
+	/** The checksum of the current member. */
+	private final CRC32 crc = new CRC32();
+	/** The input buffer. */
+	private final byte[] buffer = new byte[ 64 * 1024 ];
+	/** The number of valid bytes in {@link #buffer}. */
+	private int length;
+	/** The position of the first byte of {@link #buffer} not yet consumed. */
+	private int pos;
+	/** The position in the underlying stream of the first byte of {@link #buffer}. */
+	private long bufferStart;
+	/** The number of uncompressed bytes returned so far. */
+	private long uncompressed;
+	/** Whether we are in the middle of a member. */
+	private boolean inMember;
+	/** Whether the end of the underlying stream has been reached. */
+	private boolean eof;
+	/** The uncompressed offsets of checkpoints. */
+	private final LongArrayList uncompressedCheckpoint = new LongArrayList();
+	/** The compressed offsets of checkpoints. */
+	private final LongArrayList compressedCheckpoint = new LongArrayList();
+	/** A buffer used by {@link #read()}. */
+	private final byte[] oneByte = new byte[ 1 ];
+
+	/** Creates a new multi-member <code>gzip</code> input stream.
+	 * 
+	 * @param in the underlying stream, which must be positioned at the start of a member.
+	 * @param checkpointSpacing the minimum distance in uncompressed bytes between two checkpoints.
+	 */
+	public MultiMemberGZIPInputStream( final InputStream in, final int checkpointSpacing ) {
+		this.in = in;
+		this.checkpointSpacing = checkpointSpacing;
+	}
+
+	/** Creates a new multi-member <code>gzip</code> input stream with default checkpoint spacing.
+	 * 
+	 * @param in the underlying stream, which must be positioned at the start of a member.
+	 */
+	public MultiMemberGZIPInputStream( final InputStream in ) {
+		this( in, DEFAULT_CHECKPOINT_SPACING );
+	}
+
+	/** Returns the uncompressed offsets of the checkpoints recorded so far, in increasing order.
+	 * 
+	 * @return the uncompressed offsets of the checkpoints recorded so far.
+	 */
+	public long[] uncompressedCheckpoints() {
+		return uncompressedCheckpoint.toLongArray();
+	}
+
+	/** Returns the compressed offsets of the checkpoints recorded so far, in the same order of {@link #uncompressedCheckpoints()}.
+	 * 
+	 * @return the compressed offsets of the checkpoints recorded so far.
+	 */
+	public long[] compressedCheckpoints() {
+		return compressedCheckpoint.toLongArray();
+	}
+
+	/** Makes sure that {@link #buffer} contains unconsumed bytes.
+	 * 
+	 * @return false if the end of the underlying stream has been reached.
+	 */
+	private boolean fill() throws IOException {
+		if ( pos < length ) return true;
+		if ( eof ) return false;
+		bufferStart += length;
+		pos = length = 0;
+		final int r = in.read( buffer );
+		if ( r <= 0 ) {
+			eof = true;
+			return false;
+		}
+		length = r;
+		return true;
+	}
+
+	private int readUnsignedByte() throws IOException {
+		if ( ! fill() ) throw new EOFException( "Unexpected end of gzip stream" );
+		return buffer[ pos++ ] & 0xFF;
+	}
+
+	private int readUnsignedShort() throws IOException {
+		return readUnsignedByte() | readUnsignedByte() << 8;
+	}
+
+	private long readUnsignedInt() throws IOException {
+		return readUnsignedShort() | (long)readUnsignedShort() << 16;
+	}
+
+	/** Reads the header of a member, if any.
+	 * 
+	 * @return false if the end of the underlying stream has been reached.
+	 */
+	private boolean readHeader() throws IOException {
+		if ( ! fill() ) return false;
+		final long memberStart = bufferStart + pos;
+		if ( readUnsignedShort() != 0x8b1f ) throw new ZipException( "Not in gzip format at offset " + memberStart );
+		if ( readUnsignedByte() != 8 ) throw new ZipException( "Unsupported compression method at offset " + memberStart );
+		final int flags = readUnsignedByte();
+		for( int i = 6; i-- != 0; ) readUnsignedByte(); // Modification time, extra flags, OS
+		if ( ( flags & FEXTRA ) != 0 ) for( int i = readUnsignedShort(); i-- != 0; ) readUnsignedByte();
+		if ( ( flags & FNAME ) != 0 ) while( readUnsignedByte() != 0 );
+		if ( ( flags & FCOMMENT ) != 0 ) while( readUnsignedByte() != 0 );
+		if ( ( flags & FHCRC ) != 0 ) readUnsignedShort();
+
+		if ( uncompressedCheckpoint.isEmpty() || uncompressed - uncompressedCheckpoint.topLong() >= checkpointSpacing ) {
+			uncompressedCheckpoint.add( uncompressed );
+			compressedCheckpoint.add( memberStart );
+		}
+
+		inflater.reset();
+		crc.reset();
+		inMember = true;
+		return true;
+	}
+
+	@Override
+	public int read( final byte[] b, final int offset, final int len ) throws IOException {
+		if ( len == 0 ) return 0;
+		for( ;; ) {
+			if ( ! inMember && ! readHeader() ) return -1;
+			
+			if ( inflater.needsInput() ) {
+				if ( ! fill() ) throw new EOFException( "Unexpected end of gzip stream" );
+				inflater.setInput( buffer, pos, length - pos );
+				pos = length;
+			}
+
+			final int n;
+			try {
+				n = inflater.inflate( b, offset, len );
+			}
+			catch ( DataFormatException e ) {
+				throw new ZipException( e.getMessage() );
+			}
+
+			if ( inflater.finished() ) {
+				// Give back unused input, and check the trailer.
+				pos = length - inflater.getRemaining();
+				crc.update( b, offset, n );
+				if ( readUnsignedInt() != crc.getValue() ) throw new ZipException( "Corrupt gzip trailer (CRC mismatch)" );
+				// The size of the member is stored modulo 2^32.
+				if ( readUnsignedInt() != ( inflater.getTotalOut() & 0xFFFFFFFFL ) ) throw new ZipException( "Corrupt gzip trailer (size mismatch)" );
+				inMember = false;
+				uncompressed += n;
+				if ( n != 0 ) return n;
+				continue;
+			}
+
+			if ( n != 0 ) {
+				crc.update( b, offset, n );
+				uncompressed += n;
+				return n;
+			}
+
+			if ( inflater.needsDictionary() ) throw new ZipException( "Unexpected preset dictionary" );
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read( oneByte, 0, 1 ) == -1 ? -1 : oneByte[ 0 ] & 0xFF;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+}
@@ -0,0 +1,168 @@
+package it.unimi.di.big.mg4j.io;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** An input stream reading ahead an underlying stream in a separate thread.
+ * 
+ * <p>Instances of this class are useful when the underlying stream performs some
+ * expensive computation (e.g., decompression) that can be overlapped with the processing of 
+ * its output: a daemon thread reads the underlying stream in blocks, keeping at most a specified 
+ * number of bytes ahead of the reader. Exceptions thrown by the underlying stream are rethrown
+ * by the methods of this stream.
+ * 
+ * <p>The underlying stream is closed by the reading thread when its end is reached, when an
+ * exception is thrown, or when this stream is {@linkplain #close() closed}.
+ * 
+ * @since 5.4.4
+ */
+
+public class ReadAheadInputStream extends InputStream {
+	/** The default size of a block. */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	/** A marker for the end of the underlying stream. */
+	private static final byte[] END = new byte[ 0 ];
+
+	/** The blocks read from the underlying stream, followed by {@link #END}. */
+	private final ArrayBlockingQueue<byte[]> blocks;
+	/** The reading thread. */
+	private final Thread thread;
+	/** The exception thrown by the underlying stream, if any. */
+	private volatile IOException exception;
+	/** Whether this stream has been closed. */
+	private volatile boolean closed;
+	/** The current block. */
+	private byte[] block;
+	/** The number of valid bytes in {@link #block}. */
+	private int length;
+	/** The position of the next byte to be returned in {@link #block}. */
+	private int pos;
+
+	/** Creates a new read-ahead input stream.
+	 * 
+	 * @param in the underlying input stream.
+	 * @param readAhead the maximum number of bytes that will be read ahead (approximated by excess to a multiple of {@code blockSize}).
+	 * @param blockSize the size of a block.
+	 */
+	public ReadAheadInputStream( final InputStream in, final int readAhead, final int blockSize ) {
+		if ( readAhead <= 0 ) throw new IllegalArgumentException( "Nonpositive read-ahead: " + readAhead );
+		if ( blockSize <= 0 ) throw new IllegalArgumentException( "Nonpositive block size: " + blockSize );
+		blocks = new ArrayBlockingQueue<byte[]>( ( readAhead + blockSize - 1 ) / blockSize );
+		thread = new Thread( "ReadAheadInputStream reader" ) {
+			@Override
+			public void run() {
+				try {
+					try {
+						for( ;; ) {
+							final byte[] b = new byte[ blockSize ];
+							int n = 0, r;
+							while( n < blockSize && ( r = in.read( b, n, blockSize - n ) ) != -1 ) n += r;
+							if ( n == 0 || closed ) break;
+							blocks.put( n == blockSize ? b : Arrays.copyOf( b, n ) );
+							if ( n < blockSize ) break;
+						}
+					}
+					finally {
+						in.close();
+					}
+				}
+				catch( IOException e ) {
+					exception = e;
+				}
+				catch( InterruptedException e ) {
+					return;
+				}
+				try {
+					if ( ! closed ) blocks.put( END );
+				}
+				catch ( InterruptedException e ) {}
+			}
+		};
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/** Creates a new read-ahead input stream with default block size.
+	 * 
+	 * @param in the underlying input stream.
+	 * @param readAhead the maximum number of bytes that will be read ahead.
+	 */
+	public ReadAheadInputStream( final InputStream in, final int readAhead ) {
+		this( in, readAhead, Math.min( readAhead, DEFAULT_BLOCK_SIZE ) );
+	}
+
+	/** Ensures that the current block contains unread bytes.
+	 * 
+	 * @return false if the end of the underlying stream has been reached.
+	 */
+	private boolean refill() throws IOException {
+		if ( closed ) throw new IOException( "Stream closed" );
+		if ( block == END ) return false;
+		if ( pos < length ) return true;
+		try {
+			block = blocks.take();
+		}
+		catch ( InterruptedException e ) {
+			throw new InterruptedIOException();
+		}
+		if ( block == END ) {
+			if ( exception != null ) throw exception;
+			return false;
+		}
+		length = block.length;
+		pos = 0;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ( ! refill() ) return -1;
+		return block[ pos++ ] & 0xFF;
+	}
+
+	@Override
+	public int read( final byte[] b, final int offset, final int len ) throws IOException {
+		if ( len == 0 ) return 0;
+		if ( ! refill() ) return -1;
+		final int n = Math.min( len, length - pos );
+		System.arraycopy( block, pos, b, offset, n );
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return block == null || block == END ? 0 : length - pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if ( closed ) return;
+		closed = true;
+		thread.interrupt();
+		blocks.clear();
+	}
+}
@@ -0,0 +1,164 @@
+package it.unimi.di.big.mg4j.query;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.io.FileLinesCollection;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+/** A load generator replaying a query log against the JSON interface of an {@link HttpQueryServer}.
+ * 
+ * <p>The main method of this class reads a file containing one query per line and submits the queries,
+ * in order and cyclically, to the <samp>/search</samp> path of a running {@link HttpQueryServer} using a given number 
+ * of concurrent clients. Each client uses persistent (keep-alive) connections, and waits for an answer before 
+ * submitting the next query (i.e., this is a closed-loop generator: the offered load is determined by the number of clients). 
+ * At the end, the throughput, the latency percentiles of successful requests and the number of requests rejected 
+ * because of admission control (status 503) or deadlines (status 504) are logged.
+ * 
+ * @since 5.4.4
+ */
+
+public class HttpQueryLoadGenerator {
+	private static final Logger LOGGER = LoggerFactory.getLogger( HttpQueryLoadGenerator.class );
+
+	private HttpQueryLoadGenerator() {}
+
+	/** Submits a request and consumes the answer completely, so that the connection can be reused.
+	 * 
+	 * @param url the URL of the request.
+	 * @param buffer a buffer used to consume the answer.
+	 * @return the status of the answer.
+	 */
+	private static int submit( final URL url, final byte[] buffer ) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		final int status = connection.getResponseCode();
+		final InputStream is = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if ( is != null ) {
+			while( is.read( buffer ) != -1 );
+			is.close();
+		}
+		return status;
+	}
+	
+	public static void main( final String[] arg ) throws Exception {
+		SimpleJSAP jsap = new SimpleJSAP( HttpQueryLoadGenerator.class.getName(), "Replays a query log against the JSON interface of an HTTP query server.",
+				new Parameter[] {
+					new FlaggedOption( "url", JSAP.STRING_PARSER, "http://localhost:4242/search", JSAP.NOT_REQUIRED, 'u', "url", "The URL of the search servlet." ),
+					new FlaggedOption( "clients", JSAP.INTEGER_PARSER, "16", JSAP.NOT_REQUIRED, 'c', "clients", "The number of concurrent clients." ),
+					new FlaggedOption( "requests", JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'n', "requests", "The overall number of requests (default: the number of queries in the log)." ),
+					new FlaggedOption( "results", JSAP.INTEGER_PARSER, "10", JSAP.NOT_REQUIRED, 'm', "results", "The number of results requested for each query." ),
+					new FlaggedOption( "deadline", JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'd', "deadline", "The deadline in milliseconds for each request (default: the server default)." ),
+					new FlaggedOption( "encoding", JSAP.STRING_PARSER, "UTF-8", JSAP.NOT_REQUIRED, 'e', "encoding", "The encoding of the query log." ),
+					new UnflaggedOption( "log", JSAP.STRING_PARSER, JSAP.REQUIRED, "A file containing one query per line." )
+			});
+
+		final JSAPResult jsapResult = jsap.parse( arg );
+		if ( jsap.messagePrinted() ) return;
+
+		// Keep-alive is the default, but we want to be sure
+		System.setProperty( "http.keepAlive", "true" );
+		System.setProperty( "http.maxConnections", Integer.toString( jsapResult.getInt( "clients" ) ) );
+
+		final ObjectArrayList<String> queries = new ObjectArrayList<String>();
+		for( MutableString line: new FileLinesCollection( jsapResult.getString( "log" ), jsapResult.getString( "encoding" ) ) ) {
+			if ( line.trim().length() != 0 ) queries.add( line.toString() );
+		}
+		if ( queries.isEmpty() ) throw new IllegalArgumentException( "The query log is empty" );
+
+		final String url = jsapResult.getString( "url" ) + "?m=" + jsapResult.getInt( "results" ) + ( jsapResult.userSpecified( "deadline" ) ? "&d=" + jsapResult.getInt( "deadline" ) : "" ) + "&q=";
+		final int requests = jsapResult.userSpecified( "requests" ) ? jsapResult.getInt( "requests" ) : queries.size();
+		final int clients = jsapResult.getInt( "clients" );
+		final long[] latency = new long[ requests ];
+		final int[] status = new int[ requests ];
+		final AtomicInteger next = new AtomicInteger();
+
+		final Thread[] thread = new Thread[ clients ];
+		for( int i = 0; i < clients; i++ ) {
+			thread[ i ] = new Thread( "HttpQueryLoadGenerator-" + i ) {
+				public void run() {
+					final byte[] buffer = new byte[ FastBufferedInputStream.DEFAULT_BUFFER_SIZE ];
+					for( int r; ( r = next.getAndIncrement() ) < requests; ) {
+						long time = - System.nanoTime();
+						try {
+							status[ r ] = submit( new URL( url + URLEncoder.encode( queries.get( r % queries.size() ), "UTF-8" ) ), buffer );
+						}
+						catch( IOException e ) {
+							LOGGER.warn( "Request " + r + " failed", e );
+							status[ r ] = -1;
+						}
+						latency[ r ] = time + System.nanoTime();
+					}
+				}
+			};
+		}
+
+		long time = - System.nanoTime();
+		for( Thread t: thread ) t.start();
+		for( Thread t: thread ) t.join();
+		time += System.nanoTime();
+
+		int ok = 0, rejected = 0, expired = 0, failed = 0;
+		final long[] okLatency = new long[ requests ];
+		for( int r = 0; r < requests; r++ ) {
+			switch( status[ r ] ) {
+			case HttpURLConnection.HTTP_OK: okLatency[ ok++ ] = latency[ r ]; break;
+			case HttpURLConnection.HTTP_UNAVAILABLE: rejected++; break;
+			case HttpURLConnection.HTTP_GATEWAY_TIMEOUT: expired++; break;
+			default: failed++;
+			}
+		}
+		Arrays.sort( okLatency, 0, ok );
+
+		LOGGER.info( "Requests: " + requests + "; successful: " + ok + "; rejected: " + rejected + "; expired: " + expired + "; failed: " + failed );
+		LOGGER.info( "Elapsed time: " + time / 1000000 + " ms; throughput: " + ( requests * 1E9 / time ) + " requests/s" );
+		if ( ok != 0 ) LOGGER.info( "Latency (ms): 50%: " + percentile( okLatency, ok, .5 ) + "; 90%: " + percentile( okLatency, ok, .9 ) + "; 99%: " + percentile( okLatency, ok, .99 ) + "; 99.9%: " + percentile( okLatency, ok, .999 ) + "; max: " + okLatency[ ok - 1 ] / 1E6 );
+	}
+
+	/** Returns a percentile of a sorted array of nanosecond latencies, in milliseconds.
+	 * 
+	 * @param latency a sorted array of latencies in nanoseconds.
+	 * @param n the number of valid elements in <code>latency</code>.
+	 * @param p the percentile, between 0 and 1.
+	 * @return the percentile, in milliseconds.
+	 */
+	private static double percentile( final long[] latency, final int n, final double p ) {
+		return latency[ Math.max( 0, Math.min( n - 1, (int)Math.ceil( p * n ) - 1 ) ) ] / 1E6;
+	}
+}
@@ -28,9 +28,10 @@ import org.apache.commons.collections.ExtendedProperties;
 import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
 import org.apache.velocity.runtime.resource.loader.FileResourceLoader;
 import org.mortbay.jetty.Server;
-import org.mortbay.jetty.bio.SocketConnector;
+import org.mortbay.jetty.nio.SelectChannelConnector;
 import org.mortbay.jetty.handler.ContextHandler;
 import org.mortbay.jetty.servlet.ServletHandler;
+import org.mortbay.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +46,21 @@ import org.slf4j.LoggerFactory;
  * the path <samp>/Query</samp>. A servlet displaying single documents from the collection
  * is deployed under the path <samp>/Item</samp>. The server and the servlet are fully multithreaded.
  * 
+ * <p>Programmatic access is provided by a {@link it.unimi.di.big.mg4j.query.JsonQueryServlet} deployed
+ * under the paths <samp>/search</samp> and <samp>/suggest</samp>. The JSON servlet does not copy the query engine
+ * for each request: rather, it uses a {@link QueryEnginePool} containing a given number of copies. 
+ * The server uses non-blocking I/O, so that idle persistent (keep-alive) connections do not occupy a thread, and a bounded
+ * thread pool large enough to let the pool of query engines enforce its limits; 
+ * the number of requests waiting for a query engine is bounded, and requests exceeding the bound, or
+ * waiting for more than a deadline, are rejected immediately, so that under excessive load clients see errors 
+ * rather than unbounded latency. Queries whose evaluation takes longer than the deadline return
+ * the best results found so far (see {@link QueryEngine#timeout}). 
+ * 
+ * <p>If the query engine has a {@linkplain QueryEngine#metrics metrics registry} (e.g., if you started {@link Query} with
+ * the option <samp>--metrics</samp>), the registry, which is shared by the copies of the engine, is exposed in Prometheus text format under the path <samp>/metrics</samp> 
+ * (see {@link MetricsServlet}). The server never enables metrics by itself, as recording them makes query evaluation slightly slower. 
+ * You can replay a query log against the server using {@link HttpQueryLoadGenerator}.
+ * 
  * <p>If you want to start this server from the command line, you must use the
  * main method of {@link it.unimi.di.big.mg4j.query.Query}, providing the suitable option. 
  * Changes to the {@link it.unimi.di.big.mg4j.query.QueryEngine} made through the text interface will
@@ -57,6 +73,16 @@ public class HttpQueryServer {
 	private static final Logger LOGGER = LoggerFactory.getLogger( HttpQueryServer.class );
 	/** The underlying Jetty server. Access to this field is useful to tune or stop the server. */
 	public final Server server;
+	/** The pool of query engines used by the JSON servlet. */
+	public final QueryEnginePool queryEnginePool;
+	/** The default number of threads. */
+	public static final int DEFAULT_THREADS = 16;
+	/** The default maximum number of requests waiting for a query engine. */
+	public static final int DEFAULT_MAX_QUEUED = 64;
+	/** The default deadline, in milliseconds, for answering a JSON request. */
+	public static final long DEFAULT_DEADLINE = 1000;
+	/** The maximum idle time, in milliseconds, of a persistent connection. */
+	public static final int MAX_IDLE_TIME = 30000;
 	
 	/** Sets the given extended properties so that velocity finds its files either
 	 * by classpath, or by absolute filename, or by relative filename. 
@@ -97,20 +123,54 @@ public class HttpQueryServer {
 	 * @param titleList an optional list of titles for all documents, or <code>null</code>.
 	 */
 	public HttpQueryServer( final QueryEngine queryEngine, final DocumentCollection collection, final Class<? extends HttpServlet> itemClass, final String itemMimeType, final int port, final BigList<? extends CharSequence> titleList ) throws Exception {
+		this( queryEngine, collection, itemClass, itemMimeType, port, titleList, DEFAULT_THREADS, DEFAULT_MAX_QUEUED, DEFAULT_DEADLINE );
+	}
+
+	/** Creates a new HTTP query server with given load limits.
+	 * 
+	 * @param queryEngine the query engine that will be used (actually, {@linkplain QueryEngine#copy() copied}) by the
+	 * servlets run by this query server.
+	 * @param collection the document collection (related to the indices contained in <code>queryEngine</code>) that
+	 * will be used to display documents.
+	 * @param itemClass a class implementing an {@link javax.servlet.http.HttpServlet} and responsible
+	 * for displaying documents (see, e.g., {@link GenericItem}.
+	 * @param itemMimeType the default MIME type of a displayed item.
+	 * @param port the port exposing the server.
+	 * @param titleList an optional list of titles for all documents, or <code>null</code>.
+	 * @param threads the number of copies of <code>queryEngine</code> used by the JSON servlet; the server will use 
+	 * at most twice this number of threads, plus <code>maxQueued</code>, to answer requests.
+	 * @param maxQueued the maximum number of JSON requests waiting for a query engine.
+	 * @param deadline the default maximum time, in milliseconds, for answering a JSON request (waiting for a query engine included).
+	 */
+	public HttpQueryServer( final QueryEngine queryEngine, final DocumentCollection collection, final Class<? extends HttpServlet> itemClass, final String itemMimeType, final int port, final BigList<? extends CharSequence> titleList, final int threads, final int maxQueued, final long deadline ) throws Exception {
 
 		LOGGER.debug( "itemClass: " + itemClass );
 		LOGGER.debug( "itemMimeType: " + itemMimeType );
 		LOGGER.debug( "queryEngine: " + queryEngine );
 		LOGGER.debug( "port: " + port );
+		LOGGER.debug( "threads: " + threads );
+		LOGGER.debug( "maxQueued: " + maxQueued );
+		LOGGER.debug( "deadline: " + deadline );
 
 		// Create the server
 		server = new Server();
 
-		// Create a port listener
-		SocketConnector connector = new SocketConnector();
+		// Create a non-blocking port listener, so that idle keep-alive connections do not hold threads
+		SelectChannelConnector connector = new SelectChannelConnector();
 		connector.setPort( port );
+		connector.setMaxIdleTime( MAX_IDLE_TIME );
+		connector.setAcceptQueueSize( threads + maxQueued );
 		server.addConnector( connector );
 
+		/* A bounded thread pool. Besides a thread for each acceptor/selector, we need a thread for each request using 
+		 * or waiting for a query engine, and some spare threads so that requests exceeding the limits of the pool
+		 * of query engines (and requests to other servlets) can be answered immediately, instead of waiting in Jetty's queue. */
+		QueuedThreadPool threadPool = new QueuedThreadPool();
+		threadPool.setMaxThreads( 2 * threads + maxQueued + connector.getAcceptors() );
+		threadPool.setMinThreads( Math.min( 2, threads ) + connector.getAcceptors() );
+		threadPool.setName( "HttpQueryServer" );
+		server.setThreadPool( threadPool );
+
 		// Create a context 
 		ContextHandler contextHandler = new ContextHandler();
 		contextHandler.setContextPath( "" );
@@ -121,6 +181,10 @@ public class HttpQueryServer {
 		contextHandler.addHandler( servlets );
 
 		contextHandler.setAttribute( "queryEngine", queryEngine );
+		queryEnginePool = new QueryEnginePool( queryEngine, threads, maxQueued );
+		contextHandler.setAttribute( "queryEnginePool", queryEnginePool );
+		contextHandler.setAttribute( "deadline", Long.valueOf( deadline ) );
+		contextHandler.setAttribute( "maxStart", Integer.getInteger( "it.unimi.di.big.mg4j.query.JsonQueryServlet.maxStart", JsonQueryServlet.DEFAULT_MAX_START ) );
 		contextHandler.setAttribute( "collection", collection );
 		contextHandler.setAttribute( "titleList", titleList );
 		contextHandler.setAttribute( "action", "/Query" );
@@ -130,6 +194,9 @@ public class HttpQueryServer {
 		// Maps the main servlet onto the container.
 		servlets.addServletWithMapping( QueryServlet.class, "/Query" );
 		servlets.addServletWithMapping( HelpPage.class, "/Help" );
+		servlets.addServletWithMapping( JsonQueryServlet.class, "/search" );
+		servlets.addServletWithMapping( JsonQueryServlet.class, "/suggest" );
+		servlets.addServletWithMapping( MetricsServlet.class, "/metrics" );
 		
 		/* If an item servlet was specified, we link it to /Item. Otherwise,
 		 * we inform the query servlet that it should generate direct URIs. */
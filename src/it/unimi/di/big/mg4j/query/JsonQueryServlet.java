@@ -0,0 +1,310 @@
+package it.unimi.di.big.mg4j.query;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.query.parser.QueryParserException;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.dsi.fastutil.BigList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.util.LongInterval;
+import it.unimi.dsi.util.LongIntervals;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A servlet answering queries and suggesting terms in JSON format.
+ * 
+ * <p>This servlet is meant for programmatic access: it does not generate any HTML, and
+ * it is mapped by {@link HttpQueryServer} under the paths <samp>/search</samp> and <samp>/suggest</samp>. 
+ * Queries are answered by copies of the query engine taken from a {@link QueryEnginePool}
+ * (which must be available as the context attribute <samp>queryEnginePool</samp>), so no copy
+ * is performed on a per-request basis.
+ * 
+ * <p>Requests to <samp>/search</samp> accept the following parameters:
+ * <ul>
+ * <li><samp>q</samp>: the query (compulsory);
+ * <li><samp>s</samp>: the rank of the first result (default: 0; at most the value of the context attribute <samp>maxStart</samp>, which 
+ * {@link HttpQueryServer} sets from the system property <samp>it.unimi.di.big.mg4j.query.JsonQueryServlet.maxStart</samp>, 
+ * or {@link #DEFAULT_MAX_START}; larger values are rejected with status 400, as evaluation allocates memory proportional to the rank of the last result);
+ * <li><samp>m</samp>: the number of results (default: 10);
+ * <li><samp>d</samp>: the deadline, in milliseconds, for answering the query (default: the deadline of the server).
+ * </ul>
+ * 
+ * <p>The deadline covers both the time spent waiting for a query engine and the time spent evaluating the query: in
+ * the latter case, when the deadline expires evaluation is stopped and the best results found so far are returned 
+ * (see {@link QueryEngine#timeout}). 
+ * 
+ * <p>The answer is a JSON object with fields <samp>query</samp>, <samp>count</samp> (the number of results, or -1 if unknown, as it happens when <samp>truncated</samp> is true), 
+ * <samp>start</samp>, <samp>results</samp> (an array of objects with fields <samp>document</samp>, <samp>score</samp> and,
+ * if the server has a title list, <samp>title</samp>), <samp>truncated</samp> (whether the
+ * deadline expired during evaluation) and <samp>time</samp> (in milliseconds). 
+ * 
+ * <p>Requests to <samp>/suggest</samp> accept a prefix <samp>p</samp>, an optional index alias <samp>i</samp> (default: the
+ * default index) and a maximum number of suggestions <samp>m</samp> (default: 10), and return a JSON object with fields
+ * <samp>prefix</samp>, <samp>count</samp> (the number of terms starting with the prefix) and <samp>terms</samp> (the first terms
+ * in lexicographical order starting with the prefix). Suggestions require an index with a {@linkplain Index#prefixMap prefix map}.
+ * 
+ * <p>Errors are returned as a JSON object with a field <samp>error</samp>. If the number of requests waiting for a query engine
+ * exceeds the limit set in the pool, the servlet answers immediately with status 503 (Service Unavailable) and a <samp>Retry-After</samp>
+ * header; if no query engine becomes available before the deadline, the servlet answers with status 504 (Gateway Timeout). 
+ * 
+ * @since 5.4.4
+ */
+
+public class JsonQueryServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final Logger LOGGER = LoggerFactory.getLogger( JsonQueryServlet.class );
+	/** The default number of results or suggestions. */
+	public static final int DEFAULT_NUMBER_OF_ITEMS = 10;
+	/** The maximum number of results or suggestions. */
+	public static final int MAX_NUMBER_OF_ITEMS = 1000;
+	/** The default maximum rank of the first result. */
+	public static final int DEFAULT_MAX_START = 10000;
+	/** The number of seconds suggested to clients in the <samp>Retry-After</samp> header of rejected requests. */
+	public static final int RETRY_AFTER = 1;
+	
+	/** The pool of query engines. */
+	protected QueryEnginePool queryEnginePool;
+	/** An optional title list, or <code>null</code>. */
+	protected BigList<? extends CharSequence> titleList;
+	/** The default deadline, in milliseconds. */
+	protected long deadline;
+	/** The query engine underlying the pool (used only to access indices and metrics). */
+	protected QueryEngine queryEngine;
+	/** The maximum rank of the first result. */
+	protected int maxStart;
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		final ServletContext context = getServletContext();
+		queryEnginePool = (QueryEnginePool)context.getAttribute( "queryEnginePool" );
+		if ( queryEnginePool == null ) throw new ServletException( "No query engine pool available" );
+		queryEngine = (QueryEngine)context.getAttribute( "queryEngine" );
+		titleList = (BigList<? extends CharSequence>)context.getAttribute( "titleList" );
+		final Long d = (Long)context.getAttribute( "deadline" );
+		deadline = d == null ? HttpQueryServer.DEFAULT_DEADLINE : d.longValue();
+		final Integer m = (Integer)context.getAttribute( "maxStart" );
+		maxStart = m == null ? DEFAULT_MAX_START : m.intValue();
+	}
+
+	private static int intParameter( final HttpServletRequest request, final String name, final int defaultValue ) {
+		final String value = request.getParameter( name );
+		if ( value == null ) return defaultValue;
+		try {
+			return Integer.parseInt( value );
+		}
+		catch( NumberFormatException e ) {
+			return defaultValue;
+		}
+	}
+
+	@Override
+	protected void doGet( final HttpServletRequest request, final HttpServletResponse response ) throws ServletException, IOException {
+		response.setCharacterEncoding( "UTF-8" );
+		response.setContentType( "application/json" );
+		if ( "/suggest".equals( request.getServletPath() ) ) suggest( request, response );
+		else search( request, response );
+	}
+
+	private void search( final HttpServletRequest request, final HttpServletResponse response ) throws IOException {
+		final String query = request.getParameter( "q" );
+		if ( query == null || query.trim().length() == 0 ) {
+			error( response, HttpServletResponse.SC_BAD_REQUEST, "Missing query" );
+			return;
+		}
+		final int start = Math.max( 0, intParameter( request, "s", 0 ) );
+		if ( start > maxStart ) {
+			error( response, HttpServletResponse.SC_BAD_REQUEST, "The rank of the first result cannot exceed " + maxStart );
+			return;
+		}
+		final int length = Math.min( MAX_NUMBER_OF_ITEMS, Math.max( 0, intParameter( request, "m", DEFAULT_NUMBER_OF_ITEMS ) ) );
+		final long deadline = Math.max( 0, intParameter( request, "d", (int)Math.min( Integer.MAX_VALUE, this.deadline ) ) );
+
+		long time = - System.currentTimeMillis();
+		final QueryEngine engine;
+		try {
+			engine = queryEnginePool.acquire( deadline, TimeUnit.MILLISECONDS );
+		}
+		catch( RejectedExecutionException e ) {
+			if ( queryEngine.metrics != null ) queryEngine.metrics.rejected();
+			response.setHeader( "Retry-After", Integer.toString( RETRY_AFTER ) );
+			error( response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage() );
+			return;
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			error( response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted" );
+			return;
+		}
+		if ( engine == null ) {
+			if ( queryEngine.metrics != null ) queryEngine.metrics.expired();
+			error( response, HttpServletResponse.SC_GATEWAY_TIMEOUT, "No query engine available within " + deadline + " ms" );
+			return;
+		}
+
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		final int count;
+		final boolean truncated;
+		try {
+			// The copy is ours until released, so we can set its timeout to what is left of the deadline
+			engine.timeout = Math.max( 1, deadline - ( time + System.currentTimeMillis() ) );
+			count = engine.process( query, start, length, results );
+			truncated = engine.truncated();
+		}
+		catch( QueryParserException e ) {
+			error( response, HttpServletResponse.SC_BAD_REQUEST, String.valueOf( e.getCause() != null ? e.getCause() : e ) );
+			return;
+		}
+		catch( QueryBuilderVisitorException e ) {
+			error( response, HttpServletResponse.SC_BAD_REQUEST, String.valueOf( e.getCause() != null ? e.getCause() : e ) );
+			return;
+		}
+		catch( RuntimeException e ) {
+			LOGGER.error( "Exception while answering query " + query, e );
+			error( response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString() );
+			return;
+		}
+		finally {
+			queryEnginePool.release( engine );
+		}
+		time += System.currentTimeMillis();
+
+		final StringBuilder s = new StringBuilder();
+		s.append( "{\"query\":" );
+		quote( query, s );
+		// A truncated evaluation has seen just part of the results, so their number is unknown
+		s.append( ",\"count\":" ).append( truncated ? -1 : count ).append( ",\"start\":" ).append( start ).append( ",\"results\":[" );
+		for( int i = 0; i < results.size(); i++ ) {
+			final DocumentScoreInfo<?> dsi = results.get( i );
+			if ( i != 0 ) s.append( ',' );
+			s.append( "{\"document\":" ).append( dsi.document ).append( ",\"score\":" );
+			if ( Double.isNaN( dsi.score ) || Double.isInfinite( dsi.score ) ) s.append( "null" );
+			else s.append( dsi.score );
+			if ( titleList != null ) {
+				s.append( ",\"title\":" );
+				quote( titleList.get( dsi.document ), s );
+			}
+			s.append( '}' );
+		}
+		s.append( "],\"truncated\":" ).append( truncated ).append( ",\"time\":" ).append( time ).append( '}' );
+		write( response, s );
+	}
+
+	private void suggest( final HttpServletRequest request, final HttpServletResponse response ) throws IOException {
+		final String prefix = request.getParameter( "p" );
+		if ( prefix == null ) {
+			error( response, HttpServletResponse.SC_BAD_REQUEST, "Missing prefix" );
+			return;
+		}
+		final String alias = request.getParameter( "i" );
+		final Index index = alias != null ? queryEngine.indexMap.get( alias ) : queryEngine.indexMap.values().iterator().next();
+		if ( index == null ) {
+			error( response, HttpServletResponse.SC_BAD_REQUEST, "Unknown index " + alias );
+			return;
+		}
+		if ( index.prefixMap == null ) {
+			error( response, HttpServletResponse.SC_NOT_IMPLEMENTED, "Index " + index.field + " does not provide a prefix map" );
+			return;
+		}
+		final int max = Math.min( MAX_NUMBER_OF_ITEMS, Math.max( 0, intParameter( request, "m", DEFAULT_NUMBER_OF_ITEMS ) ) );
+		final StringBuilder s = new StringBuilder();
+		s.append( "{\"prefix\":" );
+		quote( prefix, s );
+		// Prefix maps based on external storage are not guaranteed to be thread safe
+		synchronized( index.prefixMap ) {
+			final LongInterval interval = index.prefixMap.rangeMap().get( prefix );
+			s.append( ",\"count\":" ).append( interval == LongIntervals.EMPTY_INTERVAL ? 0 : interval.length() ).append( ",\"terms\":[" );
+			if ( interval != LongIntervals.EMPTY_INTERVAL ) {
+				final long end = Math.min( interval.right + 1, interval.left + max );
+				for( long t = interval.left; t < end; t++ ) {
+					if ( t != interval.left ) s.append( ',' );
+					quote( index.prefixMap.list().get( t ), s );
+				}
+			}
+		}
+		s.append( "]}" );
+		write( response, s );
+	}
+
+	private static void write( final HttpServletResponse response, final CharSequence s ) throws IOException {
+		final PrintWriter writer = response.getWriter();
+		writer.append( s );
+		writer.flush();
+	}
+
+	private static void error( final HttpServletResponse response, final int status, final String message ) throws IOException {
+		response.setStatus( status );
+		final StringBuilder s = new StringBuilder();
+		s.append( "{\"error\":" );
+		quote( message, s );
+		s.append( '}' );
+		write( response, s );
+	}
+
+	/** Appends to a string builder a character sequence as a JSON string literal.
+	 * 
+	 * @param c a character sequence, or <code>null</code>.
+	 * @param s a string builder.
+	 * @return <code>s</code>.
+	 */
+	public static StringBuilder quote( final CharSequence c, final StringBuilder s ) {
+		if ( c == null ) return s.append( "null" );
+		s.append( '"' );
+		final int length = c.length();
+		for( int i = 0; i < length; i++ ) {
+			final char ch = c.charAt( i );
+			switch( ch ) {
+			case '"': s.append( "\\\"" ); break;
+			case '\\': s.append( "\\\\" ); break;
+			case '\n': s.append( "\\n" ); break;
+			case '\r': s.append( "\\r" ); break;
+			case '\t': s.append( "\\t" ); break;
+			case '\b': s.append( "\\b" ); break;
+			case '\f': s.append( "\\f" ); break;
+			default:
+				if ( ch < 0x20 || ch == '\u2028' || ch == '\u2029' ) {
+					s.append( "\\u" );
+					final String hex = Integer.toHexString( ch );
+					for( int j = hex.length(); j < 4; j++ ) s.append( '0' );
+					s.append( hex );
+				}
+				else s.append( ch );
+			}
+		}
+		return s.append( '"' );
+	}
+}
@@ -0,0 +1,67 @@
+package it.unimi.di.big.mg4j.query;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** A servlet exposing {@linkplain QueryMetrics query metrics} in Prometheus text exposition format.
+ * 
+ * <p>The metrics are those of the query engine available as the context attribute <samp>queryEngine</samp>. If
+ * the engine has no {@linkplain QueryEngine#metrics metrics registry}, the servlet answers with status 404 (Not Found).
+ * 
+ * @since 5.4.4
+ */
+
+public class MetricsServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	/** The content type of the Prometheus text exposition format. */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+	
+	/** The query engine whose metrics will be exposed. */
+	protected QueryEngine queryEngine;
+
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		queryEngine = (QueryEngine)getServletContext().getAttribute( "queryEngine" );
+	}
+
+	@Override
+	protected void doGet( final HttpServletRequest request, final HttpServletResponse response ) throws ServletException, IOException {
+		final QueryMetrics metrics = queryEngine.metrics;
+		if ( metrics == null ) {
+			response.sendError( HttpServletResponse.SC_NOT_FOUND, "Metrics are not enabled" );
+			return;
+		}
+		response.setContentType( CONTENT_TYPE );
+		final StringBuilder s = new StringBuilder();
+		metrics.writePrometheus( s );
+		final PrintWriter writer = response.getWriter();
+		writer.append( s );
+		writer.flush();
+	}
+}
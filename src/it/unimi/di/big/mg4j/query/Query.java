@@ -24,6 +24,7 @@ import it.unimi.di.big.mg4j.document.AbstractDocumentSequence;
 import it.unimi.di.big.mg4j.document.Document;
 import it.unimi.di.big.mg4j.document.DocumentCollection;
 import it.unimi.di.big.mg4j.document.DocumentFactory;
+import it.unimi.di.big.mg4j.document.ForwardIndex;
 import it.unimi.di.big.mg4j.index.Index;
 import it.unimi.di.big.mg4j.index.TermProcessor;
 import it.unimi.di.big.mg4j.query.nodes.QueryTransformer;
@@ -111,6 +112,7 @@ public class Query {
 		DIVERT,
 		WEIGHT,
 		EQUALIZE,
+		BUDGET,
 		QUIT
 	}
 	
@@ -232,6 +234,7 @@ public class Query {
 			System.err.println( "$equalize <sample>                                      equalize scores using the given sample size." );
 			System.err.println( "$score {<scorerClass>(<arg>,...)[:<weight>]}            order documents according to <scorerClass>." );
 			System.err.println( "$expand {<expanderClass>(<arg>,...)}                    expand terms and prefixes according to <expanderClass>." );
+			System.err.println( "$budget <ms> [<postings>]                               limit evaluation time and postings (0 for no limit)." );
 			System.err.println( "$quit                                                   quits." );
 			return true;
 		}
@@ -399,6 +402,19 @@ public class Query {
 			}
 			break;
 		
+		case BUDGET:
+			try {
+				if ( part.length < 2 || part.length > 3 ) throw new NumberFormatException( "Illegal number of arguments" );
+				final long timeout = Long.parseLong( part[ 1 ] ), maxPostings = part.length == 3 ? Long.parseLong( part[ 2 ] ) : 0;
+				if ( timeout < 0 || maxPostings < 0 ) throw new NumberFormatException( "Negative budget" );
+				queryEngine.timeout = timeout;
+				queryEngine.maxPostings = maxPostings;
+				System.err.println( "Budget set to " + ( timeout == 0 ? "unlimited time" : timeout + " ms" ) + " and " + ( maxPostings == 0 ? "unlimited postings" : maxPostings + " postings" ) );
+			} catch ( NumberFormatException e ) {
+				System.err.println( e.getMessage() );
+			}
+			break;
+
 		case QUIT:
 			return false;
 		}
@@ -463,12 +479,20 @@ public class Query {
 							else { // SNIPPET_MODE
 								final MarkingMutableString s = new MarkingMutableString( marker );
 								s.startField( interval );
-								// TODO: this must be in increasing field order
-								if ( d == null ) d = documentCollection.document( document );
 								int fieldIndex = documentCollection.factory().fieldIndex( index.field );
 								if ( fieldIndex == -1 || documentCollection.factory().fieldType( fieldIndex ) != DocumentFactory.FieldType.TEXT ) continue;
-								final Reader reader = (Reader)d.content( fieldIndex );
-								s.appendAndMark( d.wordReader( fieldIndex ).setReader( reader ) );
+								if ( documentCollection instanceof ForwardIndex ) {
+									// No need to parse again the document; the forward index invalidates the current document, though.
+									if ( d != null ) d.close();
+									d = null;
+									s.appendAndMark( ((ForwardIndex)documentCollection).wordReader( document, fieldIndex ) );
+								}
+								else {
+									// TODO: this must be in increasing field order
+									if ( d == null ) d = documentCollection.document( document );
+									final Reader reader = (Reader)d.content( fieldIndex );
+									s.appendAndMark( d.wordReader( fieldIndex ).setReader( reader ) );
+								}
 								s.endField();
 								output.println( index.field + ": " + s.toString() );
 							}
@@ -501,9 +525,15 @@ public class Query {
 					new Switch( "noSizes", 'n', "no-sizes", "Disable loading document sizes (they are necessary for BM25 scoring)." ),
 					new Switch( "http", 'h', "http", "Starts an HTTP query server." ),
 					new Switch( "verbose", 'v', "verbose", "Print full exception stack traces." ),
+					new Switch( "metrics", JSAP.NO_SHORTFLAG, "metrics", "Record query metrics (the HTTP server exposes them under /metrics)." ),
+					new Switch( "jmx", JSAP.NO_SHORTFLAG, "jmx", "Record query metrics and register them as a JMX MBean." ),
+					new Switch( "singlePass", JSAP.NO_SHORTFLAG, "single-pass", "Select intervals while scoring, rather than in a second pass." ),
 					new FlaggedOption( "itemClass", MG4JClassParser.getParser(), JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'i', "item-class", "The class that will handle item display in the HTTP server." ),
 					new FlaggedOption( "itemMimeType", JSAP.STRING_PARSER, "text/html", JSAP.NOT_REQUIRED, 'm', "item-mime-type", "A MIME type suggested to the class handling item display in the HTTP server." ),
 					new FlaggedOption( "port", JSAP.INTEGER_PARSER, "4242", JSAP.NOT_REQUIRED, 'p', "port", "The port on localhost where the server will appear." ),
+					new FlaggedOption( "threads", JSAP.INTEGER_PARSER, Integer.toString( HttpQueryServer.DEFAULT_THREADS ), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "threads", "The maximum number of threads of the HTTP server." ),
+					new FlaggedOption( "maxQueued", JSAP.INTEGER_PARSER, Integer.toString( HttpQueryServer.DEFAULT_MAX_QUEUED ), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "max-queued", "The maximum number of JSON requests waiting for a query engine in the HTTP server (additional requests will be rejected)." ),
+					new FlaggedOption( "deadline", JSAP.LONG_PARSER, Long.toString( HttpQueryServer.DEFAULT_DEADLINE ), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "deadline", "The default maximum time in milliseconds for answering a JSON request in the HTTP server (partial results are returned if evaluation is not complete)." ),
 					new UnflaggedOption( "basenameWeight", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, JSAP.GREEDY, "The indices that the servlet will use. Indices are specified using their basename, optionally followed by a colon and a double representing the weight used to score results from that index. Indices without a specified weight are weighted 1." )
 			});
 
@@ -547,6 +577,9 @@ public class Query {
 		queryEngine.intervalSelector = documentCollection != null ? new IntervalSelector( 4, 40 ) : new IntervalSelector();
 		queryEngine.multiplex = true;
 		queryEngine.equalize( 1000 );
+		queryEngine.singlePass = jsapResult.getBoolean( "singlePass" );
+		if ( jsapResult.getBoolean( "metrics" ) || jsapResult.getBoolean( "jmx" ) ) queryEngine.metrics = new QueryMetrics();
+		if ( jsapResult.getBoolean( "jmx" ) ) queryEngine.metrics.registerMBean( Query.class.getSimpleName() );
 		
 		Query query = new Query( queryEngine );
 		query.displayMode = OutputType.SNIPPET;
@@ -560,7 +593,7 @@ public class Query {
 		int n;
 		
 		HttpQueryServer httpQueryServer = null;
-		if ( jsapResult.getBoolean( "http" ) ) httpQueryServer = new HttpQueryServer( queryEngine, documentCollection, jsapResult.getClass( "itemClass" ), jsapResult.getString( "itemMimeType" ), jsapResult.getInt( "port" ), titleList );
+		if ( jsapResult.getBoolean( "http" ) ) httpQueryServer = new HttpQueryServer( queryEngine, documentCollection, jsapResult.getClass( "itemClass" ), jsapResult.getString( "itemMimeType" ), jsapResult.getInt( "port" ), titleList, jsapResult.getInt( "threads" ), jsapResult.getInt( "maxQueued" ), jsapResult.getLong( "deadline" ) );
 		try {
 			final BufferedReader br = new BufferedReader( new InputStreamReader( jsapResult.userSpecified( "input" ) ? new FileInputStream( jsapResult.getString( "input") ) : System.in ) );
 			final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
@@ -596,7 +629,7 @@ public class Query {
 				
 				time += System.nanoTime();
 				query.output( results, documentCollection, titleList, TextMarker.TEXT_BOLDFACE );				
-				System.err.println( results.size() + " results; " + n + " documents examined; " + time / 1000000. + " ms; " + Util.format( ( n * 1000000000.0 ) / time ) + " documents/s, " + Util.format( time / (double)n ) + " ns/document" );
+				System.err.println( results.size() + " results; " + n + " documents examined; " + time / 1000000. + " ms; " + Util.format( ( n * 1000000000.0 ) / time ) + " documents/s, " + Util.format( time / (double)n ) + " ns/document" + ( queryEngine.truncated() ? " (truncated: budget exceeded)" : "" ) );
 			}
 			
 		}
@@ -28,12 +28,18 @@ import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
 import it.unimi.di.big.mg4j.query.nodes.QueryTransformer;
 import it.unimi.di.big.mg4j.query.parser.QueryParser;
 import it.unimi.di.big.mg4j.query.parser.QueryParserException;
+import it.unimi.di.big.mg4j.search.CachingDocumentIterator;
 import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIterators;
+import it.unimi.di.big.mg4j.search.QueryBudget;
+import it.unimi.di.big.mg4j.search.QueryBudgetExceededException;
+import it.unimi.di.big.mg4j.search.facet.Facet;
 import it.unimi.di.big.mg4j.search.score.AbstractAggregator;
 import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
 import it.unimi.di.big.mg4j.search.score.LinearAggregator;
 import it.unimi.di.big.mg4j.search.score.ScoredDocumentBoundedSizeQueue;
 import it.unimi.di.big.mg4j.search.score.Scorer;
+import it.unimi.di.big.mg4j.search.visitor.QueryBudgetSetupVisitor;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.Object2ReferenceMap;
@@ -49,6 +55,7 @@ import it.unimi.dsi.lang.FlyweightPrototypes;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -84,10 +91,24 @@ import org.slf4j.LoggerFactory;
  * there are selection operators that specify an index, the inner specification will overwrite
  * the external one, so that the semantics of the query is only amplified, but never contradicted.
  * 
+ * <p>{@linkplain it.unimi.di.big.mg4j.search.facet.Facet Facets} can be passed to {@link #process(Query[], int, int, ObjectArrayList, Facet[])}:
+ * they will count all documents satisfying the query, which are enumerated anyway to compute the number of results.
+ * 
+ * <p>The evaluation of a query can be limited by a {@linkplain #timeout time} and {@linkplain #maxPostings postings} budget 
+ * (see {@link QueryBudget}): when the budget is exceeded, evaluation stops cooperatively, the best results found so far are returned,
+ * and {@link #truncated()} returns true. In this case, the number of documents returned by the processing methods
+ * and the facet counts are partial, too.
+ * 
+ * <p>If a {@linkplain #metrics metrics registry} is set, the engine records in it latency, 
+ * phase timings, postings, skips, scored documents and top-<var>k</var> threshold updates for each call to a processing method.
+ * 
  * <p>The results returned are instances of {@link it.unimi.di.big.mg4j.search.score.DocumentScoreInfo}. If
  * an {@linkplain #intervalSelector interval selector} has been set, 
  * the <code>info</code> field will contain a map from indices to arrays of {@linkplain it.unimi.di.big.mg4j.query.SelectedInterval selected intervals}
  * satisfying the query (see {@link it.unimi.di.big.mg4j.search} for some elaboration on minimal-interval semantics support in MG4J). 
+ * By default, intervals are selected after scoring by rebuilding the document iterator and skipping to each result, which
+ * decodes again the posting lists involved; in {@linkplain #singlePass single-pass mode}, instead, intervals are selected during
+ * the scoring pass for each document entering the top-<var>k</var> heap.
  * 
  * <p>For examples of usage of this class, please look at {@link it.unimi.di.big.mg4j.query.Query}
  * and {@link it.unimi.di.big.mg4j.query.QueryServlet}.
@@ -119,6 +140,15 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 	public volatile boolean multiplex;
 	/** The current interval selector, if any. */
 	public volatile IntervalSelector intervalSelector;
+	/** The maximum time in milliseconds spent evaluating the document iterators of a call to a processing method, or 0 for no limit. */
+	public volatile long timeout;
+	/** The maximum number of postings read evaluating the document iterators of a call to a processing method, or 0 for no limit. */
+	public volatile long maxPostings;
+	/** A registry where metrics about query evaluation will be recorded, or <code>null</code> (the default) to disable metrics. */
+	public volatile QueryMetrics metrics;
+	/** Whether intervals are selected during the scoring pass (for each document entering the top-<var>k</var> heap) rather than by a second pass.
+	 * If the scorer {@linkplain Scorer#usesIntervals() uses intervals}, the document iterator is decorated with a {@link CachingDocumentIterator}. */
+	public volatile boolean singlePass;
 
 	/** The current scorer, or {@code null} if no scorer is in use. */
 	private Scorer scorer;
@@ -129,6 +159,16 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 	
 	/** A transformer that will be applied to queries before resolving them, or {@code null}. */
 	private QueryTransformer transformer;
+	/** The visitor used to attach budgets to document iterators. */
+	private final QueryBudgetSetupVisitor queryBudgetSetupVisitor = new QueryBudgetSetupVisitor();
+	/** Whether the last call to a processing method exceeded its budget. */
+	private boolean truncated;
+	/** The time spent parsing the queries that will be processed next, if metrics are enabled. */
+	private long parsingTime;
+	/** The number of documents scored by the current call to a processing method. */
+	private long scored;
+	/** The number of updates of the top-<var>k</var> threshold in the current call to a processing method. */
+	private long thresholdUpdates;
 
 	/** Creates a new query engine.
 	 * 
@@ -151,6 +191,10 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 	public synchronized QueryEngine copy() {
 		final QueryEngine newEngine = new QueryEngine( FlyweightPrototypes.copy( queryParser ), builderVisitor.copy(), indexMap );
 		newEngine.multiplex = multiplex;
+		newEngine.timeout = timeout;
+		newEngine.maxPostings = maxPostings;
+		newEngine.metrics = metrics;
+		newEngine.singlePass = singlePass;
 		newEngine.intervalSelector = FlyweightPrototypes.copy( intervalSelector );
 		newEngine.scorer = FlyweightPrototypes.copy( scorer );
 		newEngine.setWeights( index2Weight );
@@ -205,6 +249,16 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 		this.transformer = transformer;
 	}
 	
+	/** Returns whether the last call to a processing method exceeded the budget set by {@link #timeout} and {@link #maxPostings}.
+	 * 
+	 * <p>If this method returns true, the results of the last call are the best results found before the budget was exceeded.
+	 * 
+	 * @return whether the last call to a processing method was truncated.
+	 */
+	public boolean truncated() {
+		return truncated;
+	}
+	
 
 	/** Sets the index weights.
 	 * 
@@ -254,7 +308,36 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 	 */
 	
 	public int process( final String queries, int offset, final int length, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results ) throws QueryParserException, QueryBuilderVisitorException, IOException {
+		return process( queries, offset, length, results, null );
+	}
+
+	/** Parses one or more comma-separated queries and deposits in a given array a segment of the
+	 * results corresponding to the queries, using the current settings of this query engine, counting
+	 * all documents satisfying the queries in the given facets.
+	 * 
+	 * @param queries one or more queries separated by commas. 
+	 * @param offset the first result to be added to <code>results</code>.
+	 * @param length the number of results to be added to <code>results</code>
+	 * @param results an array list that will hold all results.
+	 * @param facets an array of facets, or <code>null</code>.
+	 * @return the number of relevant documents scanned while filling <code>results</code>.
+	 * @see #process(Query[], int, int, ObjectArrayList, Facet[])
+	 */
+	public int process( final String queries, int offset, final int length, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results, final Facet[] facets ) throws QueryParserException, QueryBuilderVisitorException, IOException {
 		LOGGER.debug( "Processing query \"" + queries + "\", offset=" + offset + ", length="+ length );
+		final QueryMetrics metrics = this.metrics;
+		final long start = metrics != null ? System.nanoTime() : 0;
+		final Query[] query = parse( queries );
+		if ( metrics != null ) parsingTime = System.nanoTime() - start;
+		return process( query, offset, length, results, facets );
+	}
+
+	/** Parses one or more comma-separated queries, applying multiplexing and the current transformer, if any.
+	 * 
+	 * @param queries one or more queries separated by commas. 
+	 * @return the array of parsed queries.
+	 */
+	private Query[] parse( final String queries ) throws QueryParserException, QueryBuilderVisitorException {
 		final String[] part = queries.split( "," );
 		final Query[] partQuery = new Query[ part.length ]; 
 		for( int i = 0; i < part.length; i++ ) {
@@ -262,8 +345,77 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 			partQuery[ i ] = queryParser.parse( q );
 			if ( transformer != null ) partQuery[ i ] = transformer.transform( partQuery[ i ] );
 		}
-		
-		return process( partQuery, offset, length, results );
+		return partQuery;
+	}
+
+	/** Parses one or more comma-separated queries and returns the number of documents satisfying them.
+	 * 
+	 * @param queries one or more queries separated by commas. 
+	 * @return the number of distinct documents satisfying at least one of the queries.
+	 * @see #count(Query[])
+	 */
+	public long count( final String queries ) throws QueryParserException, QueryBuilderVisitorException, IOException {
+		LOGGER.debug( "Counting query \"" + queries + "\"" );
+		return count( parse( queries ) );
+	}
+
+	/** Returns the number of documents satisfying one or more pre-parsed queries.
+	 * 
+	 * <p>This method does not score, does not collect results and never enumerates intervals: in the case of a single query, 
+	 * it delegates to {@link DocumentIterators#count(DocumentIterator)}, which answers
+	 * single-term queries using just term frequencies. In the case of multiple queries, documents must
+	 * be deduplicated, so all iterators are scanned.
+	 * 
+	 * @param query an array of queries. 
+	 * @return the number of distinct documents satisfying at least one of the queries.
+	 */
+	public long count( final Query query[] ) throws QueryBuilderVisitorException, IOException {
+		if ( query.length == 1 ) {
+			final DocumentIterator documentIterator = query[ 0 ].accept( builderVisitor.prepare() );
+			final long count = DocumentIterators.count( documentIterator );
+			documentIterator.dispose();
+			return count;
+		}
+
+		final LongSet alreadySeen = new LongOpenHashSet();
+		for( int i = 0; i < query.length; i++ ) {
+			final DocumentIterator documentIterator = query[ i ].accept( builderVisitor.prepare() );
+			for( long document; ( document = documentIterator.nextDocument() ) != END_OF_LIST; ) alreadySeen.add( document );
+			documentIterator.dispose();
+		}
+		return alreadySeen.size();
+	}
+
+	/** Parses one or more comma-separated queries and returns an estimate of the number of documents satisfying them.
+	 * 
+	 * @param queries one or more queries separated by commas. 
+	 * @return an estimate of the number of documents satisfying at least one of the queries.
+	 * @see #estimateCount(Query[])
+	 */
+	public long estimateCount( final String queries ) throws QueryParserException, QueryBuilderVisitorException, IOException {
+		return estimateCount( parse( queries ) );
+	}
+
+	/** Returns an estimate of the number of documents satisfying one or more pre-parsed queries.
+	 * 
+	 * <p>This method does not scan any iterator: it just delegates to {@link DocumentIterators#estimateCount(DocumentIterator)},
+	 * and it is thus suitable to provide an &ldquo;about <var>n</var> results&rdquo; figure even for very large disjunctions. Estimates
+	 * for multiple queries are combined as if they were in disjunction.
+	 * 
+	 * @param query an array of queries. 
+	 * @return an estimate of the number of documents satisfying at least one of the queries.
+	 */
+	public long estimateCount( final Query query[] ) throws QueryBuilderVisitorException, IOException {
+		long estimate = 0, numberOfDocuments = 0;
+		double complement = 1;
+		for( int i = 0; i < query.length; i++ ) {
+			final DocumentIterator documentIterator = query[ i ].accept( builderVisitor.prepare() );
+			numberOfDocuments = documentIterator.indices().iterator().next().numberOfDocuments;
+			estimate = DocumentIterators.estimateCount( documentIterator );
+			documentIterator.dispose();
+			if ( numberOfDocuments != 0 ) complement *= 1 - (double)estimate / numberOfDocuments;
+		}
+		return query.length == 1 ? estimate : Math.round( ( 1 - complement ) * numberOfDocuments );
 	}
 
 	/** Processes one pre-parsed query and deposits in a given array a segment of the
@@ -294,22 +446,70 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 	 * @param results an array list that will hold all results.
 	 * @return the number of documents scanned while filling <code>results</code>.
 	 */
-	@SuppressWarnings("unchecked")
 	public int process( final Query query[], final int offset, final int length, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results ) throws QueryBuilderVisitorException, IOException {
+		return process( query, offset, length, results, null );
+	}
+
+	/** Processes one or more pre-parsed queries and deposits in a given array a segment of the
+	 * results corresponding to the queries, using the current settings of this query engine, counting
+	 * all documents satisfying the queries in the given facets.
+	 * 
+	 * <p>Facets are {@linkplain Facet#collect(long) fed} each document returned by the document iterators
+	 * while they are being consumed to collect results (documents appearing in more than one query are counted once), 
+	 * so no additional pass is necessary. Facets are not {@linkplain Facet#clear() cleared} by this method, so that 
+	 * counts can be accumulated over several calls. Note that when facets are specified, 
+	 * all documents must be enumerated even if no result is requested.
+	 * 
+	 * @param query an array of queries. 
+	 * @param offset the first result to be added to <code>results</code>.
+	 * @param length the number of results to be added to <code>results</code>
+	 * @param results an array list that will hold all results.
+	 * @param facets an array of facets, or <code>null</code>.
+	 * @return the number of documents scanned while filling <code>results</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public int process( final Query query[], final int offset, final int length, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results, final Facet[] facets ) throws QueryBuilderVisitorException, IOException {
 		LOGGER.debug( "Processing Query array \"" + Arrays.toString( query ) + "\", offset=" + offset + ", length="+ length );
 		results.clear();
+		truncated = false;
 		double lastMinScore = 1;
 		int total = 0, count, currOffset = offset, currLength = length;
 		final LongSet alreadySeen = query.length > 1 ? new LongOpenHashSet() : null;
+		final long timeout = this.timeout, maxPostings = this.maxPostings;
+		// Metrics are gathered using an unlimited budget
+		final QueryMetrics metrics = this.metrics;
+		final QueryBudget budget = timeout != 0 || maxPostings != 0 || metrics != null ? new QueryBudget( timeout, TimeUnit.MILLISECONDS, maxPostings ) : null;
+		final long parsingTime = this.parsingTime, start = metrics != null ? System.nanoTime() : 0;
+		long t = start, buildingTime = 0, scoringTime = 0, intervalSelectionTime = 0;
+		this.parsingTime = scored = thresholdUpdates = 0;
 
 		for( int i = 0; i < query.length; i++ ) {
 			final int initialResultSize = results.size();
 			
 			DocumentIterator documentIterator = query[ i ].accept( builderVisitor.prepare() );
+			if ( budget != null ) documentIterator.accept( queryBudgetSetupVisitor.prepare( budget ) );
+			if ( metrics != null ) {
+				final long now = System.nanoTime();
+				buildingTime += now - t;
+				t = now;
+			}
+
+			// Check whether we have intervals and we want intervals.
+			boolean someHavePositions = false;
+			for( Index index: documentIterator.indices() ) someHavePositions |= index.hasPositions;
+			final boolean selectIntervals = someHavePositions && intervalSelector != null;
+			// In single-pass mode, we cache intervals if the scorer is going to consume them.
+			if ( selectIntervals && singlePass && scorer != null && scorer.usesIntervals() ) documentIterator = new CachingDocumentIterator( documentIterator );
+			final boolean capture = selectIntervals && singlePass;
 			
 			count = scorer != null? 
-					getScoredResults( documentIterator, currOffset, currLength, lastMinScore, results, alreadySeen ) :
-						getResults( documentIterator, currOffset, currLength, results, alreadySeen );
+					getScoredResults( documentIterator, currOffset, currLength, lastMinScore, results, alreadySeen, facets, budget, capture ) :
+						getResults( documentIterator, currOffset, currLength, results, alreadySeen, facets, budget, capture );
+			if ( metrics != null ) {
+				final long now = System.nanoTime();
+				scoringTime += now - t;
+				t = now;
+			}
 					
 			documentIterator.dispose();
 			if ( results.size() > 0 ) lastMinScore = results.get( results.size() - 1 ).score;
@@ -322,11 +522,8 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 				currOffset = 0;
 			}
 
-			// Check whether we have intervals, we want intervals *and* we added some results.
-			boolean someHavePositions = false;
-			for( Index index: documentIterator.indices() ) someHavePositions |= index.hasPositions;
-			
-			if ( someHavePositions && intervalSelector != null && results.size() != initialResultSize ) {
+			// Check whether we want intervals, we did not capture them *and* we added some results (intervals are computed outside of the budget).
+			if ( selectIntervals && ! capture && results.size() != initialResultSize ) {
 				// We must now enrich the returned result with intervals
 				DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>> sorted[] = 
 					results.subList( initialResultSize, results.size() ).toArray( new DocumentScoreInfo[ results.size() - initialResultSize ] );
@@ -340,32 +537,91 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 				}
 			
 				documentIterator.dispose();
+				if ( metrics != null ) {
+					final long now = System.nanoTime();
+					intervalSelectionTime += now - t;
+					t = now;
+				}
 			}
 			
 			if ( ASSERTS ) assert length >= results.size();
-			if ( length == results.size() ) break;
+			if ( truncated ) {
+				LOGGER.debug( "Budget exceeded while processing query " + query[ i ] + ": " + budget );
+				break;
+			}
+			if ( length == results.size() && facets == null ) break;
+		}
+
+		if ( metrics != null ) {
+			metrics.latency.add( parsingTime + System.nanoTime() - start );
+			metrics.parsing.add( parsingTime );
+			metrics.building.add( buildingTime );
+			metrics.scoring.add( scoringTime );
+			metrics.intervalSelection.add( intervalSelectionTime );
+			metrics.postings.add( budget.postings() );
+			metrics.skips.add( budget.skips() );
+			metrics.scored.add( scored );
+			metrics.thresholdUpdates.add( thresholdUpdates );
+			if ( truncated ) metrics.truncated();
 		}
 		return total;
 	}
 	
-	private int getScoredResults( final DocumentIterator documentIterator, final int offset, final int length, final double lastMinScore, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results, final LongSet alreadySeen ) throws IOException {
+	/** Counts a document in the given facets.
+	 * 
+	 * @param facets an array of facets, or <code>null</code>.
+	 * @param document a document pointer.
+	 */
+	private static void collect( final Facet[] facets, final long document ) {
+		if ( facets != null ) for( Facet facet: facets ) facet.collect( document );
+	}
+	
+	private int getScoredResults( final DocumentIterator documentIterator, final int offset, final int length, final double lastMinScore, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results, final LongSet alreadySeen, final Facet[] facets, final QueryBudget budget, final boolean capture ) throws IOException {
 		final ScoredDocumentBoundedSizeQueue<Reference2ObjectMap<Index,SelectedInterval[]>> top = new ScoredDocumentBoundedSizeQueue<Reference2ObjectMap<Index,SelectedInterval[]>>( offset + length );
 		long document;
 		int count = 0; // Number of not-already-seen documents
+		int insertions = 0; // Number of documents entering the queue
+		// If we are capturing intervals, the map that will be filled if the next document enters the queue
+		Reference2ObjectMap<Index,SelectedInterval[]> info = capture ? new Reference2ObjectArrayMap<Index,SelectedInterval[]>( numIndices ) : null;
 
-		scorer.wrap( documentIterator );
-		// TODO: we should avoid enqueueing until we really know we shall use the values
-		if ( alreadySeen != null ) 
-			while ( ( document = scorer.nextDocument() ) != END_OF_LIST ) {
-				if ( ! alreadySeen.add( document ) ) continue;
-				count++;
-				top.enqueue( document, scorer.score() );
-			}
-		else 
-			while ( ( document = scorer.nextDocument() ) != END_OF_LIST ) {
-				count++;
-				top.enqueue( document, scorer.score() );
-			}
+		try {
+			scorer.wrap( documentIterator );
+			// TODO: we should avoid enqueueing until we really know we shall use the values
+			if ( alreadySeen != null ) 
+				while ( ( document = scorer.nextDocument() ) != END_OF_LIST ) {
+					if ( budget != null ) budget.check();
+					if ( ! alreadySeen.add( document ) ) continue;
+					count++;
+					collect( facets, document );
+					if ( top.enqueue( document, scorer.score(), info ) ) {
+						insertions++;
+						if ( capture ) {
+							intervalSelector.select( documentIterator, info );
+							info = new Reference2ObjectArrayMap<Index,SelectedInterval[]>( numIndices );
+						}
+					}
+				}
+			else 
+				while ( ( document = scorer.nextDocument() ) != END_OF_LIST ) {
+					if ( budget != null ) budget.check();
+					count++;
+					collect( facets, document );
+					if ( top.enqueue( document, scorer.score(), info ) ) {
+						insertions++;
+						if ( capture ) {
+							intervalSelector.select( documentIterator, info );
+							info = new Reference2ObjectArrayMap<Index,SelectedInterval[]>( numIndices );
+						}
+					}
+				}
+		}
+		catch( QueryBudgetExceededException e ) {
+			// We keep the best results found so far
+			truncated = true;
+		}
+		scored += count;
+		// Insertions in a full queue raise the threshold
+		thresholdUpdates += Math.max( 0, insertions - ( offset + length ) );
 		
 		final int n = Math.max( top.size() - offset, 0 ); // Number of actually useful documents, if any
 		if ( ASSERTS ) assert n <= length : n;
@@ -384,23 +640,32 @@ public class QueryEngine implements FlyweightPrototype<QueryEngine> {
 		return count;
 	}
 
-	private int getResults( final DocumentIterator documentIterator, final int offset, final int length, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results, final LongSet alreadySeen ) throws IOException {
+	private int getResults( final DocumentIterator documentIterator, final int offset, final int length, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results, final LongSet alreadySeen, final Facet[] facets, final QueryBudget budget, final boolean capture ) throws IOException {
 		long document;
 		int count = 0; // Number of not-already-seen documents
 
-		// Unfortunately, to provide the exact count of results we have to scan the whole iterator.
-		if ( alreadySeen != null ) 
-			while ( ( document = documentIterator.nextDocument() ) != END_OF_LIST ) {
-				if ( ! alreadySeen.add( document ) ) continue;
-				if ( count >= offset && count < offset + length ) results.add( new DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>( document, -1 ) );
-				count++;
-			}
-		else if ( length != 0 ) 
-			while ( ( document = documentIterator.nextDocument() ) != END_OF_LIST ) {
-				if ( count < offset + length && count >= offset ) results.add( new DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>( document, -1 ) );
-				count++;
-			}
-		else while ( ( document = documentIterator.nextDocument() ) != END_OF_LIST ) count++;
+		try {
+			// Unfortunately, to provide the exact count of results we have to scan the whole iterator (unless we need no results).
+			if ( alreadySeen != null ) 
+				while ( ( document = documentIterator.nextDocument() ) != END_OF_LIST ) {
+					if ( budget != null ) budget.check();
+					if ( ! alreadySeen.add( document ) ) continue;
+					if ( count >= offset && count < offset + length ) results.add( new DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>( document, -1, capture ? intervalSelector.select( documentIterator, new Reference2ObjectArrayMap<Index,SelectedInterval[]>( numIndices ) ) : null ) );
+					collect( facets, document );
+					count++;
+				}
+			else if ( length != 0 || facets != null ) 
+				while ( ( document = documentIterator.nextDocument() ) != END_OF_LIST ) {
+					if ( budget != null ) budget.check();
+					if ( count < offset + length && count >= offset ) results.add( new DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>( document, -1, capture ? intervalSelector.select( documentIterator, new Reference2ObjectArrayMap<Index,SelectedInterval[]>( numIndices ) ) : null ) );
+					collect( facets, document );
+					count++;
+				}
+			else count = (int)DocumentIterators.count( documentIterator );
+		}
+		catch( QueryBudgetExceededException e ) {
+			truncated = true;
+		}
 		
 		return count;
 	}
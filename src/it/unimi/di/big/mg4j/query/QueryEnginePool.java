@@ -0,0 +1,128 @@
+package it.unimi.di.big.mg4j.query;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/** A bounded pool of {@linkplain QueryEngine#copy() flyweight copies} of a query engine, with admission control.
+ * 
+ * <p>A pool contains a fixed number of copies of a query engine, which are created at construction time and
+ * {@linkplain #acquire(long, TimeUnit) acquired} and {@linkplain #release(QueryEngine) released} by
+ * the threads answering queries, thus avoiding the cost of copying the engine (and opening index readers) for each query.
+ * Besides the threads using an engine, at most a given number of threads can be waiting for an engine: additional requests
+ * are rejected immediately, so that a server under excessive load can answer quickly with an error instead of
+ * accumulating requests.
+ * 
+ * <p>Note that the copies reflect the state of the query engine at construction time: subsequent changes to the
+ * engine (e.g., to its scorers) will not be seen by the pool.
+ * 
+ * <p>Instances of this class are thread safe.
+ * 
+ * @since 5.4.4
+ */
+
+public class QueryEnginePool {
+	/** The idle copies. */
+	private final ArrayBlockingQueue<QueryEngine> idle;
+	/** The permits for threads using or waiting for a copy. */
+	private final Semaphore admission;
+	/** The number of copies. */
+	private final int size;
+	/** The maximum number of threads waiting for a copy. */
+	private final int maxQueued;
+
+	/** Creates a new pool.
+	 * 
+	 * @param queryEngine a query engine.
+	 * @param size the number of copies of <code>queryEngine</code> in the pool.
+	 * @param maxQueued the maximum number of threads that can be waiting for a copy.
+	 */
+	public QueryEnginePool( final QueryEngine queryEngine, final int size, final int maxQueued ) {
+		if ( size <= 0 ) throw new IllegalArgumentException( "Illegal pool size: " + size );
+		if ( maxQueued < 0 ) throw new IllegalArgumentException( "Illegal maximum number of queued requests: " + maxQueued );
+		this.size = size;
+		this.maxQueued = maxQueued;
+		idle = new ArrayBlockingQueue<QueryEngine>( size );
+		for( int i = 0; i < size; i++ ) idle.add( queryEngine.copy() );
+		admission = new Semaphore( size + maxQueued );
+	}
+
+	/** Acquires a copy of the query engine, waiting at most a given time.
+	 * 
+	 * @param timeout the maximum time to wait.
+	 * @param unit the unit of <code>timeout</code>.
+	 * @return a copy of the query engine, which must be {@linkplain #release(QueryEngine) released} after usage, or <code>null</code> if
+	 * no copy was available within the given time.
+	 * @throws RejectedExecutionException if the number of threads already waiting for a copy is the maximum allowed.
+	 */
+	public QueryEngine acquire( final long timeout, final TimeUnit unit ) throws InterruptedException {
+		if ( ! admission.tryAcquire() ) throw new RejectedExecutionException( "Too many queued requests (" + maxQueued + ")" );
+		boolean acquired = false;
+		try {
+			final QueryEngine queryEngine = idle.poll( timeout, unit );
+			acquired = queryEngine != null;
+			return queryEngine;
+		}
+		finally {
+			if ( ! acquired ) admission.release();
+		}
+	}
+
+	/** Releases a copy of the query engine acquired with {@link #acquire(long, TimeUnit)}.
+	 * 
+	 * @param queryEngine a copy of the query engine returned by {@link #acquire(long, TimeUnit)}.
+	 */
+	public void release( final QueryEngine queryEngine ) {
+		if ( ! idle.offer( queryEngine ) ) throw new IllegalStateException( "More copies released than acquired" );
+		admission.release();
+	}
+
+	/** Returns the number of copies in this pool.
+	 * 
+	 * @return the number of copies in this pool.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the number of copies currently available.
+	 * 
+	 * @return the number of copies currently available.
+	 */
+	public int available() {
+		return idle.size();
+	}
+	
+	/** Returns an estimate of the number of threads currently waiting for a copy.
+	 * 
+	 * @return an estimate of the number of threads currently waiting for a copy.
+	 */
+	public int queued() {
+		return Math.max( 0, size + maxQueued - admission.availablePermits() - ( size - idle.size() ) );
+	}
+	
+	public String toString() {
+		return getClass().getSimpleName() + "[size: " + size + ", available: " + available() + ", max queued: " + maxQueued + "]";
+	}
+}
@@ -0,0 +1,217 @@
+package it.unimi.di.big.mg4j.query;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.util.Histogram;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** A registry of metrics about query evaluation.
+ * 
+ * <p>An instance of this class can be set in the {@link QueryEngine#metrics} field of a query engine (and it will be shared
+ * by its {@linkplain QueryEngine#copy() copies}): the engine will record, for each call to a processing method,
+ * <ul>
+ * <li>the overall latency and the time spent in parsing, building document iterators, scanning and scoring documents, and selecting intervals;
+ * <li>the number of postings read (i.e., of calls to {@link it.unimi.di.big.mg4j.index.IndexIterator#nextDocument() nextDocument()} 
+ * or {@link it.unimi.di.big.mg4j.index.IndexIterator#skipTo(long) skipTo()} on index iterators) and of skips performed (see {@link it.unimi.di.big.mg4j.search.QueryBudget});
+ * note that a skip is counted as a single posting read, even if the underlying index decodes several postings to perform it;
+ * <li>the number of documents scored;
+ * <li>the number of updates of the threshold of the top-<var>k</var> heap (i.e., the number of insertions in a full heap), which
+ * measures how quickly the threshold converges.
+ * </ul>
+ * 
+ * <p>All per-query quantities are recorded in {@linkplain Histogram histograms}, so both totals and distributions are available.
+ * When {@link QueryEngine#metrics} is <code>null</code> (the default) no clock is read and no counter is updated. 
+ * 
+ * <p>Metrics can be exported in Prometheus text format using {@link #writePrometheus(Appendable)} (an {@link HttpQueryServer}
+ * does it under the path <samp>/metrics</samp>), or {@linkplain #registerMBean(String) registered} as a JMX MBean.
+ * 
+ * <p>Instances of this class are thread safe.
+ * 
+ * @since 5.4.4
+ */
+
+public class QueryMetrics implements QueryMetricsMBean {
+	/** Latencies, in nanoseconds. */
+	public final Histogram latency = new Histogram();
+	/** Parsing times, in nanoseconds. */
+	public final Histogram parsing = new Histogram();
+	/** Document-iterator building times, in nanoseconds. */
+	public final Histogram building = new Histogram();
+	/** Scanning and scoring times, in nanoseconds. */
+	public final Histogram scoring = new Histogram();
+	/** Interval-selection times, in nanoseconds. */
+	public final Histogram intervalSelection = new Histogram();
+	/** Postings read (calls to <code>nextDocument()</code> or <code>skipTo()</code> on index iterators) per query. */
+	public final Histogram postings = new Histogram();
+	/** Skips performed per query. */
+	public final Histogram skips = new Histogram();
+	/** Documents scored per query. */
+	public final Histogram scored = new Histogram();
+	/** Top-<var>k</var> threshold updates per query. */
+	public final Histogram thresholdUpdates = new Histogram();
+	/** The number of queries whose evaluation exceeded their budget. */
+	private final AtomicLong truncated = new AtomicLong();
+	/** The number of requests rejected because of admission control. */
+	private final AtomicLong rejected = new AtomicLong();
+	/** The number of requests whose deadline expired while waiting for a query engine. */
+	private final AtomicLong expired = new AtomicLong();
+
+	/** Records that a query exceeded its budget. */
+	public void truncated() {
+		truncated.incrementAndGet();
+	}
+	
+	/** Records that a request was rejected because of admission control. */
+	public void rejected() {
+		rejected.incrementAndGet();
+	}
+	
+	/** Records that the deadline of a request expired while waiting for a query engine. */
+	public void expired() {
+		expired.incrementAndGet();
+	}
+	
+	/** Registers this registry with the platform MBean server.
+	 * 
+	 * @param name a name that will be used as value of the <samp>name</samp> key of the object name 
+	 * (whose domain is <samp>it.unimi.di.big.mg4j</samp> and whose <samp>type</samp> is <samp>QueryMetrics</samp>).
+	 * @return the object name used for registration.
+	 */
+	public ObjectName registerMBean( final String name ) throws JMException {
+		final ObjectName objectName = new ObjectName( "it.unimi.di.big.mg4j:type=QueryMetrics,name=" + ObjectName.quote( name ) );
+		ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+		return objectName;
+	}
+
+	private static void writeCounter( final Appendable appendable, final String name, final String help, final long value ) throws IOException {
+		appendable.append( "# HELP " ).append( name ).append( ' ' ).append( help ).append( '\n' );
+		appendable.append( "# TYPE " ).append( name ).append( " counter\n" );
+		appendable.append( name ).append( ' ' ).append( Long.toString( value ) ).append( '\n' );
+	}
+	
+	/** Writes all metrics in Prometheus text exposition format.
+	 * 
+	 * @param appendable where metrics will be written.
+	 */
+	public void writePrometheus( final Appendable appendable ) throws IOException {
+		latency.writePrometheus( appendable, "mg4j_query_latency_seconds", "Query latency.", 1E-9 );
+		parsing.writePrometheus( appendable, "mg4j_query_parsing_seconds", "Time spent parsing queries.", 1E-9 );
+		building.writePrometheus( appendable, "mg4j_query_building_seconds", "Time spent building document iterators.", 1E-9 );
+		scoring.writePrometheus( appendable, "mg4j_query_scoring_seconds", "Time spent scanning and scoring documents.", 1E-9 );
+		intervalSelection.writePrometheus( appendable, "mg4j_query_interval_selection_seconds", "Time spent selecting intervals.", 1E-9 );
+		postings.writePrometheus( appendable, "mg4j_query_postings_read", "Postings read per query (calls to nextDocument() or skipTo() on index iterators).", 1 );
+		skips.writePrometheus( appendable, "mg4j_query_skips", "Skips performed per query.", 1 );
+		scored.writePrometheus( appendable, "mg4j_query_scored_documents", "Documents scored per query.", 1 );
+		thresholdUpdates.writePrometheus( appendable, "mg4j_query_threshold_updates", "Updates of the top-k threshold per query.", 1 );
+		writeCounter( appendable, "mg4j_query_truncated_total", "Queries whose evaluation exceeded their budget.", truncated.get() );
+		writeCounter( appendable, "mg4j_http_rejected_total", "Requests rejected by admission control.", rejected.get() );
+		writeCounter( appendable, "mg4j_http_expired_total", "Requests whose deadline expired while waiting for a query engine.", expired.get() );
+	}
+
+	private static double millis( final double nanos ) {
+		return nanos / 1E6;
+	}
+
+	public long getQueries() {
+		return latency.count();
+	}
+
+	public long getTruncatedQueries() {
+		return truncated.get();
+	}
+
+	public long getRejectedRequests() {
+		return rejected.get();
+	}
+
+	public long getExpiredRequests() {
+		return expired.get();
+	}
+
+	public double getMeanLatency() {
+		return millis( latency.mean() );
+	}
+
+	public double getMedianLatency() {
+		return millis( latency.percentile( .5 ) );
+	}
+
+	public double getLatency99() {
+		return millis( latency.percentile( .99 ) );
+	}
+
+	public double getMeanParsingTime() {
+		return millis( parsing.mean() );
+	}
+
+	public double getMeanBuildingTime() {
+		return millis( building.mean() );
+	}
+
+	public double getMeanScoringTime() {
+		return millis( scoring.mean() );
+	}
+
+	public double getMeanIntervalSelectionTime() {
+		return millis( intervalSelection.mean() );
+	}
+
+	public long getPostings() {
+		return postings.sum();
+	}
+
+	public long getSkips() {
+		return skips.sum();
+	}
+
+	public long getScoredDocuments() {
+		return scored.sum();
+	}
+
+	public long getThresholdUpdates() {
+		return thresholdUpdates.sum();
+	}
+
+	public void clear() {
+		latency.clear();
+		parsing.clear();
+		building.clear();
+		scoring.clear();
+		intervalSelection.clear();
+		postings.clear();
+		skips.clear();
+		scored.clear();
+		thresholdUpdates.clear();
+		truncated.set( 0 );
+		rejected.set( 0 );
+		expired.set( 0 );
+	}
+
+	public String toString() {
+		return "[queries: " + getQueries() + ", latency: " + latency + ", postings: " + getPostings() + ", skips: " + getSkips() + ", scored: " + getScoredDocuments() + ", truncated: " + getTruncatedQueries() + "]";
+	}
+}
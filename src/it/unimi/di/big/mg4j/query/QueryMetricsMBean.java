@@ -0,0 +1,64 @@
+package it.unimi.di.big.mg4j.query;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/** The JMX management interface of {@link QueryMetrics}.
+ * 
+ * <p>Times are expressed in milliseconds; percentiles are upper bounds with a relative error of at most a factor of two
+ * (see {@link it.unimi.di.big.mg4j.util.Histogram}).
+ * 
+ * @since 5.4.4
+ */
+
+public interface QueryMetricsMBean {
+	/** @return the number of processed queries. */
+	long getQueries();
+	/** @return the number of queries whose evaluation exceeded their budget. */
+	long getTruncatedQueries();
+	/** @return the number of HTTP requests rejected because of admission control. */
+	long getRejectedRequests();
+	/** @return the number of HTTP requests that could not obtain a query engine before their deadline. */
+	long getExpiredRequests();
+	/** @return the mean query latency. */
+	double getMeanLatency();
+	/** @return the median query latency. */
+	double getMedianLatency();
+	/** @return the 99th percentile of query latency. */
+	double getLatency99();
+	/** @return the mean time spent parsing a query. */
+	double getMeanParsingTime();
+	/** @return the mean time spent building document iterators for a query. */
+	double getMeanBuildingTime();
+	/** @return the mean time spent scanning and scoring documents for a query. */
+	double getMeanScoringTime();
+	/** @return the mean time spent selecting intervals for a query. */
+	double getMeanIntervalSelectionTime();
+	/** @return the overall number of postings read (calls to <code>nextDocument()</code> or <code>skipTo()</code> on index iterators). */
+	long getPostings();
+	/** @return the overall number of skips performed. */
+	long getSkips();
+	/** @return the overall number of documents scored. */
+	long getScoredDocuments();
+	/** @return the overall number of updates of the top-<var>k</var> threshold. */
+	long getThresholdUpdates();
+	/** Clears all metrics. */
+	void clear();
+}
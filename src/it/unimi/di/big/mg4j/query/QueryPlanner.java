@@ -0,0 +1,681 @@
+package it.unimi.di.big.mg4j.query;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.IndexReader;
+import it.unimi.di.big.mg4j.index.payload.Payload;
+import it.unimi.di.big.mg4j.query.nodes.Align;
+import it.unimi.di.big.mg4j.query.nodes.And;
+import it.unimi.di.big.mg4j.query.nodes.Annotation;
+import it.unimi.di.big.mg4j.query.nodes.Consecutive;
+import it.unimi.di.big.mg4j.query.nodes.Containment;
+import it.unimi.di.big.mg4j.query.nodes.Difference;
+import it.unimi.di.big.mg4j.query.nodes.False;
+import it.unimi.di.big.mg4j.query.nodes.Fuzzy;
+import it.unimi.di.big.mg4j.query.nodes.Inclusion;
+import it.unimi.di.big.mg4j.query.nodes.Infix;
+import it.unimi.di.big.mg4j.query.nodes.LowPass;
+import it.unimi.di.big.mg4j.query.nodes.MultiTerm;
+import it.unimi.di.big.mg4j.query.nodes.Not;
+import it.unimi.di.big.mg4j.query.nodes.Or;
+import it.unimi.di.big.mg4j.query.nodes.OrderedAnd;
+import it.unimi.di.big.mg4j.query.nodes.Prefix;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitor;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.query.nodes.QueryTransformer;
+import it.unimi.di.big.mg4j.query.nodes.Range;
+import it.unimi.di.big.mg4j.query.nodes.Remap;
+import it.unimi.di.big.mg4j.query.nodes.Select;
+import it.unimi.di.big.mg4j.query.nodes.Term;
+import it.unimi.di.big.mg4j.query.nodes.True;
+import it.unimi.di.big.mg4j.query.nodes.Weight;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.search.DocumentIterators;
+import it.unimi.di.big.mg4j.search.IntervalIterator;
+import it.unimi.di.big.mg4j.search.visitor.DocumentIteratorVisitor;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMaps;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceSet;
+import it.unimi.dsi.util.LongInterval;
+import it.unimi.dsi.util.LongIntervals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/** A cost-based query planner.
+ * 
+ * <p>An instance of this class is a {@linkplain QueryTransformer query transformer} that uses the term statistics 
+ * of the indices involved in a query (to be set using {@link QueryEngine#transformer(QueryTransformer)}) to 
+ * rewrite the query into an equivalent one that is cheaper to evaluate. More precisely:
+ * <ul>
+ * <li>terms that do not appear in their index are replaced by {@link False}, which is then propagated upwards
+ * (e.g., a conjunction or a phrase containing {@link False} is {@link False}, and {@link False} disjuncts are removed);
+ * <li>nested conjunctions and disjunctions are flattened;
+ * <li>negated disjunctions within a conjunction are pushed down (i.e., <var>a</var> AND NOT (<var>b</var> OR <var>c</var>)
+ * becomes <var>a</var> AND NOT <var>b</var> AND NOT <var>c</var>), so that each negation filters only the candidates that passed the previous ones;
+ * since {@link Difference} is a difference of intervals, and not of documents, it is not distributed, but it is simplified
+ * when one of its operands is {@link False};
+ * <li>{@link True} conjuncts are removed;
+ * <li>conjuncts are sorted by increasing estimated number of results;
+ * <li>prefixes expanding to more than a given number of terms (and not {@linkplain Index#prefixIndex materialised}) are replaced by a {@link MultiTerm} containing just 
+ * the given number of most frequent terms in the expansion (rather than failing with a {@link it.unimi.di.big.mg4j.index.TooManyTermsException});
+ * note that in this case the result is an approximation of the original query.
+ * </ul>
+ * 
+ * <p>Choosing the most frequent terms of a prefix requires the frequency of every term in its expansion. Frequencies
+ * are taken from the lists provided at construction time (see, e.g., {@link it.unimi.di.big.mg4j.index.DiskBasedIndex#readFrequencies(CharSequence, long)}),
+ * if any, or read from the posting lists otherwise. In any case, prefixes expanding to more than {@link #PREFIX_SCAN_FACTOR} times
+ * the maximum number of terms are left untouched, so they are planned in constant time and the usual limit on the
+ * number of terms applies at evaluation time.
+ * 
+ * <p>Estimates assume independence of terms, as in {@link DocumentIterators#estimateCount(DocumentIterator)}: the fraction of
+ * documents satisfying a conjunction is the product of the fractions of its conjuncts, and so on. The estimated
+ * number of postings scanned assumes that the rarest conjunct drives the evaluation of a conjunction, and that other
+ * conjuncts are skipped to each candidate.
+ * 
+ * <p>The method {@link #explain(Query)} returns a description of the plan of a query, with its estimated
+ * and actual number of results and postings scanned (the latter are measured by evaluating the query).
+ * 
+ * <p>Instances of this class are thread safe, provided that the indices involved can be safely accessed concurrently.
+ */
+
+public class QueryPlanner implements QueryTransformer {
+	/** The default maximum number of terms in the expansion of a prefix. */
+	public final static int DEFAULT_MAX_PREFIX_TERMS = 1000;
+	/** Prefixes expanding to more than this number times the maximum number of terms in the expansion of a prefix are not planned. */
+	public final static int PREFIX_SCAN_FACTOR = 16;
+	
+	/** A map associating a textual key to indices. */
+	private final Object2ReferenceMap<String, Index> indexMap;
+	/** The default index. */
+	private final Index defaultIndex;
+	/** The maximum number of terms in the expansion of a prefix. */
+	private final int maxPrefixTerms;
+	/** A map associating indices with the list of the frequencies of their terms. */
+	private final Reference2ReferenceMap<Index, ? extends LongBigList> frequencies;
+
+	/** Creates a new query planner.
+	 * 
+	 * @param indexMap a map from index names to indices, to be used in {@link Select} nodes, or <code>null</code>
+	 * if the only used index is the default index.
+	 * @param defaultIndex the default index.
+	 * @param maxPrefixTerms the maximum number of terms in the expansion of a prefix.
+	 * @param frequencies a map from indices to the lists of the frequencies of their terms; frequencies
+	 * of terms of indices not appearing in the map will be read from the posting lists.
+	 */
+	public QueryPlanner( final Object2ReferenceMap<String, Index> indexMap, final Index defaultIndex, final int maxPrefixTerms, final Reference2ReferenceMap<Index, ? extends LongBigList> frequencies ) {
+		this.indexMap = indexMap;
+		this.defaultIndex = defaultIndex;
+		this.maxPrefixTerms = maxPrefixTerms;
+		this.frequencies = frequencies;
+	}
+
+	/** Creates a new query planner reading frequencies from the posting lists.
+	 * 
+	 * @param indexMap a map from index names to indices, to be used in {@link Select} nodes, or <code>null</code>
+	 * if the only used index is the default index.
+	 * @param defaultIndex the default index.
+	 * @param maxPrefixTerms the maximum number of terms in the expansion of a prefix.
+	 */
+	@SuppressWarnings("unchecked")
+	public QueryPlanner( final Object2ReferenceMap<String, Index> indexMap, final Index defaultIndex, final int maxPrefixTerms ) {
+		this( indexMap, defaultIndex, maxPrefixTerms, Reference2ReferenceMaps.EMPTY_MAP );
+	}
+
+	/** Creates a new query planner using {@link #DEFAULT_MAX_PREFIX_TERMS} as maximum number of terms in the expansion of a prefix.
+	 * 
+	 * @param indexMap a map from index names to indices, to be used in {@link Select} nodes, or <code>null</code>
+	 * if the only used index is the default index.
+	 * @param defaultIndex the default index.
+	 */
+	public QueryPlanner( final Object2ReferenceMap<String, Index> indexMap, final Index defaultIndex ) {
+		this( indexMap, defaultIndex, DEFAULT_MAX_PREFIX_TERMS );
+	}
+
+	/** A (sub)query plan, that is, a query with its estimates. */
+	public final static class Plan {
+		/** The planned query. */
+		public final Query query;
+		/** The estimated fraction of documents satisfying {@link #query}. */
+		public final double fraction;
+		/** The estimated number of postings scanned to evaluate {@link #query}. */
+		public final double cost;
+		/** The plans of the subqueries of {@link #query}, or {@code null}. */
+		private final Plan[] subPlan;
+
+		private Plan( final Query query, final double fraction, final double cost, final Plan... subPlan ) {
+			this.query = query;
+			this.fraction = fraction;
+			this.cost = cost;
+			this.subPlan = subPlan;
+		}
+		
+		public String toString() {
+			return query + " [fraction: " + fraction + ", cost: " + cost + "]";
+		}
+	}
+
+	private final static Plan FALSE = new Plan( new False(), 0, 0 );
+	private final static Plan TRUE = new Plan( new True(), 1, 0 );
+	
+	private final static Comparator<Plan> FRACTION_COMPARATOR = new Comparator<Plan>() {
+		public int compare( final Plan p0, final Plan p1 ) {
+			return Double.compare( p0.fraction, p1.fraction );
+		}
+	};
+
+	private static boolean isFalse( final Plan plan ) {
+		return plan.query instanceof False;
+	}
+
+	private static Query[] queries( final Plan[] plan ) {
+		final Query[] query = new Query[ plan.length ];
+		for( int i = plan.length; i-- != 0; ) query[ i ] = plan[ i ].query;
+		return query;
+	}
+
+	/** Returns the fraction of documents satisfying the disjunction of the given plans under independence. */
+	private static double unionFraction( final Plan[] plan ) {
+		double p = 1;
+		for( Plan s: plan ) p *= 1 - s.fraction;
+		return 1 - p;
+	}
+	
+	/** Returns the fraction of documents satisfying the conjunction of the given plans under independence. */
+	private static double intersectionFraction( final Plan[] plan ) {
+		double p = 1;
+		for( Plan s: plan ) p *= s.fraction;
+		return p;
+	}
+	
+	private static double sumCost( final Plan[] plan ) {
+		double c = 0;
+		for( Plan s: plan ) c += s.cost;
+		return c;
+	}
+
+	/** A visitor building {@linkplain Plan plans}. */
+	protected class PlannerVisitor implements QueryBuilderVisitor<Plan> {
+		/** The stack of selected indices (changed by {@link Select} nodes). */
+		private final ObjectArrayList<Index> curr = new ObjectArrayList<Index>();
+		/** The index readers opened so far to retrieve frequencies. */
+		private final Reference2ReferenceOpenHashMap<Index, IndexReader> readers = new Reference2ReferenceOpenHashMap<Index, IndexReader>();
+
+		public PlannerVisitor prepare() {
+			curr.clear();
+			curr.push( defaultIndex );
+			return this;
+		}
+
+		public PlannerVisitor copy() {
+			return new PlannerVisitor();
+		}
+
+		public Plan[] newArray( final int len ) {
+			return new Plan[ len ];
+		}
+
+		/** Closes all readers opened by this visitor. */
+		public void close() throws IOException {
+			for( IndexReader indexReader: readers.values() ) indexReader.close();
+			readers.clear();
+		}
+		
+		private IndexReader reader( final Index index ) throws IOException {
+			IndexReader indexReader = readers.get( index );
+			if ( indexReader == null ) readers.put( index, indexReader = index.getReader() );
+			return indexReader;
+		}
+
+		/** Returns the estimated number of postings scanned by the intersection of the given plans, which must be sorted by fraction. */
+		private double intersectionCost( final Plan[] plan ) {
+			final double candidates = plan[ 0 ].fraction * curr.top().numberOfDocuments;
+			double c = plan[ 0 ].cost;
+			for( int i = 1; i < plan.length; i++ ) c += Math.min( plan[ i ].cost, candidates );
+			return c;
+		}
+
+		private Plan not( final Plan plan ) {
+			if ( isFalse( plan ) ) return TRUE;
+			if ( plan.query instanceof True ) return FALSE;
+			return new Plan( new Not( plan.query ), 1 - plan.fraction, plan.cost, plan );
+		}
+
+		private void addConjuncts( final Plan plan, final ObjectArrayList<Plan> conjunct ) {
+			if ( plan.query instanceof And ) for( Plan s: plan.subPlan ) addConjuncts( s, conjunct );
+			else if ( plan.query instanceof Not && plan.subPlan[ 0 ].query instanceof Or ) for( Plan s: plan.subPlan[ 0 ].subPlan ) addConjuncts( not( s ), conjunct );
+			else conjunct.add( plan );
+		}
+
+		private void addDisjuncts( final Plan plan, final ObjectArrayList<Plan> disjunct ) {
+			if ( plan.query instanceof Or ) for( Plan s: plan.subPlan ) addDisjuncts( s, disjunct );
+			else if ( ! isFalse( plan ) ) disjunct.add( plan );
+		}
+
+		private boolean someFalse( final Plan[] subPlan ) {
+			for( Plan s: subPlan ) if ( isFalse( s ) ) return true;
+			return false;
+		}
+
+		private Plan positional( final Query query, final Plan[] subPlan ) {
+			final Plan[] sorted = subPlan.clone();
+			Arrays.sort( sorted, FRACTION_COMPARATOR );
+			return new Plan( query, intersectionFraction( subPlan ), intersectionCost( sorted ), subPlan );
+		}
+
+		public boolean visitPre( final And node ) { return true; }
+		public boolean visitPre( final Consecutive node ) { return true; }
+		public boolean visitPre( final LowPass node ) { return true; }
+		public boolean visitPre( final Annotation node ) { return true; }
+		public boolean visitPre( final Not node ) { return true; }
+		public boolean visitPre( final Or node ) { return true; }
+		public boolean visitPre( final OrderedAnd node ) { return true; }
+		public boolean visitPre( final Align node ) { return true; }
+		public boolean visitPre( final Difference node ) { return true; }
+		public boolean visitPre( final Inclusion node ) { return true; }
+		public boolean visitPre( final Containment node ) { return true; }
+		public boolean visitPre( final MultiTerm node ) { return true; }
+		public boolean visitPre( final Remap node ) { return true; }
+		public boolean visitPre( final Weight node ) { return true; }
+
+		public boolean visitPre( final Select node ) {
+			if ( indexMap == null ) throw new IllegalArgumentException( "You cannot use Select nodes without an index map" );
+			final Index index = indexMap.get( node.index.toString() );
+			if ( index == null ) throw new NoSuchElementException( "The selected index (" + node.index + ")" + " does not appear in the index map (" + indexMap + ")" ); 
+			curr.push( index );
+			return true;
+		}
+
+		public Plan visitPost( final And node, final Plan[] subPlan ) {
+			final ObjectArrayList<Plan> conjunct = new ObjectArrayList<Plan>();
+			for( Plan s: subPlan ) addConjuncts( s, conjunct );
+			for( Plan s: conjunct ) if ( isFalse( s ) ) return FALSE;
+			// True conjuncts are neutral (typically, negations of false subqueries).
+			for( int i = conjunct.size(); i-- != 0; ) if ( conjunct.size() > 1 && conjunct.get( i ).query instanceof True ) conjunct.remove( i );
+			if ( conjunct.size() == 1 ) return conjunct.get( 0 );
+			// Stable, so equally estimated conjuncts keep the user's order.
+			Collections.sort( conjunct, FRACTION_COMPARATOR );
+			final Plan[] sorted = conjunct.toArray( new Plan[ conjunct.size() ] );
+			return new Plan( new And( queries( sorted ) ), intersectionFraction( sorted ), intersectionCost( sorted ), sorted );
+		}
+
+		public Plan visitPost( final Or node, final Plan[] subPlan ) {
+			final ObjectArrayList<Plan> disjunct = new ObjectArrayList<Plan>();
+			for( Plan s: subPlan ) addDisjuncts( s, disjunct );
+			if ( disjunct.isEmpty() ) return FALSE;
+			if ( disjunct.size() == 1 ) return disjunct.get( 0 );
+			final Plan[] flat = disjunct.toArray( new Plan[ disjunct.size() ] );
+			return new Plan( new Or( queries( flat ) ), unionFraction( flat ), sumCost( flat ), flat );
+		}
+
+		public Plan visitPost( final MultiTerm node, final Plan[] subPlan ) {
+			final ObjectArrayList<Plan> term = new ObjectArrayList<Plan>();
+			for( Plan s: subPlan ) if ( ! isFalse( s ) ) term.add( s );
+			if ( term.isEmpty() ) return FALSE;
+			final Plan[] t = term.toArray( new Plan[ term.size() ] );
+			return new Plan( new MultiTerm( queries( t ) ), unionFraction( t ), sumCost( t ), t );
+		}
+
+		public Plan visitPost( final Consecutive node, final Plan[] subPlan ) {
+			if ( someFalse( subPlan ) ) return FALSE;
+			return positional( new Consecutive( queries( subPlan ), node.gap ), subPlan );
+		}
+
+		public Plan visitPost( final OrderedAnd node, final Plan[] subPlan ) {
+			if ( someFalse( subPlan ) ) return FALSE;
+			return positional( new OrderedAnd( queries( subPlan ) ), subPlan );
+		}
+
+		public Plan visitPost( final Align node, final Plan[] subPlan ) {
+			if ( someFalse( subPlan ) ) return FALSE;
+			return positional( new Align( subPlan[ 0 ].query, subPlan[ 1 ].query ), subPlan );
+		}
+
+		public Plan visitPost( final Inclusion node, final Plan[] subPlan ) {
+			if ( someFalse( subPlan ) ) return FALSE;
+			return positional( new Inclusion( subPlan[ 0 ].query, subPlan[ 1 ].query, node.leftMargin, node.rightMargin ), subPlan );
+		}
+
+		public Plan visitPost( final Containment node, final Plan[] subPlan ) {
+			if ( someFalse( subPlan ) ) return FALSE;
+			return positional( new Containment( subPlan[ 0 ].query, subPlan[ 1 ].query, node.leftMargin, node.rightMargin ), subPlan );
+		}
+
+		public Plan visitPost( final Difference node, final Plan[] subPlan ) {
+			if ( isFalse( subPlan[ 0 ] ) ) return FALSE;
+			if ( isFalse( subPlan[ 1 ] ) ) return subPlan[ 0 ];
+			final double candidates = subPlan[ 0 ].fraction * curr.top().numberOfDocuments;
+			return new Plan( new Difference( subPlan[ 0 ].query, subPlan[ 1 ].query, node.leftMargin, node.rightMargin ), subPlan[ 0 ].fraction, subPlan[ 0 ].cost + Math.min( subPlan[ 1 ].cost, candidates ), subPlan );
+		}
+
+		public Plan visitPost( final Not node, final Plan subPlan ) {
+			return not( subPlan );
+		}
+
+		public Plan visitPost( final LowPass node, final Plan subPlan ) {
+			if ( isFalse( subPlan ) ) return FALSE;
+			return new Plan( new LowPass( subPlan.query, node.k ), subPlan.fraction, subPlan.cost, subPlan );
+		}
+
+		public Plan visitPost( final Annotation node, final Plan subPlan ) {
+			if ( isFalse( subPlan ) ) return FALSE;
+			return new Plan( new Annotation( subPlan.query ), subPlan.fraction, subPlan.cost, subPlan );
+		}
+
+		public Plan visitPost( final Select node, final Plan subPlan ) {
+			curr.pop();
+			if ( isFalse( subPlan ) ) return FALSE;
+			return new Plan( new Select( node.index, subPlan.query ), subPlan.fraction, subPlan.cost, subPlan );
+		}
+
+		public Plan visitPost( final Remap node, final Plan subPlan ) {
+			if ( isFalse( subPlan ) ) return FALSE;
+			return new Plan( new Remap( subPlan.query, node.indexRemapping ), subPlan.fraction, subPlan.cost, subPlan );
+		}
+
+		public Plan visitPost( final Weight node, final Plan subPlan ) {
+			if ( isFalse( subPlan ) ) return FALSE;
+			return new Plan( new Weight( node.weight, subPlan.query ), subPlan.fraction, subPlan.cost, subPlan );
+		}
+
+		public Plan visit( final Term node ) throws QueryBuilderVisitorException {
+			final Index index = curr.top();
+			if ( node.termNumber == -1 && index.termMap == null ) return new Plan( node, 1, index.numberOfDocuments );
+			try {
+				final IndexIterator indexIterator = node.termNumber != -1 ? reader( index ).documents( node.termNumber ) : reader( index ).documents( node.term );
+				final long frequency = indexIterator.frequency();
+				if ( frequency == 0 ) return FALSE;
+				return new Plan( node, (double)frequency / index.numberOfDocuments, frequency );
+			}
+			catch ( IOException e ) {
+				throw new QueryBuilderVisitorException( e );
+			}
+		}
+
+		public Plan visit( final Prefix node ) throws QueryBuilderVisitorException {
+			final Index index = curr.top();
+			// If the index cannot resolve prefixes, the builder will complain.
+			if ( index.prefixMap == null ) return new Plan( node, 1, index.numberOfDocuments );
+			final LongInterval interval = index.prefixMap.rangeMap().get( node.prefix );
+			if ( interval == LongIntervals.EMPTY_INTERVAL ) return FALSE;
+			if ( index.prefixIndex != null ) {
+				// Materialised prefixes are resolved using a single posting list.
+				final long prefixNumber = index.prefixIndex.termMap.getLong( node.prefix );
+				if ( prefixNumber != -1 ) {
+					try {
+						final long frequency = reader( index.prefixIndex ).documents( prefixNumber ).frequency();
+						return new Plan( node, (double)frequency / index.numberOfDocuments, frequency );
+					}
+					catch ( IOException e ) {
+						throw new QueryBuilderVisitorException( e );
+					}
+				}
+			}
+			// Term nodes can only represent term numbers smaller than 2^31.
+			if ( interval.length() > Integer.MAX_VALUE || interval.right > Integer.MAX_VALUE ) return new Plan( node, 1, index.numberOfDocuments );
+			// We do not scan the frequencies of huge expansions: evaluation will fail with a TooManyTermsException anyway.
+			if ( interval.length() > (long)maxPrefixTerms * PREFIX_SCAN_FACTOR ) return new Plan( node, 1, index.numberOfDocuments );
+
+			final int n = (int)interval.length();
+			final long[] frequency = new long[ n ];
+			final LongBigList termFrequency = frequencies.get( index );
+			if ( termFrequency != null ) for( int i = 0; i < n; i++ ) frequency[ i ] = termFrequency.getLong( interval.left + i );
+			else {
+				try {
+					final IndexReader indexReader = reader( index );
+					for( int i = 0; i < n; i++ ) frequency[ i ] = indexReader.documents( interval.left + i ).frequency();
+				}
+				catch ( IOException e ) {
+					throw new QueryBuilderVisitorException( e );
+				}
+			}
+
+			final int k = Math.min( n, maxPrefixTerms );
+			final int[] perm = new int[ n ];
+			for( int i = n; i-- != 0; ) perm[ i ] = i;
+			if ( k < n ) {
+				// We keep the k most frequent terms.
+				IntArrays.quickSort( perm, new AbstractIntComparator() {
+					private static final long serialVersionUID = 1L;
+					public int compare( final int i0, final int i1 ) {
+						return Long.signum( frequency[ i1 ] - frequency[ i0 ] );
+					}
+				} );
+				Arrays.sort( perm, 0, k );
+			}
+
+			final Plan[] term = new Plan[ k ];
+			for( int i = 0; i < k; i++ ) term[ i ] = new Plan( new Term( (int)( interval.left + perm[ i ] ) ), (double)frequency[ perm[ i ] ] / index.numberOfDocuments, frequency[ perm[ i ] ] );
+			if ( k == n ) return new Plan( node, unionFraction( term ), sumCost( term ), term );
+			return new Plan( k == 1 ? term[ 0 ].query : new MultiTerm( queries( term ) ), unionFraction( term ), sumCost( term ), term );
+		}
+
+		public Plan visit( final Infix node ) {
+			// We do not try to estimate the number of terms matched.
+			return new Plan( node, 1, curr.top().numberOfDocuments );
+		}
+
+		public Plan visit( final Fuzzy node ) {
+			return new Plan( node, 1, curr.top().numberOfDocuments );
+		}
+
+		public Plan visit( final Range node ) {
+			// Payload-based predicates scan the whole payload list.
+			return new Plan( node, 1, curr.top().numberOfDocuments );
+		}
+
+		public Plan visit( final True node ) {
+			return TRUE;
+		}
+
+		public Plan visit( final False node ) {
+			return FALSE;
+		}
+	}
+
+	/** Returns a plan for the given query. 
+	 * 
+	 * @param query a query.
+	 * @return a plan for <code>query</code>.
+	 */
+	public Plan plan( final Query query ) throws QueryBuilderVisitorException {
+		final PlannerVisitor plannerVisitor = new PlannerVisitor();
+		try {
+			return query.accept( plannerVisitor.prepare() );
+		}
+		finally {
+			try {
+				plannerVisitor.close();
+			}
+			catch ( IOException e ) {
+				throw new QueryBuilderVisitorException( e );
+			}
+		}
+	}
+
+	public Query transform( final Query query ) {
+		try {
+			return plan( query ).query;
+		}
+		catch ( QueryBuilderVisitorException e ) {
+			throw new RuntimeException( e );
+		}
+	}
+
+	/** An index iterator counting the postings it has scanned. */
+	private final static class CountingIndexIterator implements IndexIterator {
+		private final IndexIterator indexIterator;
+		/** The number of postings scanned so far. */
+		private long scanned;
+
+		private CountingIndexIterator( final IndexIterator indexIterator ) {
+			this.indexIterator = indexIterator;
+		}
+
+		public long nextDocument() throws IOException {
+			final long result = indexIterator.nextDocument();
+			if ( result != END_OF_LIST ) scanned++;
+			return result;
+		}
+
+		public long skipTo( final long n ) throws IOException {
+			final long document = indexIterator.document();
+			final long result = indexIterator.skipTo( n );
+			if ( result != document && result != END_OF_LIST ) scanned++;
+			return result;
+		}
+
+		public <T> T accept( final DocumentIteratorVisitor<T> visitor ) throws IOException {
+			return visitor.visit( this );
+		}
+
+		public <T> T acceptOnTruePaths( final DocumentIteratorVisitor<T> visitor ) throws IOException {
+			return visitor.visit( this );
+		}
+
+		public CountingIndexIterator weight( final double weight ) {
+			indexIterator.weight( weight );
+			return this;
+		}
+
+		public CountingIndexIterator term( final CharSequence term ) {
+			indexIterator.term( term );
+			return this;
+		}
+
+		public CountingIndexIterator id( final int id ) {
+			indexIterator.id( id );
+			return this;
+		}
+
+		public IntervalIterator intervalIterator() throws IOException { return indexIterator.intervalIterator(); }
+		public IntervalIterator intervalIterator( final Index index ) throws IOException { return indexIterator.intervalIterator( index ); }
+		public Reference2ReferenceMap<Index, IntervalIterator> intervalIterators() throws IOException { return indexIterator.intervalIterators(); }
+		public ReferenceSet<Index> indices() { return indexIterator.indices(); }
+		public boolean mayHaveNext() { return indexIterator.mayHaveNext(); }
+		public long document() { return indexIterator.document(); }
+		public double weight() { return indexIterator.weight(); }
+		public void dispose() throws IOException { indexIterator.dispose(); }
+		public Index index() { return indexIterator.index(); }
+		public long termNumber() { return indexIterator.termNumber(); }
+		public String term() { return indexIterator.term(); }
+		public long frequency() throws IOException { return indexIterator.frequency(); }
+		public Payload payload() throws IOException { return indexIterator.payload(); }
+		public int count() throws IOException { return indexIterator.count(); }
+		public int nextPosition() throws IOException { return indexIterator.nextPosition(); }
+		public int id() { return indexIterator.id(); }
+	}
+
+	/** A builder visitor wrapping leaves into {@linkplain CountingIndexIterator counting iterators}. */
+	private final class CountingBuilderVisitor extends DocumentIteratorBuilderVisitor {
+		private final ObjectArrayList<CountingIndexIterator> leaves = new ObjectArrayList<CountingIndexIterator>();
+		
+		@SuppressWarnings("unchecked")
+		public CountingBuilderVisitor() {
+			super( indexMap, Reference2ReferenceMaps.EMPTY_MAP, defaultIndex, maxPrefixTerms );
+		}
+
+		@Override
+		public DocumentIterator visit( final Term node ) throws QueryBuilderVisitorException {
+			final CountingIndexIterator result = new CountingIndexIterator( (IndexIterator)super.visit( node ) );
+			leaves.add( result );
+			return result;
+		}
+
+		@Override
+		public DocumentIterator visit( final Prefix node ) throws QueryBuilderVisitorException {
+			final CountingIndexIterator result = new CountingIndexIterator( (IndexIterator)super.visit( node ) );
+			leaves.add( result );
+			return result;
+		}
+
+		/** Returns the number of postings scanned by all leaves. */
+		public long scanned() {
+			long scanned = 0;
+			for( CountingIndexIterator leaf: leaves ) scanned += leaf.scanned;
+			return scanned;
+		}
+	}
+	
+	/** Evaluates a query, counting the scanned postings.
+	 * 
+	 * @param query a query.
+	 * @param explanation a string builder where the postings scanned by each leaf will be described, or {@code null}.
+	 * @return a pair containing the number of results and the number of scanned postings.
+	 */
+	private long[] evaluate( final Query query, final StringBuilder explanation ) throws QueryBuilderVisitorException, IOException {
+		final CountingBuilderVisitor countingBuilderVisitor = new CountingBuilderVisitor();
+		final DocumentIterator documentIterator = query.accept( countingBuilderVisitor.prepare() );
+		try {
+			// We do not use DocumentIterators.count(), as its shortcuts would not scan postings.
+			long count = 0;
+			while( documentIterator.nextDocument() != DocumentIterator.END_OF_LIST ) count++;
+			if ( explanation != null ) for( CountingIndexIterator leaf: countingBuilderVisitor.leaves ) 
+				explanation.append( "  " ).append( leaf.index().field ).append( ':' ).append( leaf.term() ).append( ": frequency " ).append( leaf.frequency() ).append( ", scanned " ).append( leaf.scanned ).append( '\n' );
+			return new long[] { count, countingBuilderVisitor.scanned() };
+		}
+		finally {
+			documentIterator.dispose();
+		}
+	}
+	
+	/** Returns a description of the plan for a query, comparing estimates with the actual values
+	 * obtained by evaluating both the original and the planned query.
+	 * 
+	 * <p>Postings are considered scanned when an iterator over a posting list is positioned on them (so postings jumped over by a skip
+	 * are not counted). Note that the optimisations available to bitmap-based index iterators (see {@link it.unimi.di.big.mg4j.index.BitmapIndexIterator})
+	 * are disabled during evaluation.
+	 * 
+	 * @param query a query.
+	 * @return a description of the plan for <code>query</code>.
+	 */
+	public String explain( final Query query ) throws QueryBuilderVisitorException, IOException {
+		final Plan plan = plan( query );
+		final StringBuilder explanation = new StringBuilder();
+		final long numberOfDocuments = defaultIndex.numberOfDocuments;
+		explanation.append( "Query: " ).append( query ).append( '\n' );
+		explanation.append( "Plan: " ).append( plan.query ).append( '\n' );
+		final long[] planned = evaluate( plan.query, explanation );
+		explanation.append( "Results: estimated " ).append( Math.round( plan.fraction * numberOfDocuments ) ).append( ", actual " ).append( planned[ 0 ] ).append( '\n' );
+		explanation.append( "Postings scanned: estimated " ).append( Math.round( plan.cost ) ).append( ", actual " ).append( planned[ 1 ] ).append( '\n' );
+		try {
+			explanation.append( "Postings scanned by the original query: " ).append( evaluate( query, null )[ 1 ] ).append( '\n' );
+		}
+		catch( QueryBuilderVisitorException e ) {
+			// Typically, too many terms in a prefix.
+			explanation.append( "The original query cannot be evaluated: " ).append( e.getCause() == null ? e : e.getCause() ).append( '\n' );
+		}
+		return explanation.toString();
+	}
+}
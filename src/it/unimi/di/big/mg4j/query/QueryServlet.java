@@ -20,9 +20,13 @@ package it.unimi.di.big.mg4j.query;
  *
  */
 
+import it.unimi.di.big.mg4j.document.AbstractDocumentCollection;
+import it.unimi.di.big.mg4j.document.AbstractDocumentIterator;
 import it.unimi.di.big.mg4j.document.Document;
 import it.unimi.di.big.mg4j.document.DocumentCollection;
 import it.unimi.di.big.mg4j.document.DocumentFactory;
+import it.unimi.di.big.mg4j.document.DocumentIterator;
+import it.unimi.di.big.mg4j.document.ForwardIndex;
 import it.unimi.di.big.mg4j.index.Index;
 import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
 import it.unimi.di.big.mg4j.query.parser.QueryParserException;
@@ -31,6 +35,7 @@ import it.unimi.dsi.fastutil.BigList;
 import it.unimi.dsi.fastutil.objects.Object2ReferenceMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.io.WordReader;
 import it.unimi.dsi.lang.MutableString;
 
 import java.io.File;
@@ -42,6 +47,10 @@ import java.net.URLEncoder;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -78,10 +87,11 @@ import org.slf4j.LoggerFactory;
  * this servlet via {@link HttpQueryServer}, please read the documentation therein for
  * information about template resolution order.
  * 
- * <p>This servlet is thread safe. Each instance uses its own flyweight copies of the
- * {@linkplain it.unimi.di.big.mg4j.document.DocumentCollection collection} and
- * {@linkplain it.unimi.di.big.mg4j.query.QueryEngine query engine} to return the result (in particular, snippets). In a production
- * site it might be more sensible to pool and reuse such classes.
+ * <p>This servlet is thread safe. Each request uses its own flyweight copy of the
+ * {@linkplain it.unimi.di.big.mg4j.query.QueryEngine query engine}, and flyweight copies of the
+ * {@linkplain it.unimi.di.big.mg4j.document.DocumentCollection collection} taken from a pool owned by the servlet to return the result (in particular, snippets).
+ * The documents in a page of results are fetched concurrently by a fixed number of threads, also owned by the servlet 
+ * (see {@link AbstractDocumentCollection#documents(long[], DocumentCollection[], java.util.concurrent.Executor)}).
  * 
  * <p><strong>Warning</strong>: the {@link #loadConfiguration(ServletConfig)} method initialises
  * Velocity with some default parameters: in particular, template resolution is performed first on the classpath, then relatively to the current directory, and
@@ -113,6 +123,14 @@ public class QueryServlet extends VelocityViewServlet {
 	private boolean useUri;
 	/** If true, URIs are files that should be derelativised. */
 	private boolean derelativise;
+	/** The number of threads (and of collection copies) used to fetch the documents in a page of results. */
+	private final static int FETCH_THREADS = AbstractDocumentCollection.DEFAULT_FETCH_THREADS;
+	/** The maximum number of idle copies of the document collection kept in {@link #copyPool}. */
+	private final static int COPY_POOL_SIZE = 4 * ( FETCH_THREADS + 1 );
+	/** Idle flyweight copies of the document collection, if {@link #documentCollection} is not <code>null</code>. */
+	private ArrayBlockingQueue<DocumentCollection> copyPool;
+	/** The executor fetching documents, if {@link #documentCollection} is an {@link AbstractDocumentCollection}. */
+	private ExecutorService fetchExecutor;
 	
 	@Override
 	protected ExtendedProperties loadConfiguration( final ServletConfig config ) throws FileNotFoundException, IOException {
@@ -142,6 +160,16 @@ public class QueryServlet extends VelocityViewServlet {
 		derelativise = context.getAttribute( "derelativise" ) == Boolean.TRUE;
 
 		if ( documentCollection != null ) {
+			copyPool = new ArrayBlockingQueue<DocumentCollection>( COPY_POOL_SIZE );
+			if ( documentCollection instanceof AbstractDocumentCollection ) fetchExecutor = Executors.newFixedThreadPool( FETCH_THREADS, new ThreadFactory() {
+				private int count;
+				public synchronized Thread newThread( final Runnable runnable ) {
+					final Thread thread = new Thread( runnable, "QueryServlet document fetcher " + count++ );
+					thread.setDaemon( true );
+					return thread;
+				}
+			} );
+
 			sortedIndex = new Index[ indexMap.size() ];
 			indexMap.values().toArray( sortedIndex );
 			Arrays.sort( sortedIndex, new Comparator<Index>() {
@@ -152,6 +180,60 @@ public class QueryServlet extends VelocityViewServlet {
 		}
 	}
 	
+	@Override
+	public void destroy() {
+		if ( fetchExecutor != null ) fetchExecutor.shutdown();
+		if ( copyPool != null ) for( DocumentCollection copy; ( copy = copyPool.poll() ) != null; ) {
+			try {
+				copy.close();
+			}
+			catch( IOException e ) {
+				LOGGER.warn( "Cannot close a copy of the document collection", e );
+			}
+		}
+		super.destroy();
+	}
+
+	/** Returns a flyweight copy of the document collection, taken from {@link #copyPool} if possible.
+	 * 
+	 * @return an idle flyweight copy of the document collection.
+	 */
+	private DocumentCollection borrowCopy() {
+		final DocumentCollection copy = copyPool.poll();
+		return copy != null ? copy : documentCollection.copy();
+	}
+
+	/** Returns a copy obtained from {@link #borrowCopy()} to {@link #copyPool}, or closes it if the pool is full.
+	 * 
+	 * @param copy a copy that is no longer in use.
+	 */
+	private void returnCopy( final DocumentCollection copy ) throws IOException {
+		if ( ! copyPool.offer( copy ) ) copy.close();
+	}
+
+	/** Returns an iterator fetching sequentially a batch of documents from a collection that is not an {@link AbstractDocumentCollection}.
+	 * 
+	 * @param collection a flyweight copy of the document collection.
+	 * @param index an array of document indices.
+	 * @return an iterator returning the documents with the given indices, in the same order.
+	 */
+	private static DocumentIterator documents( final DocumentCollection collection, final long[] index ) {
+		return new AbstractDocumentIterator() {
+			private int next;
+			private Document last;
+
+			public Document nextDocument() throws IOException {
+				if ( last != null ) last.close();
+				return last = next < index.length ? collection.document( index[ next++ ] ) : null;
+			}
+
+			public void close() throws IOException {
+				if ( last != null ) last.close();
+				super.close();
+			}
+		};
+	}
+
 	public Template handleRequest( final HttpServletRequest request, final HttpServletResponse response, final Context context ) {
     
 		try {
@@ -208,75 +290,91 @@ public class QueryServlet extends VelocityViewServlet {
 				if ( ! results.isEmpty() ) {
 					SelectedInterval[] selectedInterval = null;
 
-					final DocumentCollection collection = documentCollection != null ? documentCollection.copy() : null;
+					final DocumentCollection collection = documentCollection != null ? borrowCopy() : null;
+					// Documents are fetched in a batch, so that reads can be sorted and carried out concurrently
+					final long[] batch = new long[ results.size() ];
+					for( int i = 0; i < batch.length; i++ ) batch[ i ] = results.get( i ).document;
+					final DocumentCollection[] fetchCopy = fetchExecutor != null ? new DocumentCollection[ Math.min( FETCH_THREADS, batch.length ) ] : null;
+					if ( fetchCopy != null ) for( int t = 0; t < fetchCopy.length; t++ ) fetchCopy[ t ] = borrowCopy();
+					final DocumentIterator documentIterator = collection == null ? null : 
+						fetchCopy != null ? ((AbstractDocumentCollection)collection).documents( batch, fetchCopy, fetchExecutor ) : documents( collection, batch );
 
-					for( int i = 0; i < results.size(); i++ ) {
-						DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>> dsi = results.get( i );
-						LOGGER.debug( "Intervals for item " + i );
-						final ResultItem resultItem = new ResultItem( dsi.document, dsi.score );
-						resultItems.add( resultItem );
+					try {
+						for( int i = 0; i < results.size(); i++ ) {
+							DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>> dsi = results.get( i );
+							LOGGER.debug( "Intervals for item " + i );
+							final ResultItem resultItem = new ResultItem( dsi.document, dsi.score );
+							resultItems.add( resultItem );
 
-						if ( collection != null ) {
-							final Document document = collection.document( dsi.document );
-							// If both collection and title list are present, we override the collection title (cfr. Query)
-							resultItem.title = StringEscapeUtils.escapeHtml( titleList != null ? titleList.get( resultItem.doc ).toString() : document.title().toString() );
-							if ( useUri ) {
-								if ( document.uri() != null ) resultItem.uri = StringEscapeUtils.escapeHtml( document.uri().toString() );
-							}
-							else {
-								if ( document.uri() != null ) {
-									String stringUri = document.uri().toString();
-									// TODO: this is a quick patch to get the file server running with relative files
-									final String documentUri = URLEncoder.encode( derelativise
-									? new File( stringUri.startsWith( "file:" ) ? stringUri.substring( 5 ) : stringUri ).getAbsoluteFile().toURI().toASCIIString()
-											: document.uri().toString(), "UTF-8" );
-									resultItem.uri = StringEscapeUtils.escapeHtml( "./Item?doc=" + resultItem.doc + "&m=" + urlEncodedMimeType + "&uri=" + documentUri );
+							if ( collection != null ) {
+								final Document document = documentIterator.nextDocument();
+								// If both collection and title list are present, we override the collection title (cfr. Query)
+								resultItem.title = StringEscapeUtils.escapeHtml( titleList != null ? titleList.get( resultItem.doc ).toString() : document.title().toString() );
+								if ( useUri ) {
+									if ( document.uri() != null ) resultItem.uri = StringEscapeUtils.escapeHtml( document.uri().toString() );
+								}
+								else {
+									if ( document.uri() != null ) {
+										String stringUri = document.uri().toString();
+										// TODO: this is a quick patch to get the file server running with relative files
+										final String documentUri = URLEncoder.encode( derelativise
+										? new File( stringUri.startsWith( "file:" ) ? stringUri.substring( 5 ) : stringUri ).getAbsoluteFile().toURI().toASCIIString()
+												: document.uri().toString(), "UTF-8" );
+										resultItem.uri = StringEscapeUtils.escapeHtml( "./Item?doc=" + resultItem.doc + "&m=" + urlEncodedMimeType + "&uri=" + documentUri );
+									}
+									else resultItem.uri = StringEscapeUtils.escapeHtml( "./Item?doc=" + resultItem.doc + "&m=" + urlEncodedMimeType );
 								}
-								else resultItem.uri = StringEscapeUtils.escapeHtml( "./Item?doc=" + resultItem.doc + "&m=" + urlEncodedMimeType );
-							}
 							
-							MarkingMutableString snippet = new MarkingMutableString( TextMarker.HTML_STRONG, MarkingMutableString.HTML_ESCAPE ); 
+								MarkingMutableString snippet = new MarkingMutableString( TextMarker.HTML_STRONG, MarkingMutableString.HTML_ESCAPE ); 
 							
-							for( int j = 0; j < sortedIndex.length; j++ ) {
-								if ( ! sortedIndex[ j ].hasPositions || dsi.info == null ) continue;
-								selectedInterval = dsi.info.get( sortedIndex[ j ] );
-								if ( selectedInterval != null ) {
-									final int field = documentCollection.factory().fieldIndex( sortedIndex[ j ].field );
-									// If the field is not present (e.g., because of parallel indexing) or it is not text we skip
-									if ( field == -1 || documentCollection.factory().fieldType( field ) != DocumentFactory.FieldType.TEXT ) continue;
-									LOGGER.debug( "Found intervals for " + sortedIndex[ j ].field + " (" + field + ")" );
-									final Reader content = (Reader)document.content( field );
-									snippet.startField( selectedInterval ).appendAndMark( document.wordReader( field ).setReader( content ) ).endField();
+								for( int j = 0; j < sortedIndex.length; j++ ) {
+									if ( ! sortedIndex[ j ].hasPositions || dsi.info == null ) continue;
+									selectedInterval = dsi.info.get( sortedIndex[ j ] );
+									if ( selectedInterval != null ) {
+										final int field = documentCollection.factory().fieldIndex( sortedIndex[ j ].field );
+										// If the field is not present (e.g., because of parallel indexing) or it is not text we skip
+										if ( field == -1 || documentCollection.factory().fieldType( field ) != DocumentFactory.FieldType.TEXT ) continue;
+										LOGGER.debug( "Found intervals for " + sortedIndex[ j ].field + " (" + field + ")" );
+										// A forward index makes it unnecessary to parse again the document
+										final WordReader wordReader = collection instanceof ForwardIndex ? ((ForwardIndex)collection).wordReader( dsi.document, field ) : document.wordReader( field ).setReader( (Reader)document.content( field ) );
+										snippet.startField( selectedInterval ).appendAndMark( wordReader ).endField();
+									}
+									if ( LOGGER.isDebugEnabled() ) LOGGER.debug( sortedIndex[ j ].field + ": " + ( selectedInterval == null ? null : Arrays.asList( selectedInterval ) ) ); 
+									document.close();
 								}
-								if ( LOGGER.isDebugEnabled() ) LOGGER.debug( sortedIndex[ j ].field + ": " + ( selectedInterval == null ? null : Arrays.asList( selectedInterval ) ) ); 
-								document.close();
-							}
 							
-							resultItem.text = snippet; 
-						}
-						else {
-							if ( titleList != null ) {
-								// TODO: this is a bit radical
-								resultItem.title = resultItem.uri = titleList.get( resultItem.doc );
+								resultItem.text = snippet; 
 							}
 							else {
-								resultItem.title = "Document #" +  resultItem.doc;
-								resultItem.uri = new MutableString( "./Item?doc=" ).append( resultItem.doc ).append( "&m=" ).append( urlEncodedMimeType );
-							}
+								if ( titleList != null ) {
+									// TODO: this is a bit radical
+									resultItem.title = resultItem.uri = titleList.get( resultItem.doc );
+								}
+								else {
+									resultItem.title = "Document #" +  resultItem.doc;
+									resultItem.uri = new MutableString( "./Item?doc=" ).append( resultItem.doc ).append( "&m=" ).append( urlEncodedMimeType );
+								}
 							
-							MutableString text = new MutableString();
-							for( Iterator<Index> j = indexMap.values().iterator(); j.hasNext(); ) {
-								final Index index = j.next();
-								selectedInterval = dsi.info.get( index );
-								if ( selectedInterval != null )
-									text.append( "<p>" ).append( index.field ).append( ": " ).append( Arrays.asList( selectedInterval ) );
-								LOGGER.debug( index.field + ": " + ( selectedInterval == null ? null : Arrays.asList( selectedInterval ) ) ); 
+								MutableString text = new MutableString();
+								for( Iterator<Index> j = indexMap.values().iterator(); j.hasNext(); ) {
+									final Index index = j.next();
+									selectedInterval = dsi.info.get( index );
+									if ( selectedInterval != null )
+										text.append( "<p>" ).append( index.field ).append( ": " ).append( Arrays.asList( selectedInterval ) );
+									LOGGER.debug( index.field + ": " + ( selectedInterval == null ? null : Arrays.asList( selectedInterval ) ) ); 
+								}
+								resultItem.text = text;
 							}
-							resultItem.text = text;
 						}
 					}
-					
-					if ( collection != null ) collection.close();
+					finally {
+						if ( collection != null ) {
+							// Closing the iterator waits for the fetching tasks, so afterwards all copies are idle
+							documentIterator.close();
+							if ( fetchCopy != null ) for( DocumentCollection copy: fetchCopy ) returnCopy( copy );
+							returnCopy( collection );
+						}
+					}
 				}
 
 				
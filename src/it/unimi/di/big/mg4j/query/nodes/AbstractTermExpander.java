@@ -52,6 +52,14 @@ public abstract class AbstractTermExpander implements QueryTransformer {
 			return expand( node );
 		}
 
+		public Query visit( Infix node ) throws QueryBuilderVisitorException {
+			return node;
+		}
+
+		public Query visit( Fuzzy node ) throws QueryBuilderVisitorException {
+			return node;
+		}
+
 		public Query visit( Range node ) throws QueryBuilderVisitorException {
 			return node;
 		}
@@ -61,7 +69,7 @@ public abstract class AbstractTermExpander implements QueryTransformer {
 		}
 		
 		public Query visitPost( Consecutive node, Query[] subNode ) throws QueryBuilderVisitorException {
-			return new Consecutive( subNode );
+			return new Consecutive( subNode, node.gap );
 		}
 		
 		public Query visitPost( OrderedAnd node, Query[] subNode ) throws QueryBuilderVisitorException {
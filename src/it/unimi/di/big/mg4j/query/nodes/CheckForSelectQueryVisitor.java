@@ -123,6 +123,8 @@ public class CheckForSelectQueryVisitor implements QueryBuilderVisitor<Set<Strin
 	public Set<String> visitPost( Containment node, Set<String>[] v ) throws QueryBuilderVisitorException { return union( v ); }
 	public Set<String> visit( Term node ) throws QueryBuilderVisitorException { return ObjectSets.singleton( currentIndex.top() ); }
 	public Set<String> visit( Prefix node ) throws QueryBuilderVisitorException { return ObjectSets.singleton( currentIndex.top() ); }
+	public Set<String> visit( Infix node ) throws QueryBuilderVisitorException { return ObjectSets.singleton( currentIndex.top() ); }
+	public Set<String> visit( Fuzzy node ) throws QueryBuilderVisitorException { return ObjectSets.singleton( currentIndex.top() ); }
 	public Set<String> visit( Range node ) throws QueryBuilderVisitorException { return ObjectSets.singleton( currentIndex.top() ); }
 
 	public Set<String> visit( True node ) throws QueryBuilderVisitorException { return ObjectSets.singleton( currentIndex.top() ); }
@@ -0,0 +1,63 @@
+package it.unimi.di.big.mg4j.query.nodes;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.dsi.lang.MutableString;
+
+/** A node representing the set of terms within a given edit (Levenshtein) distance from a given term.
+ * 
+ * <p>Resolving this node requires an {@linkplain it.unimi.di.big.mg4j.index.TermNGramIndex n-gram index} of the terms.
+ * 
+ * @see it.unimi.di.big.mg4j.index.Index#documentsFuzzy(CharSequence, int, int)
+ */
+
+public class Fuzzy implements Query {
+	private static final long serialVersionUID = 1L;
+
+	/** The term represented approximately by this node. */
+	public final CharSequence term;
+	/** The maximum edit distance from {@link #term}. */
+	public final int maxDistance;
+	
+	public Fuzzy( final CharSequence term, final int maxDistance ) {
+		if ( maxDistance < 0 ) throw new IllegalArgumentException( "Illegal maximum distance: " + maxDistance );
+		this.term = term;
+		this.maxDistance = maxDistance;
+	}
+	
+	public String toString() {
+		return new MutableString().append( term ).append( '~' ).append( maxDistance ).toString();
+	}
+
+	public <T> T accept( final QueryBuilderVisitor<T> visitor ) throws QueryBuilderVisitorException {
+		return visitor.visit( this );
+	}
+
+	public boolean equals( final Object o ) {
+		if ( ! ( o instanceof Fuzzy ) ) return false;
+		return term.equals( ((Fuzzy)o).term ) && maxDistance == ((Fuzzy)o).maxDistance;
+	}
+	
+	public int hashCode() {
+		return term.hashCode() ^ maxDistance ^ getClass().hashCode();
+	}
+
+}
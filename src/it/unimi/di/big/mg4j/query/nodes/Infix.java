@@ -0,0 +1,59 @@
+package it.unimi.di.big.mg4j.query.nodes;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.dsi.lang.MutableString;
+
+/** A node representing the set of terms containing a given string.
+ * 
+ * <p>Resolving this node requires an {@linkplain it.unimi.di.big.mg4j.index.TermNGramIndex n-gram index} of the terms.
+ * 
+ * @see it.unimi.di.big.mg4j.index.Index#documentsInfix(CharSequence, int)
+ */
+
+public class Infix implements Query {
+	private static final long serialVersionUID = 1L;
+
+	/** The string contained in the set of terms represented by this node. */
+	public final CharSequence infix;
+	
+	public Infix( final CharSequence infix ) {
+		this.infix = infix;
+	}
+	
+	public String toString() {
+		return new MutableString().append( '*' ).append( infix ).append( '*' ).toString();
+	}
+
+	public <T> T accept( final QueryBuilderVisitor<T> visitor ) throws QueryBuilderVisitorException {
+		return visitor.visit( this );
+	}
+
+	public boolean equals( final Object o ) {
+		if ( ! ( o instanceof Infix ) ) return false;
+		return infix.equals( ((Infix)o).infix );
+	}
+	
+	public int hashCode() {
+		return infix.hashCode() ^ getClass().hashCode();
+	}
+
+}
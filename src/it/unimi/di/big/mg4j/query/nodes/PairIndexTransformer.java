@@ -0,0 +1,190 @@
+package it.unimi.di.big.mg4j.query.nodes;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.TermProcessor;
+import it.unimi.di.big.mg4j.tool.Scan;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.lang.MutableString;
+
+import java.util.Collection;
+
+/** A query transformer that rewrites phrases so that they are resolved using a {@linkplain Scan#pairs(Collection) pair index}.
+ * 
+ * <p>Every {@link Consecutive} node without gaps whose subqueries are all (literal) {@link Term} nodes and that is resolved
+ * against a given index is replaced by a {@link Select} node on the pair index associated with the given index. 
+ * The phrase is covered by pairs starting at every other term (with some overlap, if necessary), so the 
+ * phrase <samp>"to be or not to be"</samp> becomes
+ * <samp>pairs:"{to be} {or not} {to be}"</samp>, where the positions of the pairs are constrained using
+ * suitable {@linkplain Consecutive#gap gaps}. The posting lists of pairs are usually much shorter than those of their terms, and
+ * in particular of stopwords, and positions are merged for half the number of lists.
+ * 
+ * <p>Terms are processed by the term processor of the original index, so the pair terms generated by this 
+ * transformer match those generated by {@link Scan}. If the pair index has been built indexing only pairs containing
+ * some given terms, the same terms must be provided to this transformer: phrases that cannot be covered by indexed pairs will not be
+ * rewritten.
+ * 
+ * <p>Note that since pairs are indexed at the position of their first term, intervals returned by the rewritten
+ * query do not include the last term of the phrase.
+ */
+
+public class PairIndexTransformer extends AbstractTermExpander {
+	/** The name of the index whose phrases will be rewritten. */
+	public final String index;
+	/** Whether {@link #index} is the default index (i.e., whether phrases outside of {@link Select} nodes should be rewritten). */
+	public final boolean isDefault;
+	/** The name of the pair index. */
+	public final String pairIndex;
+	/** The term processor of {@link #index}. */
+	private final TermProcessor termProcessor;
+	/** If not {@code null}, the (processed) terms one of which must appear in a pair for it to be indexed. */
+	private final ObjectOpenHashSet<MutableString> pairTerms;
+
+	protected class ExpanderVisitor extends AbstractTermExpander.ExpanderVisitor {
+		/** The stack of selected indices. */
+		private final ObjectArrayList<CharSequence> selected = new ObjectArrayList<CharSequence>();
+		/** A copy of the term processor of {@link PairIndexTransformer#index}. */
+		private final TermProcessor termProcessor = PairIndexTransformer.this.termProcessor.copy();
+
+		public ExpanderVisitor copy() {
+			return new ExpanderVisitor();
+		}
+
+		@Override
+		public boolean visitPre( Select node ) {
+			selected.push( node.index );
+			return true;
+		}
+
+		@Override
+		public Query visitPost( Select node, Query subNode ) throws QueryBuilderVisitorException {
+			selected.pop();
+			return super.visitPost( node, subNode );
+		}
+
+		@Override
+		public Query visitPost( Consecutive node, Query[] subNode ) throws QueryBuilderVisitorException {
+			if ( selected.isEmpty() ? isDefault : index.equals( selected.top().toString() ) ) {
+				final Query pairs = pairs( node, termProcessor );
+				if ( pairs != null ) return pairs;
+			}
+			return super.visitPost( node, subNode );
+		}
+	}
+	
+	/** Creates a new pair-index transformer.
+	 * 
+	 * @param index the name of the index whose phrases will be rewritten.
+	 * @param isDefault whether <code>index</code> is the default index.
+	 * @param termProcessor the term processor of <code>index</code>.
+	 * @param pairIndex the name of the pair index associated with <code>index</code>.
+	 * @param pairTerms the terms one of which must appear in a pair for it to be indexed, or {@code null} if all pairs have been indexed.
+	 */
+	public PairIndexTransformer( final String index, final boolean isDefault, final TermProcessor termProcessor, final String pairIndex, final Collection<? extends CharSequence> pairTerms ) {
+		this.index = index;
+		this.isDefault = isDefault;
+		this.termProcessor = termProcessor;
+		this.pairIndex = pairIndex;
+		if ( pairTerms == null ) this.pairTerms = null;
+		else {
+			this.pairTerms = new ObjectOpenHashSet<MutableString>();
+			final TermProcessor copy = termProcessor.copy();
+			for( CharSequence term: pairTerms ) {
+				final MutableString t = new MutableString( term );
+				if ( copy.processTerm( t ) ) this.pairTerms.add( t.compact() );
+			}
+		}
+	}
+
+	/** Creates a new pair-index transformer for an index with a pair index containing all pairs.
+	 * 
+	 * @param index the name of the index whose phrases will be rewritten.
+	 * @param isDefault whether <code>index</code> is the default index.
+	 * @param termProcessor the term processor of <code>index</code>.
+	 */
+	public PairIndexTransformer( final String index, final boolean isDefault, final TermProcessor termProcessor ) {
+		this( index, isDefault, termProcessor, index + Scan.PAIR_INDEX_SUFFIX, null );
+	}
+
+	@Override
+	protected ExpanderVisitor expanderVisitor() {
+		return new ExpanderVisitor();
+	}
+
+	private boolean indexed( final MutableString[] term, final int start ) {
+		return pairTerms == null || pairTerms.contains( term[ start ] ) || pairTerms.contains( term[ start + 1 ] );
+	}
+
+	/** Rewrites a phrase using pairs, if possible.
+	 * 
+	 * @param consecutive a phrase.
+	 * @param termProcessor the term processor to be used.
+	 * @return a query on the pair index equivalent to <code>consecutive</code>, or {@code null} if the phrase cannot be rewritten.
+	 */
+	protected Query pairs( final Consecutive consecutive, final TermProcessor termProcessor ) {
+		final int n = consecutive.query.length;
+		if ( n < 2 || consecutive.gap != null ) return null;
+		final MutableString[] term = new MutableString[ n ];
+		for( int i = 0; i < n; i++ ) {
+			if ( ! ( consecutive.query[ i ] instanceof Term ) || ( (Term)consecutive.query[ i ] ).term == null ) return null;
+			term[ i ] = new MutableString( ( (Term)consecutive.query[ i ] ).term );
+			if ( ! termProcessor.processTerm( term[ i ] ) ) return null;
+		}
+
+		// We cover the phrase greedily, trying to skip one term at each step.
+		final int[] start = new int[ n - 1 ];
+		if ( ! indexed( term, 0 ) ) return null;
+		int k = 1;
+		for( int s = 0; s < n - 2; ) {
+			int next = Math.min( s + 2, n - 2 );
+			if ( ! indexed( term, next ) && ( next == s + 1 || ! indexed( term, next = s + 1 ) ) ) return null;
+			start[ k++ ] = s = next;
+		}
+
+		final Query[] pair = new Query[ k ];
+		final int[] gap = new int[ k ];
+		for( int i = 0; i < k; i++ ) {
+			pair[ i ] = new Term( new MutableString().append( term[ start[ i ] ] ).append( Scan.PAIR_SEPARATOR ).append( term[ start[ i ] + 1 ] ).toString() );
+			if ( i != 0 ) gap[ i ] = start[ i ] - start[ i - 1 ] - 1;
+		}
+
+		return new Select( pairIndex, k == 1 ? pair[ 0 ] : new Consecutive( pair, gap ) );
+	}
+
+	/** Returns the given term.
+	 * 
+	 * @return <code>term</code>.
+	 */
+	@Override
+	public Query expand( final Term term ) {
+		return term;
+	}
+
+	/** Returns the given prefix.
+	 * 
+	 * @return <code>prefix</code>.
+	 */
+	@Override
+	public Query expand( final Prefix prefix ) {
+		return prefix;
+	}
+}
@@ -310,6 +310,20 @@ public interface QueryBuilderVisitor<T> extends FlyweightPrototype<QueryBuilderV
 	 * @return an appropriate return value (usually, the object built using the elements in <code>subNodeResult</code>) if the visit should continue, or <code>null</code>.
 	 */
 	T visit( Prefix node ) throws QueryBuilderVisitorException;
+
+	/** Visits an {@link Infix}.
+	 * 
+	 * @param node the leaf to be visited.
+	 * @return an appropriate return value if the visit should continue, or <code>null</code>.
+	 */
+	T visit( Infix node ) throws QueryBuilderVisitorException;
+
+	/** Visits a {@link Fuzzy}.
+	 * 
+	 * @param node the leaf to be visited.
+	 * @return an appropriate return value if the visit should continue, or <code>null</code>.
+	 */
+	T visit( Fuzzy node ) throws QueryBuilderVisitorException;
 	
 	/** Visits a {@link Range}.
 	 * 
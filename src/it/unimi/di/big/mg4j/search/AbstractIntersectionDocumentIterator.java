@@ -20,8 +20,10 @@ package it.unimi.di.big.mg4j.search;
  *
  */
 
+import it.unimi.di.big.mg4j.index.BitmapIndexIterator;
 import it.unimi.di.big.mg4j.index.Index;
 import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.MultiTermIndexIterator;
 import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
 
 import java.io.IOException;
@@ -55,11 +57,36 @@ import java.util.Iterator;
  * after all standard index iterators (and general document iterators)
  * are aligned. At that point, the special method {@link PayloadPredicateDocumentIterator#skipUnconditionallyTo(long)}
  * is used to position unconditionally such iterators and check whether the payload predicate is satisfied.
- * If this doesn't happen, the current candidate (obtained by alignment of standard iterators) is increased and the
+ * If this doesn't happen, the current candidate (obtained by alignment of standard iterators) is advanced to 
+ * the next candidate suggested by {@link PayloadPredicateDocumentIterator#skipUnconditionallyTo(long)} and the
  * whole process is restarted. This procedure guarantees that we will never search exhaustively in a 
  * payload-based index a document record satisfying the predicate (unless, of course, we have a query
  * containing just {@link PayloadPredicateDocumentIterator}s), which is very efficient if the payload-based
  * index uses skipping.
+ * 
+ * <h2>Adaptive alignment</h2>
+ * 
+ * <p>Skipping is the right way to align an iterator whose frequency is much larger than that of 
+ * {@link #lastIterator} (e.g., a stopword in conjunction with a rare term), as skips in the index
+ * are essentially a form of galloping search. If, however, an index iterator has a frequency comparable
+ * to that of {@link #lastIterator} (e.g., two dense terms), on average just a few postings are 
+ * between two consecutive candidates, and the overhead of the skipping structures (e.g., reading
+ * skip towers or skip pointers) is not worth it. Thus, at construction time for each index iterator whose
+ * frequency is at most {@link #MERGE_RATIO} times that of {@link #lastIterator} we decide to align it by merging, that is,
+ * by calls to {@link DocumentIterator#nextDocument()}, rather than by {@link DocumentIterator#skipTo(long)}.
+ * Since frequencies say nothing about the distribution of postings, merging is bounded: if the candidate has not been
+ * reached after {@link #MERGE_STEPS} calls to {@link DocumentIterator#nextDocument()} the iterator falls back to 
+ * {@link DocumentIterator#skipTo(long)}, so long gaps (e.g., terms that are dense in different parts of the collection) are still skipped.
+ * This choice does not involve {@link MultiTermIndexIterator}s, whose frequency is just an estimate, and
+ * more generally iterators that are not index iterators, which are always aligned by skipping.
+ * 
+ * <p>Note that we do not perform galloping (exponential) search on postings directly, as iterators
+ * provide no random access to postings: galloping is left to the implementations of {@link DocumentIterator#skipTo(long)}, 
+ * which can exploit the skipping structures of the index.
+ * 
+ * <p>Finally, if all component iterators are {@linkplain BitmapIndexIterator bitmap-based index iterators}, 
+ * candidates are found by computing the AND of the {@linkplain BitmapIndexIterator#bitmapWord(long) words of the bitmaps}, and
+ * component iterators are just positioned on the common documents.
  */
 
 public abstract class AbstractIntersectionDocumentIterator extends AbstractCompositeDocumentIterator {
@@ -77,6 +104,14 @@ public abstract class AbstractIntersectionDocumentIterator extends AbstractCompo
 	private long numberOfDocuments;
 	/** Iterators in {@link #sortedIterator} up to this position (exclusive) are instances of {@link PayloadPredicateDocumentIterator}. */
 	private final int predicateStart;
+	/** A parallel array to {@link #sortedIterator} specifying whether the iterator should be aligned by merging rather than by skipping. */
+	private final boolean[] merge;
+	/** If all iterators in {@link #sortedIterator} are {@linkplain BitmapIndexIterator bitmap-based}, a copy of {@link #sortedIterator}; <code>null</code>, otherwise. */
+	private final BitmapIndexIterator[] bitmapIterator;
+	/** Index iterators whose frequency is at most this multiple of the frequency of {@link #lastIterator} are aligned by merging. */
+	public final static int MERGE_RATIO = 4;
+	/** The maximum number of calls to {@link DocumentIterator#nextDocument()} used to align an iterator by merging before falling back to skipping. */
+	public final static int MERGE_STEPS = 8;
 
 	/** Creates a new intersection iterator using a given array of iterators and a given index.
 	 *  @param index an index that will be passed to {@link AbstractCompositeDocumentIterator#AbstractCompositeDocumentIterator(Index, Object, DocumentIterator...)}.
@@ -120,7 +155,27 @@ public abstract class AbstractIntersectionDocumentIterator extends AbstractCompo
 		payloadPredicateDocumentIterator = new PayloadPredicateDocumentIterator[ predicateStart ];
 		for( i = predicateStart; i-- != 0; ) payloadPredicateDocumentIterator[ i ] = (PayloadPredicateDocumentIterator)sortedIterator[ i ];
 		
-		if ( DEBUG ) System.err.println( "Sorted iterators: " + Arrays.toString( sortedIterator ) );
+		merge = new boolean[ n ];
+		try {
+			if ( lastIterator instanceof IndexIterator && ! ( lastIterator instanceof MultiTermIndexIterator ) ) {
+				final long lastFrequency = ((IndexIterator)lastIterator).frequency();
+				for( i = n; i-- != predicateStart; ) 
+					merge[ i ] = sortedIterator[ i ] instanceof IndexIterator && ! ( sortedIterator[ i ] instanceof MultiTermIndexIterator ) 
+						&& ((IndexIterator)sortedIterator[ i ]).frequency() <= MERGE_RATIO * lastFrequency;
+			}
+		}
+		catch ( IOException e ) {
+			throw new RuntimeException( e );
+		}
+		
+		for( i = n; i-- != 0; ) if ( ! ( sortedIterator[ i ] instanceof BitmapIndexIterator ) ) break;
+		if ( i == -1 && n > 1 ) {
+			bitmapIterator = new BitmapIndexIterator[ n ];
+			System.arraycopy( sortedIterator, 0, bitmapIterator, 0, n );
+		}
+		else bitmapIterator = null;
+		
+		if ( DEBUG ) System.err.println( "Sorted iterators: " + Arrays.toString( sortedIterator ) + "; merged: " + Arrays.toString( merge ) + "; bitmaps: " + ( bitmapIterator != null ) );
 		
 		/* If any document iterator is surely empty, we set curr to END_OF_LIST,
 		 * so that mayHaveNext() can return false immediately.
@@ -156,11 +211,14 @@ public abstract class AbstractIntersectionDocumentIterator extends AbstractCompo
 	protected final long align( long to ) throws IOException {
 		if ( DEBUG ) System.err.println( this + ".align() [curr = " + curr + ", candidate = " + to + "]" );
 		
+		if ( bitmapIterator != null ) return alignBitmaps( to );
+		
 		final int predicateStart = this.predicateStart;
+		final boolean[] merge = this.merge;
 		
 		main: for(;;) {
 			for( int i = n; i-- != predicateStart; ) {
-				final long res = sortedIterator[ i ].skipTo( to );
+				final long res = merge[ i ] ? mergeTo( sortedIterator[ i ], to ) : sortedIterator[ i ].skipTo( to );
 				if ( res != to ) {
 					to = res;
 					continue main;
@@ -171,7 +229,9 @@ public abstract class AbstractIntersectionDocumentIterator extends AbstractCompo
 				final long res = payloadPredicateDocumentIterator[ i ].skipUnconditionallyTo( to );
 				if ( res != to ) {
 					if ( res < 0 ) {
-						if ( ++to == numberOfDocuments ) to = END_OF_LIST;
+						// The iterator suggests the next candidate
+						to = -res - 1;
+						if ( to >= numberOfDocuments ) to = END_OF_LIST;
 					}
 					else to = res;
 					continue main;
@@ -182,6 +242,48 @@ public abstract class AbstractIntersectionDocumentIterator extends AbstractCompo
 		}
 	}
 
+	/** Aligns bitmap-based index iterators by computing the AND of their bitmaps, starting from a given candidate.
+	 * 
+	 * @param to the first candidate; all iterators are assumed to be positioned before <code>to</code>, or on <code>to</code>.
+	 * @return the document on which all iterators are aligned, or {@link DocumentIterator#END_OF_LIST}. 
+	 */
+	private long alignBitmaps( final long to ) throws IOException {
+		if ( to == END_OF_LIST ) return END_OF_LIST;
+		final BitmapIndexIterator[] bitmapIterator = this.bitmapIterator;
+		final long numberOfWords = ( numberOfDocuments + Long.SIZE - 1 ) / Long.SIZE;
+		long word = to / Long.SIZE;
+		long w = -1L << to; // Shifts are modulo Long.SIZE
+		
+		for(;;) {
+			for( int i = n; i-- != 0; ) w &= bitmapIterator[ i ].bitmapWord( word );
+			if ( w != 0 ) break;
+			if ( ++word == numberOfWords ) {
+				for( int i = n; i-- != 0; ) bitmapIterator[ i ].skipTo( END_OF_LIST );
+				return END_OF_LIST;
+			}
+			w = -1L;
+		}
+		
+		final long result = word * Long.SIZE + Long.numberOfTrailingZeros( w );
+		for( int i = n; i-- != 0; ) bitmapIterator[ i ].skipTo( result );
+		return result;
+	}
+
+	/** Advances a document iterator to the first document larger than or equal to a given one by at most {@link #MERGE_STEPS} calls to
+	 * {@link DocumentIterator#nextDocument()}, followed if necessary by a call to {@link DocumentIterator#skipTo(long)}; 
+	 * it is semantically equivalent to {@link DocumentIterator#skipTo(long)}.
+	 * 
+	 * @param documentIterator a document iterator.
+	 * @param to a document pointer.
+	 * @return a document pointer larger than or equal to <code>to</code> if available, {@link DocumentIterator#END_OF_LIST}
+	 * otherwise.
+	 */
+	private static long mergeTo( final DocumentIterator documentIterator, final long to ) throws IOException {
+		long res = documentIterator.document();
+		for( int i = MERGE_STEPS; res < to && i-- != 0; ) res = documentIterator.nextDocument();
+		return res < to ? documentIterator.skipTo( to ) : res;
+	}
+
 	public Reference2ReferenceMap<Index,IntervalIterator> intervalIterators() throws IOException {
 		final Iterator<Index> i = indices.iterator();
 		while( i.hasNext() ) intervalIterator( i.next() );
@@ -0,0 +1,151 @@
+package it.unimi.di.big.mg4j.search;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.DocValues;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.search.visitor.DocumentIteratorVisitor;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
+import it.unimi.dsi.fastutil.objects.ReferenceSet;
+
+import java.io.IOException;
+
+/** A document iterator that filters another document iterator, returning just
+ * documents whose {@linkplain DocValues per-document value} is within a given range. 
+ * The interval iterators are computed by delegation to the underlying document iterator.
+ * 
+ * <p>Contrarily to a {@link PayloadPredicateDocumentIterator}, which scans the posting list of a payload-based index,
+ * this iterator accesses the value of each document returned by the underlying iterator in constant time. It is thus
+ * preferable when the underlying iterator is selective.
+ * 
+ * @since 5.4.4
+ */
+
+public class DocValuesDocumentIterator extends AbstractDocumentIterator implements DocumentIterator {
+	/** The underlying iterator. */
+	private final DocumentIterator documentIterator;
+	/** The column of per-document values. */
+	private final DocValues docValues;
+	/** The left extreme of the range (inclusive). */
+	private final long left;
+	/** The right extreme of the range (inclusive). */
+	private final long right;
+
+	/** Creates a new document-values document iterator over a given document iterator.
+	 * @param documentIterator a document iterator.
+	 * @param docValues a column of per-document values.
+	 * @param left the left extreme of the range (inclusive).
+	 * @param right the right extreme of the range (inclusive).
+	 */
+	protected DocValuesDocumentIterator( final DocumentIterator documentIterator, final DocValues docValues, final long left, final long right ) {
+		this.documentIterator = documentIterator;
+		this.docValues = docValues;
+		this.left = left;
+		this.right = right;
+	}
+
+	/** Returns a new document-values document iterator over a given document iterator.
+	 * 
+	 * <p>Note that documents without a value are never returned, as {@link DocValues#MISSING} is smaller than any valid left extreme.
+	 * 
+	 * @param documentIterator a document iterator.
+	 * @param docValues a column of per-document values.
+	 * @param left the left extreme of the range (inclusive), or {@link Long#MIN_VALUE} for no left extreme.
+	 * @param right the right extreme of the range (inclusive), or {@link Long#MAX_VALUE} for no right extreme.
+	 */
+	public static DocValuesDocumentIterator getInstance( final DocumentIterator documentIterator, final DocValues docValues, final long left, final long right ) {
+		return new DocValuesDocumentIterator( documentIterator, docValues, left == DocValues.MISSING ? left + 1 : left, right );
+	}
+
+	/** Returns whether the value of a document is within range.
+	 * 
+	 * @param document a document pointer.
+	 * @return whether the value of <code>document</code> is within range.
+	 */
+	private boolean accept( final long document ) {
+		final long v = docValues.get( document );
+		return v >= left && v <= right;
+	}
+
+	public ReferenceSet<Index> indices() {
+		return documentIterator.indices();
+	}
+
+	public long skipTo( final long n ) throws IOException {
+		if ( curr >= n ) return curr;
+		if ( ( curr = documentIterator.skipTo( n ) ) != END_OF_LIST && ! accept( curr ) ) nextDocument();
+		return curr;
+	}
+
+	public long nextDocument() throws IOException {
+		long d;
+		while( ( d = documentIterator.nextDocument() ) != END_OF_LIST && ! accept( d ) );
+		return curr = d;
+	}
+	
+	public boolean mayHaveNext() {
+		return documentIterator.mayHaveNext();
+	}
+
+	public void dispose() throws IOException {
+		documentIterator.dispose();
+	}
+	
+	public <T> T accept( final DocumentIteratorVisitor<T> visitor ) throws IOException {
+		if ( ! visitor.visitPre( this ) ) return null;
+		final T[] a = visitor.newArray( 1 );
+		if ( a == null ) {
+			if ( documentIterator.accept( visitor ) == null ) return null;
+		}
+		else {			
+			if ( ( a[ 0 ] = documentIterator.accept( visitor ) ) == null ) return null;
+		}
+		return visitor.visitPost( this, a );
+	}
+
+	public <T> T acceptOnTruePaths( final DocumentIteratorVisitor<T> visitor ) throws IOException {
+		if ( ! visitor.visitPre( this ) ) return null;
+		final T[] a = visitor.newArray( 1 );
+		if ( a == null ) {
+			if ( documentIterator.acceptOnTruePaths( visitor ) == null ) return null;
+		}
+		else {			
+			if ( ( a[ 0 ] = documentIterator.acceptOnTruePaths( visitor ) ) == null ) return null;
+		}
+		return visitor.visitPost( this, a );
+	}
+
+	public String toString() {
+	   return getClass().getSimpleName() + "(" + documentIterator + ")[" + left + ".." + right + "]";
+	}
+
+	public Reference2ReferenceMap<Index,IntervalIterator> intervalIterators() throws IOException {
+		return documentIterator.intervalIterators();
+	}
+
+	public IntervalIterator intervalIterator() throws IOException {
+		return documentIterator.intervalIterator();
+	}
+
+	public IntervalIterator intervalIterator( final Index index ) throws IOException {
+		return documentIterator.intervalIterator( index );
+	}
+}
@@ -33,7 +33,9 @@ import it.unimi.di.big.mg4j.query.nodes.Consecutive;
 import it.unimi.di.big.mg4j.query.nodes.Containment;
 import it.unimi.di.big.mg4j.query.nodes.Difference;
 import it.unimi.di.big.mg4j.query.nodes.False;
+import it.unimi.di.big.mg4j.query.nodes.Fuzzy;
 import it.unimi.di.big.mg4j.query.nodes.Inclusion;
+import it.unimi.di.big.mg4j.query.nodes.Infix;
 import it.unimi.di.big.mg4j.query.nodes.LowPass;
 import it.unimi.di.big.mg4j.query.nodes.MultiTerm;
 import it.unimi.di.big.mg4j.query.nodes.Not;
@@ -71,7 +73,9 @@ import java.util.NoSuchElementException;
  * index iterator may open a file or a socket).
  * 
  * <p>{@link Prefix} and {@link MultiTerm} nodes cause the creation of a {@link MultiTermIndexIterator},
- * in the first case by calling {@link it.unimi.di.big.mg4j.index.Index#documents(CharSequence,int)} and
+ * in the first case by calling {@link it.unimi.di.big.mg4j.index.Index#documents(CharSequence,int)} (analogously,
+ * {@link Infix} and {@link Fuzzy} nodes are resolved by {@link it.unimi.di.big.mg4j.index.Index#documentsInfix(CharSequence,int)}
+ * and {@link it.unimi.di.big.mg4j.index.Index#documentsFuzzy(CharSequence,int,int)}) and
  * in the second case by creating a {@link MultiTermIndexIterator} with the name and frequency equal to the
  * maximum frequency over all terms. Other implementations might choose differently.
  * 
@@ -112,7 +116,7 @@ public class DocumentIteratorBuilderVisitor extends AbstractQueryBuilderVisitor<
 	 * @param indexMap a map from index names to indices, to be used in {@link Select} nodes, or <code>null</code>
 	 * if the only used index is the default index.
 	 * @param defaultIndex the default index.
-	 * @param limit a limit that will be used with {@link Prefix} nodes.
+	 * @param limit a limit that will be used with {@link Prefix}, {@link Infix} and {@link Fuzzy} nodes.
 	 */
 	@SuppressWarnings("unchecked")
 	public DocumentIteratorBuilderVisitor( final Object2ReferenceMap<String,Index> indexMap, final Index defaultIndex, final int limit ) {
@@ -124,7 +128,7 @@ public class DocumentIteratorBuilderVisitor extends AbstractQueryBuilderVisitor<
 	 * @param indexMap a map from index names to indices, to be used in {@link Select} nodes, or <code>null</code>
 	 * if the only used index is the default index.
 	 * @param defaultIndex the default index.
-	 * @param limit a limit that will be used with {@link Prefix} nodes.
+	 * @param limit a limit that will be used with {@link Prefix}, {@link Infix} and {@link Fuzzy} nodes.
 	 */
 	public DocumentIteratorBuilderVisitor( final Object2ReferenceMap<String,Index> indexMap, final Reference2ReferenceMap<Index,Object> index2Parser, final Index defaultIndex, final int limit ) {
 		this.indexMap = indexMap;
@@ -192,6 +196,30 @@ public class DocumentIteratorBuilderVisitor extends AbstractQueryBuilderVisitor<
 		}
 	}
 		
+	public DocumentIterator visit( final Infix node ) throws QueryBuilderVisitorException {
+		try {
+			return curr.top().documentsInfix( node.infix, limit ).weight( weight() );
+		}
+		catch ( IOException e ) {
+			throw new QueryBuilderVisitorException( e );
+		}
+		catch ( TooManyTermsException e ) {
+			throw new QueryBuilderVisitorException( e );
+		}
+	}
+
+	public DocumentIterator visit( final Fuzzy node ) throws QueryBuilderVisitorException {
+		try {
+			return curr.top().documentsFuzzy( node.term, node.maxDistance, limit ).weight( weight() );
+		}
+		catch ( IOException e ) {
+			throw new QueryBuilderVisitorException( e );
+		}
+		catch ( TooManyTermsException e ) {
+			throw new QueryBuilderVisitorException( e );
+		}
+	}
+
 	public DocumentIterator visit( Range node ) throws QueryBuilderVisitorException {
 		final Index index = curr.top();
 		if ( ! index.hasPayloads ) throw new IllegalStateException( "Index " + index + " does not have payloads" );
@@ -201,6 +229,8 @@ public class DocumentIteratorBuilderVisitor extends AbstractQueryBuilderVisitor<
 			final Payload left = index.payload.copy(), right = index.payload.copy();
 			if ( node.left != null ) left.set( method.invoke( parser, node.left.toString() ) );
 			if ( node.right != null ) right.set( method.invoke( parser, node.right.toString() ) );
+			if ( index.payloadRangeIndex != null ) return PayloadRangeDocumentIterator.getInstance( index.documents( 0 ), index.payloadRangeIndex,
+					node.left == null ? null : left, node.right == null ? null : right ).weight( weight() );
 			return PayloadPredicateDocumentIterator.getInstance( index.documents( 0 ), 
 					index.payload.rangeFilter( node.left == null ? null : left, node.right == null ? null : right ) ).weight( weight() );
 		}
@@ -20,6 +20,13 @@ package it.unimi.di.big.mg4j.search;
  *
  */
 
+import it.unimi.di.big.mg4j.index.BitmapIndexIterator;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.MultiTermIndexIterator;
+import it.unimi.di.big.mg4j.search.visitor.CountEstimationVisitor;
+
+import java.io.IOException;
+
 /** A class providing static methods and objects that do useful things with document iterators. */
 
 public class DocumentIterators {
@@ -27,4 +34,92 @@ public class DocumentIterators {
 	protected DocumentIterators() {}
 	
 	final public static DocumentIterator[] EMPTY_ARRAY = {};
+
+	/** Returns the exact number of documents returned by a document iterator that has not been used yet.
+	 * 
+	 * <p>This method never asks for intervals, and tries to avoid scanning the iterator
+	 * whenever the answer is known in advance: the frequency of a plain {@link IndexIterator}
+	 * is returned directly, {@linkplain TrueDocumentIterator true} and {@linkplain FalseDocumentIterator false}
+	 * document iterators are answered in constant time, conjunctions of index iterators
+	 * containing an empty term are recognised as empty, and conjunctions and disjunctions of
+	 * {@linkplain BitmapIndexIterator bitmap-based index iterators} are counted a word at a time. Otherwise,
+	 * the iterator is scanned using {@link DocumentIterator#nextDocument()}, so that intersections 
+	 * are still resolved by skipping (see {@link AbstractIntersectionDocumentIterator}).
+	 * 
+	 * <p>Note that a {@link MultiTermIndexIterator} is always scanned, as its frequency is just an approximation.
+	 * 
+	 * <p>After a call to this method the iterator is exhausted, or in an undefined state.
+	 * 
+	 * @param documentIterator a document iterator on which {@link DocumentIterator#nextDocument()} and 
+	 * {@link DocumentIterator#skipTo(long)} have never been called (otherwise, only the remaining documents will be counted,
+	 * and no shortcut will be used).
+	 * @return the number of documents that <code>documentIterator</code> would return.
+	 */
+	public static long count( final DocumentIterator documentIterator ) throws IOException {
+		if ( documentIterator instanceof FalseDocumentIterator || ! documentIterator.mayHaveNext() ) return 0;
+		if ( documentIterator.document() == -1 ) {
+			// Shortcuts are possible only if the iterator has not been used yet.
+			if ( documentIterator instanceof TrueDocumentIterator ) return documentIterator.indices().iterator().next().numberOfDocuments;
+			if ( documentIterator instanceof IndexIterator && ! ( documentIterator instanceof MultiTermIndexIterator ) ) return ((IndexIterator)documentIterator).frequency();
+			if ( documentIterator instanceof AndDocumentIterator ) {
+				final IndexIterator[] indexIterator = ((AndDocumentIterator)documentIterator).indexIterator;
+				if ( indexIterator != null ) for( int i = indexIterator.length; i-- != 0; ) if ( indexIterator[ i ].frequency() == 0 ) return 0;
+				if ( allBitmaps( indexIterator ) ) return countBitmaps( indexIterator, true );
+			}
+			if ( documentIterator instanceof OrDocumentIterator ) {
+				final IndexIterator[] indexIterator = ((OrDocumentIterator)documentIterator).indexIterator;
+				if ( allBitmaps( indexIterator ) ) return countBitmaps( indexIterator, false );
+			}
+		}
+		
+		long count = 0;
+		while( documentIterator.nextDocument() != DocumentIterator.END_OF_LIST ) count++;
+		return count;
+	}
+
+	/** Returns whether all given index iterators are {@linkplain BitmapIndexIterator bitmap-based} and have not been used yet.
+	 * 
+	 * @param indexIterator an array of index iterators, or <code>null</code>. 
+	 * @return true if <code>indexIterator</code> is not <code>null</code> and all its elements are unused bitmap-based index iterators.
+	 */
+	private static boolean allBitmaps( final IndexIterator[] indexIterator ) {
+		if ( indexIterator == null ) return false;
+		for( int i = indexIterator.length; i-- != 0; ) if ( ! ( indexIterator[ i ] instanceof BitmapIndexIterator ) || indexIterator[ i ].document() != -1 ) return false;
+		return true;
+	}
+	
+	/** Counts the documents in the intersection or in the union of the bitmaps of the given index iterators.
+	 * 
+	 * @param indexIterator a nonempty array of {@linkplain BitmapIndexIterator bitmap-based index iterators}. 
+	 * @param and whether to compute the intersection (otherwise, the union).
+	 * @return the number of documents in the intersection or in the union of the bitmaps.
+	 */
+	private static long countBitmaps( final IndexIterator[] indexIterator, final boolean and ) {
+		final long numberOfWords = ( indexIterator[ 0 ].index().numberOfDocuments + Long.SIZE - 1 ) / Long.SIZE;
+		final int n = indexIterator.length;
+		long count = 0;
+		for( long word = 0; word < numberOfWords; word++ ) {
+			long w = ((BitmapIndexIterator)indexIterator[ n - 1 ]).bitmapWord( word );
+			if ( and ) for( int i = n - 1; i-- != 0; ) w &= ((BitmapIndexIterator)indexIterator[ i ]).bitmapWord( word );
+			else for( int i = n - 1; i-- != 0; ) w |= ((BitmapIndexIterator)indexIterator[ i ]).bitmapWord( word );
+			count += Long.bitCount( w );
+		}
+		return count;
+	}
+
+	/** Returns an estimate of the number of documents returned by a document iterator, 
+	 * computed from term frequencies only, without scanning the iterator.
+	 * 
+	 * <p>The estimate is computed by a {@link CountEstimationVisitor}, and it is meant
+	 * for user interfaces that just display the approximate number of results of large 
+	 * disjunctions: the iterator is visited, but it is not advanced, so it can still be used after the call.
+	 * 
+	 * @param documentIterator a document iterator.
+	 * @return an estimate of the number of documents that <code>documentIterator</code> would return.
+	 */
+	public static long estimateCount( final DocumentIterator documentIterator ) throws IOException {
+		final long numberOfDocuments = documentIterator.indices().iterator().next().numberOfDocuments;
+		final Double fraction = documentIterator.accept( new CountEstimationVisitor() );
+		return Math.round( fraction.doubleValue() * numberOfDocuments );
+	}
 }
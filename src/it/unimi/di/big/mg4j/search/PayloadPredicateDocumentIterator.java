@@ -47,9 +47,9 @@ import org.apache.commons.collections.Predicate;
 
 public class PayloadPredicateDocumentIterator extends AbstractDocumentIterator implements DocumentIterator {
 	/** The underlying iterator. */
-	private final IndexIterator indexIterator;
+	protected final IndexIterator indexIterator;
 	/** The predicate to filter payloads. */
-	private final Predicate payloadPredicate;
+	protected final Predicate payloadPredicate;
 
 	/** Creates a new payload-predicate document iterator over a given index iterator.
 	 * @param indexIterator an index iterator.
@@ -79,12 +79,17 @@ public class PayloadPredicateDocumentIterator extends AbstractDocumentIterator i
 	}
 
 	/** Skips to the given document, even if the document does not satisfy the predicate of this document iterator.
+	 * 
+	 * <p>If the document does not satisfy the predicate, the returned value encodes a document <code>q</code> 
+	 * such that no document between <code>p</code> (inclusive) and <code>q</code> (exclusive) satisfies the predicate, 
+	 * so that callers can use <code>q</code> as the next candidate. This class simply returns <code>q</code> = <code>p</code> + 1, 
+	 * but subclasses may return larger values (see, e.g., {@link PayloadRangeDocumentIterator}).
 	 * 
 	 * @param candidate a document pointer.
-	 * @return assuming that <code>p</code> is the first document pointer larger than or equal to <code>n</code>,
-	 * <code>p</code> if document <code>p</code> satisfies the predicate, <code>-p-1</code> otherwise; 
-	 * if there is no document
-	 * pointer larger than or equal to <code>n</code>, {@link DocumentIterator#END_OF_LIST}.
+	 * @return assuming that <code>p</code> is the first document pointer larger than or equal to <code>candidate</code>,
+	 * <code>p</code> if document <code>p</code> satisfies the predicate, <code>-q-1</code> otherwise, where <code>q</code> &gt; <code>p</code>
+	 * is a lower bound on the next document satisfying the predicate; 
+	 * if there is no document pointer larger than or equal to <code>candidate</code> (or no such document satisfies the predicate), {@link DocumentIterator#END_OF_LIST}.
 	 * @throws IOException 
 	 * @see #skipTo(long)
 	 */
@@ -92,7 +97,7 @@ public class PayloadPredicateDocumentIterator extends AbstractDocumentIterator i
 	public long skipUnconditionallyTo( final long candidate ) throws IOException {
 		if ( curr < candidate ) curr = indexIterator.skipTo( candidate );
 		if ( curr == END_OF_LIST ) return END_OF_LIST;
-		return payloadPredicate.evaluate( indexIterator.payload() ) ? curr : -curr - 1;
+		return payloadPredicate.evaluate( indexIterator.payload() ) ? curr : -( curr + 1 ) - 1;
 	}
 	
 	public long nextDocument() throws IOException {
@@ -0,0 +1,139 @@
+package it.unimi.di.big.mg4j.search;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.payload.Payload;
+import it.unimi.di.big.mg4j.index.payload.PayloadRangeIndex;
+
+import java.io.IOException;
+
+/** A payload-predicate document iterator for range queries that uses a {@link PayloadRangeIndex} to
+ * skip blocks of postings.
+ * 
+ * <p>Blocks whose payloads are all out of range are skipped using {@link IndexIterator#skipTo(long)}, so their
+ * payloads are never decoded; when this iterator is part of an intersection, {@link #skipUnconditionallyTo(long)} suggests
+ * as next candidate the first document of the next block that might contain documents within range, so rejected blocks
+ * are skipped as a whole by all iterators of the intersection. Documents in blocks whose payloads are all within range are returned without evaluating 
+ * the predicate. Only the remaining blocks are filtered posting by posting, as in a {@link PayloadPredicateDocumentIterator}.
+ * 
+ * @since 5.4.4
+ */
+
+public class PayloadRangeDocumentIterator extends PayloadPredicateDocumentIterator {
+	/** The payload-range index. */
+	private final PayloadRangeIndex payloadRangeIndex;
+	/** The left extreme of the range (inclusive), or <code>null</code>. */
+	private final Payload left;
+	/** The right extreme of the range (inclusive), or <code>null</code>. */
+	private final Payload right;
+	/** The current block. */
+	private int block;
+	/** The first document of the current block. */
+	private long blockStart = -1;
+	/** The first document of the block following the current one. */
+	private long blockEnd = -1;
+	/** Whether some payload of the current block might be within range. */
+	private boolean candidate;
+	/** Whether all payloads of the current block are within range. */
+	private boolean contained;
+
+	/** Creates a new payload-range document iterator.
+	 * @param indexIterator an iterator on the payload-based index over which <code>payloadRangeIndex</code> was built.
+	 * @param payloadRangeIndex a payload-range index.
+	 * @param left the left extreme of the range (inclusive), or <code>null</code>.
+	 * @param right the right extreme of the range (inclusive), or <code>null</code>.
+	 */
+	protected PayloadRangeDocumentIterator( final IndexIterator indexIterator, final PayloadRangeIndex payloadRangeIndex, final Payload left, final Payload right ) {
+		super( indexIterator, indexIterator.index().payload.rangeFilter( left, right ) );
+		this.payloadRangeIndex = payloadRangeIndex;
+		this.left = left;
+		this.right = right;
+	}
+
+	/** Returns a new payload-range document iterator.
+	 * @param indexIterator an iterator on the payload-based index over which <code>payloadRangeIndex</code> was built.
+	 * @param payloadRangeIndex a payload-range index.
+	 * @param left the left extreme of the range (inclusive), or <code>null</code>.
+	 * @param right the right extreme of the range (inclusive), or <code>null</code>.
+	 */
+	public static PayloadRangeDocumentIterator getInstance( final IndexIterator indexIterator, final PayloadRangeIndex payloadRangeIndex, final Payload left, final Payload right ) {
+		return new PayloadRangeDocumentIterator( indexIterator, payloadRangeIndex, left, right );
+	}
+
+	/** Sets the current block to the one containing a given document of the underlying index iterator. */
+	private void locate( final long d ) {
+		block = payloadRangeIndex.block( d );
+		blockStart = payloadRangeIndex.firstDocument( block );
+		blockEnd = payloadRangeIndex.firstDocument( block + 1 );
+		candidate = payloadRangeIndex.intersects( block, left, right );
+		contained = candidate && payloadRangeIndex.contained( block, left, right );
+	}
+
+	/** Returns the first document greater than or equal to a given document of the underlying index iterator that satisfies the range.
+	 * 
+	 * @param d the current document of the underlying index iterator.
+	 * @return the first document greater than or equal to <code>d</code> satisfying the range, or {@link DocumentIterator#END_OF_LIST}.
+	 */
+	private long next( long d ) throws IOException {
+		while( d != END_OF_LIST ) {
+			if ( d < blockStart || d >= blockEnd ) locate( d );
+			if ( ! candidate ) {
+				final int next = payloadRangeIndex.nextCandidate( block + 1, left, right );
+				if ( next == payloadRangeIndex.numberOfBlocks() ) return END_OF_LIST;
+				d = indexIterator.skipTo( payloadRangeIndex.firstDocument( next ) );
+				continue;
+			}
+			if ( contained || payloadPredicate.evaluate( indexIterator.payload() ) ) return d;
+			d = indexIterator.nextDocument();
+		}
+		return END_OF_LIST;
+	}
+
+	@Override
+	public long skipTo( final long n ) throws IOException {
+		if ( curr >= n ) return curr;
+		return curr = next( indexIterator.skipTo( n ) );
+	}
+
+	@Override
+	public long skipUnconditionallyTo( final long candidate ) throws IOException {
+		if ( curr < candidate ) curr = indexIterator.skipTo( candidate );
+		if ( curr == END_OF_LIST ) return END_OF_LIST;
+		if ( curr < blockStart || curr >= blockEnd ) locate( curr );
+		if ( ! this.candidate ) {
+			// We suggest as next candidate the first document of the next block that might contain documents within range
+			final int next = payloadRangeIndex.nextCandidate( block + 1, left, right );
+			return next == payloadRangeIndex.numberOfBlocks() ? END_OF_LIST : -payloadRangeIndex.firstDocument( next ) - 1;
+		}
+		return contained || payloadPredicate.evaluate( indexIterator.payload() ) ? curr : -( curr + 1 ) - 1;
+	}
+
+	@Override
+	public long nextDocument() throws IOException {
+		return curr = next( indexIterator.nextDocument() );
+	}
+
+	@Override
+	public boolean mayHaveNext() {
+		return curr != END_OF_LIST && indexIterator.mayHaveNext();
+	}
+}
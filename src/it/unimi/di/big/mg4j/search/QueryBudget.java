@@ -0,0 +1,133 @@
+package it.unimi.di.big.mg4j.search;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/** A budget of time and postings for the evaluation of a query.
+ * 
+ * <p>A query budget is a simple cooperative cancellation device: {@linkplain it.unimi.di.big.mg4j.index.AbstractIndexIterator index iterators}
+ * reading postings from an index {@linkplain #consume() charge} to the budget each call to 
+ * {@link DocumentIterator#nextDocument() nextDocument()} and {@linkplain #skip() each call} to {@link DocumentIterator#skipTo(long) skipTo()}, and
+ * whoever consumes the results of a document iterator (e.g., a {@link it.unimi.di.big.mg4j.query.QueryEngine})
+ * {@linkplain #check() checks} the budget after each document. When the budget is exceeded,
+ * a {@link QueryBudgetExceededException} is thrown; the document iterators involved should be
+ * considered unusable, except for {@link DocumentIterator#dispose()}. In this way, a composite
+ * iterator that scans a large number of postings without returning a document (e.g., a conjunction
+ * of large, almost disjoint terms) is stopped as well.
+ * 
+ * <p>The system clock is read once every {@link #CHECK_INTERVAL} calls, so the overhead of 
+ * a budget is just an increment and a comparison per posting. The clock starts at construction time.
+ * A budget is attached to the leaves of a document iterator using a {@link it.unimi.di.big.mg4j.search.visitor.QueryBudgetSetupVisitor}.
+ * 
+ * <p>Since a budget counts postings and skips, an unlimited budget can be used just to gather statistics 
+ * (see {@link it.unimi.di.big.mg4j.query.QueryMetrics}).
+ * 
+ * <p>Instances of this class are not thread safe.
+ * 
+ * @since 5.4.4
+ */
+
+public class QueryBudget {
+	/** The number of calls to {@link #consume()} or {@link #check()} between two successive reads of the clock. */
+	public static final int CHECK_INTERVAL = 256;
+	/** The deadline, in the time base of {@link System#nanoTime()}. */
+	private final long deadline;
+	/** Whether {@link #deadline} is meaningful. */
+	private final boolean hasDeadline;
+	/** The maximum number of postings, or {@link Long#MAX_VALUE}. */
+	private final long maxPostings;
+	/** The number of postings consumed so far. */
+	private long postings;
+	/** The number of skips performed so far. */
+	private long skips;
+	/** The number of calls before the next reading of the clock. */
+	private int untilCheck;
+
+	/** Creates a new query budget.
+	 * 
+	 * @param timeout the maximum time allowed for evaluation, or 0 for no time limit.
+	 * @param unit the unit of <code>timeout</code>.
+	 * @param maxPostings the maximum number of postings that can be read, or 0 for no limit.
+	 */
+	public QueryBudget( final long timeout, final TimeUnit unit, final long maxPostings ) {
+		if ( timeout < 0 ) throw new IllegalArgumentException( "Illegal timeout: " + timeout );
+		if ( maxPostings < 0 ) throw new IllegalArgumentException( "Illegal maximum number of postings: " + maxPostings );
+		hasDeadline = timeout != 0;
+		deadline = System.nanoTime() + unit.toNanos( timeout );
+		this.maxPostings = maxPostings == 0 ? Long.MAX_VALUE : maxPostings;
+		untilCheck = CHECK_INTERVAL;
+	}
+
+	/** Charges a posting to this budget.
+	 * 
+	 * @throws QueryBudgetExceededException if the budget has been exceeded.
+	 */
+	public void consume() {
+		if ( ++postings > maxPostings ) throw new QueryBudgetExceededException( "Read more than " + maxPostings + " postings" );
+		if ( --untilCheck == 0 ) checkClock();
+	}
+
+	/** Charges a skip (and thus a posting) to this budget.
+	 * 
+	 * @throws QueryBudgetExceededException if the budget has been exceeded.
+	 */
+	public void skip() {
+		skips++;
+		consume();
+	}
+
+	/** Checks that this budget has not been exceeded, without charging postings.
+	 * 
+	 * <p>This method reads the clock once every {@link #CHECK_INTERVAL} calls (calls to {@link #consume()} included).
+	 * 
+	 * @throws QueryBudgetExceededException if the budget has been exceeded.
+	 */
+	public void check() {
+		if ( --untilCheck == 0 ) checkClock();
+	}
+	
+	private void checkClock() {
+		untilCheck = CHECK_INTERVAL;
+		if ( hasDeadline && System.nanoTime() - deadline > 0 ) throw new QueryBudgetExceededException( "Deadline expired after reading " + postings + " postings" );
+	}
+
+	/** Returns the number of postings charged to this budget so far.
+	 * 
+	 * @return the number of postings charged to this budget so far.
+	 */
+	public long postings() {
+		return postings;
+	}
+	
+	/** Returns the number of skips charged to this budget so far.
+	 * 
+	 * @return the number of skips charged to this budget so far.
+	 */
+	public long skips() {
+		return skips;
+	}
+	
+	public String toString() {
+		return "[postings: " + postings + "/" + ( maxPostings == Long.MAX_VALUE ? "unlimited" : Long.toString( maxPostings ) ) + ", skips: " + skips 
+				+ ( hasDeadline ? ", remaining ms: " + TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() ) : "" ) + "]";
+	}
+}
@@ -0,0 +1,37 @@
+package it.unimi.di.big.mg4j.search;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/** Thrown by document iterators to indicate that the {@link QueryBudget} of the query they belong to has been exceeded.
+ * 
+ * <p>This exception is unchecked, as it must propagate through {@link DocumentIterator#nextDocument()} and 
+ * {@link DocumentIterator#skipTo(long)}. It is normally caught by the code driving the iteration
+ * (e.g., {@link it.unimi.di.big.mg4j.query.QueryEngine}), which returns the results gathered so far.
+ * 
+ * @since 5.4.4
+ */
+public class QueryBudgetExceededException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public QueryBudgetExceededException( final String message ) {
+		super( message );
+	}
+}
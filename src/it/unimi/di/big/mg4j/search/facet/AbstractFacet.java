@@ -0,0 +1,150 @@
+package it.unimi.di.big.mg4j.search.facet;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.DocValues;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongRBTreeMap;
+import it.unimi.dsi.fastutil.longs.Long2LongSortedMap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/** An abstract facet counting the documents in buckets computed from the {@linkplain DocValues per-document values} of an index.
+ * 
+ * <p>Implementing subclasses must just provide the method {@link #bucket(long)} that maps a value to a key.
+ * If the column is {@linkplain DocValues.Coding#DICTIONARY dictionary-coded}, counts are accumulated directly
+ * in an array indexed by {@linkplain DocValues#code(long) codes}, and mapped to keys only by {@link #counts()}; otherwise, they
+ * are accumulated in a primitive hash map indexed by keys. Documents without a value are not counted.
+ * 
+ * @since 5.4.4
+ */
+
+public abstract class AbstractFacet implements Facet {
+	/** The name of this facet. */
+	protected final String name;
+	/** The column of values. */
+	protected final DocValues docValues;
+	/** The counts indexed by dictionary code, if {@link #docValues} is dictionary-coded, or <code>null</code>. */
+	private final long[] codeCount;
+	/** The code of {@link DocValues#MISSING}, if {@link #docValues} is dictionary-coded and contains missing values, or -1. */
+	private final int missingCode;
+	/** The counts indexed by key, if {@link #docValues} is not dictionary-coded, or <code>null</code>. */
+	private final Long2LongOpenHashMap keyCount;
+
+	/** Creates a new facet.
+	 * 
+	 * @param name the name of the facet.
+	 * @param docValues the column of values.
+	 */
+	protected AbstractFacet( final String name, final DocValues docValues ) {
+		this.name = name;
+		this.docValues = docValues;
+		if ( docValues.coding == DocValues.Coding.DICTIONARY ) {
+			codeCount = new long[ docValues.dictionarySize() ];
+			final int code = docValues.codeOf( DocValues.MISSING );
+			missingCode = code >= 0 ? code : -1;
+			keyCount = null;
+		}
+		else {
+			codeCount = null;
+			missingCode = -1;
+			keyCount = new Long2LongOpenHashMap();
+		}
+	}
+
+	/** Returns the key of the bucket of a value.
+	 * 
+	 * @param value a value (never {@link DocValues#MISSING}).
+	 * @return the key of the bucket of <code>value</code>, or {@link DocValues#MISSING} if <code>value</code> should not be counted. 
+	 */
+	protected abstract long bucket( long value );
+
+	public String name() {
+		return name;
+	}
+
+	public void collect( final long document ) {
+		if ( codeCount != null ) codeCount[ docValues.code( document ) ]++;
+		else {
+			final long value = docValues.get( document );
+			if ( value == DocValues.MISSING ) return;
+			final long key = bucket( value );
+			if ( key != DocValues.MISSING ) keyCount.addTo( key, 1 );
+		}
+	}
+
+	public void clear() {
+		if ( codeCount != null ) Arrays.fill( codeCount, 0 );
+		else keyCount.clear();
+	}
+
+	public Long2LongSortedMap counts() {
+		final Long2LongSortedMap counts = new Long2LongRBTreeMap();
+		if ( codeCount != null ) {
+			for( int code = 0; code < codeCount.length; code++ ) {
+				if ( codeCount[ code ] == 0 || code == missingCode ) continue;
+				final long key = bucket( docValues.value( code ) );
+				if ( key != DocValues.MISSING ) counts.put( key, counts.get( key ) + codeCount[ code ] );
+			}
+		}
+		else for( Long2LongMap.Entry e: keyCount.long2LongEntrySet() ) counts.put( e.getLongKey(), e.getLongValue() );
+		return counts;
+	}
+
+	public String label( final long key ) {
+		return Long.toString( key );
+	}
+
+	/** Adds partial counts to a map of counts.
+	 * 
+	 * @param counts a map of counts, which will be modified by adding <code>partial</code>.
+	 * @param partial a map of partial counts (e.g., returned by {@link Facet#counts()} on a local index).
+	 * @return <code>counts</code>.
+	 */
+	public static Long2LongSortedMap merge( final Long2LongSortedMap counts, final Long2LongSortedMap partial ) {
+		for( Long2LongMap.Entry e: partial.long2LongEntrySet() ) counts.put( e.getLongKey(), counts.get( e.getLongKey() ) + e.getLongValue() );
+		return counts;
+	}
+	
+	/** Returns a string representation of counts, using the labels of a facet.
+	 * 
+	 * @param facet a facet.
+	 * @param counts counts returned by <code>facet</code>.
+	 * @return a string representation of <code>counts</code>.
+	 */
+	public static String toString( final Facet facet, final Map<Long,Long> counts ) {
+		final StringBuilder s = new StringBuilder();
+		s.append( facet.name() ).append( '{' );
+		boolean first = true;
+		for( Map.Entry<Long,Long> e: counts.entrySet() ) {
+			if ( ! first ) s.append( ", " );
+			first = false;
+			s.append( facet.label( e.getKey().longValue() ) ).append( '=' ).append( e.getValue() );
+		}
+		return s.append( '}' ).toString();
+	}
+	
+	public String toString() {
+		return toString( this, counts() );
+	}
+}
@@ -0,0 +1,93 @@
+package it.unimi.di.big.mg4j.search.facet;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.cluster.DocumentalCluster;
+import it.unimi.di.big.mg4j.index.cluster.DocumentalPartitioningStrategy;
+import it.unimi.dsi.fastutil.longs.Long2LongRBTreeMap;
+import it.unimi.dsi.fastutil.longs.Long2LongSortedMap;
+
+/** A facet over a {@linkplain DocumentalCluster documental cluster} that delegates counting to facets over the local indices.
+ * 
+ * <p>Global document pointers are mapped to local indices and local pointers using the 
+ * {@linkplain DocumentalPartitioningStrategy partitioning strategy} of the cluster; counts returned by {@link #counts()}
+ * are the {@linkplain AbstractFacet#merge(Long2LongSortedMap, Long2LongSortedMap) merge} of the counts of the local facets.
+ * 
+ * @since 5.4.4
+ */
+
+public class ClusteredFacet implements Facet {
+	/** The strategy of the cluster. */
+	private final DocumentalPartitioningStrategy strategy;
+	/** The facets over the local indices. */
+	private final Facet[] localFacet;
+
+	/** Creates a new clustered facet.
+	 * 
+	 * @param cluster a documental cluster whose strategy is a {@link DocumentalPartitioningStrategy}.
+	 * @param localFacet facets over the local indices of <code>cluster</code>, which must have the same name and compute compatible keys.
+	 */
+	public ClusteredFacet( final DocumentalCluster cluster, final Facet[] localFacet ) {
+		localIndex( cluster );
+		if ( localFacet.length != cluster.localIndex().length ) throw new IllegalArgumentException( "The number of local facets (" + localFacet.length + ") is not equal to the number of local indices (" + cluster.localIndex().length + ")" );
+		this.strategy = (DocumentalPartitioningStrategy)cluster.strategy();
+		this.localFacet = localFacet;
+	}
+
+	/** Returns the local indices of an index, checking that it is a documental cluster whose strategy is a partitioning strategy.
+	 * 
+	 * @param index an index.
+	 * @return the local indices of <code>index</code>.
+	 */
+	static Index[] localIndex( final Index index ) {
+		if ( ! ( index instanceof DocumentalCluster ) ) throw new IllegalArgumentException( "Index " + index + " has no document values and it is not a documental cluster" );
+		final DocumentalCluster cluster = (DocumentalCluster)index;
+		if ( ! ( cluster.strategy() instanceof DocumentalPartitioningStrategy ) ) throw new IllegalArgumentException( "The strategy of cluster " + index + " is not a partitioning strategy" );
+		return cluster.localIndex();
+	}
+	
+	public String name() {
+		return localFacet[ 0 ].name();
+	}
+
+	public void collect( final long document ) {
+		localFacet[ strategy.localIndex( document ) ].collect( strategy.localPointer( document ) );
+	}
+
+	public void clear() {
+		for( Facet facet: localFacet ) facet.clear();
+	}
+
+	public Long2LongSortedMap counts() {
+		final Long2LongSortedMap counts = new Long2LongRBTreeMap();
+		for( Facet facet: localFacet ) AbstractFacet.merge( counts, facet.counts() );
+		return counts;
+	}
+
+	public String label( final long key ) {
+		return localFacet[ 0 ].label( key );
+	}
+
+	public String toString() {
+		return AbstractFacet.toString( this, counts() );
+	}
+}
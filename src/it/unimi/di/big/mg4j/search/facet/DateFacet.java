@@ -0,0 +1,118 @@
+package it.unimi.di.big.mg4j.search.facet;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.DocValues;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.cluster.DocumentalCluster;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/** A facet counting documents whose values are dates (in milliseconds since the epoch, as stored by 
+ * {@link it.unimi.di.big.mg4j.tool.Scan} for date fields) in calendar buckets. 
+ * 
+ * <p>Buckets are days, months or years in UTC, and they are identified by the time of their first millisecond.
+ * Computations are performed arithmetically, so no calendar object is allocated during counting.
+ * 
+ * @since 5.4.4
+ */
+
+public class DateFacet extends AbstractFacet {
+	/** The number of milliseconds in a day. */
+	private static final long MILLISECONDS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	/** The possible calendar units of the buckets. */
+	public static enum Unit {
+		DAY,
+		MONTH,
+		YEAR
+	}
+
+	/** The calendar unit of the buckets. */
+	public final Unit unit;
+	
+	/** Creates a new date facet.
+	 * 
+	 * @param name the name of the facet.
+	 * @param docValues the column of values.
+	 * @param unit the calendar unit of the buckets.
+	 */
+	public DateFacet( final String name, final DocValues docValues, final Unit unit ) {
+		super( name, docValues );
+		this.unit = unit;
+	}
+
+	/** Returns a new date facet over the values of an index, which must have {@linkplain Index#docValues document values} or be a 
+	 * {@linkplain DocumentalCluster documental cluster} whose local indices have document values.
+	 * 
+	 * @param name the name of the facet.
+	 * @param index an index.
+	 * @param unit the calendar unit of the buckets.
+	 * @return a date facet over the values of <code>index</code>.
+	 */
+	public static Facet getInstance( final String name, final Index index, final Unit unit ) {
+		if ( index.docValues != null ) return new DateFacet( name, index.docValues, unit );
+		final Index[] localIndex = ClusteredFacet.localIndex( index );
+		final Facet[] localFacet = new Facet[ localIndex.length ];
+		for( int i = 0; i < localIndex.length; i++ ) localFacet[ i ] = getInstance( name, localIndex[ i ], unit );
+		return new ClusteredFacet( (DocumentalCluster)index, localFacet );
+	}
+
+	/** Returns the number of days from the epoch of the first day of a month of the proleptic Gregorian calendar.
+	 * 
+	 * @param year a year.
+	 * @param month a month (1-12).
+	 * @return the number of days from the epoch of the first day of <code>month</code> in <code>year</code>.
+	 */
+	private static long firstDay( long year, final int month ) {
+		if ( month <= 2 ) year--;
+		final long era = ( year >= 0 ? year : year - 399 ) / 400;
+		final long yearOfEra = year - era * 400;
+		final long dayOfYear = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5;
+		final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	protected long bucket( final long value ) {
+		final long day = value >= 0 ? value / MILLISECONDS_PER_DAY : ( value + 1 ) / MILLISECONDS_PER_DAY - 1;
+		if ( unit == Unit.DAY ) return day * MILLISECONDS_PER_DAY;
+
+		// Converts the day into a year and a month of the proleptic Gregorian calendar
+		final long shifted = day + 719468;
+		final long era = ( shifted >= 0 ? shifted : shifted - 146096 ) / 146097;
+		final long dayOfEra = shifted - era * 146097;
+		final long yearOfEra = ( dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096 ) / 365;
+		final long dayOfYear = dayOfEra - ( 365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100 );
+		final long shiftedMonth = ( 5 * dayOfYear + 2 ) / 153;
+		final int month = (int)( shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9 );
+		final long year = yearOfEra + era * 400 + ( month <= 2 ? 1 : 0 );
+		
+		return firstDay( year, unit == Unit.MONTH ? month : 1 ) * MILLISECONDS_PER_DAY;
+	}
+
+	public String label( final long key ) {
+		final SimpleDateFormat dateFormat = new SimpleDateFormat( unit == Unit.DAY ? "yyyy-MM-dd" : unit == Unit.MONTH ? "yyyy-MM" : "yyyy" );
+		dateFormat.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+		return dateFormat.format( new Date( key ) );
+	}
+}
@@ -0,0 +1,67 @@
+package it.unimi.di.big.mg4j.search.facet;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.dsi.fastutil.longs.Long2LongSortedMap;
+
+/** A facet, that is, a set of counters over the values or buckets of values of the documents satisfying a query.
+ * 
+ * <p>A facet is fed documents using {@link #collect(long)} while a document iterator is being consumed (e.g., by
+ * {@link it.unimi.di.big.mg4j.query.QueryEngine#process(it.unimi.di.big.mg4j.query.nodes.Query[], int, int, it.unimi.dsi.fastutil.objects.ObjectArrayList, Facet[])}),
+ * and {@link #counts()} returns the nonzero counts, indexed by a long <em>key</em> (a value, or the smallest value of a bucket) 
+ * that can be made human readable using {@link #label(long)}. 
+ * 
+ * <p>Implementations are expected not to allocate objects in {@link #collect(long)}.
+ * Counts computed by different facets (e.g., on different local indices of a cluster) can be merged using {@link AbstractFacet#merge(Long2LongSortedMap, Long2LongSortedMap)}.
+ * 
+ * @since 5.4.4
+ */
+
+public interface Facet {
+	
+	/** Returns the name of this facet.
+	 * 
+	 * @return the name of this facet.
+	 */
+	public String name();
+
+	/** Counts a document.
+	 * 
+	 * @param document a document pointer.
+	 */
+	public void collect( long document );
+
+	/** Resets all counts of this facet. */
+	public void clear();
+	
+	/** Returns the nonzero counts of this facet.
+	 * 
+	 * @return a newly allocated map from keys to nonzero counts.
+	 */
+	public Long2LongSortedMap counts();
+	
+	/** Returns a human-readable label for a key.
+	 * 
+	 * @param key a key returned by {@link #counts()}.
+	 * @return a human-readable label for <code>key</code>.
+	 */
+	public String label( long key );
+}
@@ -0,0 +1,89 @@
+package it.unimi.di.big.mg4j.search.facet;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.DocValues;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.cluster.DocumentalCluster;
+
+/** A facet counting documents in a numeric histogram with buckets of fixed width.
+ * 
+ * <p>Buckets are the half-open intervals [<var>origin</var>&nbsp;+&nbsp;<var>k</var>&nbsp;<var>width</var>..<var>origin</var>&nbsp;+&nbsp;(<var>k</var>&nbsp;+&nbsp;1)&nbsp;<var>width</var>)
+ * for 0&nbsp;&le;&nbsp;<var>k</var>&nbsp;&lt;&nbsp;<var>buckets</var>, and they are identified by their left extreme. 
+ * Values outside of the buckets are not counted.
+ * 
+ * @since 5.4.4
+ */
+
+public class HistogramFacet extends AbstractFacet {
+	/** The left extreme of the first bucket. */
+	public final long origin;
+	/** The width of a bucket. */
+	public final long width;
+	/** The number of buckets. */
+	public final long buckets;
+
+	/** Creates a new histogram facet.
+	 * 
+	 * @param name the name of the facet.
+	 * @param docValues the column of values.
+	 * @param origin the left extreme of the first bucket.
+	 * @param width the width of a bucket.
+	 * @param buckets the number of buckets.
+	 */
+	public HistogramFacet( final String name, final DocValues docValues, final long origin, final long width, final long buckets ) {
+		super( name, docValues );
+		if ( width <= 0 ) throw new IllegalArgumentException( "Illegal bucket width: " + width );
+		if ( buckets <= 0 ) throw new IllegalArgumentException( "Illegal number of buckets: " + buckets );
+		this.origin = origin;
+		this.width = width;
+		this.buckets = buckets;
+	}
+
+	/** Returns a new histogram facet over the values of an index, which must have {@linkplain Index#docValues document values} or be a 
+	 * {@linkplain DocumentalCluster documental cluster} whose local indices have document values.
+	 * 
+	 * @param name the name of the facet.
+	 * @param index an index.
+	 * @param origin the left extreme of the first bucket.
+	 * @param width the width of a bucket.
+	 * @param buckets the number of buckets.
+	 * @return a histogram facet over the values of <code>index</code>.
+	 */
+	public static Facet getInstance( final String name, final Index index, final long origin, final long width, final long buckets ) {
+		if ( index.docValues != null ) return new HistogramFacet( name, index.docValues, origin, width, buckets );
+		final Index[] localIndex = ClusteredFacet.localIndex( index );
+		final Facet[] localFacet = new Facet[ localIndex.length ];
+		for( int i = 0; i < localIndex.length; i++ ) localFacet[ i ] = getInstance( name, localIndex[ i ], origin, width, buckets );
+		return new ClusteredFacet( (DocumentalCluster)index, localFacet );
+	}
+
+	protected long bucket( final long value ) {
+		if ( value < origin ) return DocValues.MISSING;
+		final long k = ( value - origin ) / width;
+		// The difference might overflow for very large values
+		return k < 0 || k >= buckets ? DocValues.MISSING : origin + k * width;
+	}
+
+	public String label( final long key ) {
+		return "[" + key + ".." + ( key + width ) + ")";
+	}
+}
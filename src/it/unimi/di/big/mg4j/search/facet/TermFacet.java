@@ -0,0 +1,64 @@
+package it.unimi.di.big.mg4j.search.facet;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.DocValues;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.cluster.DocumentalCluster;
+
+/** A facet counting documents by value (e.g., by category identifier). 
+ * 
+ * <p>This facet is best used with {@linkplain DocValues.Coding#DICTIONARY dictionary-coded} columns, as in that case
+ * counting requires just incrementing an element of an array.
+ * 
+ * @since 5.4.4
+ */
+
+public class TermFacet extends AbstractFacet {
+
+	/** Creates a new term facet.
+	 * 
+	 * @param name the name of the facet.
+	 * @param docValues the column of values.
+	 */
+	public TermFacet( final String name, final DocValues docValues ) {
+		super( name, docValues );
+	}
+
+	/** Returns a new term facet over the values of an index, which must have {@linkplain Index#docValues document values} or be a 
+	 * {@linkplain DocumentalCluster documental cluster} whose local indices have document values.
+	 * 
+	 * @param name the name of the facet.
+	 * @param index an index.
+	 * @return a term facet over the values of <code>index</code>.
+	 */
+	public static Facet getInstance( final String name, final Index index ) {
+		if ( index.docValues != null ) return new TermFacet( name, index.docValues );
+		final Index[] localIndex = ClusteredFacet.localIndex( index );
+		final Facet[] localFacet = new Facet[ localIndex.length ];
+		for( int i = 0; i < localIndex.length; i++ ) localFacet[ i ] = getInstance( name, localIndex[ i ] );
+		return new ClusteredFacet( (DocumentalCluster)index, localFacet );
+	}
+
+	protected long bucket( final long value ) {
+		return value;
+	}
+}
@@ -0,0 +1,95 @@
+package it.unimi.di.big.mg4j.search.score;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.DocValues;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.dsi.lang.ObjectParser;
+
+import java.io.IOException;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+/** A scorer assigning to each document its {@linkplain DocValues per-document value} (e.g., for ranking by date or by popularity).
+ * 
+ * <p>Values are read directly from the column, which is usually memory-mapped. Documents without 
+ * a value are assigned a fixed score (0 by default).
+ * 
+ * @since 5.4.4
+ */
+public class DocValuesScorer extends AbstractScorer implements DelegatingScorer {
+	/** The column of per-document values. */
+	private final DocValues docValues;
+	/** The score of documents without a value. */
+	private final double missingScore;
+
+	/** Creates a new document-values scorer.
+	 * 
+	 * @param docValues a column of per-document values.
+	 * @param missingScore the score of documents without a value.
+	 */
+	public DocValuesScorer( final DocValues docValues, final double missingScore ) {
+		this.docValues = docValues;
+		this.missingScore = missingScore;
+	}
+
+	/** Creates a new document-values scorer by memory-mapping a column.
+	 * 
+	 * <p>This constructor can be used with an {@link ObjectParser}.
+	 * 
+	 * @param basename the basename of the column (usually, the basename of a payload-based index).
+	 * @param missingScore the score of documents without a value.
+	 */
+	public DocValuesScorer( final String basename, final String missingScore ) throws IOException, ConfigurationException {
+		this( DocValues.load( basename ), Double.parseDouble( missingScore ) );
+	}
+
+	/** Creates a new document-values scorer by memory-mapping a column; documents without a value will get score 0.
+	 * 
+	 * <p>This constructor can be used with an {@link ObjectParser}.
+	 * 
+	 * @param basename the basename of the column (usually, the basename of a payload-based index).
+	 */
+	public DocValuesScorer( final String basename ) throws IOException, ConfigurationException {
+		this( DocValues.load( basename ), 0 );
+	}
+
+	public DocValuesScorer copy() {
+		return new DocValuesScorer( docValues, missingScore );
+	}
+
+	public double score() {
+		final long v = docValues.get( documentIterator.document() );
+		return v == DocValues.MISSING ? missingScore : v;
+	}
+
+	public double score( final Index index ) {
+		throw new UnsupportedOperationException();
+	}
+
+	public String toString() {
+		return "DocValues(" + docValues + ")";
+	}
+
+	public boolean usesIntervals() {
+		return false;
+	}
+}
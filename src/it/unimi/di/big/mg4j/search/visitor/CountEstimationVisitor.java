@@ -0,0 +1,117 @@
+package it.unimi.di.big.mg4j.search.visitor;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.MultiTermIndexIterator;
+import it.unimi.di.big.mg4j.search.AbstractIntersectionDocumentIterator;
+import it.unimi.di.big.mg4j.search.AbstractUnionDocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.FalseDocumentIterator;
+import it.unimi.di.big.mg4j.search.NotDocumentIterator;
+import it.unimi.di.big.mg4j.search.TrueDocumentIterator;
+
+import java.io.IOException;
+
+/** A visitor estimating the fraction of documents returned by a {@link DocumentIterator}
+ * using just term frequencies.
+ * 
+ * <p>Each leaf is assigned the ratio between its {@linkplain IndexIterator#frequency() frequency} and the
+ * number of documents of its index, and internal nodes combine the estimates of their subtrees under an 
+ * independence assumption: intersections multiply fractions, unions compute the complement of the product 
+ * of complements, and negations complement their argument. All other nodes 
+ * (e.g., {@linkplain it.unimi.di.big.mg4j.search.LowPassDocumentIterator low-pass} or
+ * {@linkplain it.unimi.di.big.mg4j.search.DifferenceDocumentIterator difference} iterators)
+ * return a subset of the documents of their first argument, and are thus estimated using the
+ * minimum estimate of their subtrees. The same happens for {@link MultiTermIndexIterator}s, 
+ * whose frequency is not exact and is thus replaced by the union estimate of their components.
+ * 
+ * <p>The visit does not advance the iterator, and it takes time proportional to the size of the
+ * composite, so it is suitable to provide an &ldquo;about <var>n</var> results&rdquo; figure 
+ * for queries (e.g., large disjunctions) whose exact count would require a full scan. 
+ * 
+ * @see it.unimi.di.big.mg4j.search.DocumentIterators#estimateCount(DocumentIterator)
+ */
+
+public class CountEstimationVisitor implements DocumentIteratorVisitor<Double> {
+	private final static Double ZERO = Double.valueOf( 0 );
+	private final static Double ONE = Double.valueOf( 1 );
+
+	public CountEstimationVisitor prepare() {
+		return this;
+	}
+
+	public Double[] newArray( final int len ) {
+		return new Double[ len ];
+	}
+
+	public boolean visitPre( final DocumentIterator documentIterator ) {
+		return true;
+	}
+
+	private static double union( final Double[] subNodeResult ) {
+		double complement = 1;
+		for( int i = subNodeResult.length; i-- != 0; ) complement *= 1 - subNodeResult[ i ].doubleValue();
+		return 1 - complement;
+	}
+	
+	public Double visitPost( final DocumentIterator documentIterator, final Double[] subNodeResult ) {
+		if ( subNodeResult == null || subNodeResult.length == 0 ) {
+			if ( documentIterator instanceof TrueDocumentIterator ) return ONE;
+			if ( documentIterator instanceof FalseDocumentIterator ) return ZERO;
+			return ONE;
+		}
+		
+		if ( documentIterator instanceof AbstractIntersectionDocumentIterator ) {
+			double fraction = 1;
+			for( int i = subNodeResult.length; i-- != 0; ) fraction *= subNodeResult[ i ].doubleValue();
+			return Double.valueOf( fraction );
+		}
+
+		if ( documentIterator instanceof AbstractUnionDocumentIterator ) return Double.valueOf( union( subNodeResult ) );
+		if ( documentIterator instanceof NotDocumentIterator ) return Double.valueOf( 1 - subNodeResult[ 0 ].doubleValue() );
+
+		double fraction = 1;
+		for( int i = subNodeResult.length; i-- != 0; ) fraction = Math.min( fraction, subNodeResult[ i ].doubleValue() );
+		return Double.valueOf( fraction );
+	}
+
+	public Double visit( final IndexIterator indexIterator ) throws IOException {
+		final long numberOfDocuments = indexIterator.index().numberOfDocuments;
+		if ( numberOfDocuments == 0 ) return ZERO;
+		return Double.valueOf( Math.min( 1, (double)indexIterator.frequency() / numberOfDocuments ) );
+	}
+
+	public Double visit( final MultiTermIndexIterator multiTermIndexIterator ) throws IOException {
+		final IndexIterator[] indexIterator = multiTermIndexIterator.indexIterator;
+		final Double[] fraction = newArray( indexIterator.length );
+		for( int i = indexIterator.length; i-- != 0; ) fraction[ i ] = visit( indexIterator[ i ] );
+		return Double.valueOf( union( fraction ) );
+	}
+
+	public Double visit( final TrueDocumentIterator trueDocumentIterator ) {
+		return ONE;
+	}
+
+	public Double visit( final FalseDocumentIterator falseDocumentIterator ) {
+		return ZERO;
+	}
+}
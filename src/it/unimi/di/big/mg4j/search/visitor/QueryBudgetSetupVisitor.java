@@ -0,0 +1,62 @@
+package it.unimi.di.big.mg4j.search.visitor;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.AbstractIndexIterator;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.MultiTermIndexIterator;
+import it.unimi.di.big.mg4j.search.QueryBudget;
+
+import java.io.IOException;
+
+/** A visitor attaching a {@link QueryBudget} to all {@linkplain AbstractIndexIterator index iterators} reading postings 
+ * in a document iterator, including the components of {@linkplain MultiTermIndexIterator multiterm index iterators}.
+ * 
+ * <p>Leaves that are not instances of {@link AbstractIndexIterator} (e.g., iterators over clusters) are left untouched. 
+ * Preparing the visitor with a <code>null</code> budget detaches budgets.
+ * 
+ * @since 5.4.4
+ */
+
+public class QueryBudgetSetupVisitor extends AbstractDocumentIteratorVisitor {
+	/** The budget to be attached. */
+	private QueryBudget budget;
+
+	/** Prepares this visitor.
+	 * 
+	 * @param budget the budget that will be attached to index iterators, or <code>null</code>.
+	 * @return this visitor.
+	 */
+	public QueryBudgetSetupVisitor prepare( final QueryBudget budget ) {
+		this.budget = budget;
+		return this;
+	}
+
+	public Boolean visit( final IndexIterator indexIterator ) {
+		if ( indexIterator instanceof AbstractIndexIterator ) ((AbstractIndexIterator)indexIterator).budget( budget );
+		return Boolean.TRUE;
+	}
+
+	public Boolean visit( final MultiTermIndexIterator multiTermIndexIterator ) throws IOException {
+		for( IndexIterator indexIterator: multiTermIndexIterator.indexIterator ) visit( indexIterator );
+		return Boolean.TRUE;
+	}
+}
@@ -20,6 +20,7 @@ package it.unimi.di.big.mg4j.tool;
  *
  */
 
+import it.unimi.di.big.mg4j.index.AbstractBitStreamIndexWriter;
 import it.unimi.di.big.mg4j.index.BitStreamHPIndex;
 import it.unimi.di.big.mg4j.index.BitStreamHPIndexWriter;
 import it.unimi.di.big.mg4j.index.BitStreamIndex;
@@ -228,6 +229,9 @@ public abstract class Combine {
 	protected final boolean hasPayloads;
 	/** Additional properties for the merged index. */
 	protected final Properties additionalProperties;
+	/** If not {@code null} (the default is {@code null}), a registry where {@linkplain IndexingMetrics metrics} about the combination will be recorded; a report
+	 * will be saved at the end of {@link #run()} with name {@link #outputBasename} and extension {@link IndexingMetrics#REPORT_EXTENSION}. */
+	public IndexingMetrics metrics;
 	/** An array partially filled with the indices (as offsets in {@link #index}) participating to the merge process for the current term. */
 	protected final int[] usedIndex;
 	/** For each index, the frequency of the current term (given that it is present). */
@@ -554,6 +558,7 @@ public abstract class Combine {
 	public void run() throws ConfigurationException, IOException {
 		final ProgressLogger pl = new ProgressLogger( LOGGER, logInterval, TimeUnit.MILLISECONDS );
 		pl.displayFreeMemory = true;
+		if ( metrics != null ) metrics.start();
 
 		final int maxDocSize;
 
@@ -577,6 +582,8 @@ public abstract class Combine {
 		pl.itemsName = haveOccurrencies ? "occurrences" : "terms";
 		pl.logInterval = logInterval;
 		pl.start( "Combining lists..." );
+		final long mergeStart = System.nanoTime();
+		long numberOfTerms = 0;
 
 		int numUsedIndices, k;
 		predictedSize = -1;
@@ -637,8 +644,11 @@ public abstract class Combine {
 			/* A trick to get a correct prediction. */
 			if ( haveOccurrencies ) pl.count += totalOccurrency - 1;
 			pl.update();
+			numberOfTerms++;
 		}
 		pl.done();
+		final long mergeTime = System.nanoTime() - mergeStart;
+		long numberOfPostings = 0;
 		
 		termFile.close();
 
@@ -663,11 +673,41 @@ public abstract class Combine {
 			properties.addAll( additionalProperties );
 			LOGGER.debug( "Post-merge properties: " + new ConfigurationMap( properties ) );
 			Scan.saveProperties( ioFactory, properties, outputBasename + DiskBasedIndex.PROPERTIES_EXTENSION );
+			numberOfPostings = properties.getLong( Index.PropertyKeys.POSTINGS, 0 );
 		}
 				
 		final PrintStream stats = new PrintStream( ioFactory.getOutputStream( outputBasename + DiskBasedIndex.STATS_EXTENSION ) );
 		if ( ! metadataOnly ) indexWriter.printStats( stats );
 		stats.close();
+
+		if ( metrics != null ) {
+			metrics.merged( mergeTime, numberOfTerms, numberOfPostings, numberOfOccurrences );
+			if ( ! metadataOnly ) recordComponentBits( numberOfTerms, numberOfPostings );
+			metrics.stop();
+			LOGGER.info( "Combination metrics: " + metrics );
+			metrics.save( ioFactory, outputBasename + IndexingMetrics.REPORT_EXTENSION );
+		}
+	}
+
+	/** Records in {@link #metrics} the number of bits written by {@link #indexWriter} for each component.
+	 * 
+	 * @param numberOfTerms the number of terms of the combined index.
+	 * @param numberOfPostings the number of postings of the combined index.
+	 */
+	private void recordComponentBits( final long numberOfTerms, final long numberOfPostings ) {
+		if ( indexWriter instanceof AbstractBitStreamIndexWriter ) {
+			final AbstractBitStreamIndexWriter writer = (AbstractBitStreamIndexWriter)indexWriter;
+			metrics.written( "frequencies", writer.bitsForFrequencies, numberOfTerms );
+			metrics.written( "pointers", writer.bitsForPointers, numberOfPostings );
+			if ( hasCounts ) metrics.written( "counts", writer.bitsForCounts, numberOfPostings );
+			if ( hasPositions && numberOfOccurrences > 0 ) metrics.written( "positions", writer.bitsForPositions, numberOfOccurrences );
+			if ( hasPayloads ) metrics.written( "payloads", writer.bitsForPayloads, numberOfPostings );
+		}
+		else if ( quasiSuccinctIndexWriter != null ) {
+			metrics.written( "pointers", quasiSuccinctIndexWriter.writtenBits( Component.POINTERS ), numberOfPostings );
+			if ( hasCounts ) metrics.written( "counts", quasiSuccinctIndexWriter.writtenBits( Component.COUNTS ), numberOfPostings );
+			if ( hasPositions && numberOfOccurrences > 0 ) metrics.written( "positions", quasiSuccinctIndexWriter.writtenBits( Component.POSITIONS ), numberOfOccurrences );
+		}
 	}
 
 	public static void main( final String[] arg ) throws JSAPException, ConfigurationException, IOException, URISyntaxException, ClassNotFoundException, SecurityException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
@@ -691,6 +731,7 @@ public abstract class Combine {
 				new Switch( "duplicates", 'd', "duplicates", "Pastes indices, concatenating the document positions for duplicates." ),
 				new Switch( "incremental", 'i', "incremental", "Pastes indices incrementally: positions in each index are incremented by the sum of the document sizes in previous indices." ),
 				new Switch( "properties", 'p', "properties", "The only specified inputBasename will be used to load a property file written by the scanning process." ),
+				new Switch( "metrics", JSAP.NO_SHORTFLAG, "metrics", "Record metrics about the combination and save a report next to the resulting index." ),
 //				new FlaggedOption( "delete", FileStringParser.getParser(), JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'D', "delete", "A monotonically increasing array of integers in Java binary format representing documents that will be deleted from the output index." ),
 				new FlaggedOption( "tempFileDir", FileStringParser.getParser(), JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "temp-file-dir", "The directory for the temporary file used during pasting." ),
 				new FlaggedOption( "tempFileBufferSize", JSAP.INTSIZE_PARSER, Util.formatBinarySize( Paste.DEFAULT_MEMORY_BUFFER_SIZE ), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "temp-file-buffer-size", "The size of the buffer for the temporary file during pasting." ),
@@ -730,7 +771,7 @@ public abstract class Combine {
 				CompressionFlags.valueOf( jsapResult.getStringArray( "comp" ), CompressionFlags.DEFAULT_QUASI_SUCCINCT_INDEX ) :
 				CompressionFlags.valueOf( jsapResult.getStringArray( "comp" ), CompressionFlags.DEFAULT_STANDARD_INDEX );
 
-		( combineClass == Paste.class || jsapResult.getBoolean( "duplicates" ) ?
+		final Combine combine = combineClass == Paste.class || jsapResult.getBoolean( "duplicates" ) ?
 		(Combine)new Paste( ioFactory, jsapResult.getString( "outputBasename" ), 
 				inputBasename,
 				jsapResult.getBoolean( "metadataOnly" ),
@@ -767,8 +808,9 @@ public abstract class Combine {
 									jsapResult.getInt( "quantum" ),
 									jsapResult.getInt( "height" ),
 									indexType == IndexType.QUASI_SUCCINCT ? jsapResult.getInt( "cacheSize" ) : jsapResult.getInt( "skipBufferSize" ),
-									jsapResult.getLong( "logInterval" ) )
-									
-		).run(); 
+									jsapResult.getLong( "logInterval" ) );
+		
+		if ( jsapResult.getBoolean( "metrics" ) ) combine.metrics = new IndexingMetrics();
+		combine.run(); 
 	}
 }
@@ -25,6 +25,7 @@ import it.unimi.di.big.mg4j.document.DocumentFactory;
 import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
 import it.unimi.di.big.mg4j.document.DocumentSequence;
 import it.unimi.di.big.mg4j.document.IdentityDocumentFactory;
+import it.unimi.di.big.mg4j.document.PipelinedDocumentCollectionBuilder;
 import it.unimi.di.big.mg4j.document.SimpleCompressedDocumentCollectionBuilder;
 import it.unimi.di.big.mg4j.document.SubDocumentFactory;
 import it.unimi.di.big.mg4j.index.BitStreamHPIndex;
@@ -57,6 +58,7 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
 import it.unimi.dsi.fastutil.ints.IntSortedSet;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.io.FileLinesCollection;
 import it.unimi.dsi.lang.ObjectParser;
 import it.unimi.dsi.logging.ProgressLogger;
 
@@ -66,6 +68,7 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
 
 import org.apache.commons.configuration.ConfigurationException;
@@ -141,6 +144,10 @@ public class IndexBuilder {
 	private int pasteBufferSize = Paste.DEFAULT_MEMORY_BUFFER_SIZE;
 
 	private String batchDirName;
+	private boolean pairs;
+	private Collection<? extends CharSequence> pairTerms;
+	private boolean docValues;
+	private boolean metrics;
 	/** The set of indexed fields (expressed as field indices). If left empty, <em>all</em> fields will be indexed,
 	 * with the proviso that fields of type {@link FieldType#VIRTUAL} will be indexed only
 	 * if they have a corresponding {@link VirtualDocumentResolver}.
@@ -316,6 +323,51 @@ public class IndexBuilder {
 		return this;
 	}
 	
+	/** Sets the &ldquo;pairs&rdquo; flag (default: false). If true, a {@linkplain Scan#pairs(Collection) pair index}
+	 * with basename <samp><var>basename</var>-<var>field</var>{@value Scan#PAIR_INDEX_SUFFIX}</samp> will be built for each text field.
+	 * 
+	 * @param pairs the new value for the &ldquo;pairs&rdquo; flag.
+	 * @return this index builder.
+	 */
+	public IndexBuilder pairs( final boolean pairs ) {
+		this.pairs = pairs;
+		return this;
+	}
+	
+	/** Sets the terms one of which must appear in a pair for it to be indexed in a pair index (default: {@code null}, i.e., all pairs).
+	 * 
+	 * @param pairTerms the terms (e.g., stopwords) one of which must appear in a pair for it to be indexed, or {@code null} for all pairs.
+	 * @return this index builder.
+	 * @see #pairs(boolean)
+	 */
+	public IndexBuilder pairTerms( final Collection<? extends CharSequence> pairTerms ) {
+		this.pairTerms = pairTerms;
+		return this;
+	}
+	
+	/** Sets the &ldquo;document values&rdquo; flag (default: false). If true, a {@linkplain it.unimi.di.big.mg4j.index.DocValues column of per-document values}
+	 * will be built for each non-textual field. Note that values are kept in core memory (a long per document) until the end of the scan.
+	 * 
+	 * @param docValues the new value for the &ldquo;document values&rdquo; flag.
+	 * @return this index builder.
+	 */
+	public IndexBuilder docValues( final boolean docValues ) {
+		this.docValues = docValues;
+		return this;
+	}
+	
+	/** Sets the &ldquo;metrics&rdquo; flag (default: false). If true, {@linkplain IndexingMetrics metrics} about scanning and
+	 * combination will be recorded, and reports will be saved with extension {@link IndexingMetrics#REPORT_EXTENSION}
+	 * using the basename of the index and the basename of each field index, respectively.
+	 * 
+	 * @param metrics the new value for the &ldquo;metrics&rdquo; flag.
+	 * @return this index builder.
+	 */
+	public IndexBuilder metrics( final boolean metrics ) {
+		this.metrics = metrics;
+		return this;
+	}
+	
 	/** Sets the &ldquo;keep batches&rdquo; flag (default: false). If true, the temporary batch files generated
 	 * during index construction wil not be deleted.
 	 * 
@@ -462,6 +514,15 @@ public class IndexBuilder {
 		return this;
 	}
 
+	/** Runs a combination, recording metrics if required.
+	 * 
+	 * @param combine a combination.
+	 */
+	private void run( final Combine combine ) throws ConfigurationException, IOException {
+		if ( metrics ) combine.metrics = new IndexingMetrics();
+		combine.run();
+	}
+
 	/** Builds the index.
 	 * 
 	 * <p>This method simply invokes {@link Scan} and {@link Combine} using the internally stored settings, and
@@ -511,7 +572,11 @@ public class IndexBuilder {
 				virtualDocumentGap,
 				mapFile,
 				logInterval,
-				batchDirName);
+				batchDirName,
+				pairs,
+				pairTerms,
+				docValues,
+				metrics ? new IndexingMetrics() : null );
 
 		if ( virtualDocumentResolver != null ) Arrays.fill( virtualDocumentResolver, null ); // Let's keep the garbage collector happy
 		
@@ -523,30 +588,44 @@ public class IndexBuilder {
 				batches = IOFactories.loadProperties( ioFactory, basenameField[ i ] + DiskBasedIndex.PROPERTIES_EXTENSION ).getInt( Index.PropertyKeys.BATCHES );
 				final String[] inputBasename = new String[ batches ];
 				for( int j = 0; j < inputBasename.length; j++ ) inputBasename[ j ] = Scan.batchBasename( j, basenameField[ i ], batchDir ); 
-				new Paste( ioFactory, basenameField[ i ], inputBasename, false, false, combineBufferSize, batchDir, pasteBufferSize, flags, indexType, skips, quantum, height, skipBufferSize, logInterval ).run();
+				run( new Paste( ioFactory, basenameField[ i ], inputBasename, false, false, combineBufferSize, batchDir, pasteBufferSize, flags, indexType, skips, quantum, height, skipBufferSize, logInterval ) );
 			}
 			else {
 				final String[] inputBasename = IOFactories.loadProperties( ioFactory, basenameField[ i ] + Scan.CLUSTER_PROPERTIES_EXTENSION ).getStringArray( IndexCluster.PropertyKeys.LOCALINDEX );
 				//final String[] inputBasename = new Properties( new File( batchDir, basenameField[ i ] ) + Scan.CLUSTER_PROPERTIES_EXTENSION ).getStringArray( IndexCluster.PropertyKeys.LOCALINDEX );
 				batches = inputBasename.length;
 				if ( factory.fieldType( indexedField[ i ] ) == DocumentFactory.FieldType.TEXT ) {
-					if ( mapFile != null ) new Merge( ioFactory, basenameField[ i ], inputBasename, false, combineBufferSize, flags, indexType, skips, quantum, height, skipBufferSize, logInterval ).run();
-					else new Concatenate( ioFactory, basenameField[ i ], inputBasename, false, combineBufferSize, flags, indexType, skips, quantum, height, skipBufferSize, logInterval ).run();
+					if ( mapFile != null ) run( new Merge( ioFactory, basenameField[ i ], inputBasename, false, combineBufferSize, flags, indexType, skips, quantum, height, skipBufferSize, logInterval ) );
+					else run( new Concatenate( ioFactory, basenameField[ i ], inputBasename, false, combineBufferSize, flags, indexType, skips, quantum, height, skipBufferSize, logInterval ) );
 				}
 				else {
-					if ( mapFile != null ) new Merge( ioFactory, basenameField[ i ], inputBasename, false, combineBufferSize, payloadWriterFlags, IndexType.INTERLEAVED, skips, quantum, height, skipBufferSize, logInterval ).run();
-					else new Concatenate( ioFactory, basenameField[ i ], inputBasename, false, combineBufferSize, payloadWriterFlags, IndexType.INTERLEAVED, skips, quantum, height, skipBufferSize, logInterval ).run();
+					if ( mapFile != null ) run( new Merge( ioFactory, basenameField[ i ], inputBasename, false, combineBufferSize, payloadWriterFlags, IndexType.INTERLEAVED, skips, quantum, height, skipBufferSize, logInterval ) );
+					else run( new Concatenate( ioFactory, basenameField[ i ], inputBasename, false, combineBufferSize, payloadWriterFlags, IndexType.INTERLEAVED, skips, quantum, height, skipBufferSize, logInterval ) );
 				} 
 			}
 
 			// TODO: this is a bit dirty, because in the else above we actually use the batch names found in the cluster property files.
 			if ( ! keepBatches ) Scan.cleanup( ioFactory, basenameField[ i ], batches, batchDir );
+			
+			if ( pairs && factory.fieldType( indexedField[ i ] ) == DocumentFactory.FieldType.TEXT ) {
+				// Pair batches are dumped in lockstep with the batches of the field.
+				final String pairBasename = basenameField[ i ] + Scan.PAIR_INDEX_SUFFIX;
+				final String[] inputBasename = IOFactories.loadProperties( ioFactory, pairBasename + Scan.CLUSTER_PROPERTIES_EXTENSION ).getStringArray( IndexCluster.PropertyKeys.LOCALINDEX );
+				if ( mapFile != null ) run( new Merge( ioFactory, pairBasename, inputBasename, false, combineBufferSize, flags, indexType, skips, quantum, height, skipBufferSize, logInterval ) );
+				else run( new Concatenate( ioFactory, pairBasename, inputBasename, false, combineBufferSize, flags, indexType, skips, quantum, height, skipBufferSize, logInterval ) );
+				if ( ! keepBatches ) Scan.cleanup( ioFactory, pairBasename, inputBasename.length, batchDir );
+			}
 		}
 		
 		if ( termMapClass != null ) {
 			LOGGER.info( "Creating term maps (class: " + termMapClass.getSimpleName() + ")..." );
-			for( int i = 0; i < indexedField.length; i++ ) 
+			for( int i = 0; i < indexedField.length; i++ ) {
 				IOFactories.storeObject( ioFactory, StringMaps.synchronize( termMapClass.getConstructor( Iterable.class ).newInstance( IOFactories.fileLinesCollection( ioFactory, basenameField[ i ] + DiskBasedIndex.TERMS_EXTENSION, "UTF-8" ) ) ), basenameField[ i ] + DiskBasedIndex.TERMMAP_EXTENSION  );
+				if ( pairs && factory.fieldType( indexedField[ i ] ) == DocumentFactory.FieldType.TEXT ) {
+					final String pairBasename = basenameField[ i ] + Scan.PAIR_INDEX_SUFFIX;
+					IOFactories.storeObject( ioFactory, StringMaps.synchronize( termMapClass.getConstructor( Iterable.class ).newInstance( IOFactories.fileLinesCollection( ioFactory, pairBasename + DiskBasedIndex.TERMS_EXTENSION, "UTF-8" ) ) ), pairBasename + DiskBasedIndex.TERMMAP_EXTENSION  );
+				}
+			}
 		}
 
 		LOGGER.info( "Indexing completed." );
@@ -571,6 +650,10 @@ public class IndexBuilder {
 				new FlaggedOption( "batchSize", JSAP.INTSIZE_PARSER, Integer.toString( Scan.DEFAULT_BATCH_SIZE ), JSAP.NOT_REQUIRED, 's', "batch-size", "The maximum size of a batch, in documents. Batches will be smaller, however, if memory is exhausted." ),
 				new FlaggedOption( "maxTerms", JSAP.INTSIZE_PARSER, Integer.toString( Scan.DEFAULT_MAX_TERMS ), JSAP.NOT_REQUIRED, 'M', "max-terms", "The maximum number of terms in a batch, in documents." ),
 				new Switch( "keepBatches", JSAP.NO_SHORTFLAG, "keep-batches", "Do not delete intermediate batch files." ),
+				new Switch( "metrics", JSAP.NO_SHORTFLAG, "metrics", "Record indexing metrics and save reports next to the resulting indices." ),
+				new Switch( "pairs", JSAP.NO_SHORTFLAG, "pairs", "Build also a pair index for each text field." ),
+				new Switch( "docValues", JSAP.NO_SHORTFLAG, "doc-values", "Build also a column of per-document values for each non-textual field (values are kept in core memory until the end of the scan)." ),
+				new FlaggedOption( "pairTerms", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "pair-terms", "A file containing, one per line in UTF-8 encoding, the terms (e.g., stopwords) one of which must appear in a pair for it to be indexed in the pair index (default: all pairs are indexed)." ),
 				new FlaggedOption( "virtualDocumentResolver", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'v', "virtual-document-resolver", "The virtual document resolver. It can be specified several times in the form [<field>:]<filename>. If the field is omitted, it sets the document resolver for all virtual fields." ).setAllowMultipleDeclarations( true ),
 				new FlaggedOption( "virtualDocumentGap", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'g', "virtual-document-gap", "The virtual document gap. It can be specified several times in the form [<field>:]<gap>. If the field is omitted, it sets the document gap for all virtual fields; the default gap is " + Scan.DEFAULT_VIRTUAL_DOCUMENT_GAP ).setAllowMultipleDeclarations( true ),
 				new FlaggedOption( "scanBufferSize", JSAP.INTSIZE_PARSER, Util.formatBinarySize( Scan.DEFAULT_BUFFER_SIZE ), JSAP.NOT_REQUIRED, 'b', "scan-buffer-size", "The size of an I/O buffer for the scanning phase." ),
@@ -582,6 +665,7 @@ public class IndexBuilder {
 				new FlaggedOption( "buildCollection", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'B', "build-collection", "During the indexing phase, build a collection using this basename." ),
 				new FlaggedOption( "builderClass", MG4JClassParser.getParser(), SimpleCompressedDocumentCollectionBuilder.class.getName(), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "builder-class", "Specifies a builder class for a document collection that will be created during the indexing phase." ),
 				new Switch( "exact", 'e', "exact", "The builder class should be instantiated in its exact form, which records both words and nonwords." ),
+				new Switch( "pipelinedBuilder", JSAP.NO_SHORTFLAG, "pipelined-builder", "The builder will run in a separate thread, fed through a bounded queue." ),
 				new FlaggedOption( "comp", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'c', "comp", "A compression flag for textual indices (may be specified several times)." ).setAllowMultipleDeclarations( true ),
 				new FlaggedOption( "payloadComp", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'C', "comp-payload", "A compression flag for payload indices (may be specified several times)." ).setAllowMultipleDeclarations( true ),
 				new Switch( "noSkips", JSAP.NO_SHORTFLAG, "no-skips", "Disables skips." ),
@@ -597,8 +681,9 @@ public class IndexBuilder {
 		JSAPResult jsapResult = jsap.parse( arg );
 		if ( jsap.messagePrinted() ) return;
 
-		if ( ( jsapResult.userSpecified( "builderClass" ) || jsapResult.userSpecified( "exact" ) ) && ! jsapResult.userSpecified( "buildCollection" ) )	throw new IllegalArgumentException( "To specify options about the collection building process, you must specify a basename first." );
+		if ( ( jsapResult.userSpecified( "builderClass" ) || jsapResult.userSpecified( "exact" ) || jsapResult.userSpecified( "pipelinedBuilder" ) ) && ! jsapResult.userSpecified( "buildCollection" ) )	throw new IllegalArgumentException( "To specify options about the collection building process, you must specify a basename first." );
 		if ( jsapResult.userSpecified( "sequence" ) && jsapResult.userSpecified( "objectSequence" ) ) throw new IllegalArgumentException( "You cannot specify both a serialised and an parseable-object sequence" );
+		if ( jsapResult.userSpecified( "pairTerms" ) && ! jsapResult.getBoolean( "pairs" ) ) throw new IllegalArgumentException( "You specified pair terms, but no pair index." );
 
 		final IOFactory ioFactory = Scan.parseIOFactory( jsapResult.getString( "ioFactory" ) );
 		
@@ -636,6 +721,7 @@ public class IndexBuilder {
 						Boolean.valueOf( jsapResult.getBoolean( "exact" ) ) ) : null;
 				if ( builder != null ) LOGGER.warn( "The builder class " + builderClass.getName() + " has no IOFactory-based constructor" );
 			}
+			if ( builder != null && jsapResult.getBoolean( "pipelinedBuilder" ) ) builder = new PipelinedDocumentCollectionBuilder( builder );
 		}
 
 		final IndexBuilder indexBuilder = new IndexBuilder( jsapResult.getString( "basename" ), documentSequence )
@@ -649,6 +735,10 @@ public class IndexBuilder {
 		.documentsPerBatch( jsapResult.getInt( "batchSize" ) )
 		.maxTerms( jsapResult.getInt( "maxTerms" ) )
 		.keepBatches( jsapResult.getBoolean( "keepBatches" ) )
+		.metrics( jsapResult.getBoolean( "metrics" ) )
+		.pairs( jsapResult.getBoolean( "pairs" ) )
+		.docValues( jsapResult.getBoolean( "docValues" ) )
+		.pairTerms( jsapResult.userSpecified( "pairTerms" ) ? new FileLinesCollection( jsapResult.getString( "pairTerms" ), "UTF-8" ).allLines() : null )
 		.termMapClass( jsapResult.getClass( "termMap" ) )
 		.indexedFields( indexedField )
 		.skips( skips )
@@ -0,0 +1,455 @@
+package it.unimi.di.big.mg4j.tool;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.util.Histogram;
+import it.unimi.dsi.Util;
+import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** A registry of metrics about the indexing pipeline.
+ * 
+ * <p>Metrics are not recorded by default: an instance of this class can be passed to the most complete <code>run()</code> method of {@link Scan}
+ * or set in the {@link Combine#metrics} field of an instance of {@link Combine} (from the command line, use <samp>--metrics</samp>;
+ * for an {@link IndexBuilder}, use {@link IndexBuilder#metrics(boolean)}). The following quantities are recorded:
+ * <ul>
+ * <li>the time spent in each stage of the pipeline: <em>parsing</em> (retrieving the next document and its content),
+ * <em>tokenisation</em> (splitting content into words, including the feeding of the collection builder, if any),
+ * <em>term processing</em>, <em>inversion</em> (accumulating occurrences in posting lists), <em>batch dumping</em> and <em>merging</em>;
+ * <li>the number of documents, tokens (nonempty words), characters and occurrences (tokens accepted by the term processor) processed;
+ * <li>the {@linkplain #batchDocuments number of documents} and {@linkplain #batchOccurrences occurrences} in each batch;
+ * <li>the time spent in {@link Util#compactMemory()} and in garbage collection;
+ * <li>the number of terms, postings and occurrences merged, and the number of bits per unit written for each component of the combined index.
+ * </ul>
+ * 
+ * <p>Reading the clock for each word would perturb the measurement, so the time spent processing text is always measured
+ * as a whole, and the time spent in term processing and inversion is measured only on one document out of {@link #SAMPLING};
+ * the time of the three text stages is then estimated by splitting the overall time proportionally to the sample.
+ * 
+ * <p>At the end of a run, {@link Scan} and {@link Combine} {@linkplain #save(IOFactory, String) save} a JSON report 
+ * with extension {@link #REPORT_EXTENSION} next to the property file of the index they generate. Metrics can also be
+ * {@linkplain #registerMBean(String) registered} as a JMX MBean, so that a long-running indexing job can be monitored.
+ * 
+ * <p>Instances of this class are thread safe.
+ * 
+ * @since 5.4.4
+ */
+
+public class IndexingMetrics implements IndexingMetricsMBean {
+	/** The extension of the JSON report. */
+	public static final String REPORT_EXTENSION = ".metrics.json";
+	/** Term processing and inversion are timed on one document out of this number (a power of two). */
+	public static final int SAMPLING = 16;
+
+	/** The number of documents parsed. */
+	private final AtomicLong documents = new AtomicLong();
+	/** The time spent parsing documents, in nanoseconds. */
+	private final AtomicLong parsingTime = new AtomicLong();
+	/** The time spent processing text, in nanoseconds. */
+	private final AtomicLong textTime = new AtomicLong();
+	/** The number of tokens (nonempty words) processed. */
+	private final AtomicLong tokens = new AtomicLong();
+	/** The number of characters (in words and nonwords) processed. */
+	private final AtomicLong characters = new AtomicLong();
+	/** The number of occurrences (tokens accepted by the term processor) processed. */
+	private final AtomicLong occurrences = new AtomicLong();
+	/** The time spent tokenising sampled documents, in nanoseconds. */
+	private final AtomicLong sampledTokenisationTime = new AtomicLong();
+	/** The time spent processing terms of sampled documents, in nanoseconds. */
+	private final AtomicLong sampledTermProcessingTime = new AtomicLong();
+	/** The time spent inverting sampled documents, in nanoseconds. */
+	private final AtomicLong sampledInversionTime = new AtomicLong();
+	/** Batch-dump times, in nanoseconds. */
+	public final Histogram batchDump = new Histogram();
+	/** Documents per batch. */
+	public final Histogram batchDocuments = new Histogram();
+	/** Occurrences per batch. */
+	public final Histogram batchOccurrences = new Histogram();
+	/** Times spent in {@link Util#compactMemory()}, in nanoseconds. */
+	public final Histogram compaction = new Histogram();
+	/** The time spent merging, in nanoseconds. */
+	private final AtomicLong mergeTime = new AtomicLong();
+	/** The number of terms merged. */
+	private final AtomicLong mergedTerms = new AtomicLong();
+	/** The number of postings merged. */
+	private final AtomicLong mergedPostings = new AtomicLong();
+	/** The number of occurrences merged. */
+	private final AtomicLong mergedOccurrences = new AtomicLong();
+	/** For each component of a combined index, the number of bits written. */
+	private final Object2LongLinkedOpenHashMap<String> componentBits = new Object2LongLinkedOpenHashMap<String>();
+	/** For each component of a combined index, the number of units (e.g., postings) the bits refer to. */
+	private final Object2LongLinkedOpenHashMap<String> componentUnits = new Object2LongLinkedOpenHashMap<String>();
+	/** The time at which {@link #start()} was called, in milliseconds, or -1. */
+	private volatile long startTime = -1;
+	/** The time at which {@link #stop()} was called, in milliseconds, or -1. */
+	private volatile long stopTime = -1;
+	/** The number of garbage collections at {@link #start()} or, after {@link #stop()}, the number of garbage collections in between. */
+	private volatile long collections;
+	/** The garbage-collection time at {@link #start()} or, after {@link #stop()}, the garbage-collection time in between, in milliseconds. */
+	private volatile long collectionTime;
+
+	/** Returns the overall number of garbage collections performed by the virtual machine.
+	 * 
+	 * @return the overall number of garbage collections performed by the virtual machine.
+	 */
+	private static long collections() {
+		long result = 0;
+		for( GarbageCollectorMXBean bean: ManagementFactory.getGarbageCollectorMXBeans() ) result += Math.max( 0, bean.getCollectionCount() );
+		return result;
+	}
+	
+	/** Returns the overall garbage-collection time of the virtual machine.
+	 * 
+	 * @return the overall garbage-collection time of the virtual machine, in milliseconds.
+	 */
+	private static long collectionTime() {
+		long result = 0;
+		for( GarbageCollectorMXBean bean: ManagementFactory.getGarbageCollectorMXBeans() ) result += Math.max( 0, bean.getCollectionTime() );
+		return result;
+	}
+	
+	/** Starts measuring wall-clock and garbage-collection time. */
+	public synchronized void start() {
+		stopTime = -1;
+		collections = collections();
+		collectionTime = collectionTime();
+		startTime = System.currentTimeMillis();
+	}
+
+	/** Stops measuring wall-clock and garbage-collection time. */
+	public synchronized void stop() {
+		if ( startTime == -1 || stopTime != -1 ) return;
+		stopTime = System.currentTimeMillis();
+		collections = collections() - collections;
+		collectionTime = collectionTime() - collectionTime;
+	}
+	
+	/** Records that a document has been parsed.
+	 * 
+	 * @param nanos the time spent parsing the document, in nanoseconds.
+	 */
+	public void parsed( final long nanos ) {
+		documents.incrementAndGet();
+		parsingTime.addAndGet( nanos );
+	}
+
+	/** Records that the text of a field of a document has been processed.
+	 * 
+	 * @param nanos the time spent processing text, in nanoseconds.
+	 * @param tokens the number of tokens (nonempty words).
+	 * @param characters the number of characters (in words and nonwords).
+	 * @param occurrences the number of occurrences (tokens accepted by the term processor).
+	 */
+	public void processed( final long nanos, final long tokens, final long characters, final long occurrences ) {
+		textTime.addAndGet( nanos );
+		this.tokens.addAndGet( tokens );
+		this.characters.addAndGet( characters );
+		this.occurrences.addAndGet( occurrences );
+	}
+
+	/** Records the split of the text-processing time of a sampled document.
+	 * 
+	 * @param tokenisation the time spent tokenising, in nanoseconds.
+	 * @param termProcessing the time spent processing terms, in nanoseconds.
+	 * @param inversion the time spent accumulating occurrences, in nanoseconds.
+	 */
+	public void sampled( final long tokenisation, final long termProcessing, final long inversion ) {
+		sampledTokenisationTime.addAndGet( Math.max( 0, tokenisation ) );
+		sampledTermProcessingTime.addAndGet( termProcessing );
+		sampledInversionTime.addAndGet( inversion );
+	}
+
+	/** Records that a batch has been dumped.
+	 * 
+	 * @param nanos the time spent dumping the batch, in nanoseconds.
+	 * @param documents the number of documents in the batch.
+	 * @param occurrences the number of occurrences in the batch.
+	 */
+	public void dumped( final long nanos, final long documents, final long occurrences ) {
+		batchDump.add( nanos );
+		batchDocuments.add( documents );
+		batchOccurrences.add( occurrences );
+	}
+
+	/** Records a call to {@link Util#compactMemory()}.
+	 * 
+	 * @param nanos the time spent compacting memory, in nanoseconds.
+	 */
+	public void compacted( final long nanos ) {
+		compaction.add( nanos );
+	}
+
+	/** Records a merge.
+	 * 
+	 * @param nanos the time spent merging, in nanoseconds.
+	 * @param terms the number of terms merged.
+	 * @param postings the number of postings merged.
+	 * @param occurrences the number of occurrences merged, or -1 if unknown.
+	 */
+	public void merged( final long nanos, final long terms, final long postings, final long occurrences ) {
+		mergeTime.addAndGet( nanos );
+		mergedTerms.addAndGet( terms );
+		mergedPostings.addAndGet( postings );
+		if ( occurrences > 0 ) mergedOccurrences.addAndGet( occurrences );
+	}
+
+	/** Records the number of bits written for a component of a combined index.
+	 * 
+	 * @param component the name of the component (e.g., <samp>pointers</samp>).
+	 * @param bits the number of bits written.
+	 * @param units the number of units (e.g., postings) the bits refer to.
+	 */
+	public synchronized void written( final String component, final long bits, final long units ) {
+		componentBits.put( component, componentBits.getLong( component ) + bits );
+		componentUnits.put( component, componentUnits.getLong( component ) + units );
+	}
+
+	/** Estimates the time spent in a text stage by splitting the overall text-processing time proportionally to the sample.
+	 * 
+	 * @param sampled the sampled time spent in the stage.
+	 * @return the estimated time spent in the stage, in nanoseconds.
+	 */
+	private double estimate( final long sampled ) {
+		final long total = sampledTokenisationTime.get() + sampledTermProcessingTime.get() + sampledInversionTime.get();
+		return total == 0 ? 0 : (double)textTime.get() * sampled / total;
+	}
+
+	/** Registers this registry with the platform MBean server.
+	 * 
+	 * @param name a name that will be used as value of the <samp>name</samp> key of the object name 
+	 * (whose domain is <samp>it.unimi.di.big.mg4j</samp> and whose <samp>type</samp> is <samp>IndexingMetrics</samp>).
+	 * @return the object name used for registration.
+	 */
+	public ObjectName registerMBean( final String name ) throws JMException {
+		final ObjectName objectName = new ObjectName( "it.unimi.di.big.mg4j:type=IndexingMetrics,name=" + ObjectName.quote( name ) );
+		ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+		return objectName;
+	}
+
+	private static double millis( final double nanos ) {
+		return nanos / 1E6;
+	}
+
+	/** Appends a JSON number, writing <samp>null</samp> for infinite or undefined values. */
+	private static void number( final Appendable appendable, final double x ) throws IOException {
+		if ( Double.isNaN( x ) || Double.isInfinite( x ) ) appendable.append( "null" );
+		else if ( x == Math.rint( x ) && Math.abs( x ) < 1L << 53 ) appendable.append( Long.toString( (long)x ) );
+		else appendable.append( Double.toString( x ) );
+	}
+
+	/** Appends the JSON description of a stage. */
+	private static void stage( final Appendable appendable, final String name, final double nanos, final long documents, final long tokens, final long characters ) throws IOException {
+		final double seconds = nanos / 1E9;
+		appendable.append( "\"" ).append( name ).append( "\":{\"seconds\":" );
+		number( appendable, seconds );
+		if ( documents >= 0 ) {
+			appendable.append( ",\"documentsPerSecond\":" );
+			number( appendable, documents / seconds );
+		}
+		if ( tokens >= 0 ) {
+			appendable.append( ",\"tokensPerSecond\":" );
+			number( appendable, tokens / seconds );
+		}
+		if ( characters >= 0 ) {
+			appendable.append( ",\"charactersPerSecond\":" );
+			number( appendable, characters / seconds );
+		}
+		appendable.append( '}' );
+	}
+	
+	/** Writes all metrics as a JSON object.
+	 * 
+	 * <p>Stages that did not take place (e.g., merging in a report written by {@link Scan}) are omitted.
+	 * 
+	 * @param appendable where metrics will be written.
+	 */
+	public synchronized void writeJson( final Appendable appendable ) throws IOException {
+		final long documents = this.documents.get(), tokens = this.tokens.get(), characters = this.characters.get();
+		appendable.append( "{\"wallClockSeconds\":" );
+		number( appendable, getWallClockTime() / 1E3 );
+		appendable.append( ",\"documents\":" ).append( Long.toString( documents ) );
+		appendable.append( ",\"tokens\":" ).append( Long.toString( tokens ) );
+		appendable.append( ",\"characters\":" ).append( Long.toString( characters ) );
+		appendable.append( ",\"occurrences\":" ).append( Long.toString( occurrences.get() ) );
+
+		appendable.append( ",\"stages\":{" );
+		String separator = "";
+		if ( documents != 0 ) {
+			stage( appendable, "parsing", parsingTime.get(), documents, tokens, characters );
+			appendable.append( ',' );
+			stage( appendable, "tokenisation", estimate( sampledTokenisationTime.get() ), documents, tokens, characters );
+			appendable.append( ',' );
+			stage( appendable, "termProcessing", estimate( sampledTermProcessingTime.get() ), documents, tokens, -1 );
+			appendable.append( ',' );
+			stage( appendable, "inversion", estimate( sampledInversionTime.get() ), documents, occurrences.get(), -1 );
+			separator = ",";
+		}
+		if ( batchDump.count() != 0 ) {
+			appendable.append( separator );
+			stage( appendable, "batchDump", batchDump.sum(), batchDocuments.sum(), batchOccurrences.sum(), -1 );
+			separator = ",";
+		}
+		if ( mergedTerms.get() != 0 ) {
+			appendable.append( separator );
+			stage( appendable, "merge", mergeTime.get(), -1, -1, -1 );
+		}
+		appendable.append( '}' );
+
+		if ( batchDump.count() != 0 ) {
+			appendable.append( ",\"batches\":{\"count\":" ).append( Long.toString( batchDump.count() ) );
+			appendable.append( ",\"meanDocuments\":" );
+			number( appendable, batchDocuments.mean() );
+			appendable.append( ",\"meanOccurrences\":" );
+			number( appendable, batchOccurrences.mean() );
+			appendable.append( ",\"meanSeconds\":" );
+			number( appendable, batchDump.mean() / 1E9 );
+			appendable.append( '}' );
+		}
+
+		appendable.append( ",\"compaction\":{\"count\":" ).append( Long.toString( compaction.count() ) ).append( ",\"seconds\":" );
+		number( appendable, compaction.sum() / 1E9 );
+		appendable.append( "},\"garbageCollection\":{\"count\":" ).append( Long.toString( getGarbageCollections() ) ).append( ",\"seconds\":" );
+		number( appendable, getGarbageCollectionTime() / 1E3 );
+		appendable.append( '}' );
+
+		if ( mergedTerms.get() != 0 ) {
+			final double seconds = mergeTime.get() / 1E9;
+			appendable.append( ",\"merge\":{\"terms\":" ).append( Long.toString( mergedTerms.get() ) );
+			appendable.append( ",\"postings\":" ).append( Long.toString( mergedPostings.get() ) );
+			appendable.append( ",\"occurrences\":" ).append( Long.toString( mergedOccurrences.get() ) );
+			appendable.append( ",\"termsPerSecond\":" );
+			number( appendable, mergedTerms.get() / seconds );
+			appendable.append( ",\"postingsPerSecond\":" );
+			number( appendable, mergedPostings.get() / seconds );
+			appendable.append( ",\"occurrencesPerSecond\":" );
+			number( appendable, mergedOccurrences.get() / seconds );
+			appendable.append( ",\"components\":{" );
+			separator = "";
+			for( Object2LongMap.Entry<String> e: componentBits.object2LongEntrySet() ) {
+				final long bits = e.getLongValue(), units = componentUnits.getLong( e.getKey() );
+				appendable.append( separator ).append( "\"" ).append( e.getKey() ).append( "\":{\"bits\":" ).append( Long.toString( bits ) );
+				appendable.append( ",\"units\":" ).append( Long.toString( units ) ).append( ",\"bitsPerUnit\":" );
+				number( appendable, (double)bits / units );
+				appendable.append( '}' );
+				separator = ",";
+			}
+			appendable.append( "}}" );
+		}
+
+		appendable.append( "}\n" );
+	}
+
+	/** Saves a JSON report of all metrics (see {@link #writeJson(Appendable)}).
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param filename the name of the report.
+	 */
+	public void save( final IOFactory ioFactory, final String filename ) throws IOException {
+		final Writer writer = new OutputStreamWriter( ioFactory.getOutputStream( filename ), "UTF-8" );
+		writeJson( writer );
+		writer.close();
+	}
+
+	public long getWallClockTime() {
+		final long startTime = this.startTime, stopTime = this.stopTime;
+		if ( startTime == -1 ) return 0;
+		return ( stopTime == -1 ? System.currentTimeMillis() : stopTime ) - startTime;
+	}
+
+	public long getDocuments() {
+		return documents.get();
+	}
+
+	public long getTokens() {
+		return tokens.get();
+	}
+
+	public long getCharacters() {
+		return characters.get();
+	}
+
+	public long getOccurrences() {
+		return occurrences.get();
+	}
+
+	public double getParsingTime() {
+		return millis( parsingTime.get() );
+	}
+
+	public double getTokenisationTime() {
+		return millis( estimate( sampledTokenisationTime.get() ) );
+	}
+
+	public double getTermProcessingTime() {
+		return millis( estimate( sampledTermProcessingTime.get() ) );
+	}
+
+	public double getInversionTime() {
+		return millis( estimate( sampledInversionTime.get() ) );
+	}
+
+	public long getBatches() {
+		return batchDump.count();
+	}
+
+	public double getBatchDumpTime() {
+		return millis( batchDump.sum() );
+	}
+
+	public double getCompactionTime() {
+		return millis( compaction.sum() );
+	}
+
+	public synchronized long getGarbageCollections() {
+		if ( startTime == -1 ) return 0;
+		return stopTime == -1 ? collections() - collections : collections;
+	}
+
+	public synchronized long getGarbageCollectionTime() {
+		if ( startTime == -1 ) return 0;
+		return stopTime == -1 ? collectionTime() - collectionTime : collectionTime;
+	}
+
+	public double getMergeTime() {
+		return millis( mergeTime.get() );
+	}
+
+	public long getMergedPostings() {
+		return mergedPostings.get();
+	}
+
+	public String toString() {
+		return "[documents: " + Util.format( getDocuments() ) + ", tokens: " + Util.format( getTokens() ) + ", parsing: " + Util.format( getParsingTime() / 1E3 ) + "s, tokenisation: " + Util.format( getTokenisationTime() / 1E3 ) + 
+				"s, term processing: " + Util.format( getTermProcessingTime() / 1E3 ) + "s, inversion: " + Util.format( getInversionTime() / 1E3 ) + "s, batches: " + getBatches() + ", batch dump: " + Util.format( getBatchDumpTime() / 1E3 ) + 
+				"s, compaction: " + Util.format( getCompactionTime() / 1E3 ) + "s, GC: " + Util.format( getGarbageCollectionTime() / 1E3 ) + "s]";
+	}
+}
@@ -0,0 +1,64 @@
+package it.unimi.di.big.mg4j.tool;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/** The JMX management interface of {@link IndexingMetrics}.
+ * 
+ * <p>Times are expressed in milliseconds; the times of tokenisation, term processing and inversion
+ * are estimates (see {@link IndexingMetrics}).
+ * 
+ * @since 5.4.4
+ */
+
+public interface IndexingMetricsMBean {
+	/** @return the wall-clock time elapsed since metrics were started. */
+	long getWallClockTime();
+	/** @return the number of documents parsed. */
+	long getDocuments();
+	/** @return the number of tokens (nonempty words) processed. */
+	long getTokens();
+	/** @return the number of characters processed. */
+	long getCharacters();
+	/** @return the number of occurrences (tokens accepted by the term processor) processed. */
+	long getOccurrences();
+	/** @return the time spent parsing documents. */
+	double getParsingTime();
+	/** @return the time spent tokenising documents. */
+	double getTokenisationTime();
+	/** @return the time spent processing terms. */
+	double getTermProcessingTime();
+	/** @return the time spent accumulating occurrences in posting lists. */
+	double getInversionTime();
+	/** @return the number of batches dumped. */
+	long getBatches();
+	/** @return the time spent dumping batches. */
+	double getBatchDumpTime();
+	/** @return the time spent compacting memory. */
+	double getCompactionTime();
+	/** @return the number of garbage collections since metrics were started. */
+	long getGarbageCollections();
+	/** @return the time spent in garbage collection since metrics were started. */
+	long getGarbageCollectionTime();
+	/** @return the time spent merging. */
+	double getMergeTime();
+	/** @return the number of postings merged. */
+	long getMergedPostings();
+}
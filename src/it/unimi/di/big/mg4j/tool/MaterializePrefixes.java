@@ -0,0 +1,397 @@
+package it.unimi.di.big.mg4j.tool;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import it.unimi.di.big.mg4j.index.CompressionFlags;
+import it.unimi.di.big.mg4j.index.CompressionFlags.Coding;
+import it.unimi.di.big.mg4j.index.CompressionFlags.Component;
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.Index.UriKeys;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.IndexIterators;
+import it.unimi.di.big.mg4j.index.MultiTermIndexIterator;
+import it.unimi.di.big.mg4j.index.QuasiSuccinctIndex;
+import it.unimi.di.big.mg4j.index.QuasiSuccinctIndexWriter;
+import it.unimi.di.big.mg4j.index.TermProcessor;
+import it.unimi.di.big.mg4j.io.IOFactories;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.dsi.big.util.ImmutableExternalPrefixMap;
+import it.unimi.dsi.big.util.StringMaps;
+import it.unimi.dsi.bits.Fast;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.io.FileLinesCollection;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.util.LongInterval;
+import it.unimi.dsi.util.Properties;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+/** Materialises the posting lists of popular prefixes of an index.
+ * 
+ * <p>Prefix queries are usually resolved by merging the posting lists of all terms starting with the prefix
+ * (see {@link Index#documents(CharSequence, int)}), which is slow when the prefix is short and matches thousands of terms.
+ * This class writes a {@linkplain QuasiSuccinctIndex quasi-succinct index}, with basename given by the basename of the index
+ * followed by {@link DiskBasedIndex#PREFIX_INDEX_SUFFIX}, whose terms are
+ * prefixes of terms of the index, and whose posting lists are the union of the posting lists of the terms starting with the prefix
+ * (counts and positions, if present, are merged, too). The index comes with a term map, and 
+ * it is loaded automatically by {@link Index#getInstance(CharSequence, boolean, boolean, boolean)} when maps are loaded, 
+ * after which it becomes the {@linkplain Index#prefixIndex prefix index} of the index: prefixes appearing in it are resolved 
+ * using a single posting list. 
+ * 
+ * <p>Candidate prefixes are all prefixes of terms not longer than a given length, and all prefixes appearing in an optional
+ * query log (a file containing one prefix per line, with an optional trailing asterisk; prefixes are repeated as many times as they
+ * were queried). Candidates matching less than a given number of terms (their <em>fan-out</em>), or just one term, are discarded; the remaining ones
+ * are scored by multiplying their fan-out by one plus their number of occurrences in the query log, and a given number of
+ * candidates with highest score is materialised. Candidates matching more than {@link #MAX_FAN_OUT} terms are discarded, too, as
+ * the posting lists of a prefix are merged in groups of bounded size (see {@link #materialize(IOFactory, String, Index, ObjectArrayList, int)}).
+ * 
+ * <p>The index must have a {@linkplain Index#prefixMap prefix map}, and it must not have payloads. Note that the index of materialised
+ * prefixes must be rebuilt whenever the index is rebuilt.
+ * 
+ * @since 5.4.4
+ */
+
+public class MaterializePrefixes {
+	private final static Logger LOGGER = LoggerFactory.getLogger( MaterializePrefixes.class );
+
+	/** The default maximum length of a prefix that is materialised even if it does not appear in the query log. */
+	public final static int DEFAULT_MAX_LENGTH = 3;
+	/** The default minimum number of terms matched by a materialised prefix. */
+	public final static int DEFAULT_MIN_FAN_OUT = 100;
+	/** The default maximum number of materialised prefixes. */
+	public final static int DEFAULT_MAX_PREFIXES = 10000;
+	/** The default maximum number of posting lists merged at the same time. */
+	public final static int DEFAULT_MAX_MERGED_LISTS = 4096;
+	/** The maximum number of terms matched by a materialised prefix (the square of {@link #DEFAULT_MAX_MERGED_LISTS}). */
+	public final static long MAX_FAN_OUT = (long)DEFAULT_MAX_MERGED_LISTS * DEFAULT_MAX_MERGED_LISTS;
+
+	private MaterializePrefixes() {}
+
+	/** Returns a union iterator over the terms in a given interval.
+	 * 
+	 * @param index an index.
+	 * @param left the first term of the interval.
+	 * @param length the number of terms in the interval.
+	 * @return an iterator returning the union of the posting lists of the terms in the interval.
+	 */
+	private static IndexIterator union( final Index index, final long left, final int length ) throws IOException {
+		final IndexIterator[] indexIterator = new IndexIterator[ length ];
+		for( int i = 0; i < length; i++ ) indexIterator[ i ] = index.documents( left + i );
+		return MultiTermIndexIterator.getInstance( index, indexIterator );
+	}
+
+	/** Writes as a new inverted list the union of the posting lists of the terms in a given interval.
+	 * 
+	 * @param indexWriter the writer for the new inverted list.
+	 * @param index an index.
+	 * @param left the first term of the interval.
+	 * @param length the number of terms in the interval; it should be at most a few thousands, as
+	 * the posting lists are all open at the same time.
+	 * @return the number of occurrences in the new inverted list, or -1 if <code>index</code> has no counts.
+	 */
+	private static long writeUnion( final QuasiSuccinctIndexWriter indexWriter, final Index index, final long left, final int length ) throws IOException {
+		int[] position = IntArrays.EMPTY_ARRAY;
+
+		// First pass: we gather the statistics needed by the writer.
+		IndexIterator indexIterator = union( index, left, length );
+		long frequency = 0, occurrency = 0, sumMaxPos = 0;
+		while( indexIterator.nextDocument() != DocumentIterator.END_OF_LIST ) {
+			frequency++;
+			if ( index.hasCounts ) {
+				final int count = indexIterator.count();
+				occurrency += count;
+				if ( index.hasPositions ) sumMaxPos += ( position = IndexIterators.positionArray( indexIterator, position ) )[ count - 1 ];
+			}
+		}
+		indexIterator.dispose();
+
+		// Second pass: we write the posting list.
+		indexWriter.newInvertedList( frequency, index.hasCounts ? occurrency : -1, sumMaxPos );
+		indexWriter.writeFrequency( frequency );
+		indexIterator = union( index, left, length );
+		for( long document; ( document = indexIterator.nextDocument() ) != DocumentIterator.END_OF_LIST; ) {
+			final OutputBitStream obs = indexWriter.newDocumentRecord();
+			indexWriter.writeDocumentPointer( obs, document );
+			if ( index.hasCounts ) {
+				final int count = indexIterator.count();
+				indexWriter.writePositionCount( obs, count );
+				if ( index.hasPositions ) indexWriter.writeDocumentPositions( obs, position = IndexIterators.positionArray( indexIterator, position ), 0, count, -1 );
+			}
+		}
+		indexIterator.dispose();
+		return index.hasCounts ? occurrency : -1;
+	}
+
+	/** Creates a writer for an index with the same components of a given index.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the new index.
+	 * @param index an index.
+	 * @return a quasi-succinct index writer for <code>basename</code>.
+	 */
+	private static QuasiSuccinctIndexWriter writer( final IOFactory ioFactory, final String basename, final Index index ) throws IOException {
+		final Map<Component,Coding> flags = new EnumMap<Component,Coding>( CompressionFlags.DEFAULT_QUASI_SUCCINCT_INDEX );
+		if ( ! index.hasCounts ) flags.remove( Component.COUNTS );
+		if ( ! index.hasPositions ) flags.remove( Component.POSITIONS );
+		return new QuasiSuccinctIndexWriter( ioFactory, basename, index.numberOfDocuments, Fast.mostSignificantBit( QuasiSuccinctIndex.DEFAULT_QUANTUM ), QuasiSuccinctIndexWriter.DEFAULT_CACHE_SIZE, flags, ByteOrder.nativeOrder() );
+	}
+
+	/** Closes a writer created by {@link #writer(IOFactory, String, Index)} and saves the properties of the resulting index.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the new index.
+	 * @param indexWriter the writer.
+	 * @param index the index passed to {@link #writer(IOFactory, String, Index)}.
+	 * @param numberOfOccurrences the number of occurrences in the new index.
+	 * @return the properties of the new index.
+	 */
+	private static Properties close( final IOFactory ioFactory, final String basename, final QuasiSuccinctIndexWriter indexWriter, final Index index, final long numberOfOccurrences ) throws IOException, ConfigurationException {
+		final long indexSize = indexWriter.writtenBits();
+		indexWriter.close();
+		final Properties properties = indexWriter.properties();
+		properties.setProperty( Index.PropertyKeys.TERMPROCESSOR, index.properties.getProperty( Index.PropertyKeys.TERMPROCESSOR ) );
+		if ( index.field != null ) properties.setProperty( Index.PropertyKeys.FIELD, index.field );
+		properties.setProperty( Index.PropertyKeys.SIZE, indexSize );
+		properties.setProperty( Index.PropertyKeys.MAXDOCSIZE, index.properties.getInt( Index.PropertyKeys.MAXDOCSIZE, -1 ) );
+		properties.setProperty( Index.PropertyKeys.OCCURRENCES, index.hasCounts ? numberOfOccurrences : -1 );
+		Scan.saveProperties( ioFactory, properties, basename + DiskBasedIndex.PROPERTIES_EXTENSION );
+		return properties;
+	}
+
+	/** Merges the posting lists of the terms in a given interval in groups of at most <code>maxMergedLists</code> terms,
+	 * writing the resulting posting lists in a temporary index.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the temporary index.
+	 * @param index an index.
+	 * @param interval an interval of term numbers.
+	 * @param maxMergedLists the maximum number of terms in a group.
+	 * @return the temporary index, whose terms are the groups.
+	 */
+	private static Index partialUnions( final IOFactory ioFactory, final String basename, final Index index, final LongInterval interval, final int maxMergedLists ) throws IOException, ConfigurationException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+		final QuasiSuccinctIndexWriter indexWriter = writer( ioFactory, basename, index );
+		long numberOfOccurrences = 0;
+		for( long left = interval.left; left <= interval.right; left += maxMergedLists ) 
+			numberOfOccurrences += writeUnion( indexWriter, index, left, (int)Math.min( maxMergedLists, interval.right - left + 1 ) );
+		final Properties properties = close( ioFactory, basename, indexWriter, index, numberOfOccurrences );
+		final EnumMap<UriKeys,String> queryProperties = new EnumMap<UriKeys,String>( UriKeys.class );
+		// Only files on the file system can be memory-mapped
+		if ( ioFactory != IOFactory.FILESYSTEM_FACTORY ) queryProperties.put( UriKeys.INMEMORY, "1" );
+		return DiskBasedIndex.getInstance( ioFactory, basename, properties, true, false, false, queryProperties );
+	}
+
+	/** Deletes a temporary index created by {@link #partialUnions(IOFactory, String, Index, LongInterval, int)}.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the temporary index.
+	 */
+	private static void delete( final IOFactory ioFactory, final String basename ) throws IOException {
+		for( String extension: new String[] { 
+				DiskBasedIndex.POINTERS_EXTENSIONS, DiskBasedIndex.POINTERS_EXTENSIONS + DiskBasedIndex.OFFSETS_POSTFIX,
+				DiskBasedIndex.COUNTS_EXTENSION, DiskBasedIndex.COUNTS_EXTENSION + DiskBasedIndex.OFFSETS_POSTFIX, DiskBasedIndex.OCCURRENCIES_EXTENSION,
+				DiskBasedIndex.POSITIONS_EXTENSION, DiskBasedIndex.POSITIONS_EXTENSION + DiskBasedIndex.OFFSETS_POSTFIX, DiskBasedIndex.SUMS_MAX_POSITION_EXTENSION,
+				DiskBasedIndex.FREQUENCIES_EXTENSION, DiskBasedIndex.PROPERTIES_EXTENSION } )
+			if ( ioFactory.exists( basename + extension ) ) ioFactory.delete( basename + extension );
+	}
+	
+	/** Selects the prefixes to be materialised.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the index.
+	 * @param index the index.
+	 * @param maxLength the maximum length of a prefix that is materialised even if it does not appear in <code>queryLog</code>.
+	 * @param minFanOut the minimum number of terms matched by a materialised prefix.
+	 * @param maxPrefixes the maximum number of materialised prefixes.
+	 * @param queryLog a query log containing a prefix for each prefix query, or <code>null</code>.
+	 * @return the materialised prefixes, in lexicographical order; prefixes matching more than {@link #MAX_FAN_OUT} terms are never selected.
+	 */
+	public static ObjectArrayList<String> select( final IOFactory ioFactory, final String basename, final Index index, final int maxLength, final int minFanOut, final int maxPrefixes, final Iterable<? extends CharSequence> queryLog ) {
+		final Object2LongOpenHashMap<String> logCount = new Object2LongOpenHashMap<String>();
+		if ( queryLog != null ) {
+			final TermProcessor termProcessor = index.termProcessor.copy();
+			final MutableString prefix = new MutableString();
+			for( CharSequence query: queryLog ) {
+				prefix.replace( query ).trim();
+				if ( prefix.length() > 0 && prefix.lastChar() == '*' ) prefix.length( prefix.length() - 1 );
+				if ( prefix.length() == 0 || ! termProcessor.processPrefix( prefix ) ) continue;
+				logCount.addTo( prefix.toString(), 1 );
+			}
+		}
+
+		final ObjectOpenHashSet<String> candidates = new ObjectOpenHashSet<String>( logCount.keySet() );
+		for( MutableString term: IOFactories.fileLinesCollection( ioFactory, basename + DiskBasedIndex.TERMS_EXTENSION, "UTF-8" ) )
+			for( int l = Math.min( maxLength, term.length() ); l > 0; l-- ) candidates.add( term.substring( 0, l ).toString() );
+
+		final Object2LongOpenHashMap<String> score = new Object2LongOpenHashMap<String>();
+		for( String candidate: candidates ) {
+			final long fanOut = index.prefixMap.rangeMap().get( candidate ).length();
+			if ( fanOut >= Math.max( 2, minFanOut ) && fanOut <= MAX_FAN_OUT ) score.put( candidate, fanOut * ( 1 + logCount.getLong( candidate ) ) );
+		}
+
+		final ObjectArrayList<String> selected = new ObjectArrayList<String>( score.keySet() );
+		Collections.sort( selected, new Comparator<String>() {
+			public int compare( final String s0, final String s1 ) {
+				final int t = Long.signum( score.getLong( s1 ) - score.getLong( s0 ) );
+				return t != 0 ? t : s0.compareTo( s1 );
+			}
+		} );
+		if ( selected.size() > maxPrefixes ) selected.size( maxPrefixes );
+		Collections.sort( selected );
+		return selected;
+	}
+
+	/** Materialises the posting lists of the given prefixes, merging at most {@link #DEFAULT_MAX_MERGED_LISTS} posting lists at a time.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the index.
+	 * @param index the index.
+	 * @param prefixes the prefixes to be materialised, in lexicographical order.
+	 * @see #materialize(IOFactory, String, Index, ObjectArrayList, int)
+	 */
+	public static void materialize( final IOFactory ioFactory, final String basename, final Index index, final ObjectArrayList<String> prefixes ) throws IOException, ConfigurationException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+		materialize( ioFactory, basename, index, prefixes, DEFAULT_MAX_MERGED_LISTS );
+	}
+
+	/** Materialises the posting lists of the given prefixes.
+	 * 
+	 * <p>To bound the number of posting lists open at the same time, 
+	 * prefixes matching more than <code>maxMergedLists</code> terms are materialised in two phases: first, the unions of 
+	 * consecutive groups of at most <code>maxMergedLists</code> terms are written to a temporary index (with basename given by
+	 * the basename of the index of materialised prefixes followed by <samp>-partial</samp>); then, 
+	 * the posting lists of the temporary index are merged.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the index.
+	 * @param index the index.
+	 * @param prefixes the prefixes to be materialised, in lexicographical order.
+	 * @param maxMergedLists the maximum number of posting lists merged at the same time; 
+	 * prefixes must match at most the square of this number of terms.
+	 */
+	public static void materialize( final IOFactory ioFactory, final String basename, final Index index, final ObjectArrayList<String> prefixes, final int maxMergedLists ) throws IOException, ConfigurationException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+		if ( index.prefixMap == null ) throw new IllegalArgumentException( "Index " + basename + " has no prefix map" );
+		if ( index.hasPayloads ) throw new IllegalArgumentException( "Index " + basename + " has payloads" );
+		if ( maxMergedLists < 2 ) throw new IllegalArgumentException( "You must merge at least two posting lists at a time" );
+
+		final String outputBasename = basename + DiskBasedIndex.PREFIX_INDEX_SUFFIX;
+		final String partialBasename = outputBasename + "-partial";
+		final QuasiSuccinctIndexWriter indexWriter = writer( ioFactory, outputBasename, index );
+		final PrintWriter termFile = new PrintWriter( new BufferedWriter( new OutputStreamWriter( ioFactory.getOutputStream( outputBasename + DiskBasedIndex.TERMS_EXTENSION ), "UTF-8" ) ) );
+
+		final ProgressLogger pl = new ProgressLogger( LOGGER );
+		pl.expectedUpdates = prefixes.size();
+		pl.itemsName = "prefixes";
+		pl.start( "Materialising prefixes..." );
+
+		long numberOfOccurrences = 0;
+		
+		for( String prefix: prefixes ) {
+			final LongInterval interval = index.prefixMap.rangeMap().get( prefix );
+			if ( interval.length() > (long)maxMergedLists * maxMergedLists ) throw new IllegalArgumentException( "Prefix " + prefix + " matches too many terms (" + interval.length() + ")" );
+			
+			if ( interval.length() <= maxMergedLists ) numberOfOccurrences += writeUnion( indexWriter, index, interval.left, (int)interval.length() );
+			else {
+				final Index partialIndex = partialUnions( ioFactory, partialBasename, index, interval, maxMergedLists );
+				numberOfOccurrences += writeUnion( indexWriter, partialIndex, 0, (int)partialIndex.numberOfTerms );
+				delete( ioFactory, partialBasename );
+			}
+
+			termFile.println( prefix );
+			pl.lightUpdate();
+		}
+		
+		pl.done();
+		termFile.close();
+		
+		close( ioFactory, outputBasename, indexWriter, index, numberOfOccurrences );
+		
+		final PrintStream stats = new PrintStream( ioFactory.getOutputStream( outputBasename + DiskBasedIndex.STATS_EXTENSION ) );
+		indexWriter.printStats( stats );
+		stats.close();
+
+		IOFactories.storeObject( ioFactory, StringMaps.synchronize( new ImmutableExternalPrefixMap( IOFactories.fileLinesCollection( ioFactory, outputBasename + DiskBasedIndex.TERMS_EXTENSION, "UTF-8" ) ) ), outputBasename + DiskBasedIndex.TERMMAP_EXTENSION );
+	}
+
+	/** Selects and materialises prefixes of an index.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the basename of the index.
+	 * @param maxLength the maximum length of a prefix that is materialised even if it does not appear in <code>queryLog</code>.
+	 * @param minFanOut the minimum number of terms matched by a materialised prefix.
+	 * @param maxPrefixes the maximum number of materialised prefixes.
+	 * @param queryLog a query log containing a prefix for each prefix query, or <code>null</code>.
+	 * @return the number of materialised prefixes.
+	 */
+	public static int run( final IOFactory ioFactory, final String basename, final int maxLength, final int minFanOut, final int maxPrefixes, final Iterable<? extends CharSequence> queryLog ) throws IOException, ConfigurationException, URISyntaxException, ClassNotFoundException, SecurityException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final Index index = Index.getInstance( ioFactory, basename, true, false, true );
+		if ( index.prefixMap == null ) throw new IllegalArgumentException( "Index " + basename + " has no prefix map" );
+		final ObjectArrayList<String> prefixes = select( ioFactory, basename, index, maxLength, minFanOut, maxPrefixes, queryLog );
+		LOGGER.info( "Selected " + prefixes.size() + " prefixes" );
+		materialize( ioFactory, basename, index, prefixes );
+		return prefixes.size();
+	}
+	
+	public static void main( final String[] arg ) throws JSAPException, IOException, ConfigurationException, URISyntaxException, ClassNotFoundException, SecurityException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final SimpleJSAP jsap = new SimpleJSAP( MaterializePrefixes.class.getName(), "Materialises the posting lists of popular prefixes of an index, so that they can be resolved using a single posting list. The resulting index has the basename of the index followed by " + DiskBasedIndex.PREFIX_INDEX_SUFFIX + ", and it is loaded automatically with the index.",
+			new Parameter[] {
+				new FlaggedOption( "maxLength", JSAP.INTEGER_PARSER, Integer.toString( DEFAULT_MAX_LENGTH ), JSAP.NOT_REQUIRED, 'l', "max-length", "The maximum length of a prefix that is materialised even if it does not appear in the query log." ),
+				new FlaggedOption( "minFanOut", JSAP.INTEGER_PARSER, Integer.toString( DEFAULT_MIN_FAN_OUT ), JSAP.NOT_REQUIRED, 'f', "min-fan-out", "The minimum number of terms matched by a materialised prefix." ),
+				new FlaggedOption( "maxPrefixes", JSAP.INTEGER_PARSER, Integer.toString( DEFAULT_MAX_PREFIXES ), JSAP.NOT_REQUIRED, 'n', "max-prefixes", "The maximum number of materialised prefixes." ),
+				new FlaggedOption( "queryLog", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'q', "query-log", "A UTF-8 file containing a prefix for each prefix query." ),
+				new UnflaggedOption( "basename", JSAP.STRING_PARSER, JSAP.REQUIRED, "The basename of the index." ),
+		});
+
+		final JSAPResult jsapResult = jsap.parse( arg );
+		if ( jsap.messagePrinted() ) return;
+
+		run( IOFactory.FILESYSTEM_FACTORY, jsapResult.getString( "basename" ), jsapResult.getInt( "maxLength" ), jsapResult.getInt( "minFanOut" ), jsapResult.getInt( "maxPrefixes" ),
+				jsapResult.userSpecified( "queryLog" ) ? new FileLinesCollection( jsapResult.getString( "queryLog" ), "UTF-8" ) : null );
+	}
+}
@@ -30,6 +30,7 @@ import it.unimi.di.big.mg4j.document.DocumentIterator;
 import it.unimi.di.big.mg4j.document.DocumentSequence;
 import it.unimi.di.big.mg4j.document.IdentityDocumentFactory;
 import it.unimi.di.big.mg4j.document.InputStreamDocumentSequence;
+import it.unimi.di.big.mg4j.document.PipelinedDocumentCollectionBuilder;
 import it.unimi.di.big.mg4j.document.PropertyBasedDocumentFactory;
 import it.unimi.di.big.mg4j.document.SimpleCompressedDocumentCollectionBuilder;
 import it.unimi.di.big.mg4j.document.SubDocumentFactory;
@@ -38,6 +39,7 @@ import it.unimi.di.big.mg4j.index.CompressionFlags;
 import it.unimi.di.big.mg4j.index.CompressionFlags.Coding;
 import it.unimi.di.big.mg4j.index.CompressionFlags.Component;
 import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.DocValuesWriter;
 import it.unimi.di.big.mg4j.index.DowncaseTermProcessor;
 import it.unimi.di.big.mg4j.index.FileIndex;
 import it.unimi.di.big.mg4j.index.Index;
@@ -71,7 +73,9 @@ import it.unimi.dsi.fastutil.longs.AbstractLongComparator;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongArrays;
 import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import it.unimi.dsi.io.FastBufferedReader;
+import it.unimi.dsi.io.FileLinesCollection;
 import it.unimi.dsi.io.InputBitStream;
 import it.unimi.dsi.io.OutputBitStream;
 import it.unimi.dsi.io.WordReader;
@@ -91,11 +95,14 @@ import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+
 import org.apache.commons.configuration.ConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -183,6 +190,12 @@ import com.martiansoftware.jsap.stringparsers.LongSizeStringParser;
  * {@link #run(String, DocumentSequence, Completeness, TermProcessor, DocumentCollectionBuilder, int, int, int, int[], VirtualDocumentResolver[], int[], String, long, String) run()}
  * method creates a set of suitable instances, one for each indexed field, and feeds them in
  * parallel with data from the appropriate field of the same document.
+ * 
+ * <p>Optionally (see the <code>docValues</code> parameter of 
+ * {@link #run(IOFactory, String, DocumentSequence, Completeness, TermProcessor, DocumentCollectionBuilder, int, int, int, int[], VirtualDocumentResolver[], int[], String, long, String, boolean, Collection, boolean, IndexingMetrics) run()}), 
+ * besides the payload-based index a {@link Scan.PayloadAccumulator} writes, using the same basename,
+ * a {@linkplain it.unimi.di.big.mg4j.index.DocValues column of per-document values}, which provides constant-time access to the value
+ * of the field of each document. Note that values are accumulated in core memory (a long per document) until the end of the run.
  *
  * <p>Note that this class uses an internal hack that mimicks {@link BitStreamIndexWriter} 
  * to perform a lightweight in-memory inversion that generates directly compressed posting lists.
@@ -192,6 +205,13 @@ import com.martiansoftware.jsap.stringparsers.LongSizeStringParser;
  * up to full {@linkplain Completeness#POSITIONS positions}. More sophisticated choices (e.g., coding,
  * skipping structures, etc.) can be obtained when {@linkplain Combine combining} the batches.
  *
+ * <h2>Pair indices</h2>
+ * 
+ * <p>Optionally, for each text field a <em>pair index</em> can be built, too (see {@link #pairs(java.util.Collection)}). 
+ * The terms of the pair index are pairs of consecutive terms, possibly restricted to pairs containing at least one term from 
+ * a given set (e.g., stopwords). Pair indices make it possible to resolve phrase queries without merging the 
+ * (very long) position lists of frequent terms.
+ * 
  * <h2>Building collections while indexing</h2>
  * 
  * <p>During the indexing process, a {@link DocumentCollectionBuilder} can be used to generate a document collection
@@ -372,6 +392,9 @@ public class Scan {
 	/** The number of occurrences in the current batch. */
 	private long numOccurrences;
 
+	/** If not {@code null}, a registry where metrics about text processing will be recorded. */
+	private IndexingMetrics metrics;
+
 	/** If true, this class experienced an {@link OutOfMemoryError} during some buffer reallocation. */
 	public boolean outOfMemoryError;
 
@@ -409,6 +432,14 @@ public class Scan {
 	protected final LongArrayList cutPoints;
 	/** The completeness level required to this instance. */
 	private final Completeness completeness;
+	/** The instance building the {@linkplain #pairs(Collection) pair index} associated with this instance, or {@code null}. */
+	private Scan pairScan;
+	/** If not {@code null}, the set of (processed) terms that a pair must contain to be indexed in the pair index. */
+	private ObjectOpenHashSet<MutableString> pairTerms;
+	/** The last term accepted by the term processor (used only for the pair index). */
+	private final MutableString lastWord = new MutableString();
+	/** A support string used to build pairs. */
+	private final MutableString pair = new MutableString();
 
 
 	/**
@@ -511,6 +542,39 @@ public class Scan {
 		openSizeBitStream();
 	}
 
+	/** Enables the construction of a <em>pair index</em> alongside the index built by this instance.
+	 *
+	 * <p>The pair index has basename and field obtained by appending {@link #PAIR_INDEX_SUFFIX} to those
+	 * of this instance. Its terms are pairs of consecutive (processed) terms separated by {@link #PAIR_SEPARATOR}, and the
+	 * position of a pair is the position of its first term. Thus, a phrase query of <var>k</var>&nbsp;&ge;&nbsp;2 terms can be resolved on the
+	 * pair index by a consecutive composition of about <var>k</var>/2 pairs, whose posting lists are usually much shorter
+	 * than those of the terms (in particular, when the phrase contains stopwords); see
+	 * {@link it.unimi.di.big.mg4j.query.nodes.PairIndexTransformer}.
+	 * 
+	 * <p>Since pair terms are already processed, the pair index uses a {@link NullTermProcessor}. Batches of
+	 * the pair index are dumped together with the batches of this instance, so the two sets of batches
+	 * can be combined in the same way.
+	 *
+	 * <p>This method must be called before any document is processed, and it is not available for {@linkplain IndexingType#VIRTUAL virtual} indexing. 
+	 *
+	 * @param pairTerms if not {@code null}, only pairs containing at least one of the given terms (e.g., stopwords) will be indexed; 
+	 * the terms will be processed by the term processor of this instance.
+	 */
+	public void pairs( final Collection<? extends CharSequence> pairTerms ) throws IOException {
+		if ( indexingIsVirtual ) throw new IllegalStateException( "Pair indices are not available for virtual fields" );
+		if ( documentCount != 0 || batch != 0 ) throw new IllegalStateException( "Pair indices must be enabled before processing documents" );
+		if ( pairTerms != null ) {
+			this.pairTerms = new ObjectOpenHashSet<MutableString>();
+			final TermProcessor termProcessor = this.termProcessor.copy();
+			for( CharSequence term: pairTerms ) {
+				final MutableString t = new MutableString( term );
+				if ( termProcessor.processTerm( t ) ) this.pairTerms.add( t.compact() );
+			}
+		}
+		pairScan = new Scan( ioFactory, basename + PAIR_INDEX_SUFFIX, field == null ? null : field + PAIR_INDEX_SUFFIX, completeness, NullTermProcessor.getInstance(), 
+				indexingIsStandard ? IndexingType.STANDARD : IndexingType.REMAPPED, 0, 0, bufferSize, null, batchDir );
+	}
+
 	/** Cleans all intermediate files generated by a run of this class.
 	 *
 	 * @param ioFactory the factory that will be used to perform I/O.
@@ -560,6 +624,8 @@ public class Scan {
 	 * @return the number of occurrences contained in the batch. 
 	 */
 	protected long dumpBatch() throws IOException, ConfigurationException {
+		// The pair index must be dumped in lockstep, so that batches of the two indices contain the same documents.
+		if ( pairScan != null ) pairScan.dumpBatch();
 
 		outOfMemoryError = false;
 		final String batchBasename = batchBasename( batch, basename, batchDir );
@@ -835,6 +901,7 @@ public class Scan {
 	}
 
 	protected void openSizeBitStream() throws IOException {
+		if ( pairScan != null ) pairScan.openSizeBitStream();
 		if ( ! indexingIsVirtual ) sizes = new OutputBitStream( ioFactory.getOutputStream( batchBasename( batch, basename, batchDir ) + DiskBasedIndex.SIZES_EXTENSION ), false );
 	}
 	
@@ -913,10 +980,84 @@ public class Scan {
 	 * @throws IOException
 	 * @throws ConfigurationException
 	 */
-	@SuppressWarnings("unchecked")
 	public static void run( final IOFactory ioFactory, final String basename, final DocumentSequence documentSequence, final Completeness completeness, final TermProcessor termProcessor, final DocumentCollectionBuilder builder, final int bufferSize,
 			final int documentsPerBatch, final int maxTerms, final int[] indexedField, final VirtualDocumentResolver[] virtualDocumentResolver, final int[] virtualGap, final String mapFile, final long logInterval,
 			final String tempDirName ) throws ConfigurationException, IOException {
+		run( ioFactory, basename, documentSequence, completeness, termProcessor, builder, bufferSize, documentsPerBatch, maxTerms, indexedField, virtualDocumentResolver, virtualGap, mapFile, logInterval, tempDirName, false, null );
+	}
+
+	/**
+	 * Runs in parallel a number of instances, possibly building {@linkplain #pairs(Collection) pair indices}.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the index basename.
+	 * @param documentSequence a document sequence.
+	 * @param completeness the completeness level of this run.
+	 * @param termProcessor the term processor for this index.
+	 * @param builder if not {@code null}, a builder that will be used to create new collection built using <code>documentSequence</code>.
+	 * @param bufferSize the buffer size used in all I/O.
+	 * @param documentsPerBatch the number of documents that we should try to put in each segment.
+	 * @param maxTerms the maximum number of overall (i.e., cross-field) terms in a batch.
+	 * @param indexedField the fields that should be indexed, in increasing order.
+	 * @param virtualDocumentResolver the array of virtual document resolvers to be used, parallel
+	 * to <code>indexedField</code>: it can safely contain anything (even {@code null})
+	 * in correspondence to non-virtual fields, and can safely be {@code null} if no fields
+	 * are virtual.
+	 * @param virtualGap the array of virtual field gaps to be used, parallel to
+	 * <code>indexedField</code>: it can safely contain anything in correspondence to non-virtual
+	 * fields, and can safely be {@code null} if no fields are virtual.
+	 * @param mapFile the name of a file containing a map to be applied to document indices.
+	 * @param logInterval the minimum time interval between activity logs in milliseconds.
+	 * @param tempDirName a directory for temporary files.
+	 * @param pairs whether to build a pair index for each text field.
+	 * @param pairTerms if <code>pairs</code> is true and this parameter is not {@code null}, only pairs
+	 * containing at least one of these terms will be indexed (see {@link #pairs(Collection)}).
+	 * @throws IOException
+	 * @throws ConfigurationException
+	 */
+	public static void run( final IOFactory ioFactory, final String basename, final DocumentSequence documentSequence, final Completeness completeness, final TermProcessor termProcessor, final DocumentCollectionBuilder builder, final int bufferSize,
+			final int documentsPerBatch, final int maxTerms, final int[] indexedField, final VirtualDocumentResolver[] virtualDocumentResolver, final int[] virtualGap, final String mapFile, final long logInterval,
+			final String tempDirName, final boolean pairs, final Collection<? extends CharSequence> pairTerms ) throws ConfigurationException, IOException {
+		run( ioFactory, basename, documentSequence, completeness, termProcessor, builder, bufferSize, documentsPerBatch, maxTerms, indexedField, virtualDocumentResolver, virtualGap, mapFile, logInterval, tempDirName, pairs, pairTerms, false, null );
+	}
+
+	/**
+	 * Runs in parallel a number of instances, possibly building {@linkplain #pairs(Collection) pair indices}.
+	 * 
+	 * @param ioFactory the factory that will be used to perform I/O.
+	 * @param basename the index basename.
+	 * @param documentSequence a document sequence.
+	 * @param completeness the completeness level of this run.
+	 * @param termProcessor the term processor for this index.
+	 * @param builder if not {@code null}, a builder that will be used to create new collection built using <code>documentSequence</code>.
+	 * @param bufferSize the buffer size used in all I/O.
+	 * @param documentsPerBatch the number of documents that we should try to put in each segment.
+	 * @param maxTerms the maximum number of overall (i.e., cross-field) terms in a batch.
+	 * @param indexedField the fields that should be indexed, in increasing order.
+	 * @param virtualDocumentResolver the array of virtual document resolvers to be used, parallel
+	 * to <code>indexedField</code>: it can safely contain anything (even {@code null})
+	 * in correspondence to non-virtual fields, and can safely be {@code null} if no fields
+	 * are virtual.
+	 * @param virtualGap the array of virtual field gaps to be used, parallel to
+	 * <code>indexedField</code>: it can safely contain anything in correspondence to non-virtual
+	 * fields, and can safely be {@code null} if no fields are virtual.
+	 * @param mapFile the name of a file containing a map to be applied to document indices.
+	 * @param logInterval the minimum time interval between activity logs in milliseconds.
+	 * @param tempDirName a directory for temporary files.
+	 * @param pairs whether to build a pair index for each text field.
+	 * @param pairTerms if <code>pairs</code> is true and this parameter is not {@code null}, only pairs
+	 * containing at least one of these terms will be indexed (see {@link #pairs(Collection)}).
+	 * @param docValues whether to write a {@linkplain it.unimi.di.big.mg4j.index.DocValues column of per-document values} for each 
+	 * non-textual field; values are accumulated in core memory (a long per document) until the end of the run.
+	 * @param metrics if not {@code null}, a registry where {@linkplain IndexingMetrics metrics} about the run will be recorded; a report
+	 * will be saved at the end of the run with name <code>basename</code> and extension {@link IndexingMetrics#REPORT_EXTENSION}.
+	 * @throws IOException
+	 * @throws ConfigurationException
+	 */
+	@SuppressWarnings("unchecked")
+	public static void run( final IOFactory ioFactory, final String basename, final DocumentSequence documentSequence, final Completeness completeness, final TermProcessor termProcessor, final DocumentCollectionBuilder builder, final int bufferSize,
+			final int documentsPerBatch, final int maxTerms, final int[] indexedField, final VirtualDocumentResolver[] virtualDocumentResolver, final int[] virtualGap, final String mapFile, final long logInterval,
+			final String tempDirName, final boolean pairs, final Collection<? extends CharSequence> pairTerms, final boolean docValues, final IndexingMetrics metrics ) throws ConfigurationException, IOException {
 
 		final boolean building = builder != null;
 		final int numberOfIndexedFields = indexedField.length;
@@ -943,19 +1084,22 @@ public class Scan {
 			case TEXT:
 				scan[ i ] = new Scan( ioFactory, basename + '-' + fieldName, fieldName, completeness, termProcessor, map != null ? IndexingType.REMAPPED
 						: IndexingType.STANDARD, 0, 0, bufferSize, builder, tempDir );
+				if ( pairs ) scan[ i ].pairs( pairTerms );
+				scan[ i ].metrics = metrics;
 				break;
 			case VIRTUAL:
 				scan[ i ] = new Scan( ioFactory, basename + '-' + fieldName, fieldName, completeness, termProcessor, IndexingType.VIRTUAL,
 						virtualDocumentResolver[ i ].numberOfDocuments(), virtualGap[ i ], bufferSize, builder, tempDir );
+				scan[ i ].metrics = metrics;
 				break;
 
 			case DATE:
 				accumulator[ i ] = new PayloadAccumulator( ioFactory, basename + '-' + fieldName, new DatePayload(), fieldName,
-						map != null ? IndexingType.REMAPPED : IndexingType.STANDARD, documentsPerBatch, tempDir );
+						map != null ? IndexingType.REMAPPED : IndexingType.STANDARD, documentsPerBatch, tempDir, docValues );
 				break;
 			case INT:
 				accumulator[ i ] = new PayloadAccumulator( ioFactory, basename + '-' + fieldName, new IntegerPayload(), fieldName,
-						map != null ? IndexingType.REMAPPED : IndexingType.STANDARD, documentsPerBatch, tempDir );
+						map != null ? IndexingType.REMAPPED : IndexingType.STANDARD, documentsPerBatch, tempDir, docValues );
 				break;
 			default:
 
@@ -966,6 +1110,7 @@ public class Scan {
 		
 		pl.displayFreeMemory = true;
 		pl.start( "Indexing documents..." );
+		if ( metrics != null ) metrics.start();
 
 		DocumentIterator iterator = documentSequence.iterator();
 		Reader reader;
@@ -977,8 +1122,10 @@ public class Scan {
 		long batchStartTime = System.currentTimeMillis();
 		boolean outOfMemoryError = false;
 		final MutableString title = new MutableString();
+		long parsingTime = metrics != null ? System.nanoTime() : 0;
 
 		while ( ( document = iterator.nextDocument() ) != null ) {
+			if ( metrics != null ) parsingTime = System.nanoTime() - parsingTime;
 			
 			long overallTerms = 0;
 			if ( document.title() != null ) {
@@ -989,16 +1136,21 @@ public class Scan {
 			for ( int i = 0; i < numberOfIndexedFields; i++ ) {
 				switch ( factory.fieldType( indexedField[ i ] ) ) {
 				case TEXT:
+					if ( metrics != null ) parsingTime -= System.nanoTime();
 					reader = (Reader)document.content( indexedField[ i ] );
 					wordReader = document.wordReader( indexedField[ i ] );
 					wordReader.setReader( reader );
+					if ( metrics != null ) parsingTime += System.nanoTime();
 					if ( building ) builder.startTextField();
 					scan[ i ].processDocument( map != null ? map[ documentPointer ] : documentPointer, wordReader );
 					if ( building ) builder.endTextField();
 					overallTerms += scan[ i ].numTerms;
+					if ( scan[ i ].pairScan != null ) overallTerms += scan[ i ].pairScan.numTerms;
 					break;
 				case VIRTUAL:
+					if ( metrics != null ) parsingTime -= System.nanoTime();
 					fragments = (List<VirtualDocumentFragment>)document.content( indexedField[ i ] );
+					if ( metrics != null ) parsingTime += System.nanoTime();
 					wordReader = document.wordReader( indexedField[ i ] );
 					virtualDocumentResolver[ i ].context( document );
 					for( VirtualDocumentFragment fragment: fragments ) {
@@ -1013,7 +1165,9 @@ public class Scan {
 					overallTerms += scan[ i ].numTerms;
 					break;
 				default:
+					if ( metrics != null ) parsingTime -= System.nanoTime();
 					Object o = document.content( indexedField[ i ] );
+					if ( metrics != null ) parsingTime += System.nanoTime();
 					accumulator[ i ].processData( map != null ? map[ documentPointer ] : documentPointer, o );
 					if ( building ) builder.nonTextField( o );
 					break;
@@ -1026,6 +1180,7 @@ public class Scan {
 			documentsInBatch++;
 			document.close();
 			pl.update();
+			if ( metrics != null ) metrics.parsed( parsingTime );
 
 			long percAvailableMemory = 100;
 			boolean compacted = false;
@@ -1035,7 +1190,9 @@ public class Scan {
 				if ( ! outOfMemoryError && percAvailableMemory < PERC_AVAILABLE_MEMORY_CHECK ) {
 					LOGGER.info( "Starting compaction... (" + percAvailableMemory + "% available)" );
 					compacted = true;
+					final long compactionStart = System.nanoTime();
 					Util.compactMemory();
+					if ( metrics != null ) metrics.compacted( System.nanoTime() - compactionStart );
 					percAvailableMemory = Util.percAvailableMemory();
 					LOGGER.info( "Compaction completed (" + percAvailableMemory + "% available)" );
 				}
@@ -1046,6 +1203,7 @@ public class Scan {
 				else if ( overallTerms >= maxTerms ) LOGGER.warn( "Too many terms (" + overallTerms + "): writing a batch of " + documentsInBatch + " documents" );
 				else if ( compacted && percAvailableMemory < PERC_AVAILABLE_MEMORY_DUMP ) LOGGER.warn( "Available memory below " + PERC_AVAILABLE_MEMORY_DUMP + "%: writing a batch of " + documentsInBatch + " documents" );
 
+				final long dumpStart = System.nanoTime();
 				long occurrences = 0;
 				for ( int i = 0; i < numberOfIndexedFields; i++ ) {
 					switch ( factory.fieldType( indexedField[ i ] ) ) {
@@ -1059,6 +1217,8 @@ public class Scan {
 					}
 				}
 				
+				if ( metrics != null ) metrics.dumped( System.nanoTime() - dumpStart, documentsInBatch, occurrences );
+
 				if ( building ) {
 					builder.close();
 					builder.open( "@" + scan[ 0 ].batch );
@@ -1069,15 +1229,20 @@ public class Scan {
 				documentsInBatch = 0;
 				outOfMemoryError = false;
 			}
+
+			if ( metrics != null ) parsingTime = System.nanoTime();
 		}
 
 		iterator.close();
 		if ( builder != null ) builder.close();
 
+		final long closeStart = System.nanoTime();
+		long occurrences = 0;
 		for ( int i = 0; i < numberOfIndexedFields; i++ ) {
 			switch ( factory.fieldType( indexedField[ i ] ) ) {
 			case TEXT:
 			case VIRTUAL:
+				occurrences += scan[ i ].numOccurrences;
 				scan[ i ].close();
 				break;
 			default:
@@ -1086,6 +1251,7 @@ public class Scan {
 			}
 
 		}
+		if ( metrics != null && documentsInBatch != 0 ) metrics.dumped( System.nanoTime() - closeStart, documentsInBatch, occurrences );
 
 		documentSequence.close();
 		
@@ -1100,6 +1266,12 @@ public class Scan {
 
 		if ( map != null && documentPointer != map.length ) LOGGER.warn( "The document sequence contains " + documentPointer + " documents, but the map contains "
 				+ map.length + " integers" );
+
+		if ( metrics != null ) {
+			metrics.stop();
+			LOGGER.info( "Indexing metrics: " + metrics );
+			metrics.save( ioFactory, basename + IndexingMetrics.REPORT_EXTENSION );
+		}
 	}
 
 
@@ -1107,6 +1279,12 @@ public class Scan {
 
 	final MutableString nonWord = new MutableString();
 
+	/** The suffix appended to basename and field name of a {@linkplain #pairs(Collection) pair index}. */
+	public static final String PAIR_INDEX_SUFFIX = "-pairs";
+
+	/** The character separating the two terms of a pair in a {@linkplain #pairs(Collection) pair index}. */
+	public static final char PAIR_SEPARATOR = ' ';
+
 	/** The default delimiter separating two documents read from standard input (a newline). */
 	public static final int DEFAULT_DELIMITER = 10;
 
@@ -1131,48 +1309,105 @@ public class Scan {
 	public void processDocument( final long documentPointer, final WordReader wordReader ) throws IOException {
 		int pos = indexingIsVirtual ? IntBigArrays.get( currSize, documentPointer ) : 0;
 		final long actualPointer = indexingIsStandard ? documentCount : documentPointer;
-		ByteArrayPostingList termBapl;
+		// The position of the last term accepted by the term processor (used only for the pair index).
+		int lastPos = -2;
+		// Whether we are timing term processing and inversion for this document (see IndexingMetrics).
+		final boolean sampled = metrics != null && ( documentCount & IndexingMetrics.SAMPLING - 1 ) == 0;
+		final long startTime = metrics != null ? System.nanoTime() : 0, startOccurrences = numOccurrences;
+		long tokens = 0, characters = 0, termProcessingTime = 0, inversionTime = 0, time = 0;
+		boolean accepted;
 
 		word.length( 0 );
 		nonWord.length( 0 );
 
 		while ( wordReader.next( word, nonWord ) ) {
+			characters += word.length() + nonWord.length();
 			if ( builder != null ) builder.add( word, nonWord );
 			if ( word.length() == 0 ) continue;
-			if ( !termProcessor.processTerm( word ) ) {
+			tokens++;
+			if ( sampled ) {
+				time = System.nanoTime();
+				accepted = termProcessor.processTerm( word );
+				termProcessingTime += -time + ( time = System.nanoTime() );
+			}
+			else accepted = termProcessor.processTerm( word );
+
+			if ( ! accepted ) {
 				pos++; // We do consider the positions of terms canceled out by the term processor.
 				continue;
 			}
 
-			// We check whether we have already seen this term. If not, we add it to the term map.
-			if ( ( termBapl = termMap.get( word ) ) == null ) {
-				try {
-					termBapl = new ByteArrayPostingList( new byte[ BYTE_ARRAY_POSTING_LIST_INITIAL_SIZE ], indexingIsStandard, completeness );
-					termMap.put( word.copy(), termBapl );
-				}
-				catch( OutOfMemoryError e ) {
-					/* There is not enough memory for enlarging the table. We set a very low growth factor, so at
-					 * the next put() the enlargement will likely succeed. If not, we will generate several
-					 * out-of-memory error, but we should get to the end anyway, and we will 
-					 * dump the current batch as soon as the current document is finished. */
-					outOfMemoryError = true;
-					//termMap.growthFactor( 1 );
+			addOccurrence( word, actualPointer, pos );
+
+			if ( pairScan != null ) {
+				if ( lastPos == pos - 1 && ( pairTerms == null || pairTerms.contains( lastWord ) || pairTerms.contains( word ) ) ) {
+					pair.length( 0 );
+					pair.append( lastWord ).append( PAIR_SEPARATOR ).append( word );
+					pairScan.addOccurrence( pair, actualPointer, lastPos );
+					if ( pairScan.outOfMemoryError ) outOfMemoryError = true;
 				}
-				numTerms++;
-				if ( numTerms % TERM_REPORT_STEP == 0 ) LOGGER.info( "[" + Util.format( numTerms ) + " term(s)]" );
+				lastWord.replace( word );
+				lastPos = pos;
 			}
 
-			// We now record the occurrence. If a renumbering map has
-			// been specified, we have to renumber the document index through it.
-			termBapl.setDocumentPointer( actualPointer );
-			termBapl.addPosition( pos );
-			// Record whether this posting list has an out-of-memory-error problem.
-			if ( termBapl.outOfMemoryError ) outOfMemoryError = true;
-			occsInCurrDoc++;
-			numOccurrences++;
+			if ( sampled ) inversionTime += System.nanoTime() - time;
 			pos++;
 		}
 
+		if ( pairScan != null ) pairScan.endDocument( documentPointer, actualPointer, pos );
+		final long occurrences = numOccurrences - startOccurrences;
+		endDocument( documentPointer, actualPointer, pos );
+
+		if ( metrics != null ) {
+			final long elapsed = System.nanoTime() - startTime;
+			metrics.processed( elapsed, tokens, characters, occurrences );
+			if ( sampled ) metrics.sampled( elapsed - termProcessingTime - inversionTime, termProcessingTime, inversionTime );
+		}
+	}
+
+	/** Records an occurrence of a (processed) term.
+	 * 
+	 * @param term a term.
+	 * @param actualPointer the actual document pointer.
+	 * @param pos the position of the occurrence.
+	 */
+	private void addOccurrence( final MutableString term, final long actualPointer, final int pos ) {
+		ByteArrayPostingList termBapl;
+		// We check whether we have already seen this term. If not, we add it to the term map.
+		if ( ( termBapl = termMap.get( term ) ) == null ) {
+			try {
+				termBapl = new ByteArrayPostingList( new byte[ BYTE_ARRAY_POSTING_LIST_INITIAL_SIZE ], indexingIsStandard, completeness );
+				termMap.put( term.copy(), termBapl );
+			}
+			catch( OutOfMemoryError e ) {
+				/* There is not enough memory for enlarging the table. We set a very low growth factor, so at
+				 * the next put() the enlargement will likely succeed. If not, we will generate several
+				 * out-of-memory error, but we should get to the end anyway, and we will 
+				 * dump the current batch as soon as the current document is finished. */
+				outOfMemoryError = true;
+				//termMap.growthFactor( 1 );
+			}
+			numTerms++;
+			if ( numTerms % TERM_REPORT_STEP == 0 ) LOGGER.info( "[" + Util.format( numTerms ) + " term(s)]" );
+		}
+
+		// We now record the occurrence. If a renumbering map has
+		// been specified, we have to renumber the document index through it.
+		termBapl.setDocumentPointer( actualPointer );
+		termBapl.addPosition( pos );
+		// Record whether this posting list has an out-of-memory-error problem.
+		if ( termBapl.outOfMemoryError ) outOfMemoryError = true;
+		occsInCurrDoc++;
+		numOccurrences++;
+	}
+
+	/** Completes the processing of a document.
+	 * 
+	 * @param documentPointer the integer pointer associated with the document.
+	 * @param actualPointer the actual document pointer.
+	 * @param pos the size of the document.
+	 */
+	private void endDocument( final long documentPointer, final long actualPointer, final int pos ) throws IOException {
 		if ( pos > maxDocSize ) maxDocSize = pos;
 		
 		if ( indexingIsStandard ) sizes.writeGamma( pos );
@@ -1183,7 +1418,7 @@ public class Scan {
 		
 		if ( indexingIsVirtual ) IntBigArrays.set( currSize, documentPointer, IntBigArrays.get( currSize, documentPointer ) + occsInCurrDoc + virtualDocumentGap );
 
-		pos = occsInCurrDoc = 0;
+		occsInCurrDoc = 0;
 		documentCount++;
 		if ( actualPointer > maxDocInBatch ) maxDocInBatch = actualPointer;
 	}
@@ -1268,6 +1503,7 @@ public class Scan {
 		}
 
 		saveProperties( ioFactory, properties, basename + DiskBasedIndex.PROPERTIES_EXTENSION );
+		if ( pairScan != null ) pairScan.close();
 	}
 
 	public String toString() {
@@ -1279,7 +1515,8 @@ public class Scan {
 	 * 
 	 * <P>This class is essentially a stripped-down version of {@link Scan} that just accumulate
 	 * payloads in a bitstream and releases them in batches. The main difference is that neither
-	 * sizes nor occurrencies are saved (as they would not make much sense).
+	 * sizes nor occurrencies are saved (as they would not make much sense). Values are also
+	 * optionally passed to a {@link DocValuesWriter}.
 	 */
 
 	protected static class PayloadAccumulator {
@@ -1334,6 +1571,9 @@ public class Scan {
 		/** The maximum document ever seen in the current batch. */
 		private int maxDocInBatch;
 
+		/** The writer for the column of per-document values, or {@code null}. */
+		private final DocValuesWriter docValuesWriter;
+
 
 		/**
 		 * Creates a new accumulator.
@@ -1347,8 +1587,9 @@ public class Scan {
 		 * @param documentsPerBatch the number of documents in each batch.
 		 * @param batchDir a directory for batch files; batch names will be relativised to this
 		 * directory if it is not {@code null}.
+		 * @param docValues whether to write a {@linkplain it.unimi.di.big.mg4j.index.DocValues column of per-document values} with the same basename.
 		 */
-		public PayloadAccumulator( final IOFactory ioFactory, final String basename, final Payload payload, final String field, final IndexingType indexingType, final int documentsPerBatch, final File batchDir ) {
+		public PayloadAccumulator( final IOFactory ioFactory, final String basename, final Payload payload, final String field, final IndexingType indexingType, final int documentsPerBatch, final File batchDir, final boolean docValues ) {
 			this.basename = basename;
 			this.ioFactory = ioFactory;
 			this.payload = payload;
@@ -1363,6 +1604,7 @@ public class Scan {
 			flags = new EnumMap<Component, Coding>( CompressionFlags.DEFAULT_PAYLOAD_INDEX );
 			accumulatorStream = new FastByteArrayOutputStream();
 			accumulator = new OutputBitStream( accumulatorStream );
+			docValuesWriter = docValues ? new DocValuesWriter( ioFactory, basename, field ) : null;
 		}
 
 		/** Writes in compressed form the data currently accumulated. */
@@ -1459,6 +1701,7 @@ public class Scan {
 			// TODO: devise an out-of-memory-error check mechanism similar to that of ByteArrayPostingList.
 			payload.set( content );
 			payload.write( accumulator );
+			if ( docValuesWriter != null ) docValuesWriter.add( documentPointer, content );
 
 			if ( documentPointer > maxDocInBatch ) maxDocInBatch = documentPointer;
 			documentCount++;
@@ -1494,6 +1737,7 @@ public class Scan {
 			accumulator = null;
 			accumulatorStream = null;
 			position = null;
+			if ( docValuesWriter != null ) docValuesWriter.close();
 
 			final Properties properties = new Properties();
 			if ( field != null ) properties.setProperty( Index.PropertyKeys.FIELD, field );
@@ -1685,7 +1929,7 @@ public class Scan {
 
 	@SuppressWarnings("unchecked")
 	public static void main( final String[] arg ) throws JSAPException, InvocationTargetException, NoSuchMethodException, ConfigurationException, ClassNotFoundException, IOException,
-			IllegalAccessException, InstantiationException {
+			IllegalAccessException, InstantiationException, JMException {
 
 		SimpleJSAP jsap = new SimpleJSAP(
 				Scan.class.getName(),
@@ -1708,6 +1952,7 @@ public class Scan {
 						new FlaggedOption( "buildCollection", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'B', "build-collection", "During the indexing phase, build a collection using this basename." ),
 						new FlaggedOption( "builderClass", MG4JClassParser.getParser(), SimpleCompressedDocumentCollectionBuilder.class.getName(), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "builder-class", "Specifies a builder class for a document collection that will be created during the indexing phase." ),
 						new Switch( "exact", 'e', "exact", "The builder class should be instantiated in its exact form, which records both words and nonwords." ),
+						new Switch( "pipelinedBuilder", JSAP.NO_SHORTFLAG, "pipelined-builder", "The builder will run in a separate thread, fed through a bounded queue." ),
 						new FlaggedOption( "batchSize", JSAP.INTSIZE_PARSER, Integer.toString( Scan.DEFAULT_BATCH_SIZE ), JSAP.NOT_REQUIRED, 's', "batch-size", "The maximum size of a batch, in documents. Batches will be smaller, however, if memory is exhausted or there are too many terms." ),
 						new FlaggedOption( "maxTerms", JSAP.INTSIZE_PARSER, Integer.toString( Scan.DEFAULT_MAX_TERMS ), JSAP.NOT_REQUIRED, 'M', "max-terms", "The maximum number of terms in a batch, in documents." ),
 						new FlaggedOption( "virtualDocumentResolver", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'v', "virtual-document-resolver",
@@ -1719,6 +1964,11 @@ public class Scan {
 						new FlaggedOption( "bufferSize", JSAP.INTSIZE_PARSER, Util.formatBinarySize( DEFAULT_BUFFER_SIZE ), JSAP.NOT_REQUIRED, 'b', "buffer-size", "The size of an I/O buffer." ),
 						new FlaggedOption( "renumber", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'r', "renumber", "The filename of a document renumbering." ),
 						new Switch( "keepUnsorted", 'u', "keep-unsorted", "Keep the unsorted term file." ),
+						new Switch( "pairs", JSAP.NO_SHORTFLAG, "pairs", "Build also a pair index for each text field." ),
+						new Switch( "docValues", JSAP.NO_SHORTFLAG, "doc-values", "Build also a column of per-document values for each non-textual field (values are kept in core memory until the end of the run)." ),
+						new Switch( "metrics", JSAP.NO_SHORTFLAG, "metrics", "Record indexing metrics and save a report next to the resulting index." ),
+						new Switch( "jmx", JSAP.NO_SHORTFLAG, "jmx", "Register indexing metrics as a JMX MBean (implies --metrics)." ),
+						new FlaggedOption( "pairTerms", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "pair-terms", "A file containing, one per line in UTF-8 encoding, the terms (e.g., stopwords) one of which must appear in a pair for it to be indexed in the pair index (default: all pairs are indexed)." ),
 						new FlaggedOption( "logInterval", JSAP.LONG_PARSER, Long.toString( ProgressLogger.DEFAULT_LOG_INTERVAL ), JSAP.NOT_REQUIRED, 'l', "log-interval",
 								"The minimum time interval between activity logs in milliseconds." ),
 						new FlaggedOption( "tempDir", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'T', "temp-dir", "A directory for all temporary files (e.g., batches)." ),
@@ -1727,8 +1977,9 @@ public class Scan {
 		JSAPResult jsapResult = jsap.parse( arg );
 		if ( jsap.messagePrinted() ) return;
 
-		if ( ( jsapResult.userSpecified( "builderClass" ) || jsapResult.userSpecified( "exact" ) ) && ! jsapResult.userSpecified( "buildCollection" ) )	throw new IllegalArgumentException( "To specify options about the collection building process, you must specify a basename first." );
+		if ( ( jsapResult.userSpecified( "builderClass" ) || jsapResult.userSpecified( "exact" ) || jsapResult.userSpecified( "pipelinedBuilder" ) ) && ! jsapResult.userSpecified( "buildCollection" ) )	throw new IllegalArgumentException( "To specify options about the collection building process, you must specify a basename first." );
 		if ( jsapResult.userSpecified( "sequence" ) && jsapResult.userSpecified( "objectSequence" ) ) throw new IllegalArgumentException( "You cannot specify both a serialised and an parseable-object sequence" );
+		if ( jsapResult.userSpecified( "pairTerms" ) && ! jsapResult.getBoolean( "pairs" ) ) throw new IllegalArgumentException( "You specified pair terms, but no pair index." );
 		
 		final DocumentSequence documentSequence = jsapResult.userSpecified( "objectSequence" ) ? (DocumentSequence)jsapResult.getObject( "objectSequence" ) : Scan.getSequence( jsapResult.getString( "sequence" ), jsapResult.getClass( "factory" ), jsapResult.getStringArray( "property" ), jsapResult.getInt( "delimiter" ), LOGGER );
 
@@ -1757,11 +2008,15 @@ public class Scan {
 						Boolean.valueOf( jsapResult.getBoolean( "exact" ) ) ) : null;
 				if ( builder != null ) LOGGER.warn( "The builder class " + builderClass.getName() + " has no IOFactory-based constructor" );
 			}
+			if ( builder != null && jsapResult.getBoolean( "pipelinedBuilder" ) ) builder = new PipelinedDocumentCollectionBuilder( builder );
 		}
 
+		final IndexingMetrics metrics = jsapResult.getBoolean( "metrics" ) || jsapResult.getBoolean( "jmx" ) ? new IndexingMetrics() : null;
+		if ( jsapResult.getBoolean( "jmx" ) ) metrics.registerMBean( Scan.class.getSimpleName() );
+
 		run( ioFactory, jsapResult.getString( "basename" ), documentSequence, Completeness.valueOf( jsapResult.getString( "completeness" ) ), jsapResult.getBoolean( "downcase" ) ? DowncaseTermProcessor.getInstance() : ObjectParser.fromSpec( jsapResult
 				.getString( "termProcessor" ), TermProcessor.class, MG4JClassParser.PACKAGE, new String[] { "getInstance" } ), builder, jsapResult
 				.getInt( "bufferSize" ), batchSize, jsapResult.getInt( "maxTerms" ), indexedField, virtualDocumentResolver, virtualDocumentGap, jsapResult.getString( "renumber" ), jsapResult.getLong( "logInterval" ), jsapResult
-				.getString( "tempDir" ) );
+				.getString( "tempDir" ), jsapResult.getBoolean( "pairs" ), jsapResult.userSpecified( "pairTerms" ) ? new FileLinesCollection( jsapResult.getString( "pairTerms" ), "UTF-8" ).allLines() : null, jsapResult.getBoolean( "docValues" ), metrics );
 	}
 }
@@ -0,0 +1,163 @@
+package it.unimi.di.big.mg4j.util;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A thread-safe, lock-free histogram of nonnegative values with exponential buckets.
+ * 
+ * <p>Bucket <var>k</var> &gt; 0 contains the values in [2<sup><var>k</var> &minus; 1</sup>..2<sup><var>k</var></sup>), and bucket 0 contains
+ * just zero, so the relative error of {@linkplain #percentile(double) percentiles} is at most a factor of two, 
+ * which is sufficient to monitor latencies and sizes spanning several orders of magnitude. Recording a value 
+ * costs two atomic increments and an atomic addition.
+ * 
+ * <p>Histograms can be {@linkplain #writePrometheus(Appendable, String, String, double) written} in the
+ * Prometheus text exposition format.
+ * 
+ * @since 5.4.4
+ */
+
+public class Histogram {
+	/** The number of buckets. */
+	public static final int BUCKETS = Long.SIZE;
+	/** The bucket counts. */
+	private final AtomicLongArray count;
+	/** The overall number of values. */
+	private final AtomicLong n;
+	/** The sum of all values. */
+	private final AtomicLong sum;
+
+	/** Creates a new empty histogram. */
+	public Histogram() {
+		count = new AtomicLongArray( BUCKETS );
+		n = new AtomicLong();
+		sum = new AtomicLong();
+	}
+
+	/** Records a value.
+	 * 
+	 * @param value a nonnegative value (negative values are recorded as zero).
+	 */
+	public void add( final long value ) {
+		final long v = Math.max( 0, value );
+		count.incrementAndGet( Math.min( BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros( v ) ) );
+		n.incrementAndGet();
+		sum.addAndGet( v );
+	}
+
+	/** Returns the number of recorded values.
+	 * 
+	 * @return the number of recorded values.
+	 */
+	public long count() {
+		return n.get();
+	}
+
+	/** Returns the sum of the recorded values.
+	 * 
+	 * @return the sum of the recorded values.
+	 */
+	public long sum() {
+		return sum.get();
+	}
+
+	/** Returns the mean of the recorded values.
+	 * 
+	 * @return the mean of the recorded values, or {@link Double#NaN} if no value has been recorded.
+	 */
+	public double mean() {
+		final long n = this.n.get();
+		return n == 0 ? Double.NaN : (double)sum.get() / n;
+	}
+
+	/** Returns the inclusive upper bound of a bucket, that is, the largest value it can contain.
+	 * 
+	 * @param k a bucket.
+	 * @return 2<sup><code>k</code></sup> &minus; 1.
+	 */
+	private static double inclusiveUpperBound( final int k ) {
+		return Math.scalb( 1.0, k ) - 1;
+	}
+
+	/** Returns the (exclusive) upper bound of a bucket.
+	 * 
+	 * @param k a bucket.
+	 * @return the upper bound of the values in bucket <code>k</code>.
+	 */
+	private static double upperBound( final int k ) {
+		return k == 0 ? 1 : Math.scalb( 1.0, k );
+	}
+
+	/** Returns an upper bound for a percentile of the recorded values.
+	 * 
+	 * @param p a fraction between 0 and 1.
+	 * @return an upper bound for the <code>p</code>-th percentile (which is at most twice the actual value), or {@link Double#NaN} if no value has been recorded.
+	 */
+	public double percentile( final double p ) {
+		if ( p < 0 || p > 1 ) throw new IllegalArgumentException( "Illegal fraction: " + p );
+		long total = 0;
+		for( int k = 0; k < BUCKETS; k++ ) total += count.get( k );
+		if ( total == 0 ) return Double.NaN;
+		final long rank = Math.max( 1, (long)Math.ceil( p * total ) );
+		long c = 0;
+		for( int k = 0; k < BUCKETS; k++ ) if ( ( c += count.get( k ) ) >= rank ) return upperBound( k );
+		return upperBound( BUCKETS - 1 );
+	}
+
+	/** Clears this histogram.
+	 * 
+	 * <p>Values recorded concurrently with this method might be only partially cleared.
+	 */
+	public void clear() {
+		for( int k = 0; k < BUCKETS; k++ ) count.set( k, 0 );
+		n.set( 0 );
+		sum.set( 0 );
+	}
+
+	/** Writes this histogram in Prometheus text exposition format.
+	 * 
+	 * <p>All {@link #BUCKETS} buckets are always written, so that the set of series is fixed, followed by the compulsory <samp>+Inf</samp> bucket.
+	 * Since values are integers, the bound <samp>le</samp> of bucket <var>k</var> is 2<sup><var>k</var></sup> &minus; 1 (multiplied by <code>scale</code>).
+	 * 
+	 * @param appendable where the histogram will be written.
+	 * @param name the metric name.
+	 * @param help a help string.
+	 * @param scale a multiplier applied to values (e.g., 1E-9 to write nanoseconds as seconds).
+	 */
+	public void writePrometheus( final Appendable appendable, final String name, final String help, final double scale ) throws IOException {
+		appendable.append( "# HELP " ).append( name ).append( ' ' ).append( help ).append( '\n' );
+		appendable.append( "# TYPE " ).append( name ).append( " histogram\n" );
+		long c = 0;
+		for( int k = 0; k < BUCKETS; k++ ) {
+			c += count.get( k );
+			appendable.append( name ).append( "_bucket{le=\"" ).append( Double.toString( inclusiveUpperBound( k ) * scale ) ).append( "\"} " ).append( Long.toString( c ) ).append( '\n' );
+		}
+		appendable.append( name ).append( "_bucket{le=\"+Inf\"} " ).append( Long.toString( Math.max( c, n.get() ) ) ).append( '\n' );
+		appendable.append( name ).append( "_sum " ).append( Double.toString( sum.get() * scale ) ).append( '\n' );
+		appendable.append( name ).append( "_count " ).append( Long.toString( Math.max( c, n.get() ) ) ).append( '\n' );
+	}
+
+	public String toString() {
+		return "[count: " + count() + ", mean: " + mean() + ", 50%: " + percentile( .5 ) + ", 99%: " + percentile( .99 ) + "]";
+	}
+}
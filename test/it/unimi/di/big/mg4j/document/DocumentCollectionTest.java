@@ -23,7 +23,11 @@ package it.unimi.di.big.mg4j.document;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.tool.Scan;
 import it.unimi.dsi.fastutil.Arrays;
 import it.unimi.dsi.fastutil.Swapper;
 import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
@@ -31,6 +35,7 @@ import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.longs.LongIterators;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
 import it.unimi.dsi.io.WordReader;
 import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.util.Properties;
@@ -43,6 +48,9 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import org.apache.commons.configuration.ConfigurationException;
@@ -319,6 +327,10 @@ public class DocumentCollectionTest {
 		SimpleCompressedDocumentCollectionBuilder apprSimpleCollBuilder = new SimpleCompressedDocumentCollectionBuilder( new File( tempDir, "asimple" ).toString(), 
 				fileSetDocumentCollection.factory(), false );
 		apprSimpleCollBuilder.build( fileSetDocumentCollection );
+
+		// Now create the block-compressed collections, with tiny blocks
+		new BlockCompressedDocumentCollectionBuilder( IOFactory.FILESYSTEM_FACTORY, new File( tempDir, "block" ).toString(), fileSetDocumentCollection.factory(), true, 16 ).build( fileSetDocumentCollection );
+		new BlockCompressedDocumentCollectionBuilder( IOFactory.FILESYSTEM_FACTORY, new File( tempDir, "ablock" ).toString(), fileSetDocumentCollection.factory(), false, 16 ).build( fileSetDocumentCollection );
 		fileSetDocumentCollection.close();
 	}
 
@@ -375,6 +387,178 @@ public class DocumentCollectionTest {
 		coll.close();
 	}
 
+	@Test
+	public void testBlockCompressedDocumentCollection() throws IOException, ClassNotFoundException {
+		System.err.println( "Checking block-compressed collection" );
+		BlockCompressedDocumentCollection coll = (BlockCompressedDocumentCollection)AbstractDocumentSequence.load( new File( tempDir, "block.collection" ).toString() );
+		assertTrue( coll.blocks() > 1 );
+		checkAllDocuments( coll, new String[] { "title", "text" }, document );
+		checkAllDocumentsSeq( coll, new String[] { "title", "text" }, document );
+		coll.close();
+	}
+
+	@Test
+	public void testBlockCompressedDocumentCollectionAppr() throws IOException, ClassNotFoundException {
+		System.err.println( "Checking approximated block-compressed collection" );
+		BlockCompressedDocumentCollection coll = (BlockCompressedDocumentCollection)AbstractDocumentSequence.load( new File( tempDir, "ablock.collection" ).toString() );
+		checkAllDocuments( coll, new String[] { "title", "text" }, document );
+		checkAllDocumentsSeq( coll, new String[] { "title", "text" }, document );
+		coll.close();
+	}
+
+	/** A factory declaring an integer field and a date field; it is used just to describe the fields of a composite factory. */
+	private static final class AttributeDocumentFactory extends AbstractDocumentFactory {
+		private static final long serialVersionUID = 1L;
+
+		public int numberOfFields() {
+			return 2;
+		}
+
+		public String fieldName( final int field ) {
+			ensureFieldIndex( field );
+			return field == 0 ? "number" : "date";
+		}
+
+		public int fieldIndex( final String fieldName ) {
+			return "number".equals( fieldName ) ? 0 : "date".equals( fieldName ) ? 1 : -1;
+		}
+
+		public FieldType fieldType( final int field ) {
+			ensureFieldIndex( field );
+			return field == 0 ? FieldType.INT : FieldType.DATE;
+		}
+
+		public Document getDocument( final InputStream rawContent, final Reference2ObjectMap<Enum<?>,Object> metadata ) {
+			throw new UnsupportedOperationException();
+		}
+
+		public AttributeDocumentFactory copy() {
+			return this;
+		}
+	}
+
+	/** Returns the words of a text field. */
+	private static List<String> words( final Document document, final int field ) throws IOException {
+		final WordReader wordReader = document.wordReader( field ).setReader( (Reader)document.content( field ) );
+		final List<String> words = new ArrayList<String>();
+		final MutableString word = new MutableString(), nonWord = new MutableString();
+		while( wordReader.next( word, nonWord ) ) if ( word.length() > 0 ) words.add( word.toString() );
+		return words;
+	}
+
+	/** Checks that a document of a block-compressed collection built by {@link #testBlockCompressedDocumentCollectionAllFieldTypes()} 
+	 * has the same content of the original HTML document, plus the integer and date fields. */
+	@SuppressWarnings("unchecked")
+	private static void checkAllFieldTypes( final Document expected, final Document document, final int doc ) throws IOException {
+		assertEquals( words( expected, 0 ), words( document, 0 ) );
+		assertEquals( words( expected, 1 ), words( document, 1 ) );
+		final List<VirtualDocumentFragment> expectedAnchors = (List<VirtualDocumentFragment>)expected.content( 2 );
+		final List<VirtualDocumentFragment> anchors = (List<VirtualDocumentFragment>)document.content( 2 );
+		assertTrue( anchors.size() > 0 );
+		assertEquals( expectedAnchors.size(), anchors.size() );
+		for( int i = 0; i < anchors.size(); i++ ) {
+			assertEquals( expectedAnchors.get( i ).documentSpecifier().toString(), anchors.get( i ).documentSpecifier().toString() );
+			assertEquals( expectedAnchors.get( i ).text().toString(), anchors.get( i ).text().toString() );
+		}
+		assertEquals( Integer.valueOf( 1000 * doc ), document.content( 3 ) );
+		assertEquals( new Date( 86400000L * doc ), document.content( 4 ) );
+	}
+
+	@Test
+	public void testBlockCompressedDocumentCollectionAllFieldTypes() throws IOException, ConfigurationException, ClassNotFoundException {
+		System.err.println( "Checking all field types in block-compressed collections" );
+		final int n = 8;
+		final File htmlDir = new File( tempDir, "anchors" );
+		htmlDir.mkdir();
+		final String[] fileSet = new String[ n ];
+		for( int i = 0; i < n; i++ ) {
+			fileSet[ i ] = new File( htmlDir, "doc" + i + ".html" ).toString();
+			final Writer writer = new OutputStreamWriter( new FileOutputStream( fileSet[ i ] ), "ISO-8859-1" );
+			writer.write( "<HTML>\n<HEAD>\n<TITLE>title " + i + "</TITLE>\n</HEAD>\n<BODY>\n" );
+			// Document 3 is much longer than a block, so its content crosses the block-size boundary
+			for( int j = i == 3 ? 200 : 2; j-- != 0; ) writer.write( "aaa xxx " + j + " <A HREF=\"doc" + ( j + i ) % n + ".html\">link " + j + " to doc" + ( j + i ) % n + "</A> yyy\n" );
+			writer.write( "</BODY>\n</HTML>" );
+			writer.close();
+		}
+
+		final FileSetDocumentCollection html = new FileSetDocumentCollection( fileSet, new HtmlDocumentFactory( DEFAULT_PROPERTIES ) );
+		final DocumentFactory factory = CompositeDocumentFactory.getFactory( html.factory(), new AttributeDocumentFactory() );
+		assertEquals( FieldType.VIRTUAL, factory.fieldType( 2 ) );
+		// A sequence adding to each HTML document an integer and a date field
+		final DocumentSequence sequence = new AbstractDocumentSequence() {
+			public DocumentFactory factory() {
+				return factory;
+			}
+
+			public DocumentIterator iterator() throws IOException {
+				final DocumentIterator htmlIterator = html.iterator();
+				return new AbstractDocumentIterator() {
+					private int doc;
+
+					public Document nextDocument() throws IOException {
+						final Document htmlDocument = htmlIterator.nextDocument();
+						if ( htmlDocument == null ) return null;
+						final int number = doc++;
+						return new AbstractDocument() {
+							public CharSequence title() {
+								return htmlDocument.title();
+							}
+
+							public CharSequence uri() {
+								return htmlDocument.uri();
+							}
+
+							public Object content( final int field ) throws IOException {
+								return field < 3 ? htmlDocument.content( field ) : field == 3 ? (Object)Integer.valueOf( 1000 * number ) : new Date( 86400000L * number );
+							}
+
+							public WordReader wordReader( final int field ) {
+								return htmlDocument.wordReader( field );
+							}
+						};
+					}
+
+					public void close() throws IOException {
+						htmlIterator.close();
+						super.close();
+					}
+				};
+			}
+		};
+
+		for( boolean exact: new boolean[] { true, false } ) {
+			final String basename = new File( tempDir, exact ? "types" : "atypes" ).toString();
+			new BlockCompressedDocumentCollectionBuilder( IOFactory.FILESYSTEM_FACTORY, basename, factory, exact, 1024 ).build( sequence );
+			final BlockCompressedDocumentCollection coll = (BlockCompressedDocumentCollection)AbstractDocumentSequence.load( basename + DocumentCollection.DEFAULT_EXTENSION );
+			// Some blocks contain several documents
+			assertTrue( coll.blocks() > 1 );
+			assertTrue( coll.blocks() < n );
+			assertEquals( FieldType.INT, coll.factory().fieldType( 3 ) );
+			assertEquals( FieldType.DATE, coll.factory().fieldType( 4 ) );
+
+			// Random access, backwards so that blocks are not accessed in order
+			for( int doc = n; doc-- != 0; ) {
+				final Document expected = html.document( doc ), document = coll.document( doc );
+				checkAllFieldTypes( expected, document, doc );
+				document.close();
+				expected.close();
+			}
+
+			final DocumentIterator iterator = coll.iterator();
+			Document document;
+			int doc = 0;
+			while( ( document = iterator.nextDocument() ) != null ) {
+				final Document expected = html.document( doc );
+				checkAllFieldTypes( expected, document, doc++ );
+				expected.close();
+			}
+			iterator.close();
+			assertEquals( n, doc );
+			coll.close();
+		}
+		html.close();
+	}
+
 	@Test
 	public void testSimpleCompressedDocumentCollection() throws IOException, ClassNotFoundException {
 		System.err.println( "Checking simple compressed collection" );
@@ -407,6 +591,112 @@ public class DocumentCollectionTest {
 		coll.close();
 	}
 
+	private void checkForwardIndex( final SimpleCompressedDocumentCollection coll ) throws IOException {
+		final MutableString word = new MutableString(), nonWord = new MutableString();
+		final MutableString fWord = new MutableString(), fNonWord = new MutableString();
+		for ( int doc = 0; doc < coll.size(); doc++ ) {
+			for ( int field = 0; field < coll.factory().numberOfFields(); field++ ) {
+				if ( coll.factory().fieldType( field ) != DocumentFactory.FieldType.TEXT ) continue;
+				final Document document = coll.document( doc );
+				final WordReader wordReader = document.wordReader( field ).setReader( (Reader)document.content( field ) );
+				final List<String> expected = new ArrayList<String>();
+				while ( wordReader.next( word, nonWord ) ) expected.add( word.toString() );
+				document.close();
+
+				final WordReader forwardReader = coll.wordReader( doc, field );
+				final List<String> actual = new ArrayList<String>();
+				while ( forwardReader.next( fWord, fNonWord ) ) actual.add( fWord.toString() );
+				assertEquals( "Document " + doc + ", field " + field, expected, actual );
+			}
+		}
+	}
+
+	@Test
+	public void testSimpleCompressedDocumentCollectionForwardIndex() throws IOException, ClassNotFoundException {
+		SimpleCompressedDocumentCollection coll = (SimpleCompressedDocumentCollection)BinIO.loadObject( new File( tempDir, "simple.collection" ).toString() );
+		checkForwardIndex( coll );
+		coll.close();
+		coll = (SimpleCompressedDocumentCollection)BinIO.loadObject( new File( tempDir, "asimple.collection" ).toString() );
+		checkForwardIndex( coll );
+		coll.close();
+	}
+
+	private void checkBatch( final AbstractDocumentCollection coll ) throws IOException {
+		final long[] batch = new long[ 2 * ndoc ];
+		for( int i = 0; i < batch.length; i++ ) batch[ i ] = ( 3 * i + 1 ) % ndoc;
+		final int textField = coll.factory().fieldIndex( "text" );
+		for( int threads = 1; threads <= 4; threads++ ) {
+			final DocumentIterator documentIterator = coll.documents( batch, threads );
+			for( int i = 0; i < batch.length; i++ ) {
+				final Document d = documentIterator.nextDocument();
+				checkSameWords( d.wordReader( textField ).setReader( (Reader)d.content( textField ) ), new StringTokenizer( document[ (int)batch[ i ] ][ 1 ] ) );
+			}
+			assertNull( documentIterator.nextDocument() );
+			documentIterator.close();
+		}
+	}
+
+	@Test
+	public void testDocuments() throws IOException, ConfigurationException, ClassNotFoundException {
+		final FileSetDocumentCollection fileSetDocumentCollection = new FileSetDocumentCollection( htmlFileSet, new HtmlDocumentFactory( DEFAULT_PROPERTIES ) );
+		checkBatch( fileSetDocumentCollection );
+		fileSetDocumentCollection.close();
+		for( String name: new String[] { "zip", "azip", "simple", "asimple", "block", "ablock" } ) {
+			final AbstractDocumentCollection coll = (AbstractDocumentCollection)AbstractDocumentSequence.load( new File( tempDir, name + DocumentCollection.DEFAULT_EXTENSION ).toString() );
+			checkBatch( coll );
+			coll.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPipelinedBuilder() throws IOException, ConfigurationException, ClassNotFoundException {
+		final FileSetDocumentCollection fileSetDocumentCollection = new FileSetDocumentCollection( htmlFileSet, new HtmlDocumentFactory( DEFAULT_PROPERTIES ) );
+		final DocumentFactory factory = fileSetDocumentCollection.factory();
+		for( boolean exact: new boolean[] { true, false } ) {
+			final String basename = new File( tempDir, exact ? "psimple" : "apsimple" ).toString();
+			// A tiny queue forces the writer thread to alternate with the caller.
+			final DocumentCollectionBuilder builder = new PipelinedDocumentCollectionBuilder( new SimpleCompressedDocumentCollectionBuilder( basename, factory, exact ), 1 );
+			final MutableString word = new MutableString(), nonWord = new MutableString();
+			builder.open( "" );
+			final DocumentIterator documentIterator = fileSetDocumentCollection.iterator();
+			for( Document d; ( d = documentIterator.nextDocument() ) != null; ) {
+				builder.startDocument( d.title(), d.uri() );
+				for( int field = 0; field < factory.numberOfFields(); field++ ) {
+					final Object content = d.content( field );
+					switch( factory.fieldType( field ) ) {
+					case TEXT:
+						builder.startTextField();
+						final WordReader wordReader = d.wordReader( field );
+						wordReader.setReader( (Reader)content );
+						while( wordReader.next( word, nonWord ) ) builder.add( word, nonWord );
+						builder.endTextField();
+						break;
+					case VIRTUAL:
+						builder.virtualField( (List<Scan.VirtualDocumentFragment>)content );
+						break;
+					default:
+						builder.nonTextField( content );
+					}
+				}
+				d.close();
+				builder.endDocument();
+			}
+			documentIterator.close();
+			builder.close();
+
+			final String simpleBasename = new File( tempDir, exact ? "simple" : "asimple" ).toString();
+			assertTrue( FileUtils.contentEquals( new File( simpleBasename + SimpleCompressedDocumentCollection.DOCUMENTS_EXTENSION ), new File( basename + SimpleCompressedDocumentCollection.DOCUMENTS_EXTENSION ) ) );
+			assertTrue( FileUtils.contentEquals( new File( simpleBasename + SimpleCompressedDocumentCollection.TERMS_EXTENSION ), new File( basename + SimpleCompressedDocumentCollection.TERMS_EXTENSION ) ) );
+			if ( exact ) assertTrue( FileUtils.contentEquals( new File( simpleBasename + SimpleCompressedDocumentCollection.NONTERMS_EXTENSION ), new File( basename + SimpleCompressedDocumentCollection.NONTERMS_EXTENSION ) ) );
+
+			final SimpleCompressedDocumentCollection coll = (SimpleCompressedDocumentCollection)BinIO.loadObject( basename + DocumentCollection.DEFAULT_EXTENSION );
+			checkAllDocuments( coll, new String[] { "title", "text" }, document );
+			coll.close();
+		}
+		fileSetDocumentCollection.close();
+	}
+
 	@Test
 	public void testConcatenated() throws IOException, ClassNotFoundException {
 		SimpleCompressedDocumentCollection coll0 = (SimpleCompressedDocumentCollection)BinIO.loadObject( new File( tempDir, "asimple.collection" ).toString() );
@@ -0,0 +1,78 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectArrayMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Test;
+
+public class HtmlDocumentFactoryTest {
+
+	private static String words( final Document document, final int field ) throws IOException {
+		final MutableString word = new MutableString(), nonWord = new MutableString(), result = new MutableString();
+		final WordReader wordReader = document.wordReader( field ).setReader( (Reader)document.content( field ) );
+		while( wordReader.next( word, nonWord ) ) {
+			if ( result.length() != 0 ) result.append( ' ' );
+			result.append( word );
+		}
+		return result.toString();
+	}
+
+	private static Document document( final DocumentFactory factory, final String html, final String encoding ) throws IOException {
+		final Reference2ObjectMap<Enum<?>,Object> metadata = new Reference2ObjectArrayMap<Enum<?>,Object>();
+		metadata.put( PropertyBasedDocumentFactory.MetadataKeys.ENCODING, encoding );
+		return factory.getDocument( new FastByteArrayInputStream( html.getBytes( encoding ) ), metadata );
+	}
+
+	@Test
+	public void testDecoding() throws IOException, ConfigurationException {
+		final HtmlDocumentFactory factory = new HtmlDocumentFactory( new String[] { "encoding=UTF-8" } );
+		// Multibyte sequences straddling buffer boundaries, and text longer than the initial buffers.
+		final MutableString body = new MutableString();
+		for( int i = 0; i < 10000; i++ ) body.append( i == 0 ? "" : " " ).append( "caff\u00e8" ).append( i ).append( " \u20ac" );
+		final String expected = body.toString().replace( " \u20ac", "" );
+
+		for( int pass = 0; pass < 2; pass++ ) {
+			Document document = document( factory, "<html><head><title>Perch\u00e9</title></head><body>Citt\u00e0 \u00e8 bella</body></html>", "ISO-8859-1" );
+			assertEquals( "Perch\u00e9", document.title().toString() );
+			assertEquals( "Citt\u00e0 \u00e8 bella", words( document, 0 ) );
+			document.close();
+
+			document = document( factory, "<html><body>" + body + "</body></html>", "UTF-8" );
+			assertEquals( expected, words( document, 0 ) );
+			document.close();
+
+			document = document( factory, "<html><head><title>\u00c0 la \u20ac</title></head><body>na\u00efve</body></html>", "UTF-8" );
+			assertEquals( "\u00c0 la", words( document, 1 ) );
+			assertEquals( "na\u00efve", words( document, 0 ) );
+			document.close();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JdbcDocumentCollectionTest {
+	private final static String DRIVER = "org.h2.Driver";
+	private static int databases;
+	/** The URI of an in-memory database. */
+	private String dbUri;
+	/** A connection keeping the in-memory database alive. */
+	private Connection connection;
+
+	@Before
+	public void setUp() throws ClassNotFoundException, SQLException {
+		Class.forName( DRIVER );
+		dbUri = "jdbc:h2:mem:" + getClass().getSimpleName() + databases++;
+		connection = DriverManager.getConnection( dbUri );
+		connection.createStatement().execute( "CREATE TABLE doc ( id INT PRIMARY KEY, title VARCHAR( 100 ), text VARBINARY( 1000 ) )" );
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		// Closing the last connection drops the in-memory database
+		connection.close();
+	}
+
+	private void insert( final int id ) throws SQLException, IOException {
+		final PreparedStatement s = connection.prepareStatement( "INSERT INTO doc VALUES ( ?, ?, ? )" );
+		s.setInt( 1, id );
+		s.setString( 2, "title" + id );
+		s.setBytes( 3, ( "content of " + id ).getBytes( "UTF-8" ) );
+		s.executeUpdate();
+		s.close();
+	}
+
+	/** Inserts rows with identifiers 1, 4, 7, &hellip; */
+	private void populate( final int rows ) throws SQLException, IOException {
+		for( int i = 0; i < rows; i++ ) insert( 3 * i + 1 );
+	}
+
+	private JdbcDocumentCollection collection( final int fetchSize, final int pageSize ) throws SQLException, ClassNotFoundException, ConfigurationException {
+		return new JdbcDocumentCollection( dbUri, DRIVER, "id, title, text FROM doc", "id", null, new IdentityDocumentFactory( new String[] { "encoding=UTF-8" } ), fetchSize, pageSize );
+	}
+
+	private static void check( final Document document, final long index ) throws IOException {
+		final int id = 3 * (int)index + 1;
+		assertEquals( "title" + id, document.title().toString() );
+		assertEquals( Integer.toString( id ), document.uri().toString() );
+		assertEquals( "content of " + id, IOUtils.toString( (Reader)document.content( 0 ) ) );
+		document.close();
+	}
+
+	private static void checkIterator( final DocumentCollection collection ) throws IOException {
+		final DocumentIterator iterator = collection.iterator();
+		long index = 0;
+		for( Document document; ( document = iterator.nextDocument() ) != null; ) check( document, index++ );
+		assertEquals( collection.size(), index );
+		iterator.close();
+	}
+
+	private static void checkBatch( final DocumentCollection collection, final long[] index ) throws IOException {
+		final DocumentIterator iterator = collection.documents( index );
+		for( long i: index ) check( iterator.nextDocument(), i );
+		assertNull( iterator.nextDocument() );
+		iterator.close();
+	}
+
+	@Test
+	public void testIteration() throws SQLException, IOException, ClassNotFoundException, ConfigurationException {
+		populate( 50 );
+		// Fetch and page sizes much smaller than the number of rows, and not dividing it
+		final JdbcDocumentCollection collection = collection( 3, 7 );
+		assertEquals( 50, collection.size() );
+		for( int i = 0; i < 50; i++ ) {
+			assertEquals( 3 * i + 1, collection.doc2id( i ) );
+			assertEquals( i, collection.id2doc( 3 * i + 1 ) );
+		}
+		checkIterator( collection );
+
+		// Rows added after creation are skipped, even within a page
+		insert( 2 );
+		insert( 1000 );
+		assertEquals( 50, collection.size() );
+		checkIterator( collection );
+		collection.close();
+	}
+
+	@Test
+	public void testBatches() throws SQLException, IOException, ClassNotFoundException, ConfigurationException {
+		final int rows = 2 * JdbcDocumentCollection.BATCH_SIZE + 50;
+		populate( rows );
+		final JdbcDocumentCollection collection = collection( 10, 100 );
+
+		// A full batch of distinct identifiers, followed by a duplicate
+		final long[] index = new long[ JdbcDocumentCollection.BATCH_SIZE + 1 ];
+		for( int i = 0; i < JdbcDocumentCollection.BATCH_SIZE; i++ ) index[ i ] = i;
+		index[ JdbcDocumentCollection.BATCH_SIZE ] = JdbcDocumentCollection.BATCH_SIZE - 1;
+		checkBatch( collection, index );
+
+		// Several batches in random order, with many duplicates
+		final Random random = new Random( 0 );
+		final long[] randomIndex = new long[ 3 * JdbcDocumentCollection.BATCH_SIZE ];
+		for( int i = 0; i < randomIndex.length; i++ ) randomIndex[ i ] = random.nextInt( rows );
+		checkBatch( collection, randomIndex );
+		
+		checkBatch( collection, new long[ 0 ] );
+		collection.close();
+	}
+
+	@Test
+	public void testCopyAndClose() throws SQLException, IOException, ClassNotFoundException, ConfigurationException {
+		populate( 20 );
+		final JdbcDocumentCollection collection = collection( 3, 7 );
+		
+		// Closing a copy does not affect the original collection
+		final JdbcDocumentCollection copy = collection.copy();
+		check( copy.document( 5 ), 5 );
+		copy.close();
+		copy.close();
+		check( collection.document( 3 ), 3 );
+		checkBatch( collection, new long[] { 19, 0, 7, 7 } );
+		checkIterator( collection );
+
+		// Closing the original collection does not affect copies
+		final JdbcDocumentCollection otherCopy = collection.copy();
+		check( collection.document( 2 ), 2 );
+		collection.close();
+		check( otherCopy.document( 4 ), 4 );
+		checkBatch( otherCopy, new long[] { 1, 18, 1 } );
+		checkIterator( otherCopy );
+		assertTrue( otherCopy.metadata( 6 ).containsValue( "title19" ) );
+		otherCopy.close();
+	}
+}
@@ -0,0 +1,90 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ParallelDocumentSequenceTest {
+
+	private static File copyResource( final String resource ) throws IOException {
+		final File temp = File.createTempFile( ParallelDocumentSequenceTest.class.getSimpleName(), resource );
+		temp.deleteOnExit();
+		final OutputStream outputStream = new FileOutputStream( temp );
+		IOUtils.copy( ParallelDocumentSequenceTest.class.getResourceAsStream( resource ), outputStream );
+		outputStream.close();
+		return temp;
+	}
+
+	private static ObjectArrayList<String> scan( final DocumentSequence sequence ) throws IOException {
+		final ObjectArrayList<String> result = new ObjectArrayList<String>();
+		final DocumentFactory factory = sequence.factory();
+		final MutableString word = new MutableString(), nonWord = new MutableString();
+		final DocumentIterator iterator = sequence.iterator();
+		for( Document document; ( document = iterator.nextDocument() ) != null; ) {
+			final MutableString s = new MutableString();
+			s.append( document.uri() ).append( ' ' ).append( document.title() );
+			for( int field = 0; field < factory.numberOfFields(); field++ ) {
+				final Object content = document.content( field );
+				if ( factory.fieldType( field ) != FieldType.TEXT ) continue;
+				final WordReader wordReader = document.wordReader( field ).setReader( (Reader)content );
+				while( wordReader.next( word, nonWord ) ) s.append( ' ' ).append( word );
+			}
+			result.add( s.toString() );
+			document.close();
+		}
+		iterator.close();
+		return result;
+	}
+
+	@Test
+	public void testTREC() throws IOException {
+		final String contents = copyResource( "testContents.data" ).toString();
+		final String contentsAgain = copyResource( "testContentsAgain.data" ).toString();
+		final TRECDocumentCollection collection = new TRECDocumentCollection(
+				new String[] { contents, contentsAgain, contents, contentsAgain, contents },
+				CompositeDocumentFactory.getFactory( new DocumentFactory[] { new TRECHeaderDocumentFactory(), new HtmlDocumentFactory( new String[] { "encoding=ISO-8859-1" } ) } ),
+				4, false );
+
+		final ObjectArrayList<String> expected = scan( collection );
+		assertTrue( expected.size() > 5 );
+
+		for( int threads = 1; threads <= 4; threads++ ) 
+			for( int readAhead: new int[] { 0, 7, 1024 } )
+				for( int queueSize: new int[] { 1, 64 } ) 
+					assertEquals( "threads=" + threads + ", readAhead=" + readAhead + ", queueSize=" + queueSize, expected, scan( new ParallelDocumentSequence( collection, threads, readAhead, queueSize ) ) );
+
+		collection.close();
+	}
+}
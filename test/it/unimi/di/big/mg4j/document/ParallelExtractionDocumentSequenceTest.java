@@ -0,0 +1,223 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.di.big.mg4j.util.parser.callback.AnchorExtractor.Anchor;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.io.FastBufferedReader;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Date;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.Test;
+
+public class ParallelExtractionDocumentSequenceTest {
+
+	/** A factory that fails on documents starting with <samp>fail</samp> and hangs on documents starting with <samp>hang</samp>. */
+	private static final class FaultyDocumentFactory extends IdentityDocumentFactory {
+		private static final long serialVersionUID = 1L;
+
+		public FaultyDocumentFactory() throws ConfigurationException {
+			super( new String[] { "encoding=UTF-8" } );
+		}
+
+		public FaultyDocumentFactory( final Reference2ObjectMap<Enum<?>,Object> defaultMetadata ) {
+			super( defaultMetadata );
+		}
+
+		@Override
+		public FaultyDocumentFactory copy() {
+			return new FaultyDocumentFactory( defaultMetadata );
+		}
+
+		@Override
+		public Document getDocument( final InputStream rawContent, final Reference2ObjectMap<Enum<?>,Object> metadata ) {
+			try {
+				final byte[] content = IOUtils.toByteArray( rawContent );
+				final String text = new String( content, "UTF-8" );
+				if ( text.startsWith( "fail" ) ) throw new IllegalStateException( "Failing on purpose" );
+				if ( text.startsWith( "hang" ) ) Thread.sleep( Long.MAX_VALUE );
+				return super.getDocument( new FastByteArrayInputStream( content ), metadata );
+			}
+			catch ( InterruptedException e ) {
+				throw new RuntimeException( e );
+			}
+			catch ( IOException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+	}
+
+	/** A factory with a text, an integer, a date and a virtual field that parses documents made of an integer, and fails on other documents. */
+	private static final class MixedDocumentFactory extends AbstractDocumentFactory {
+		private static final long serialVersionUID = 1L;
+		private static final String[] NAME = { "text", "int", "date", "virtual" };
+		private static final FieldType[] TYPE = { FieldType.TEXT, FieldType.INT, FieldType.DATE, FieldType.VIRTUAL };
+
+		public MixedDocumentFactory copy() {
+			return new MixedDocumentFactory();
+		}
+
+		public int numberOfFields() {
+			return NAME.length;
+		}
+
+		public String fieldName( final int field ) {
+			ensureFieldIndex( field );
+			return NAME[ field ];
+		}
+
+		public int fieldIndex( final String fieldName ) {
+			for( int i = 0; i < NAME.length; i++ ) if ( NAME[ i ].equals( fieldName ) ) return i;
+			return -1;
+		}
+
+		public FieldType fieldType( final int field ) {
+			ensureFieldIndex( field );
+			return TYPE[ field ];
+		}
+
+		public Document getDocument( final InputStream rawContent, final Reference2ObjectMap<Enum<?>,Object> metadata ) throws IOException {
+			final int n = Integer.parseInt( IOUtils.toString( rawContent, "UTF-8" ) );
+			return new AbstractDocument() {
+				public CharSequence title() {
+					return (CharSequence)metadata.get( PropertyBasedDocumentFactory.MetadataKeys.TITLE );
+				}
+
+				public CharSequence uri() {
+					return (CharSequence)metadata.get( PropertyBasedDocumentFactory.MetadataKeys.URI );
+				}
+
+				public Object content( final int field ) {
+					switch( field ) {
+						case 0: return new FastBufferedReader( new MutableString( "w" + n ) );
+						case 1: return Integer.valueOf( n );
+						case 2: return new Date( n * 1000L );
+						default: 
+							final ObjectArrayList<Anchor> anchors = new ObjectArrayList<Anchor>();
+							anchors.add( new Anchor( new MutableString( "0" ), new MutableString( "link" ) ) );
+							return anchors;
+					}
+				}
+
+				public WordReader wordReader( final int field ) {
+					return new FastBufferedReader();
+				}
+			};
+		}
+	}
+
+	private static ObjectArrayList<String> scan( final DocumentSequence sequence ) throws IOException {
+		final ObjectArrayList<String> result = new ObjectArrayList<String>();
+		final DocumentFactory factory = sequence.factory();
+		final MutableString word = new MutableString(), nonWord = new MutableString();
+		final DocumentIterator iterator = sequence.iterator();
+		for( Document document; ( document = iterator.nextDocument() ) != null; ) {
+			final MutableString s = new MutableString();
+			s.append( document.uri() ).append( ' ' ).append( document.title() );
+			for( int field = 0; field < factory.numberOfFields(); field++ ) {
+				final Object content = document.content( field );
+				if ( factory.fieldType( field ) != FieldType.TEXT ) continue;
+				final WordReader wordReader = document.wordReader( field ).setReader( (Reader)content );
+				while( wordReader.next( word, nonWord ) ) s.append( ' ' ).append( word );
+			}
+			result.add( s.toString() );
+			document.close();
+		}
+		iterator.close();
+		return result;
+	}
+
+	@Test
+	public void testOrder() throws IOException, ConfigurationException {
+		final String[] text = new String[ 100 ];
+		for( int i = 0; i < text.length; i++ ) text[ i ] = "document " + i + " " + Integer.toBinaryString( i );
+		final StringArrayDocumentCollection collection = new StringArrayDocumentCollection( true, new FaultyDocumentFactory(), text );
+		final ObjectArrayList<String> expected = scan( collection );
+
+		for( int threads = 1; threads <= 4; threads++ ) 
+			for( int queueSize: new int[] { 1, 3, 64 } ) {
+				final ParallelExtractionDocumentSequence sequence = new ParallelExtractionDocumentSequence( collection, threads, 60000, 1024, queueSize );
+				assertEquals( "threads=" + threads + ", queueSize=" + queueSize, expected, scan( sequence ) );
+				assertEquals( 0, sequence.failures().length );
+			}
+	}
+
+	@Test
+	public void testFailures() throws IOException, ConfigurationException {
+		final StringArrayDocumentCollection collection = new StringArrayDocumentCollection( true, new FaultyDocumentFactory(), 
+				"a b", "fail c", "d e", "hang f", "g h", "a document that is way too long", "i j" );
+		final ObjectArrayList<String> expected = new ObjectArrayList<String>( new String[] { 
+				"doc:0 Document 0 a b", "doc:1 Document 1", "doc:2 Document 2 d e", "doc:3 Document 3", "doc:4 Document 4 g h", "doc:5 Document 5", "doc:6 Document 6 i j" } );
+
+		for( int threads = 1; threads <= 2; threads++ ) {
+			final ParallelExtractionDocumentSequence sequence = new ParallelExtractionDocumentSequence( collection, threads, 200, 16, 4 );
+			assertEquals( "threads=" + threads, expected, scan( sequence ) );
+			assertArrayEquals( new long[] { 1, 3, 5 }, sequence.failures() );
+		}
+	}
+
+	@Test
+	public void testScan() throws Exception {
+		final String basename = File.createTempFile( getClass().getSimpleName(), "test" ).getCanonicalPath();
+		final String[] text = { "1", "fail", "3", "4" };
+		final ParallelExtractionDocumentSequence sequence = new ParallelExtractionDocumentSequence( new StringArrayDocumentCollection( true, new MixedDocumentFactory(), text ), 2, 60000, 1024, 4 );
+		try {
+			new IndexBuilder( basename, sequence ).indexedFields( 0, 1, 2, 3 ).virtualDocumentResolver( 3, new MapVirtualDocumentCollection.TrivialVirtualDocumentResolver( text.length ) ).run();
+			assertArrayEquals( new long[] { 1 }, sequence.failures() );
+
+			assertEquals( text.length, Index.getInstance( basename + "-text" ).numberOfDocuments );
+			final IndexIterator intIterator = Index.getInstance( basename + "-int" ).documents( 0 );
+			final IndexIterator dateIterator = Index.getInstance( basename + "-date" ).documents( 0 );
+			for( int d = 0; d < text.length; d++ ) {
+				final long expected = d == 1 ? ParallelExtractionDocumentSequence.EMPTY_INT : Integer.parseInt( text[ d ] );
+				assertEquals( d, intIterator.nextDocument() );
+				assertEquals( expected, ( (Number)intIterator.payload().get() ).longValue() );
+				assertEquals( d, dateIterator.nextDocument() );
+				assertEquals( new Date( d == 1 ? ParallelExtractionDocumentSequence.EMPTY_DATE : expected * 1000 ), dateIterator.payload().get() );
+			}
+			intIterator.dispose();
+			dateIterator.dispose();
+			// Only the first document is the target of the anchors of the three documents that were extracted
+			assertEquals( 1, Index.getInstance( basename + "-virtual" ).documents( "link" ).frequency() );
+		}
+		finally {
+			for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) ) f.delete();
+		}
+	}
+}
@@ -4,11 +4,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.io.MultiMemberGZIPInputStream;
+import it.unimi.dsi.fastutil.io.BinIO;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
@@ -187,4 +190,106 @@ public class TRECDocumentCollectionTest {
 
 		collection.close();
 	}
+
+	private static String trecDocument( final int i ) {
+		final StringBuilder text = new StringBuilder();
+		for( int j = 0; j < 500; j++ ) text.append( "word" ).append( i ).append( '_' ).append( j ).append( j % 10 == 9 ? "\n" : " " );
+		return "<DOC>\n<DOCNO>GX" + i + "</DOCNO>\n<DOCHDR>\nhttp://gx" + i + "/\nContent-type: text/html\n</DOCHDR>\n" + text + "</DOC>\n";
+	}
+
+	@Test
+	public void testGzipCheckpoints() throws Exception {
+		final int n = 200;
+		final File multiMember = File.createTempFile( TRECDocumentCollectionTest.class.getName(), ".multi.gz" );
+		final File singleMember = File.createTempFile( TRECDocumentCollectionTest.class.getName(), ".single.gz" );
+		multiMember.deleteOnExit();
+		singleMember.deleteOnExit();
+
+		final FileOutputStream multiOutputStream = new FileOutputStream( multiMember );
+		final GZIPOutputStream singleOutputStream = new GZIPOutputStream( new FileOutputStream( singleMember ) );
+		for( int i = 0; i < n; i++ ) {
+			// Each document is a separate gzip member
+			final GZIPOutputStream member = new GZIPOutputStream( multiOutputStream );
+			member.write( trecDocument( i ).getBytes( "ASCII" ) );
+			member.finish();
+			singleOutputStream.write( trecDocument( i ).getBytes( "ASCII" ) );
+		}
+		multiOutputStream.close();
+		singleOutputStream.close();
+
+		for( File file: new File[] { multiMember, singleMember } ) {
+			TRECDocumentCollection collection = new TRECDocumentCollection( new String[] { file.toString(), file.toString() },
+					CompositeDocumentFactory.getFactory( new DocumentFactory[] { new TRECHeaderDocumentFactory(), new HtmlDocumentFactory( new String[] { "encoding=ISO-8859-1" } ) } ), 
+					1024, true );
+			final long[] checkpoints = collection.uncompressedCheckpoint[ 1 ];
+			if ( file == multiMember ) assertTrue( checkpoints.length > n * 5000L / MultiMemberGZIPInputStream.DEFAULT_CHECKPOINT_SPACING / 2 );
+			else assertEquals( 1, checkpoints.length );
+
+			final int textIndex = collection.factory().fieldIndex( "text" );
+			assertEquals( 2 * n, collection.size() );
+			for( int i = 2 * n; i-- != 0; ) {
+				final Document d = collection.document( ( i * 37L ) % ( 2 * n ) );
+				final int k = (int)( ( ( i * 37L ) % ( 2 * n ) ) % n );
+				assertEquals( "GX" + k, d.title().toString() );
+				assertEquals( "http://gx" + k + "/", d.uri().toString() );
+				final String content = IOUtils.toString( (Reader)d.content( textIndex ) );
+				assertTrue( content, content.startsWith( "word" + k + "_0 " ) );
+				assertTrue( content, content.trim().endsWith( "word" + k + "_499" ) );
+				d.close();
+			}
+			collection.close();
+		}
+	}
+
+	private static File trecFile( final int from, final int to ) throws Exception {
+		final File file = File.createTempFile( TRECDocumentCollectionTest.class.getName(), ".trec" );
+		file.deleteOnExit();
+		final OutputStream outputStream = new FileOutputStream( file );
+		for( int i = from; i < to; i++ ) outputStream.write( trecDocument( i ).getBytes( "ASCII" ) );
+		outputStream.close();
+		return file;
+	}
+
+	private static void checkTitles( final TRECDocumentCollection collection, final int n ) throws Exception {
+		assertEquals( n, collection.size() );
+		for( int i = n; i-- != 0; ) {
+			final Document d = collection.document( i );
+			assertEquals( "GX" + i, d.title().toString() );
+			d.close();
+		}
+		final DocumentIterator iterator = collection.iterator();
+		for( int i = 0; i < n; i++ ) {
+			final Document d = iterator.nextDocument();
+			assertEquals( "GX" + i, d.title().toString() );
+			assertEquals( "http://gx" + i + "/", d.uri().toString() );
+		}
+		assertNull( iterator.nextDocument() );
+		iterator.close();
+	}
+
+	@Test
+	public void testMarkers() throws Exception {
+		final File serialised = File.createTempFile( TRECDocumentCollectionTest.class.getName(), ".collection" );
+		serialised.deleteOnExit();
+		final DocumentFactory factory = CompositeDocumentFactory.getFactory( new DocumentFactory[] { new TRECHeaderDocumentFactory(), new HtmlDocumentFactory( new String[] { "encoding=ISO-8859-1" } ) } );
+
+		// Empty files must be handled gracefully
+		TRECDocumentCollection collection = new TRECDocumentCollection( new String[] { trecFile( 0, 3 ).toString(), trecFile( 3, 3 ).toString(), trecFile( 3, 10 ).toString() }, factory, 1024, false );
+		checkTitles( collection, 10 );
+		assertEquals( 0, collection.fileIndex( 2 ) );
+		assertEquals( 2, collection.fileIndex( 3 ) );
+
+		BinIO.storeObject( collection, serialised );
+		collection.close();
+		collection = (TRECDocumentCollection)BinIO.loadObject( serialised );
+		checkTitles( collection, 10 );
+
+		final TRECDocumentCollection other = new TRECDocumentCollection( new String[] { trecFile( 10, 12 ).toString(), trecFile( 12, 20 ).toString() }, factory, 1024, false );
+		collection.merge( other );
+		other.close();
+		checkTitles( collection, 20 );
+		assertEquals( 3, collection.fileIndex( 11 ) );
+		assertEquals( 4, collection.fileIndex( 12 ) );
+		collection.close();
+	}
 }
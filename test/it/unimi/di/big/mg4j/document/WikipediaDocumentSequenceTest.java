@@ -0,0 +1,111 @@
+package it.unimi.di.big.mg4j.document;
+
+/*		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2016 Sebastiano Vigna 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class WikipediaDocumentSequenceTest {
+
+	/** Appends a string to a dump as a separate bzip2 stream, returning the starting offset of the stream. */
+	private static long appendStream( final File dump, final String content ) throws IOException {
+		final long offset = dump.length();
+		final FileOutputStream out = new FileOutputStream( dump, true );
+		final BZip2CompressorOutputStream bzip = new BZip2CompressorOutputStream( out );
+		bzip.write( content.getBytes( Charsets.UTF_8 ) );
+		bzip.close();
+		return offset;
+	}
+
+	private static String page( final int id, final String title, final String redirect ) {
+		return "  <page>\n    <title>" + title + "</title>\n    <ns>0</ns>\n    <id>" + id + "</id>\n" +
+				( redirect != null ? "    <redirect title=\"" + redirect + "\" />\n" : "" ) +
+				"    <revision>\n      <id>" + ( 1000 + id ) + "</id>\n      <timestamp>2016-01-01T00:00:00Z</timestamp>\n" +
+				"      <text xml:space=\"preserve\">Page '''" + title + "''' links to [[Page " + ( id + 1 ) + "]].\n\nSecond paragraph.</text>\n    </revision>\n  </page>\n";
+	}
+
+	private static ObjectArrayList<String> scan( final WikipediaDocumentSequence sequence ) throws IOException {
+		final ObjectArrayList<String> result = new ObjectArrayList<String>();
+		final DocumentIterator iterator = sequence.iterator();
+		for( Document document; ( document = iterator.nextDocument() ) != null; ) {
+			result.add( document.uri() + " " + document.title() + " " + document.content( 1 ) );
+			document.close();
+		}
+		assertNull( iterator.nextDocument() );
+		iterator.close();
+		return result;
+	}
+
+	@Test
+	public void testMultistream() throws IOException {
+		final File dump = File.createTempFile( WikipediaDocumentSequenceTest.class.getSimpleName(), ".xml.bz2" );
+		final File index = File.createTempFile( WikipediaDocumentSequenceTest.class.getSimpleName(), "-index.txt" );
+		dump.deleteOnExit();
+		index.deleteOnExit();
+		FileUtils.write( dump, "" );
+
+		appendStream( dump, "<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.10/\" xml:lang=\"en\">\n  <siteinfo>\n    <namespaces>\n" +
+				"      <namespace key=\"0\" case=\"first-letter\" />\n      <namespace key=\"10\" case=\"first-letter\">Template</namespace>\n" +
+				"    </namespaces>\n  </siteinfo>\n" );
+
+		final PrintWriter indexWriter = new PrintWriter( new OutputStreamWriter( new FileOutputStream( index ), Charsets.UTF_8 ) );
+		int id = 0, expected = 0;
+		for( int s = 0; s < 13; s++ ) {
+			final StringBuilder stream = new StringBuilder();
+			final StringBuilder lines = new StringBuilder();
+			for( int p = 0; p < 1 + s % 4; p++, id++ ) {
+				String title = "Page " + id;
+				String redirect = null;
+				if ( id % 5 == 3 ) redirect = "Page " + ( id + 1 );
+				else if ( id % 7 == 6 ) title = "Template:Page " + id;
+				else expected++;
+				stream.append( page( id, title, redirect ) );
+				lines.append( ':' ).append( id ).append( ':' ).append( title ).append( '\n' );
+			}
+			final long offset = appendStream( dump, stream.toString() );
+			for( String line : lines.toString().split( "\n" ) ) indexWriter.println( offset + line );
+		}
+		indexWriter.close();
+		appendStream( dump, "</mediawiki>\n" );
+
+		final ObjectArrayList<String> sequential = scan( new WikipediaDocumentSequence( dump.toString(), true, "http://en.wikipedia.org/wiki/", true ) );
+		assertEquals( expected, sequential.size() );
+
+		for( int threads = 1; threads <= 4; threads++ ) {
+			final WikipediaDocumentSequence multistream = new WikipediaDocumentSequence( dump.toString(), true, "http://en.wikipedia.org/wiki/", true, false, false, 
+					HtmlDocumentFactory.DEFAULT_MAXPREANCHOR, HtmlDocumentFactory.DEFAULT_MAXANCHOR, HtmlDocumentFactory.DEFAULT_MAXPOSTANCHOR, null, index.toString(), threads );
+			assertEquals( sequential, scan( multistream ) );
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package it.unimi.di.big.mg4j.index;
+
+import static it.unimi.di.big.mg4j.search.DocumentIterator.END_OF_LIST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.search.AndDocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIterators;
+import it.unimi.di.big.mg4j.search.OrDocumentIterator;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BitmapIndexIteratorTest {
+	private final static int NUMBER_OF_DOCUMENTS = 1001;
+	private static Index index;
+	private static String basename;
+
+	@BeforeClass
+	public static void setUp() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		basename = File.createTempFile( BitmapIndexIteratorTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		final String[] document = new String[ NUMBER_OF_DOCUMENTS ];
+		final MutableString s = new MutableString();
+		for( int d = 0; d < NUMBER_OF_DOCUMENTS; d++ ) {
+			s.length( 0 ).append( "x " );
+			if ( d % 2 == 0 ) s.append( "t2 " );
+			if ( d % 3 == 0 ) s.append( "t3 " );
+			document[ d ] = s.toString();
+		}
+		new IndexBuilder( basename, new StringArrayDocumentCollection( document ) ).run();
+		index = Index.getInstance( basename + "-text", true, true );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+	
+	@Test
+	public void testBitmapWord() throws IOException {
+		for( int k: new int[] { 2, 3 } ) {
+			final IndexIterator indexIterator = index.documents( "t" + k );
+			assertTrue( indexIterator instanceof BitmapIndexIterator );
+			final BitmapIndexIterator bitmapIndexIterator = (BitmapIndexIterator)indexIterator;
+			for( long word = ( NUMBER_OF_DOCUMENTS + Long.SIZE - 1 ) / Long.SIZE; word-- != 0; ) {
+				long expected = 0;
+				for( int b = 0; b < Long.SIZE && word * Long.SIZE + b < NUMBER_OF_DOCUMENTS; b++ ) if ( ( word * Long.SIZE + b ) % k == 0 ) expected |= 1L << b;
+				assertEquals( Long.toString( word ), expected, bitmapIndexIterator.bitmapWord( word ) );
+			}
+			// Access to words must not change the state of the iterator
+			assertEquals( 0, indexIterator.nextDocument() );
+			assertEquals( k, indexIterator.nextDocument() );
+			indexIterator.dispose();
+		}
+	}
+
+	@Test
+	public void testAnd() throws IOException {
+		final DocumentIterator and = AndDocumentIterator.getInstance( index.documents( "t2" ), index.documents( "t3" ), index.documents( "x" ) );
+		for( long d = 0; d < NUMBER_OF_DOCUMENTS; d += 6 ) {
+			assertEquals( d, and.nextDocument() );
+			assertEquals( 3, and.intervalIterator().extent() );
+		}
+		assertEquals( END_OF_LIST, and.nextDocument() );
+		and.dispose();
+
+		final DocumentIterator skip = AndDocumentIterator.getInstance( index.documents( "t2" ), index.documents( "t3" ) );
+		assertEquals( 6, skip.skipTo( 1 ) );
+		assertEquals( 600, skip.skipTo( 595 ) );
+		assertEquals( 606, skip.nextDocument() );
+		assertEquals( END_OF_LIST, skip.skipTo( 1000 ) );
+		skip.dispose();
+	}
+
+	@Test
+	public void testCount() throws IOException {
+		assertEquals( ( NUMBER_OF_DOCUMENTS + 5 ) / 6, DocumentIterators.count( AndDocumentIterator.getInstance( index.documents( "t2" ), index.documents( "t3" ) ) ) );
+		assertEquals( ( NUMBER_OF_DOCUMENTS + 1 ) / 2 + ( NUMBER_OF_DOCUMENTS + 2 ) / 3 - ( NUMBER_OF_DOCUMENTS + 5 ) / 6, DocumentIterators.count( OrDocumentIterator.getInstance( index.documents( "t2" ), index.documents( "t3" ) ) ) );
+	}
+}
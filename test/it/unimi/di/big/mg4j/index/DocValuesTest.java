@@ -0,0 +1,107 @@
+package it.unimi.di.big.mg4j.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import it.unimi.di.big.mg4j.document.DateArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.DocValues.Coding;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.search.DocValuesDocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DocValuesTest {
+	private String basename;
+
+	@Before
+	public void setUp() throws IOException {
+		basename = File.createTempFile( getClass().getSimpleName(), "test" ).getCanonicalPath();
+	}
+
+	@After
+	public void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	private void check( final long[] value, final Coding coding, final Coding expectedCoding ) throws IOException, ConfigurationException {
+		final DocValuesWriter docValuesWriter = new DocValuesWriter( IOFactory.FILESYSTEM_FACTORY, basename, "field", coding );
+		// Reverse order, as in remapped indexing
+		for( int i = value.length; i-- != 0; ) docValuesWriter.add( i, value[ i ] );
+		docValuesWriter.close( value.length + 1 );
+
+		for( boolean inMemory: new boolean[] { false, true } ) {
+			final DocValues docValues = DocValues.load( IOFactory.FILESYSTEM_FACTORY, basename, inMemory );
+			assertEquals( expectedCoding, docValues.coding );
+			assertEquals( "field", docValues.field );
+			assertEquals( value.length + 1, docValues.numberOfDocuments );
+			for( int i = 0; i < value.length; i++ ) {
+				assertEquals( value[ i ], docValues.get( i ) );
+				assertEquals( value[ i ] != DocValues.MISSING, docValues.has( i ) );
+				if ( docValues.coding == Coding.DICTIONARY ) assertEquals( value[ i ], docValues.value( docValues.code( i ) ) );
+			}
+			assertEquals( DocValues.MISSING, docValues.get( value.length ) );
+		}
+	}
+	
+	@Test
+	public void testCodings() throws IOException, ConfigurationException {
+		final Random random = new Random( 0 );
+		final long[] value = new long[ 1000 ];
+		
+		// Few distinct values
+		for( int i = 0; i < value.length; i++ ) value[ i ] = random.nextInt( 10 ) == 0 ? DocValues.MISSING : 1000000000000L * random.nextInt( 5 );
+		check( value, null, Coding.DICTIONARY );
+		check( value, Coding.BIT_PACKED, Coding.BIT_PACKED );
+		check( value, Coding.FIXED, Coding.FIXED );
+
+		// Small range
+		for( int i = 0; i < value.length; i++ ) value[ i ] = random.nextInt( 10 ) == 0 ? DocValues.MISSING : -100 + random.nextInt( 1000 );
+		check( value, null, Coding.BIT_PACKED );
+		check( value, Coding.DICTIONARY, Coding.DICTIONARY );
+		
+		// Full range
+		for( int i = 0; i < value.length; i++ ) value[ i ] = random.nextLong();
+		check( value, null, Coding.FIXED );
+		check( value, Coding.BIT_PACKED, Coding.FIXED );
+
+		// Constant
+		for( int i = 0; i < value.length; i++ ) value[ i ] = 42;
+		check( value, Coding.BIT_PACKED, Coding.BIT_PACKED );
+		check( value, Coding.DICTIONARY, Coding.DICTIONARY );
+	}
+
+	@Test
+	public void testScan() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final Date[] date = new Date[ 100 ];
+		for( int d = 0; d < date.length; d++ ) date[ d ] = new Date( ( d % 7 ) * 86400000L );
+		// Document values are opt-in
+		new IndexBuilder( basename, new DateArrayDocumentCollection( date ) ).run();
+		assertNull( Index.getInstance( basename + "-date", true, true ).docValues );
+
+		new IndexBuilder( basename, new DateArrayDocumentCollection( date ) ).docValues( true ).run();
+		final Index index = Index.getInstance( basename + "-date", true, true );
+		assertNotNull( index.docValues );
+		assertEquals( "date", index.docValues.field );
+		assertEquals( Coding.DICTIONARY, index.docValues.coding );
+		for( int d = 0; d < date.length; d++ ) assertEquals( date[ d ].getTime(), index.docValues.get( d ) );
+		
+		final DocumentIterator documentIterator = DocValuesDocumentIterator.getInstance( index.documents( 0 ), index.docValues, 86400000L, 2 * 86400000L );
+		for( int d = 0; d < date.length; d++ ) if ( d % 7 == 1 || d % 7 == 2 ) assertEquals( d, documentIterator.nextDocument() );
+		assertEquals( DocumentIterator.END_OF_LIST, documentIterator.nextDocument() );
+		documentIterator.dispose();
+	}
+}
@@ -0,0 +1,155 @@
+package it.unimi.di.big.mg4j.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.query.nodes.Fuzzy;
+import it.unimi.di.big.mg4j.query.nodes.Infix;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.Test;
+
+public class TermNGramIndexTest {
+	private final static List<String> TERMS = Arrays.asList( "a", "ape", "apple", "apply", "banana", "bandana", "cab", "grape", "grappa", "papaya" );
+
+	private static LongArrayList infix( final String infix ) {
+		final LongArrayList result = new LongArrayList();
+		for( int i = 0; i < TERMS.size(); i++ ) if ( TERMS.get( i ).contains( infix ) ) result.add( i );
+		return result;
+	}
+
+	private static int distance( final String a, final String b ) {
+		final int[][] d = new int[ a.length() + 1 ][ b.length() + 1 ];
+		for( int i = 0; i <= a.length(); i++ ) d[ i ][ 0 ] = i;
+		for( int j = 0; j <= b.length(); j++ ) d[ 0 ][ j ] = j;
+		for( int i = 1; i <= a.length(); i++ )
+			for( int j = 1; j <= b.length(); j++ ) 
+				d[ i ][ j ] = Math.min( Math.min( d[ i - 1 ][ j ], d[ i ][ j - 1 ] ) + 1, d[ i - 1 ][ j - 1 ] + ( a.charAt( i - 1 ) == b.charAt( j - 1 ) ? 0 : 1 ) );
+		return d[ a.length() ][ b.length() ];
+	}
+
+	private static LongArrayList fuzzy( final String term, final int k ) {
+		final LongArrayList result = new LongArrayList();
+		for( int i = 0; i < TERMS.size(); i++ ) if ( distance( term, TERMS.get( i ) ) <= k ) result.add( i );
+		return result;
+	}
+
+	@Test
+	public void testEditDistance() {
+		assertEquals( 0, TermNGramIndex.editDistance( "apple", "apple", 2 ) );
+		assertEquals( 1, TermNGramIndex.editDistance( "apple", "apply", 2 ) );
+		assertEquals( 3, TermNGramIndex.editDistance( "kitten", "sitting", 3 ) );
+		assertEquals( 2, TermNGramIndex.editDistance( "", "ab", 2 ) );
+		assertEquals( 1, TermNGramIndex.editDistance( "ab", "b", 1 ) );
+		assertEquals( true, TermNGramIndex.editDistance( "kitten", "sitting", 1 ) > 1 );
+	}
+
+	@Test
+	public void testInfixAndFuzzy() throws IOException, TooManyTermsException {
+		final Random random = new Random( 0 );
+		for( int n = 1; n < 5; n++ ) {
+			final TermNGramIndex termNGramIndex = new TermNGramIndex( TERMS, n );
+			assertEquals( TERMS.size(), termNGramIndex.size64() );
+			for( String infix: new String[] { "", "a", "p", "ap", "ppl", "apple", "ana", "and", "xyz", "grape", "grapes", "pa" } ) 
+				assertEquals( infix + " (n=" + n + ")", infix( infix ), termNGramIndex.infix( infix, Integer.MAX_VALUE ) );
+			for( String term: TERMS ) {
+				for( int k = 0; k < 4; k++ ) {
+					assertEquals( term + "~" + k + " (n=" + n + ")", fuzzy( term, k ), termNGramIndex.fuzzy( term, k, Integer.MAX_VALUE ) );
+					// A random mutation
+					final char[] a = term.toCharArray();
+					a[ random.nextInt( a.length ) ] = (char)( 'a' + random.nextInt( 26 ) );
+					final String mutated = new String( a );
+					assertEquals( mutated + "~" + k + " (n=" + n + ")", fuzzy( mutated, k ), termNGramIndex.fuzzy( mutated, k, Integer.MAX_VALUE ) );
+				}
+			}
+		}
+	}
+
+	@Test(expected=TooManyTermsException.class)
+	public void testInfixLimit() throws IOException, TooManyTermsException {
+		new TermNGramIndex( TERMS, 3 ).infix( "ap", 2 );
+	}
+
+	@Test(expected=TooManyTermsException.class)
+	public void testFuzzyLimit() throws IOException, TooManyTermsException {
+		new TermNGramIndex( TERMS, 3 ).fuzzy( "apple", 1, 1 );
+	}
+
+	@Test
+	public void testLengthFilter() throws IOException, TooManyTermsException {
+		// Many terms of length 4, so the length filter cannot bound short fuzzy queries
+		final List<String> terms = new ArrayList<String>();
+		for( char a = 'a'; a <= 'z'; a++ )
+			for( char b = 'a'; b <= 'z'; b++ )
+				for( char c = 'a'; c <= 'z'; c++ )
+					for( char d = 'a'; d <= 'd'; d++ ) terms.add( new String( new char[] { a, b, c, d } ) );
+		assertTrue( terms.size() > TermNGramIndex.MAX_LENGTH_CANDIDATES );
+		final TermNGramIndex termNGramIndex = new TermNGramIndex( terms, 3 );
+		// The count filter works
+		final LongArrayList expected = new LongArrayList();
+		for( int i = 0; i < terms.size(); i++ ) if ( distance( "abcb", terms.get( i ) ) <= 1 ) expected.add( i );
+		assertEquals( expected, termNGramIndex.fuzzy( "abcb", 1, Integer.MAX_VALUE ) );
+		// The count filter is useless, but no term has length at most 2
+		assertEquals( new LongArrayList(), termNGramIndex.fuzzy( "", 2, Integer.MAX_VALUE ) );
+		try {
+			termNGramIndex.fuzzy( "ab", 2, Integer.MAX_VALUE );
+			fail();
+		}
+		catch( TooManyTermsException e ) {
+			assertEquals( terms.size(), e.numberOfTerms );
+		}
+	}
+
+	private static LongArrayList results( final Query query, final Index index ) throws QueryBuilderVisitorException, IOException {
+		final DocumentIterator documentIterator = query.accept( new DocumentIteratorBuilderVisitor( null, index, 1000 ) );
+		final LongArrayList result = new LongArrayList();
+		for( long d; ( d = documentIterator.nextDocument() ) != DocumentIterator.END_OF_LIST; ) result.add( d );
+		documentIterator.dispose();
+		return result;
+	}
+
+	@Test
+	public void testQueries() throws Exception {
+		final String basename = File.createTempFile( getClass().getSimpleName(), "test" ).getCanonicalPath();
+		try {
+			new IndexBuilder( basename, new StringArrayDocumentCollection( "an apple a day", "banana split", "grape juice", "bandana", "apply now" ) ).run();
+			Index index = Index.getInstance( basename + "-text", true, true, true );
+			try {
+				index.documentsInfix( "ana", 10 );
+				fail();
+			}
+			catch( UnsupportedOperationException e ) {}
+
+			TermNGramIndex.main( new String[] { basename + "-text" } );
+			index = Index.getInstance( basename + "-text", true, true, true );
+			assertNotNull( index.termNGramIndex );
+
+			assertEquals( LongArrayList.wrap( new long[] { 1, 3 } ), results( new Infix( "ana" ), index ) );
+			assertEquals( LongArrayList.wrap( new long[] { 0, 4 } ), results( new Infix( "ppl" ), index ) );
+			assertEquals( LongArrayList.wrap( new long[] { 0, 1, 2, 4 } ), results( new Infix( "p" ), index ) );
+			assertEquals( LongArrayList.wrap( new long[] { 0, 4 } ), results( new Fuzzy( "appla", 1 ), index ) );
+			assertEquals( LongArrayList.wrap( new long[] { 1, 3 } ), results( new Fuzzy( "banama", 2 ), index ) );
+			assertEquals( LongArrayList.wrap( new long[] {} ), results( new Fuzzy( "zzzzz", 1 ), index ) );
+			assertEquals( "*ana*", index.documentsInfix( "ana", 10 ).term() );
+		}
+		finally {
+			for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+		}
+	}
+}
@@ -32,7 +32,9 @@ import it.unimi.di.big.mg4j.query.nodes.Consecutive;
 import it.unimi.di.big.mg4j.query.nodes.Containment;
 import it.unimi.di.big.mg4j.query.nodes.Difference;
 import it.unimi.di.big.mg4j.query.nodes.False;
+import it.unimi.di.big.mg4j.query.nodes.Fuzzy;
 import it.unimi.di.big.mg4j.query.nodes.Inclusion;
+import it.unimi.di.big.mg4j.query.nodes.Infix;
 import it.unimi.di.big.mg4j.query.nodes.LowPass;
 import it.unimi.di.big.mg4j.query.nodes.MultiTerm;
 import it.unimi.di.big.mg4j.query.nodes.Not;
@@ -195,6 +197,30 @@ public class DocumentIteratorBuilderVisitor extends AbstractQueryBuilderVisitor<
 		}
 	}
 		
+	public DocumentIterator visit( final Infix node ) throws QueryBuilderVisitorException {
+		try {
+			return curr.top().documentsInfix( node.infix, limit ).weight( weight() );
+		}
+		catch ( IOException e ) {
+			throw new QueryBuilderVisitorException( e );
+		}
+		catch ( TooManyTermsException e ) {
+			throw new QueryBuilderVisitorException( e );
+		}
+	}
+
+	public DocumentIterator visit( final Fuzzy node ) throws QueryBuilderVisitorException {
+		try {
+			return curr.top().documentsFuzzy( node.term, node.maxDistance, limit ).weight( weight() );
+		}
+		catch ( IOException e ) {
+			throw new QueryBuilderVisitorException( e );
+		}
+		catch ( TooManyTermsException e ) {
+			throw new QueryBuilderVisitorException( e );
+		}
+	}
+
 	public DocumentIterator visit( Range node ) throws QueryBuilderVisitorException {
 		final Index index = curr.top();
 		if ( ! index.hasPayloads ) throw new IllegalStateException( "Index " + index + " does not have payloads" );
@@ -0,0 +1,136 @@
+package it.unimi.di.big.mg4j.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class HttpQueryServerTest {
+	private static String basename;
+	private static QueryEngine queryEngine;
+	private HttpQueryServer httpQueryServer;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		basename = File.createTempFile( HttpQueryServerTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "a b c", "a b", "a c d", "b d", "a" ) ).run();
+		final Index index = Index.getInstance( basename + "-text", true, true );
+		final Object2ReferenceOpenHashMap<String, Index> indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+		indexMap.put( "text", index );
+		queryEngine = new QueryEngine( new SimpleParser( new ObjectOpenHashSet<String>( new String[] { "text" } ), "text" ), new DocumentIteratorBuilderVisitor( indexMap, index, Integer.MAX_VALUE ), indexMap );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		if ( httpQueryServer != null ) httpQueryServer.server.stop();
+		httpQueryServer = null;
+	}
+
+	private static int freePort() throws IOException {
+		final ServerSocket socket = new ServerSocket( 0 );
+		final int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+
+	private static int status( final int port, final String query ) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection)new URL( "http://localhost:" + port + "/search?" + query ).openConnection();
+		connection.setReadTimeout( 30000 );
+		final int status = connection.getResponseCode();
+		connection.disconnect();
+		return status;
+	}
+
+	@Test(timeout=60000)
+	public void testSaturation() throws Exception {
+		final int port = freePort();
+		httpQueryServer = new HttpQueryServer( queryEngine, null, null, null, port, null, 1, 1, 60000 );
+		assertEquals( HttpURLConnection.HTTP_OK, status( port, "q=a" ) );
+
+		// We hold the only query engine, so the next request will wait for it...
+		final QueryEngine engine = httpQueryServer.queryEnginePool.acquire( 0, TimeUnit.MILLISECONDS );
+		assertNotNull( engine );
+		final int[] waitingStatus = new int[ 1 ];
+		final Thread waiting = new Thread() {
+			public void run() {
+				try {
+					waitingStatus[ 0 ] = status( port, "q=a" );
+				}
+				catch ( IOException e ) {
+					throw new RuntimeException( e );
+				}
+			}
+		};
+		waiting.start();
+		while( httpQueryServer.queryEnginePool.queued() == 0 ) Thread.sleep( 10 );
+
+		// ...and further requests must be rejected immediately.
+		assertEquals( HttpURLConnection.HTTP_UNAVAILABLE, status( port, "q=a" ) );
+		assertEquals( HttpURLConnection.HTTP_UNAVAILABLE, status( port, "q=b" ) );
+
+		httpQueryServer.queryEnginePool.release( engine );
+		waiting.join();
+		assertEquals( HttpURLConnection.HTTP_OK, waitingStatus[ 0 ] );
+	}
+
+	@Test
+	public void testMaxStart() throws Exception {
+		final int port = freePort();
+		httpQueryServer = new HttpQueryServer( queryEngine, null, null, null, port, null, 1, 1, 60000 );
+		assertEquals( HttpURLConnection.HTTP_OK, status( port, "q=a&s=" + JsonQueryServlet.DEFAULT_MAX_START ) );
+		assertEquals( HttpURLConnection.HTTP_BAD_REQUEST, status( port, "q=a&s=" + ( JsonQueryServlet.DEFAULT_MAX_START + 1 ) ) );
+		assertEquals( HttpURLConnection.HTTP_BAD_REQUEST, status( port, "q=a&s=2000000000" ) );
+	}
+
+	private static int metricsStatus( final int port ) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection)new URL( "http://localhost:" + port + "/metrics" ).openConnection();
+		connection.setReadTimeout( 30000 );
+		final int status = connection.getResponseCode();
+		connection.disconnect();
+		return status;
+	}
+
+	@Test
+	public void testMetricsOptIn() throws Exception {
+		int port = freePort();
+		httpQueryServer = new HttpQueryServer( queryEngine, null, null, null, port, null, 1, 1, 60000 );
+		// The server must not enable metrics on the engine it is given
+		assertNull( queryEngine.metrics );
+		assertEquals( HttpURLConnection.HTTP_NOT_FOUND, metricsStatus( port ) );
+		stopServer();
+
+		final QueryEngine engine = queryEngine.copy();
+		engine.metrics = new QueryMetrics();
+		port = freePort();
+		httpQueryServer = new HttpQueryServer( engine, null, null, null, port, null, 1, 1, 60000 );
+		assertEquals( HttpURLConnection.HTTP_OK, status( port, "q=a" ) );
+		assertEquals( HttpURLConnection.HTTP_OK, metricsStatus( port ) );
+		assertTrue( engine.metrics.getQueries() > 0 );
+	}
+}
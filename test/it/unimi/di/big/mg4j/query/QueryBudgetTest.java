@@ -0,0 +1,114 @@
+package it.unimi.di.big.mg4j.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.search.QueryBudget;
+import it.unimi.di.big.mg4j.search.QueryBudgetExceededException;
+import it.unimi.di.big.mg4j.search.score.BM25Scorer;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryBudgetTest {
+	private static final int DOCUMENTS = 1000;
+	private static String basename;
+	private static QueryEngine queryEngine;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		basename = File.createTempFile( QueryBudgetTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		final String[] document = new String[ DOCUMENTS ];
+		for( int i = 0; i < DOCUMENTS; i++ ) document[ i ] = "a" + ( i % 2 == 0 ? " b" : " c" ) + ( i % 3 == 0 ? " d" : "" );
+		new IndexBuilder( basename, new StringArrayDocumentCollection( document ) ).run();
+		final Index index = Index.getInstance( basename + "-text", true, true );
+		final Object2ReferenceOpenHashMap<String, Index> indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+		indexMap.put( "text", index );
+		queryEngine = new QueryEngine( new SimpleParser( new ObjectOpenHashSet<String>( new String[] { "text" } ), "text" ), new DocumentIteratorBuilderVisitor( indexMap, index, Integer.MAX_VALUE ), indexMap );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	@Test(expected=QueryBudgetExceededException.class)
+	public void testPostings() {
+		final QueryBudget budget = new QueryBudget( 0, TimeUnit.MILLISECONDS, 10 );
+		for( int i = 0; i < 10; i++ ) budget.consume();
+		assertEquals( 10, budget.postings() );
+		budget.consume();
+	}
+
+	@Test
+	public void testToString() {
+		final QueryBudget budget = new QueryBudget( 0, TimeUnit.MILLISECONDS, 10 );
+		budget.consume();
+		budget.skip();
+		assertEquals( "[postings: 2/10, skips: 1]", budget.toString() );
+		assertEquals( "[postings: 0/unlimited, skips: 0]", new QueryBudget( 0, TimeUnit.MILLISECONDS, 0 ).toString() );
+	}
+
+	@Test(expected=QueryBudgetExceededException.class)
+	public void testDeadline() throws InterruptedException {
+		final QueryBudget budget = new QueryBudget( 1, TimeUnit.MILLISECONDS, 0 );
+		Thread.sleep( 10 );
+		for( int i = 0; i < QueryBudget.CHECK_INTERVAL; i++ ) budget.check();
+	}
+
+	@Test
+	public void testUnlimited() throws Exception {
+		final QueryEngine engine = queryEngine.copy();
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		assertEquals( DOCUMENTS / 2, engine.process( "b & a", 0, 10, results ) );
+		assertFalse( engine.truncated() );
+		assertEquals( 10, results.size() );
+	}
+
+	@Test
+	public void testTruncatedUnscored() throws Exception {
+		final QueryEngine engine = queryEngine.copy();
+		engine.maxPostings = 100;
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		final int count = engine.process( "b & a", 0, 10, results );
+		assertTrue( engine.truncated() );
+		assertTrue( count < DOCUMENTS / 2 );
+		assertEquals( 10, results.size() );
+		for( int i = 0; i < results.size(); i++ ) assertEquals( 2 * i, results.get( i ).document );
+
+		// A sufficient budget gives complete results
+		engine.maxPostings = 100 * DOCUMENTS;
+		assertEquals( DOCUMENTS / 2, engine.process( "b & a", 0, 10, results ) );
+		assertFalse( engine.truncated() );
+	}
+
+	@Test
+	public void testTruncatedScored() throws Exception {
+		final QueryEngine engine = queryEngine.copy();
+		engine.score( new BM25Scorer() );
+		engine.maxPostings = 100;
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		final int count = engine.process( "a | d", 0, 10, results );
+		assertTrue( engine.truncated() );
+		assertTrue( count > 0 );
+		assertTrue( count < DOCUMENTS );
+		assertEquals( 10, results.size() );
+		for( DocumentScoreInfo<?> dsi: results ) assertTrue( dsi.document < count );
+	}
+}
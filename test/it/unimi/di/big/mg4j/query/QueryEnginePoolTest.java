@@ -0,0 +1,90 @@
+package it.unimi.di.big.mg4j.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryEnginePoolTest {
+	private static String basename;
+	private static QueryEngine queryEngine;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		basename = File.createTempFile( QueryEnginePoolTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "a b c", "a b", "a c d", "b d", "a" ) ).run();
+		final Index index = Index.getInstance( basename + "-text", true, true );
+		final Object2ReferenceOpenHashMap<String, Index> indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+		indexMap.put( "text", index );
+		queryEngine = new QueryEngine( new SimpleParser( new ObjectOpenHashSet<String>( new String[] { "text" } ), "text" ), new DocumentIteratorBuilderVisitor( indexMap, index, Integer.MAX_VALUE ), indexMap );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	@Test
+	public void testAcquireRelease() throws Exception {
+		final QueryEnginePool pool = new QueryEnginePool( queryEngine, 2, 0 );
+		assertEquals( 2, pool.size() );
+		final QueryEngine e0 = pool.acquire( 0, TimeUnit.MILLISECONDS );
+		final QueryEngine e1 = pool.acquire( 0, TimeUnit.MILLISECONDS );
+		assertNotNull( e0 );
+		assertNotNull( e1 );
+		assertNotSame( e0, e1 );
+		assertNotSame( queryEngine, e0 );
+		assertEquals( 0, pool.available() );
+
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		assertEquals( 3, e0.process( "b", 0, 10, results ) );
+		
+		pool.release( e0 );
+		pool.release( e1 );
+		assertEquals( 2, pool.available() );
+	}
+
+	@Test(expected=RejectedExecutionException.class)
+	public void testRejection() throws Exception {
+		final QueryEnginePool pool = new QueryEnginePool( queryEngine, 1, 0 );
+		assertNotNull( pool.acquire( 0, TimeUnit.MILLISECONDS ) );
+		pool.acquire( 0, TimeUnit.MILLISECONDS );
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final QueryEnginePool pool = new QueryEnginePool( queryEngine, 1, 1 );
+		final QueryEngine e = pool.acquire( 0, TimeUnit.MILLISECONDS );
+		assertNull( pool.acquire( 10, TimeUnit.MILLISECONDS ) );
+		// The failed request must not leak its admission permit
+		assertNull( pool.acquire( 10, TimeUnit.MILLISECONDS ) );
+		pool.release( e );
+		assertNotNull( pool.acquire( 0, TimeUnit.MILLISECONDS ) );
+	}
+
+	@Test
+	public void testQuote() {
+		assertEquals( "null", JsonQueryServlet.quote( null, new StringBuilder() ).toString() );
+		assertEquals( "\"a\\\"b\\\\c\\n\\u0001\"", JsonQueryServlet.quote( "a\"b\\c\n\u0001", new StringBuilder() ).toString() );
+	}
+}
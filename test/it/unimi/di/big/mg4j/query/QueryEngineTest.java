@@ -0,0 +1,93 @@
+package it.unimi.di.big.mg4j.query;
+
+import static org.junit.Assert.assertEquals;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.search.score.BM25Scorer;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.di.big.mg4j.search.score.Scorer;
+import it.unimi.di.big.mg4j.search.score.VignaScorer;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryEngineTest {
+	private static final int DOCUMENTS = 200;
+	private static final String[] QUERY = { "a & b", "a | c", "\"a b\"", "\"b c\" & d", "( a | d ) & \"c a\"" };
+	private static String basename;
+	private static Index index;
+	private static QueryEngine queryEngine;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		basename = File.createTempFile( QueryEngineTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		final Random random = new Random( 0 );
+		final String[] document = new String[ DOCUMENTS ];
+		for( int i = 0; i < DOCUMENTS; i++ ) {
+			final StringBuilder s = new StringBuilder();
+			for( int j = random.nextInt( 30 ) + 1; j-- != 0; ) s.append( (char)( 'a' + random.nextInt( 5 ) ) ).append( ' ' );
+			document[ i ] = s.toString();
+		}
+		new IndexBuilder( basename, new StringArrayDocumentCollection( document ) ).run();
+		index = Index.getInstance( basename + "-text", true, true );
+		final Object2ReferenceOpenHashMap<String, Index> indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+		indexMap.put( "text", index );
+		queryEngine = new QueryEngine( new SimpleParser( new ObjectOpenHashSet<String>( new String[] { "text" } ), "text" ), new DocumentIteratorBuilderVisitor( indexMap, index, Integer.MAX_VALUE ), indexMap );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	/** Returns a string describing documents, scores and selected intervals (which do not implement {@link Object#equals(Object)}). */
+	private static String process( final QueryEngine engine, final String query, final int offset, final int length ) throws Exception {
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		engine.process( query, offset, length, results );
+		final StringBuilder s = new StringBuilder();
+		for( DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>> dsi: results ) 
+			s.append( dsi.document ).append( ' ' ).append( dsi.score ).append( ' ' ).append( Arrays.toString( dsi.info.get( index ) ) ).append( '\n' );
+		return s.toString();
+	}
+
+	private static void checkSinglePass( final Scorer[] scorer, final IntervalSelector intervalSelector ) throws Exception {
+		final QueryEngine twoPass = queryEngine.copy();
+		final double[] weight = new double[ scorer.length ];
+		Arrays.fill( weight, 1 );
+		twoPass.score( scorer, weight );
+		twoPass.intervalSelector = intervalSelector;
+		final QueryEngine singlePass = twoPass.copy();
+		singlePass.singlePass = true;
+
+		for( String query: QUERY ) 
+			for( int offset = 0; offset < 30; offset += 10 ) {
+				final String expected = process( twoPass, query, offset, 10 );
+				assertEquals( query, expected, process( singlePass, query, offset, 10 ) );
+			}
+	}
+
+	@Test
+	public void testSinglePassIntervals() throws Exception {
+		for( IntervalSelector intervalSelector: new IntervalSelector[] { new IntervalSelector(), new IntervalSelector( 2, 3 ) } ) {
+			// No scorer, a scorer that does not use intervals, a scorer that does and an aggregation
+			checkSinglePass( new Scorer[ 0 ], intervalSelector );
+			checkSinglePass( new Scorer[] { new BM25Scorer() }, intervalSelector );
+			checkSinglePass( new Scorer[] { new VignaScorer() }, intervalSelector );
+			checkSinglePass( new Scorer[] { new BM25Scorer(), new VignaScorer() }, intervalSelector );
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package it.unimi.di.big.mg4j.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.search.score.BM25Scorer;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.io.FileFilter;
+
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryMetricsTest {
+	private static String basename;
+	private static QueryEngine queryEngine;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		basename = File.createTempFile( QueryMetricsTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "a b c", "a b", "a c d", "b d", "a", "d e", "a e" ) ).run();
+		final Index index = Index.getInstance( basename + "-text", true, true );
+		final Object2ReferenceOpenHashMap<String, Index> indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+		indexMap.put( "text", index );
+		queryEngine = new QueryEngine( new SimpleParser( new ObjectOpenHashSet<String>( new String[] { "text" } ), "text" ), new DocumentIteratorBuilderVisitor( indexMap, index, Integer.MAX_VALUE ), indexMap );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	@Test
+	public void testRecording() throws Exception {
+		final QueryEngine engine = queryEngine.copy();
+		final QueryMetrics metrics = new QueryMetrics();
+		engine.metrics = metrics;
+		engine.score( new BM25Scorer() );
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+
+		assertEquals( 5, engine.process( "a", 0, 2, results ) );
+		assertEquals( 1, metrics.getQueries() );
+		assertEquals( 5, metrics.getScoredDocuments() );
+		assertTrue( metrics.getPostings() >= 5 );
+		assertTrue( metrics.getThresholdUpdates() <= 3 );
+		assertEquals( 1, metrics.parsing.count() );
+
+		final long postings = metrics.getPostings();
+		engine.process( "a & e", 0, 10, results );
+		assertEquals( 2, metrics.getQueries() );
+		assertTrue( metrics.getPostings() > postings );
+
+		// Copies share the registry
+		engine.copy().process( "b", 0, 10, results );
+		assertEquals( 3, metrics.getQueries() );
+
+		final StringBuilder s = new StringBuilder();
+		metrics.writePrometheus( s );
+		assertTrue( s.toString().contains( "mg4j_query_latency_seconds_count 3\n" ) );
+		assertTrue( s.toString().contains( "mg4j_query_truncated_total 0\n" ) );
+
+		metrics.clear();
+		assertEquals( 0, metrics.getQueries() );
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		final QueryEngine engine = queryEngine.copy();
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		assertEquals( 5, engine.process( "a", 0, 2, results ) );
+		assertEquals( 2, results.size() );
+	}
+}
@@ -0,0 +1,123 @@
+package it.unimi.di.big.mg4j.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.nodes.And;
+import it.unimi.di.big.mg4j.query.nodes.False;
+import it.unimi.di.big.mg4j.query.nodes.MultiTerm;
+import it.unimi.di.big.mg4j.query.nodes.Not;
+import it.unimi.di.big.mg4j.query.nodes.Or;
+import it.unimi.di.big.mg4j.query.nodes.Prefix;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.query.nodes.Term;
+import it.unimi.di.big.mg4j.query.parser.QueryParserException;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryPlannerTest {
+	private static String basename;
+	private static Index index;
+	private static Object2ReferenceOpenHashMap<String, Index> indexMap;
+	private final SimpleParser simpleParser = new SimpleParser( new ObjectOpenHashSet<String>( new String[] { "text" } ), "text" );
+
+	@BeforeClass
+	public static void setUp() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		basename = File.createTempFile( QueryPlannerTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "a b c", "a b", "a c d", "b d", "a", "apple apricot", "apex b", "apple apricot", "apple" ) ).run();
+		index = Index.getInstance( basename + "-text", true, true );
+		indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+		indexMap.put( "text", index );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	private LongArrayList results( final Query query ) throws IOException, QueryBuilderVisitorException {
+		final DocumentIterator documentIterator = query.accept( new DocumentIteratorBuilderVisitor( indexMap, index, Integer.MAX_VALUE ) );
+		final LongArrayList result = new LongArrayList();
+		for( long d; ( d = documentIterator.nextDocument() ) != DocumentIterator.END_OF_LIST; ) result.add( d );
+		documentIterator.dispose();
+		return result;
+	}
+
+	@Test
+	public void testFalse() throws QueryParserException {
+		final QueryPlanner queryPlanner = new QueryPlanner( indexMap, index );
+		assertEquals( new False(), queryPlanner.transform( simpleParser.parse( "a & zzz" ) ) );
+		assertEquals( new False(), queryPlanner.transform( simpleParser.parse( "\"a zzz\"" ) ) );
+		assertEquals( new False(), queryPlanner.transform( simpleParser.parse( "zz*" ) ) );
+		assertEquals( new Term( "a" ), queryPlanner.transform( simpleParser.parse( "a | zzz" ) ) );
+		assertEquals( new Term( "a" ), queryPlanner.transform( simpleParser.parse( "a - zzz" ) ) );
+		assertEquals( new Term( "a" ), queryPlanner.transform( simpleParser.parse( "a & !zzz" ) ) );
+	}
+
+	@Test
+	public void testFlattenAndSort() throws QueryParserException {
+		final QueryPlanner queryPlanner = new QueryPlanner( indexMap, index );
+		assertEquals( new And( new Term( "c" ), new Term( "a" ), new Term( "b" ) ), queryPlanner.transform( simpleParser.parse( "a & (b & c)" ) ) );
+		assertEquals( new Or( new Term( "a" ), new Term( "b" ), new Term( "c" ) ), queryPlanner.transform( simpleParser.parse( "a | (b | (zzz | c))" ) ) );
+		assertEquals( new And( new Term( "a" ), new Not( new Term( "c" ) ), new Not( new Term( "d" ) ) ), queryPlanner.transform( simpleParser.parse( "a & !(c | d)" ) ) );
+	}
+
+	@Test
+	public void testPrefix() throws QueryParserException, IOException, QueryBuilderVisitorException {
+		Query query = new QueryPlanner( indexMap, index, 2 ).transform( simpleParser.parse( "ap*" ) );
+		assertEquals( new MultiTerm( new Term( (int)index.termMap.getLong( "apple" ) ), new Term( (int)index.termMap.getLong( "apricot" ) ) ), query );
+		assertEquals( LongArrayList.wrap( new long[] { 5, 7, 8 } ), results( query ) );
+		assertEquals( new Prefix( "ap" ), new QueryPlanner( indexMap, index, 3 ).transform( simpleParser.parse( "ap*" ) ) );
+	}
+
+	@Test
+	public void testPrefixWithFrequencies() throws QueryParserException, IOException {
+		final Reference2ReferenceOpenHashMap<Index, LongBigList> frequencies = new Reference2ReferenceOpenHashMap<Index, LongBigList>();
+		frequencies.put( index, DiskBasedIndex.readFrequencies( basename + "-text" + DiskBasedIndex.FREQUENCIES_EXTENSION, index.numberOfTerms ) );
+		assertEquals( new MultiTerm( new Term( (int)index.termMap.getLong( "apple" ) ), new Term( (int)index.termMap.getLong( "apricot" ) ) ), new QueryPlanner( indexMap, index, 2, frequencies ).transform( simpleParser.parse( "ap*" ) ) );
+	}
+
+	@Test
+	public void testHugePrefix() throws QueryParserException {
+		// The expansion of "a" has more than PREFIX_SCAN_FACTOR terms per allowed term, so it is not planned.
+		assertEquals( new Prefix( "a" ), new QueryPlanner( indexMap, index, 0 ).transform( simpleParser.parse( "a*" ) ) );
+	}
+
+	@Test
+	public void testResults() throws QueryParserException, IOException, QueryBuilderVisitorException {
+		final QueryPlanner queryPlanner = new QueryPlanner( indexMap, index );
+		for( String q: new String[] { "a & (b & c)", "a & !(c | d)", "(a | b) & !c", "\"a b\" & c", "a | (b | (zzz | c))", "ap* & b", "a - zzz", "!zzz & a", "!(a & zzz)", "a & !zzz" } ) {
+			final Query query = simpleParser.parse( q );
+			assertEquals( q, results( query ), results( queryPlanner.transform( query ) ) );
+		}
+	}
+
+	@Test
+	public void testExplain() throws QueryParserException, IOException, QueryBuilderVisitorException {
+		final String explanation = new QueryPlanner( indexMap, index ).explain( simpleParser.parse( "a & (b & c)" ) );
+		assertTrue( explanation, explanation.contains( "Plan: " ) );
+		assertTrue( explanation, explanation.contains( ", actual 1\n" ) );
+	}
+}
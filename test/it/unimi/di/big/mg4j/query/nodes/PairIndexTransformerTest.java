@@ -0,0 +1,107 @@
+package it.unimi.di.big.mg4j.query.nodes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.DowncaseTermProcessor;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.parser.QueryParserException;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.di.big.mg4j.tool.Scan;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PairIndexTransformerTest {
+	private static String basename;
+	private static Index index;
+	private static Object2ReferenceOpenHashMap<String, Index> indexMap;
+	private final SimpleParser simpleParser = new SimpleParser( new ObjectOpenHashSet<String>( new String[] { "text", "title" } ), "text" );
+
+	@BeforeClass
+	public static void setUp() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		basename = File.createTempFile( PairIndexTransformerTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "To be or not to be", "The Who sang", "who is the doctor", "be not to or be to", "new york city", "york new", "to be" ) ).documentsPerBatch( 3 ).pairs( true ).run();
+		index = Index.getInstance( basename + "-text", true, true );
+		indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+		indexMap.put( "text", index );
+		indexMap.put( "text" + Scan.PAIR_INDEX_SUFFIX, Index.getInstance( basename + "-text" + Scan.PAIR_INDEX_SUFFIX, true, true ) );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	@Test
+	public void testTransform() throws QueryParserException {
+		final PairIndexTransformer transformer = new PairIndexTransformer( "text", true, DowncaseTermProcessor.getInstance() );
+		Query query = transformer.transform( simpleParser.parse( "\"To be or not to be\"" ) );
+		assertEquals( new Select( "text-pairs", new Consecutive( new Term( "to be" ), new Term( "or not" ), new Term( "to be" ) ) ), query );
+		assertArrayEquals( new int[] { 0, 1, 1 }, ( (Consecutive)( (Select)query ).query ).gap );
+
+		query = transformer.transform( simpleParser.parse( "\"a b c\"" ) );
+		assertEquals( new Select( "text-pairs", new Consecutive( new Term( "a b" ), new Term( "b c" ) ) ), query );
+		assertArrayEquals( new int[] { 0, 0 }, ( (Consecutive)( (Select)query ).query ).gap );
+
+		assertEquals( new Select( "text-pairs", new Term( "the who" ) ), transformer.transform( simpleParser.parse( "\"The Who\"" ) ) );
+		assertEquals( new And( new Select( "text-pairs", new Term( "the who" ) ), new Term( "sang" ) ), transformer.transform( simpleParser.parse( "\"The Who\" sang" ) ) );
+		// Phrases on other indices are left alone
+		query = simpleParser.parse( "title:\"The Who\"" );
+		assertEquals( query, transformer.transform( query ) );
+	}
+
+	@Test
+	public void testTransformRestricted() throws QueryParserException {
+		final PairIndexTransformer transformer = new PairIndexTransformer( "text", true, DowncaseTermProcessor.getInstance(), "text-pairs", Arrays.asList( "The", "of" ) );
+		assertEquals( new Select( "text-pairs", new Term( "the who" ) ), transformer.transform( simpleParser.parse( "\"The Who\"" ) ) );
+		// The only way to cover this phrase is using overlapping pairs
+		final Query query = transformer.transform( simpleParser.parse( "\"a the b\"" ) );
+		assertEquals( new Select( "text-pairs", new Consecutive( new Term( "a the" ), new Term( "the b" ) ) ), query );
+		assertArrayEquals( new int[] { 0, 0 }, ( (Consecutive)( (Select)query ).query ).gap );
+		// Not coverable
+		Query phrase = simpleParser.parse( "\"new york\"" );
+		assertEquals( phrase, transformer.transform( phrase ) );
+		phrase = simpleParser.parse( "\"the a b\"" );
+		assertEquals( phrase, transformer.transform( phrase ) );
+	}
+
+	private LongArrayList results( final Query query ) throws IOException, QueryBuilderVisitorException {
+		final DocumentIterator documentIterator = query.accept( new DocumentIteratorBuilderVisitor( indexMap, index, Integer.MAX_VALUE ) );
+		final LongArrayList result = new LongArrayList();
+		for( long d; ( d = documentIterator.nextDocument() ) != DocumentIterator.END_OF_LIST; ) result.add( d );
+		documentIterator.dispose();
+		return result;
+	}
+
+	@Test
+	public void testResults() throws QueryParserException, IOException, QueryBuilderVisitorException {
+		final PairIndexTransformer transformer = new PairIndexTransformer( "text", true, DowncaseTermProcessor.getInstance() );
+		for( String phrase: new String[] { "\"to be\"", "\"to be or not to be\"", "\"be or not\"", "\"not to or\"", "\"the who\"", "\"who is the\"", "\"new york\"", "\"york new\"", "\"to be or\" | \"or be\"", "\"be to be\"" } ) {
+			final Query query = simpleParser.parse( phrase );
+			final Query transformed = transformer.transform( query );
+			assertTrue( phrase, ! query.equals( transformed ) );
+			assertEquals( phrase, results( query ), results( transformed ) );
+		}
+		assertEquals( LongArrayList.wrap( new long[] { 0, 6 } ), results( transformer.transform( simpleParser.parse( "\"to be\"" ) ) ) );
+		assertEquals( LongArrayList.wrap( new long[] { 0 } ), results( transformer.transform( simpleParser.parse( "\"to be or not to be\"" ) ) ) );
+		assertEquals( LongArrayList.wrap( new long[] { 3 } ), results( transformer.transform( simpleParser.parse( "\"not to or\"" ) ) ) );
+	}
+}
@@ -37,6 +37,49 @@ public class AndDocumentIteratorTest {
 		assertEquals( END_OF_LIST, andDocumentIterator.nextDocument() );
 	}
 
+	/** An index iterator counting the calls to {@link #skipTo(long)}. */
+	private static final class SkipCountingIndexIterator extends IntArrayIndexIterator {
+		private int skips;
+
+		public SkipCountingIndexIterator( final long[] document ) {
+			super( document, new int[ document.length ][ 0 ] );
+		}
+
+		@Override
+		public long skipTo( final long n ) {
+			skips++;
+			return super.skipTo( n );
+		}
+	}
+
+	private static long[] range( final long from, final long to ) {
+		final long[] a = new long[ (int)( to - from ) ];
+		for( int i = a.length; i-- != 0; ) a[ i ] = from + i;
+		return a;
+	}
+
+	@Test
+	public void testBoundedMerge() throws IOException {
+		// Short gaps: the first iterator is aligned by merging only
+		SkipCountingIndexIterator i0 = new SkipCountingIndexIterator( range( 0, 10 ) );
+		SkipCountingIndexIterator i1 = new SkipCountingIndexIterator( range( 5, 15 ) );
+		DocumentIterator and = AndDocumentIterator.getInstance( i0, i1 );
+		for( long d = 5; d < 10; d++ ) assertEquals( d, and.nextDocument() );
+		assertEquals( END_OF_LIST, and.nextDocument() );
+		assertEquals( 0, i0.skips );
+
+		// A gap longer than MERGE_STEPS: merging falls back to skipping
+		final long[] d0 = new long[ 101 ];
+		System.arraycopy( range( 0, 100 ), 0, d0, 0, 100 );
+		d0[ 100 ] = 1000;
+		i0 = new SkipCountingIndexIterator( d0 );
+		i1 = new SkipCountingIndexIterator( range( 1000, 1101 ) );
+		and = AndDocumentIterator.getInstance( i0, i1 );
+		assertEquals( 1000, and.nextDocument() );
+		assertEquals( END_OF_LIST, and.nextDocument() );
+		assertEquals( 1, i0.skips );
+	}
+
 	@Test
 	public void testIteration_ND_NI() throws IOException {
 		final long[] documents = new long[] { 0, 1, 2, 4 };
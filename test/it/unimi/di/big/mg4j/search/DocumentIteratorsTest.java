@@ -0,0 +1,81 @@
+package it.unimi.di.big.mg4j.search;
+
+import static org.junit.Assert.assertEquals;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DocumentIteratorsTest {
+	private static Index index;
+	private static String basename;
+
+	@BeforeClass
+	public static void setUp() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		basename = File.createTempFile( DocumentIteratorsTest.class.getSimpleName(), "test" ).getCanonicalPath();
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "a b", "a c", "b", "a", "c d" ) ).run();
+		index = Index.getInstance( basename + "-text", true, true );
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+	
+	@Test
+	public void testCountTerm() throws IOException {
+		final IndexIterator a = index.documents( "a" );
+		assertEquals( 3, DocumentIterators.count( a ) );
+		// The shortcut must not have advanced the iterator
+		assertEquals( 0, a.nextDocument() );
+		a.dispose();
+		assertEquals( 0, DocumentIterators.count( index.documents( "z" ) ) );
+	}
+
+	@Test
+	public void testCountTrueFalse() throws IOException {
+		assertEquals( 5, DocumentIterators.count( TrueDocumentIterator.getInstance( index ) ) );
+		assertEquals( 0, DocumentIterators.count( FalseDocumentIterator.getInstance( index ) ) );
+	}
+
+	@Test
+	public void testCountComposite() throws IOException {
+		assertEquals( 1, DocumentIterators.count( AndDocumentIterator.getInstance( index.documents( "a" ), index.documents( "b" ) ) ) );
+		assertEquals( 0, DocumentIterators.count( AndDocumentIterator.getInstance( index.documents( "a" ), index.documents( "z" ) ) ) );
+		assertEquals( 4, DocumentIterators.count( OrDocumentIterator.getInstance( index.documents( "a" ), index.documents( "b" ) ) ) );
+		assertEquals( 2, DocumentIterators.count( NotDocumentIterator.getInstance( index.documents( "a" ), index.numberOfDocuments ) ) );
+	}
+
+	@Test
+	public void testCountUsedIterator() throws IOException {
+		final IndexIterator a = index.documents( "a" );
+		a.nextDocument();
+		assertEquals( 2, DocumentIterators.count( a ) );
+		a.dispose();
+	}
+
+	@Test
+	public void testEstimateCount() throws IOException {
+		assertEquals( 3, DocumentIterators.estimateCount( index.documents( "a" ) ) );
+		assertEquals( 0, DocumentIterators.estimateCount( index.documents( "z" ) ) );
+		assertEquals( 5, DocumentIterators.estimateCount( TrueDocumentIterator.getInstance( index ) ) );
+		// 5 * 3/5 * 2/5 = 1.2
+		assertEquals( 1, DocumentIterators.estimateCount( AndDocumentIterator.getInstance( index.documents( "a" ), index.documents( "b" ) ) ) );
+		// 5 * ( 1 - 2/5 * 3/5 ) = 3.8
+		assertEquals( 4, DocumentIterators.estimateCount( OrDocumentIterator.getInstance( index.documents( "a" ), index.documents( "b" ) ) ) );
+		// 5 * ( 1 - 3/5 )
+		assertEquals( 2, DocumentIterators.estimateCount( NotDocumentIterator.getInstance( index.documents( "a" ), index.numberOfDocuments ) ) );
+	}
+}
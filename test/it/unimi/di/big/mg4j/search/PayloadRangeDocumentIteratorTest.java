@@ -0,0 +1,176 @@
+package it.unimi.di.big.mg4j.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.DateArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.payload.Payload;
+import it.unimi.di.big.mg4j.index.payload.PayloadRangeIndex;
+import it.unimi.di.big.mg4j.io.IOFactories;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.query.nodes.Range;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PayloadRangeDocumentIteratorTest {
+	private final static int NUMBER_OF_DOCUMENTS = 2000;
+	private String basename;
+
+	@Before
+	public void setUp() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		basename = File.createTempFile( getClass().getSimpleName(), "test" ).getCanonicalPath();
+		final Random random = new Random( 0 );
+		final Date[] date = new Date[ NUMBER_OF_DOCUMENTS ];
+		// Mostly increasing dates, so that blocks have narrow ranges, with some noise
+		for( int d = 0; d < NUMBER_OF_DOCUMENTS; d++ ) date[ d ] = new Date( random.nextInt( 10 ) == 0 ? random.nextInt( 1000000 ) * 1000L : d * 500000L + random.nextInt( 1000 ) * 1000L );
+		new IndexBuilder( basename, new DateArrayDocumentCollection( date ) ).run();
+	}
+
+	@After
+	public void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	private static Payload date( final Index index, final long time ) {
+		final Payload payload = index.payload.copy();
+		payload.set( new Date( time ) );
+		return payload;
+	}
+	
+	@Test
+	public void testBlocks() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final Index index = Index.getInstance( basename + "-date", true, true );
+		final PayloadRangeIndex payloadRangeIndex = new PayloadRangeIndex( index, 100 );
+		assertEquals( NUMBER_OF_DOCUMENTS / 100, payloadRangeIndex.numberOfBlocks() );
+		for( int b = 0; b < payloadRangeIndex.numberOfBlocks(); b++ ) {
+			assertEquals( b * 100, payloadRangeIndex.firstDocument( b ) );
+			assertEquals( b, payloadRangeIndex.block( b * 100 ) );
+			assertEquals( b, payloadRangeIndex.block( b * 100 + 99 ) );
+			assertTrue( payloadRangeIndex.intersects( b, null, null ) );
+			assertTrue( payloadRangeIndex.contained( b, null, null ) );
+		}
+		assertEquals( DocumentIterator.END_OF_LIST, payloadRangeIndex.firstDocument( payloadRangeIndex.numberOfBlocks() ) );
+		assertEquals( payloadRangeIndex.numberOfBlocks(), payloadRangeIndex.nextCandidate( 0, date( index, Long.MAX_VALUE / 2 ), null ) );
+	}
+
+	@Test
+	public void testAgainstPredicate() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final Index index = Index.getInstance( basename + "-date", true, true );
+		final Random random = new Random( 1 );
+		for( int blockSize: new int[] { 1, 7, 64, 10000 } ) {
+			final PayloadRangeIndex payloadRangeIndex = new PayloadRangeIndex( index, blockSize );
+			for( int i = 0; i < 100; i++ ) {
+				final long l = random.nextInt( 1000000 ) * 1000L, r = l + random.nextInt( 100000 ) * 1000L;
+				final Payload left = random.nextInt( 8 ) == 0 ? null : date( index, l );
+				final Payload right = random.nextInt( 8 ) == 0 ? null : date( index, r );
+				
+				// Sequential scan
+				DocumentIterator expected = PayloadPredicateDocumentIterator.getInstance( index.documents( 0 ), index.payload.rangeFilter( left, right ) );
+				DocumentIterator actual = PayloadRangeDocumentIterator.getInstance( index.documents( 0 ), payloadRangeIndex, left, right );
+				for( long d; ( d = expected.nextDocument() ) != DocumentIterator.END_OF_LIST; ) assertEquals( d, actual.nextDocument() );
+				assertEquals( DocumentIterator.END_OF_LIST, actual.nextDocument() );
+				expected.dispose();
+				actual.dispose();
+
+				// Skips
+				expected = PayloadPredicateDocumentIterator.getInstance( index.documents( 0 ), index.payload.rangeFilter( left, right ) );
+				actual = PayloadRangeDocumentIterator.getInstance( index.documents( 0 ), payloadRangeIndex, left, right );
+				for( long t = random.nextInt( 100 ), d; ( d = expected.skipTo( t ) ) != DocumentIterator.END_OF_LIST; t = d + 1 + random.nextInt( 100 ) ) assertEquals( d, actual.skipTo( t ) );
+				assertEquals( DocumentIterator.END_OF_LIST, actual.skipTo( NUMBER_OF_DOCUMENTS ) );
+				expected.dispose();
+				actual.dispose();
+
+				// Unconditional skips: negative results must suggest a candidate not beyond the next document within range
+				final PayloadPredicateDocumentIterator expectedUnconditional = PayloadPredicateDocumentIterator.getInstance( index.documents( 0 ), index.payload.rangeFilter( left, right ) );
+				final PayloadPredicateDocumentIterator actualUnconditional = PayloadRangeDocumentIterator.getInstance( index.documents( 0 ), payloadRangeIndex, left, right );
+				expected = PayloadPredicateDocumentIterator.getInstance( index.documents( 0 ), index.payload.rangeFilter( left, right ) );
+				for( long t = random.nextInt( 10 ); t < NUMBER_OF_DOCUMENTS; t += 1 + random.nextInt( 10 ) ) {
+					final long e = expectedUnconditional.skipUnconditionallyTo( t ), a = actualUnconditional.skipUnconditionallyTo( t );
+					final long next = expected.skipTo( t );
+					if ( e >= 0 ) assertEquals( e, a );
+					else if ( a == DocumentIterator.END_OF_LIST ) assertEquals( DocumentIterator.END_OF_LIST, next );
+					else {
+						assertTrue( a < 0 );
+						assertTrue( -a - 1 > t );
+						assertTrue( -a - 1 <= next );
+					}
+				}
+				expectedUnconditional.dispose();
+				actualUnconditional.dispose();
+				expected.dispose();
+			}
+		}
+	}
+
+	@Test
+	public void testLoadAndBuild() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException, QueryBuilderVisitorException {
+		assertNull( Index.getInstance( basename + "-date", true, true ).payloadRangeIndex );
+		IOFactories.storeObject( IOFactory.FILESYSTEM_FACTORY, new PayloadRangeIndex( Index.getInstance( basename + "-date", true, true ), 32 ), basename + "-date" + DiskBasedIndex.PAYLOAD_RANGES_EXTENSION );
+		final Index index = Index.getInstance( basename + "-date", true, true );
+		assertNotNull( index.payloadRangeIndex );
+
+		final DocumentIteratorBuilderVisitor builderVisitor = new DocumentIteratorBuilderVisitor( null, index, Integer.MAX_VALUE );
+		final DocumentIterator documentIterator = new Range( "1/1/70", "1/2/70" ).accept( builderVisitor );
+		assertTrue( documentIterator instanceof PayloadRangeDocumentIterator );
+		documentIterator.dispose();
+	}
+
+	/** A payload-range document iterator counting calls to {@link #skipUnconditionallyTo(long)}. */
+	private static final class CountingPayloadRangeDocumentIterator extends PayloadRangeDocumentIterator {
+		private int calls;
+
+		public CountingPayloadRangeDocumentIterator( final IndexIterator indexIterator, final PayloadRangeIndex payloadRangeIndex, final Payload left, final Payload right ) {
+			super( indexIterator, payloadRangeIndex, left, right );
+		}
+
+		@Override
+		public long skipUnconditionallyTo( final long candidate ) throws IOException {
+			calls++;
+			return super.skipUnconditionallyTo( candidate );
+		}
+	}
+
+	@Test
+	public void testConjunction() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final String basename = File.createTempFile( getClass().getSimpleName(), "test" ).getCanonicalPath();
+		try {
+			// Increasing dates, so that blocks have disjoint ranges
+			final Date[] date = new Date[ NUMBER_OF_DOCUMENTS ];
+			for( int d = 0; d < NUMBER_OF_DOCUMENTS; d++ ) date[ d ] = new Date( d * 1000L );
+			new IndexBuilder( basename, new DateArrayDocumentCollection( date ) ).run();
+			final Index index = Index.getInstance( basename + "-date", true, true );
+			final PayloadRangeIndex payloadRangeIndex = new PayloadRangeIndex( index, 100 );
+			final Payload left = date( index, 1000 * 1000L ), right = date( index, 1009 * 1000L );
+			
+			// A conjunction with an iterator returning all documents
+			final CountingPayloadRangeDocumentIterator range = new CountingPayloadRangeDocumentIterator( index.documents( 0 ), payloadRangeIndex, left, right ); 
+			final DocumentIterator and = AndDocumentIterator.getInstance( index.documents( 0 ), range );
+			for( long d = 1000; d < 1010; d++ ) assertEquals( d, and.nextDocument() );
+			assertEquals( DocumentIterator.END_OF_LIST, and.nextDocument() );
+			and.dispose();
+			// Rejected blocks are skipped as a whole: we just check the documents of the only candidate block, plus a few calls
+			assertTrue( Integer.toString( range.calls ), range.calls <= payloadRangeIndex.blockSize + 4 );
+		}
+		finally {
+			for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) ) f.delete();
+		}
+	}
+}
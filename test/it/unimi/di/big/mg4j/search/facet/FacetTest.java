@@ -0,0 +1,192 @@
+package it.unimi.di.big.mg4j.search.facet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.DateArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.DocValues;
+import it.unimi.di.big.mg4j.index.DocValues.Coding;
+import it.unimi.di.big.mg4j.index.DocValuesWriter;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.NullTermProcessor;
+import it.unimi.di.big.mg4j.index.cluster.ContiguousDocumentalStrategy;
+import it.unimi.di.big.mg4j.index.cluster.DocumentalConcatenatedCluster;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.query.QueryEngine;
+import it.unimi.di.big.mg4j.query.SelectedInterval;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.query.nodes.Range;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.search.IntArrayIndexIterator;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.di.big.mg4j.tool.IndexBuilder;
+import it.unimi.dsi.fastutil.longs.Long2LongSortedMap;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FacetTest {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	private String basename;
+
+	@Before
+	public void setUp() throws IOException {
+		basename = File.createTempFile( getClass().getSimpleName(), "test" ).getCanonicalPath();
+	}
+
+	@After
+	public void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	private DocValues docValues( final Coding coding ) throws IOException, ConfigurationException {
+		final DocValuesWriter docValuesWriter = new DocValuesWriter( IOFactory.FILESYSTEM_FACTORY, basename, null, coding );
+		for( int d = 0; d < 100; d++ ) docValuesWriter.add( d, d % 10 );
+		docValuesWriter.add( 100, DocValues.MISSING );
+		docValuesWriter.close();
+		return DocValues.load( basename );
+	}
+
+	@Test
+	public void testTermAndHistogram() throws IOException, ConfigurationException {
+		for( Coding coding: Coding.values() ) {
+			final DocValues docValues = docValues( coding );
+			final Facet termFacet = new TermFacet( "term", docValues );
+			final Facet histogramFacet = new HistogramFacet( "histogram", docValues, 0, 4, 2 );
+			for( int d = 0; d <= 100; d++ ) {
+				termFacet.collect( d );
+				histogramFacet.collect( d );
+			}
+			
+			final Long2LongSortedMap termCounts = termFacet.counts();
+			assertEquals( 10, termCounts.size() );
+			for( long v = 0; v < 10; v++ ) assertEquals( 10, termCounts.get( v ) );
+			
+			final Long2LongSortedMap histogramCounts = histogramFacet.counts();
+			assertEquals( 2, histogramCounts.size() );
+			assertEquals( 40, histogramCounts.get( 0 ) );
+			assertEquals( 40, histogramCounts.get( 4 ) );
+			assertEquals( "[4..8)", histogramFacet.label( 4 ) );
+			
+			termFacet.clear();
+			assertEquals( 0, termFacet.counts().size() );
+		}
+	}
+
+	@Test
+	public void testClustered() throws IOException, ConfigurationException {
+		// Documents 0-59 and 60-100 of the same values used by testTermAndHistogram(), split among two local indices
+		final Index[] localIndex = { new IntArrayIndexIterator.TestIndex(), new IntArrayIndexIterator.TestIndex() };
+		final long[] cutPoint = { 0, 60, 101 };
+		for( int i = 0; i < localIndex.length; i++ ) {
+			final DocValuesWriter docValuesWriter = new DocValuesWriter( IOFactory.FILESYSTEM_FACTORY, basename + "-" + i, null, null );
+			for( long d = cutPoint[ i ]; d < cutPoint[ i + 1 ]; d++ ) docValuesWriter.add( d - cutPoint[ i ], d < 100 ? d % 10 : DocValues.MISSING );
+			docValuesWriter.close();
+			localIndex[ i ].docValues = DocValues.load( basename + "-" + i );
+		}
+		final Index cluster = new DocumentalConcatenatedCluster( localIndex, new ContiguousDocumentalStrategy( cutPoint ), false, null, 101, 0, 0, 0, 0, null, true, true, NullTermProcessor.getInstance(), "text", null, null );
+
+		final Facet termFacet = TermFacet.getInstance( "term", cluster );
+		final Facet histogramFacet = HistogramFacet.getInstance( "histogram", cluster, 0, 4, 2 );
+		assertTrue( termFacet instanceof ClusteredFacet );
+		assertTrue( histogramFacet instanceof ClusteredFacet );
+		assertEquals( "term", termFacet.name() );
+		for( int d = 0; d <= 100; d++ ) {
+			termFacet.collect( d );
+			histogramFacet.collect( d );
+		}
+
+		final Long2LongSortedMap termCounts = termFacet.counts();
+		assertEquals( 10, termCounts.size() );
+		for( long v = 0; v < 10; v++ ) assertEquals( 10, termCounts.get( v ) );
+
+		final Long2LongSortedMap histogramCounts = histogramFacet.counts();
+		assertEquals( 2, histogramCounts.size() );
+		assertEquals( 40, histogramCounts.get( 0 ) );
+		assertEquals( 40, histogramCounts.get( 4 ) );
+		assertEquals( "[4..8)", histogramFacet.label( 4 ) );
+
+		termFacet.clear();
+		assertEquals( 0, termFacet.counts().size() );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoDocValues() {
+		TermFacet.getInstance( "term", new IntArrayIndexIterator.TestIndex() );
+	}
+
+	@Test
+	public void testDateBuckets() throws IOException, ConfigurationException {
+		final DocValues docValues = docValues( null );
+		final DateFacet[] dateFacet = new DateFacet[ DateFacet.Unit.values().length ];
+		for( DateFacet.Unit unit: DateFacet.Unit.values() ) dateFacet[ unit.ordinal() ] = new DateFacet( "date", docValues, unit );
+		final Calendar calendar = Calendar.getInstance( TimeZone.getTimeZone( "UTC" ) );
+		// Avoid the Julian calendar
+		calendar.setGregorianChange( new Date( Long.MIN_VALUE ) );
+		final Random random = new Random( 0 );
+		
+		for( int i = 0; i < 10000; i++ ) {
+			final long time = ( random.nextLong() % ( 300 * 365 * DAY ) );
+			calendar.setTimeInMillis( time );
+			calendar.set( Calendar.HOUR_OF_DAY, 0 );
+			calendar.set( Calendar.MINUTE, 0 );
+			calendar.set( Calendar.SECOND, 0 );
+			calendar.set( Calendar.MILLISECOND, 0 );
+			assertEquals( Long.toString( time ), calendar.getTimeInMillis(), dateFacet[ DateFacet.Unit.DAY.ordinal() ].bucket( time ) );
+			calendar.set( Calendar.DAY_OF_MONTH, 1 );
+			assertEquals( Long.toString( time ), calendar.getTimeInMillis(), dateFacet[ DateFacet.Unit.MONTH.ordinal() ].bucket( time ) );
+			calendar.set( Calendar.MONTH, Calendar.JANUARY );
+			assertEquals( Long.toString( time ), calendar.getTimeInMillis(), dateFacet[ DateFacet.Unit.YEAR.ordinal() ].bucket( time ) );
+		}
+		
+		assertEquals( "1970-01", dateFacet[ DateFacet.Unit.MONTH.ordinal() ].label( 0 ) );
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testQueryEngine() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException, QueryBuilderVisitorException {
+		final Date[] date = new Date[ 365 ];
+		// Noon, so that the result does not depend on the time zone used to parse dates
+		for( int d = 0; d < date.length; d++ ) date[ d ] = new Date( d * DAY + DAY / 2 );
+		new IndexBuilder( basename, new DateArrayDocumentCollection( date ) ).docValues( true ).run();
+		final Index index = Index.getInstance( basename + "-date", true, true );
+
+		final Object2ReferenceOpenHashMap<String,Index> indexMap = new Object2ReferenceOpenHashMap<String,Index>( new String[] { "date" }, new Index[] { index } );
+		final QueryEngine engine = new QueryEngine( new SimpleParser( indexMap.keySet(), "date" ), new DocumentIteratorBuilderVisitor( indexMap, index, 1000 ), indexMap );
+		final Facet monthFacet = DateFacet.getInstance( "month", index, DateFacet.Unit.MONTH );
+		final Facet histogramFacet = HistogramFacet.getInstance( "week", index, 0, 7 * DAY, 100 );
+		
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		// From 15 January to 14 March 1970 
+		final int count = engine.process( new Query[] { new Range( "15/01/70", "14/03/70" ) }, 0, 5, results, new Facet[] { monthFacet, histogramFacet } );
+		assertEquals( 59, count );
+		assertEquals( 5, results.size() );
+		
+		final Long2LongSortedMap monthCounts = monthFacet.counts();
+		assertEquals( 3, monthCounts.size() );
+		assertEquals( 17, monthCounts.get( 0 ) );
+		assertEquals( 28, monthCounts.get( 31 * DAY ) );
+		assertEquals( 14, monthCounts.get( 59 * DAY ) );
+		
+		long total = 0;
+		for( long c: histogramFacet.counts().values() ) total += c;
+		assertEquals( count, total );
+	}
+}
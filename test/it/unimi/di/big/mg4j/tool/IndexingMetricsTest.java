@@ -0,0 +1,77 @@
+package it.unimi.di.big.mg4j.tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.dsi.fastutil.io.BinIO;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.After;
+import org.junit.Test;
+
+public class IndexingMetricsTest {
+	private String basename;
+
+	@After
+	public void tearDown() {
+		if ( basename != null ) for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) ) f.delete();
+	}
+
+	@Test
+	public void testEstimates() throws IOException {
+		final IndexingMetrics metrics = new IndexingMetrics();
+		metrics.start();
+		metrics.parsed( 1000000 );
+		metrics.processed( 8000000, 10, 50, 8 );
+		metrics.sampled( 2000000, 1000000, 1000000 );
+		metrics.dumped( 3000000, 1, 8 );
+		metrics.stop();
+
+		assertEquals( 1, metrics.getDocuments() );
+		assertEquals( 10, metrics.getTokens() );
+		assertEquals( 50, metrics.getCharacters() );
+		assertEquals( 8, metrics.getOccurrences() );
+		assertEquals( 1, metrics.getParsingTime(), 1E-9 );
+		assertEquals( 4, metrics.getTokenisationTime(), 1E-9 );
+		assertEquals( 2, metrics.getTermProcessingTime(), 1E-9 );
+		assertEquals( 2, metrics.getInversionTime(), 1E-9 );
+		assertEquals( 1, metrics.getBatches() );
+		assertEquals( 3, metrics.getBatchDumpTime(), 1E-9 );
+
+		final StringBuilder json = new StringBuilder();
+		metrics.writeJson( json );
+		assertTrue( json.toString(), json.indexOf( "\"tokenisation\":{\"seconds\":0.004" ) != -1 );
+		assertTrue( json.toString(), json.indexOf( "\"batches\":{\"count\":1" ) != -1 );
+		assertTrue( json.toString(), json.indexOf( "\"merge\"" ) == -1 );
+	}
+
+	@Test
+	public void testReports() throws IOException, ConfigurationException, SecurityException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		basename = File.createTempFile( getClass().getSimpleName(), "reports" ).getCanonicalPath();
+		// Metrics are off by default
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "a b c", "b c d" ) ).run();
+		assertFalse( new File( basename + IndexingMetrics.REPORT_EXTENSION ).exists() );
+		assertFalse( new File( basename + "-text" + IndexingMetrics.REPORT_EXTENSION ).exists() );
+
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "a b c", "b c d" ) ).metrics( true ).run();
+
+		final String scan = new String( BinIO.loadBytes( basename + IndexingMetrics.REPORT_EXTENSION ), "UTF-8" );
+		assertTrue( scan, scan.indexOf( "\"documents\":2," ) != -1 );
+		assertTrue( scan, scan.indexOf( "\"tokens\":6," ) != -1 );
+		assertTrue( scan, scan.indexOf( "\"characters\":10," ) != -1 );
+		assertTrue( scan, scan.indexOf( "\"occurrences\":6," ) != -1 );
+		assertTrue( scan, scan.indexOf( "\"inversion\":{" ) != -1 );
+
+		final String combine = new String( BinIO.loadBytes( basename + "-text" + IndexingMetrics.REPORT_EXTENSION ), "UTF-8" );
+		assertTrue( combine, combine.indexOf( "\"merge\":{\"terms\":4,\"postings\":6,\"occurrences\":6" ) != -1 );
+		assertTrue( combine, combine.indexOf( "\"pointers\":{" ) != -1 );
+	}
+}
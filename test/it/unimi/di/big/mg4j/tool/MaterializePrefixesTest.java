@@ -0,0 +1,170 @@
+package it.unimi.di.big.mg4j.tool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.StringArrayDocumentCollection;
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.IndexIterators;
+import it.unimi.di.big.mg4j.index.MultiTermIndexIterator;
+import it.unimi.di.big.mg4j.index.TooManyTermsException;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.di.big.mg4j.query.QueryEngine;
+import it.unimi.di.big.mg4j.query.SelectedInterval;
+import it.unimi.di.big.mg4j.query.parser.SimpleParser;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.search.score.BM25Scorer;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.filefilter.PrefixFileFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MaterializePrefixesTest {
+	private String basename;
+
+	@Before
+	public void setUp() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		basename = File.createTempFile( getClass().getSimpleName(), "test" ).getCanonicalPath();
+		new IndexBuilder( basename, new StringArrayDocumentCollection( "abc abd x", "abe y", "abc abc", "z", "y abd" ) ).run();
+	}
+
+	@After
+	public void tearDown() {
+		for( File f: new File( basename ).getParentFile().listFiles( (FileFilter)new PrefixFileFilter( new File( basename ).getName() ) ) )	f.delete();
+	}
+
+	@Test
+	public void testSelect() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final Index index = Index.getInstance( basename + "-text", true, false, true );
+		assertEquals( new ObjectArrayList<String>( new String[] { "a", "ab" } ), MaterializePrefixes.select( IOFactory.FILESYSTEM_FACTORY, basename + "-text", index, 2, 2, 10, null ) );
+		assertEquals( new ObjectArrayList<String>( new String[] { "a" } ), MaterializePrefixes.select( IOFactory.FILESYSTEM_FACTORY, basename + "-text", index, 2, 2, 1, null ) );
+		// The query log makes "ab" more popular than "a" (and "x" has fan-out one)
+		assertEquals( new ObjectArrayList<String>( new String[] { "ab" } ), MaterializePrefixes.select( IOFactory.FILESYSTEM_FACTORY, basename + "-text", index, 2, 2, 1, Arrays.asList( "AB*", "x*" ) ) );
+		assertEquals( new ObjectArrayList<String>( new String[] { "ab" } ), MaterializePrefixes.select( IOFactory.FILESYSTEM_FACTORY, basename + "-text", index, 0, 1, 10, Arrays.asList( "ab", "abc" ) ) );
+		assertEquals( new ObjectArrayList<String>(), MaterializePrefixes.select( IOFactory.FILESYSTEM_FACTORY, basename + "-text", index, 0, 4, 10, Arrays.asList( "ab", "abc" ) ) );
+	}
+
+	@Test
+	public void testMaterialize() throws ConfigurationException, SecurityException, IOException, URISyntaxException, ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException, TooManyTermsException {
+		assertNull( Index.getInstance( basename + "-text", true, false, true ).prefixIndex );
+		assertEquals( 2, MaterializePrefixes.run( IOFactory.FILESYSTEM_FACTORY, basename + "-text", 2, 2, 10, null ) );
+		assertTrue( new File( basename + "-text" + DiskBasedIndex.PREFIX_INDEX_SUFFIX + DiskBasedIndex.TERMMAP_EXTENSION ).exists() );
+
+		final Index index = Index.getInstance( basename + "-text", true, true, true );
+		assertNotNull( index.prefixIndex );
+		assertEquals( 2, index.prefixIndex.numberOfTerms );
+		
+		for( String prefix: new String[] { "a", "ab" } ) {
+			// The limit is ignored for materialised prefixes
+			final IndexIterator materialised = index.documents( prefix, 1 );
+			assertTrue( ! ( materialised instanceof MultiTermIndexIterator ) );
+			assertEquals( prefix + "*", materialised.term() );
+			assertEquals( 4, materialised.frequency() );
+			final IndexIterator merged = MultiTermIndexIterator.getInstance( index, index.documents( index.prefixMap.rangeMap().get( prefix ).left ), index.documents( index.prefixMap.rangeMap().get( prefix ).left + 1 ), index.documents( index.prefixMap.rangeMap().get( prefix ).left + 2 ) );
+			for( long d; ( d = merged.nextDocument() ) != DocumentIterator.END_OF_LIST; ) {
+				assertEquals( d, materialised.nextDocument() );
+				assertEquals( merged.count(), materialised.count() );
+				assertArrayEquals( IndexIterators.positionArray( merged ), IndexIterators.positionArray( materialised ) );
+				// Intervals are returned using the original index as a key
+				assertNotNull( materialised.intervalIterator( index ) );
+			}
+			assertEquals( DocumentIterator.END_OF_LIST, materialised.nextDocument() );
+			merged.dispose();
+			materialised.dispose();
+		}
+
+		// Non-materialised prefixes are resolved as usual
+		assertTrue( index.documents( "abc", 10 ).frequency() == 2 );
+		try {
+			index.documents( "y", 0 );
+			assertTrue( false );
+		}
+		catch( TooManyTermsException e ) {}
+	}
+
+	@Test
+	public void testMaterializeInTwoPhases() throws Exception {
+		final Index index = Index.getInstance( basename + "-text", true, false, true );
+		// Merging two lists at a time, "a" and "ab" (three terms each) are materialised through a temporary index
+		MaterializePrefixes.materialize( IOFactory.FILESYSTEM_FACTORY, basename + "-text", index, new ObjectArrayList<String>( new String[] { "a", "ab" } ), 2 );
+		assertTrue( ! new File( basename + "-text" + DiskBasedIndex.PREFIX_INDEX_SUFFIX + "-partial" + DiskBasedIndex.PROPERTIES_EXTENSION ).exists() );
+		try {
+			MaterializePrefixes.materialize( IOFactory.FILESYSTEM_FACTORY, basename + "-text", index, new ObjectArrayList<String>( new String[] { "a" } ), 1 );
+			assertTrue( false );
+		}
+		catch( IllegalArgumentException e ) {}
+
+		final Index prefixIndex = Index.getInstance( basename + "-text", true, true, true );
+		for( String prefix: new String[] { "a", "ab" } ) {
+			final IndexIterator materialised = prefixIndex.documents( prefix, 1 );
+			assertTrue( ! ( materialised instanceof MultiTermIndexIterator ) );
+			final IndexIterator merged = MultiTermIndexIterator.getInstance( index, index.documents( index.prefixMap.rangeMap().get( prefix ).left ), index.documents( index.prefixMap.rangeMap().get( prefix ).left + 1 ), index.documents( index.prefixMap.rangeMap().get( prefix ).left + 2 ) );
+			for( long d; ( d = merged.nextDocument() ) != DocumentIterator.END_OF_LIST; ) {
+				assertEquals( d, materialised.nextDocument() );
+				assertEquals( merged.count(), materialised.count() );
+				assertArrayEquals( IndexIterators.positionArray( merged ), IndexIterators.positionArray( materialised ) );
+			}
+			assertEquals( DocumentIterator.END_OF_LIST, materialised.nextDocument() );
+			merged.dispose();
+			materialised.dispose();
+		}
+	}
+
+	private static QueryEngine queryEngine( final Index index ) {
+		final Object2ReferenceOpenHashMap<String, Index> indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+		indexMap.put( "text", index );
+		final QueryEngine queryEngine = new QueryEngine( new SimpleParser( new ObjectOpenHashSet<String>( new String[] { "text" } ), "text" ), new DocumentIteratorBuilderVisitor( indexMap, index, 10 ), indexMap );
+		queryEngine.score( new BM25Scorer() );
+		return queryEngine;
+	}
+	
+	private static LongOpenHashSet documents( final QueryEngine queryEngine, final String query ) throws Exception {
+		final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>>>();
+		queryEngine.process( query, 0, 10, results );
+		final LongOpenHashSet documents = new LongOpenHashSet();
+		for( DocumentScoreInfo<Reference2ObjectMap<Index,SelectedInterval[]>> dsi: results ) {
+			assertTrue( dsi.score > 0 );
+			documents.add( dsi.document );
+		}
+		return documents;
+	}
+
+	@Test
+	public void testScoring() throws Exception {
+		MaterializePrefixes.run( IOFactory.FILESYSTEM_FACTORY, basename + "-text", 2, 2, 10, null );
+		final Index index = Index.getInstance( basename + "-text", true, true, true );
+		final Index plainIndex = Index.getInstance( basename + "-text", true, true, true );
+		plainIndex.prefixIndex( null );
+		assertNotNull( index.prefixIndex );
+
+		// Materialised prefix iterators must act as if they belonged to the original index
+		final IndexIterator materialised = index.documents( "ab", 10 );
+		assertTrue( materialised.index() == index );
+		assertTrue( materialised.indices().contains( index ) );
+		materialised.dispose();
+
+		final QueryEngine withPrefixes = queryEngine( index ), withoutPrefixes = queryEngine( plainIndex );
+		for( String query: new String[] { "ab*", "a*", "ab* | y", "ab* x", "a* | z" } ) 
+			assertEquals( query, documents( withoutPrefixes, query ), documents( withPrefixes, query ) );
+	}
+}
@@ -0,0 +1,59 @@
+package it.unimi.di.big.mg4j.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void testEmpty() {
+		final Histogram histogram = new Histogram();
+		assertEquals( 0, histogram.count() );
+		assertTrue( Double.isNaN( histogram.mean() ) );
+		assertTrue( Double.isNaN( histogram.percentile( .5 ) ) );
+	}
+
+	@Test
+	public void testPercentiles() {
+		final Histogram histogram = new Histogram();
+		for( int i = 0; i < 100; i++ ) histogram.add( i );
+		assertEquals( 100, histogram.count() );
+		assertEquals( 4950, histogram.sum() );
+		assertEquals( 49.5, histogram.mean(), 0 );
+		for( double p = .01; p <= 1; p += .01 ) {
+			final double actual = Math.ceil( p * 100 ) - 1;
+			final double estimate = histogram.percentile( p );
+			assertTrue( p + ": " + estimate + " < " + actual, estimate > actual );
+			assertTrue( p + ": " + estimate + " > 2 * " + actual, estimate <= Math.max( 1, 2 * actual ) );
+		}
+		histogram.add( Long.MAX_VALUE );
+		histogram.add( -1 );
+		assertEquals( 102, histogram.count() );
+		histogram.clear();
+		assertEquals( 0, histogram.count() );
+	}
+
+	@Test
+	public void testPrometheus() throws IOException {
+		final Histogram histogram = new Histogram();
+		histogram.add( 0 );
+		histogram.add( 3 );
+		histogram.add( 3 );
+		final StringBuilder s = new StringBuilder();
+		histogram.writePrometheus( s, "x", "Some values.", 1 );
+		// Bucket k contains values up to 2^k-1, and all buckets are always written
+		assertTrue( s.toString(), s.toString().startsWith( "# HELP x Some values.\n# TYPE x histogram\n" +
+				"x_bucket{le=\"0.0\"} 1\nx_bucket{le=\"1.0\"} 1\nx_bucket{le=\"3.0\"} 3\nx_bucket{le=\"7.0\"} 3\n" ) );
+		assertTrue( s.toString(), s.toString().endsWith( "x_bucket{le=\"+Inf\"} 3\nx_sum 6.0\nx_count 3\n" ) );
+		assertEquals( Histogram.BUCKETS + 1, s.toString().split( "_bucket" ).length - 1 );
+		
+		// The set of series does not depend on the values
+		final StringBuilder t = new StringBuilder();
+		new Histogram().writePrometheus( t, "x", "Some values.", 1 );
+		assertEquals( Histogram.BUCKETS + 1, t.toString().split( "_bucket" ).length - 1 );
+	}
+}